@@ -0,0 +1,185 @@
+/*
+ * KIT Schnupperstudium Robots AIs
+ * Copyright (C) 2019  Simon Grossmann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.schnupperstudium.robots.client.ai.hidden;
+
+import java.util.HashMap;
+
+import com.github.schnupperstudium.robots.entity.Inventory;
+import com.github.schnupperstudium.robots.entity.Item;
+import com.github.schnupperstudium.robots.entity.item.BlueKey;
+import com.github.schnupperstudium.robots.entity.item.GreenKey;
+import com.github.schnupperstudium.robots.entity.item.LaserCharge;
+import com.github.schnupperstudium.robots.entity.item.RedKey;
+import com.github.schnupperstudium.robots.entity.item.YellowKey;
+
+/**
+ * An immutable snapshot of what the robot is able to do with its inventory, which is
+ * the number of laser charges it holds and the colors of the keys it holds.
+ * <br><br>
+ * The snapshot is taken once per turn, so that the path finding can decide whether a
+ * boulder can be shot or a gate can be opened by comparing integers. The snapshots of
+ * inventories with few laser charges are shared, so taking a snapshot usually does not
+ * allocate anything.
+ */
+final class Capabilities {
+
+	/**
+	 * The capabilities of a robot with an empty inventory.
+	 */
+	static final Capabilities NONE = new Capabilities(0, 0);
+
+	/**
+	 * The number of laser charges up to which the snapshots are shared.
+	 */
+	private static final int SHARED_CHARGES = 16;
+
+	/**
+	 * The number of key masks.
+	 */
+	private static final int KEY_MASKS = 16;
+
+	/**
+	 * The shared snapshots, indexed by <code>charges * KEY_MASKS + keys</code>.
+	 */
+	private static final Capabilities[] SHARED = new Capabilities[SHARED_CHARGES * KEY_MASKS];
+
+	/**
+	 * Holds the bit of every key in the key mask.
+	 */
+	private static final java.util.Map<String, Integer> KEY_BITS = new HashMap<>();
+
+	/**
+	 * The number of laser charges.
+	 */
+	private final int charges;
+
+	/**
+	 * The keys, one bit per key color.
+	 */
+	private final int keys;
+
+	/**
+	 * Initializes the key bits and the shared snapshots.
+	 */
+	static {
+		KEY_BITS.put(BlueKey.ITEM_NAME, 1 << 0);
+		KEY_BITS.put(GreenKey.ITEM_NAME, 1 << 1);
+		KEY_BITS.put(RedKey.ITEM_NAME, 1 << 2);
+		KEY_BITS.put(YellowKey.ITEM_NAME, 1 << 3);
+
+		SHARED[0] = NONE;
+		for (int i = 1; i < SHARED.length; i++) {
+			SHARED[i] = new Capabilities(i / KEY_MASKS, i % KEY_MASKS);
+		}
+	}
+
+	/**
+	 * Creates new {@link Capabilities}.
+	 *
+	 * @param charges The number of laser charges.
+	 * @param keys The keys, one bit per key color.
+	 */
+	Capabilities(final int charges, final int keys) {
+		this.charges = charges;
+		this.keys = keys;
+	}
+
+	/**
+	 * Takes a snapshot of the given {@link Inventory}.
+	 *
+	 * @param inventory The inventory of the robot.
+	 * @return The capabilities of the robot.
+	 */
+	static Capabilities of(final Inventory inventory) {
+		int charges = 0;
+		int keys = 0;
+		for (final Item item : inventory.getItems()) {
+			if (item.getName().equals(LaserCharge.ITEM_NAME)) {
+				charges++;
+			} else {
+				keys |= getKeyBit(item.getName());
+			}
+		}
+
+		return of(charges, keys);
+	}
+
+	/**
+	 * Returns the capabilities of a robot with the given laser charges and keys.
+	 *
+	 * @param charges The number of laser charges.
+	 * @param keys The keys, one bit per key color.
+	 * @return The capabilities of the robot.
+	 */
+	static Capabilities of(final int charges, final int keys) {
+		if (charges < SHARED_CHARGES && keys >= 0 && keys < KEY_MASKS)
+			return SHARED[charges * KEY_MASKS + keys];
+
+		return new Capabilities(charges, keys);
+	}
+
+	/**
+	 * Returns the bit of a key in the key mask.
+	 *
+	 * @param keyName The item name of the key.
+	 * @return The bit of the key or <code>0</code> if the item is no key.
+	 */
+	static int getKeyBit(final String keyName) {
+		final Integer bit = KEY_BITS.get(keyName);
+		return bit != null ? bit : 0;
+	}
+
+	int getCharges() {
+		return this.charges;
+	}
+
+	int getKeys() {
+		return this.keys;
+	}
+
+	/**
+	 * Checks whether the robot holds all of the given keys.
+	 *
+	 * @param keys The keys, one bit per key color.
+	 * @return <code>True</code> if the robot holds the keys, <code>false</code> otherwise.
+	 */
+	boolean hasKeys(final int keys) {
+		return (this.keys & keys) == keys;
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * this.charges + this.keys;
+	}
+
+	@Override
+	public boolean equals(final Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof Capabilities))
+			return false;
+
+		final Capabilities other = (Capabilities) obj;
+		return this.charges == other.charges && this.keys == other.keys;
+	}
+
+	@Override
+	public String toString() {
+		return "Capabilities [charges=" + this.charges + ", keys=" + Integer.toBinaryString(this.keys) + "]";
+	}
+}
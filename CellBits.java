@@ -0,0 +1,126 @@
+/*
+ * KIT Schnupperstudium Robots AIs
+ * Copyright (C) 2019  Simon Grossmann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.schnupperstudium.robots.client.ai.hidden;
+
+import java.util.Arrays;
+
+/**
+ * A set of primitive tile indices of a {@link TileGrid}, stored as one bit per cell in
+ * packed words.
+ * <br><br>
+ * Unlike a {@link CellSet}, the memory of the set grows with the size of the grid, but adding,
+ * removing and checking a tile are single word operations and the tiles are enumerated in the
+ * order of their indices by scanning the words for set bits with {@link #next(int)}.
+ */
+final class CellBits {
+
+	/**
+	 * The words holding the bits, one bit per cell.
+	 */
+	private long[] words;
+
+	/**
+	 * The number of tiles in the set.
+	 */
+	private int size;
+
+	/**
+	 * Creates a new, empty {@link CellBits}.
+	 */
+	CellBits() {
+		this.words = new long[0];
+	}
+
+	int size() {
+		return this.size;
+	}
+
+	boolean isEmpty() {
+		return this.size == 0;
+	}
+
+	boolean contains(final int index) {
+		final int word = index >>> 6;
+		return word < this.words.length && (this.words[word] & 1L << index) != 0;
+	}
+
+	/**
+	 * Adds a tile to the set.
+	 *
+	 * @param index The index of the tile.
+	 * @return <code>True</code> if the tile was added, <code>false</code> if it was part of the set already.
+	 */
+	boolean add(final int index) {
+		final int word = index >>> 6;
+		if (word >= this.words.length)
+			this.words = Arrays.copyOf(this.words, Math.max(word + 1, this.words.length * 2));
+
+		final long bit = 1L << index;
+		if ((this.words[word] & bit) != 0)
+			return false;
+
+		this.words[word] |= bit;
+		this.size++;
+		return true;
+	}
+
+	/**
+	 * Removes a tile from the set.
+	 *
+	 * @param index The index of the tile.
+	 * @return <code>True</code> if the tile was removed, <code>false</code> if it was not part of the set.
+	 */
+	boolean remove(final int index) {
+		final int word = index >>> 6;
+		final long bit = 1L << index;
+		if (word >= this.words.length || (this.words[word] & bit) == 0)
+			return false;
+
+		this.words[word] &= ~bit;
+		this.size--;
+		return true;
+	}
+
+	/**
+	 * Returns the first tile of the set whose index is not below the given index.
+	 *
+	 * @param from The index to start at.
+	 * @return The index of the tile or {@link TileGrid#NO_INDEX} if there is none.
+	 */
+	int next(final int from) {
+		int word = from >>> 6;
+		if (word >= this.words.length)
+			return TileGrid.NO_INDEX;
+
+		long bits = this.words[word] & -1L << from;
+		while (bits == 0) {
+			if (++word == this.words.length)
+				return TileGrid.NO_INDEX;
+
+			bits = this.words[word];
+		}
+
+		return word << 6 | Long.numberOfTrailingZeros(bits);
+	}
+
+	void clear() {
+		Arrays.fill(this.words, 0L);
+		this.size = 0;
+	}
+}
@@ -0,0 +1,168 @@
+/*
+ * KIT Schnupperstudium Robots AIs
+ * Copyright (C) 2019  Simon Grossmann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.schnupperstudium.robots.client.ai.hidden;
+
+import java.util.Arrays;
+
+/**
+ * A set of primitive tile indices of a {@link TileGrid}.
+ * <br><br>
+ * The set uses open addressing with linear probing, so its memory only grows with the
+ * number of tiles it contains and not with the size of the grid. The slots can be iterated
+ * directly using {@link #capacity()} and {@link #get(int)}.
+ */
+final class CellSet {
+
+	/**
+	 * The marker of an empty slot.
+	 */
+	private static final int EMPTY = TileGrid.NO_INDEX;
+
+	/**
+	 * The slots of the set.
+	 */
+	private int[] slots;
+
+	/**
+	 * The number of tiles in the set.
+	 */
+	private int size;
+
+	/**
+	 * Creates a new, empty {@link CellSet}.
+	 */
+	CellSet() {
+		this.slots = new int[16];
+		Arrays.fill(this.slots, EMPTY);
+	}
+
+	int size() {
+		return this.size;
+	}
+
+	boolean isEmpty() {
+		return this.size == 0;
+	}
+
+	/**
+	 * Returns the number of slots, which is an exclusive upper bound for {@link #get(int)}.
+	 *
+	 * @return The number of slots.
+	 */
+	int capacity() {
+		return this.slots.length;
+	}
+
+	/**
+	 * Returns the tile in a slot.
+	 *
+	 * @param slot The slot.
+	 * @return The index of the tile or {@link TileGrid#NO_INDEX} if the slot is empty.
+	 */
+	int get(final int slot) {
+		return this.slots[slot];
+	}
+
+	boolean contains(final int index) {
+		final int mask = this.slots.length - 1;
+		for (int slot = hash(index) & mask; this.slots[slot] != EMPTY; slot = slot + 1 & mask) {
+			if (this.slots[slot] == index)
+				return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Adds a tile to the set.
+	 *
+	 * @param index The index of the tile.
+	 * @return <code>True</code> if the tile was added, <code>false</code> if it was part of the set already.
+	 */
+	boolean add(final int index) {
+		final int mask = this.slots.length - 1;
+		int slot = hash(index) & mask;
+		for (; this.slots[slot] != EMPTY; slot = slot + 1 & mask) {
+			if (this.slots[slot] == index)
+				return false;
+		}
+
+		this.slots[slot] = index;
+		if (++this.size > this.slots.length >> 1)
+			this.rehash(this.slots.length << 1);
+
+		return true;
+	}
+
+	/**
+	 * Removes a tile from the set.
+	 *
+	 * @param index The index of the tile.
+	 * @return <code>True</code> if the tile was removed, <code>false</code> if it was not part of the set.
+	 */
+	boolean remove(final int index) {
+		final int mask = this.slots.length - 1;
+		int slot = hash(index) & mask;
+		for (; this.slots[slot] != index; slot = slot + 1 & mask) {
+			if (this.slots[slot] == EMPTY)
+				return false;
+		}
+
+		// move following tiles of the same probe sequence into the gap
+		int gap = slot;
+		for (slot = gap + 1 & mask; this.slots[slot] != EMPTY; slot = slot + 1 & mask) {
+			final int home = hash(this.slots[slot]) & mask;
+			if ((slot - home & mask) >= (slot - gap & mask)) {
+				this.slots[gap] = this.slots[slot];
+				gap = slot;
+			}
+		}
+
+		this.slots[gap] = EMPTY;
+		this.size--;
+		return true;
+	}
+
+	void clear() {
+		Arrays.fill(this.slots, EMPTY);
+		this.size = 0;
+	}
+
+	private void rehash(final int capacity) {
+		final int[] slots = this.slots;
+		this.slots = new int[capacity];
+		Arrays.fill(this.slots, EMPTY);
+
+		final int mask = capacity - 1;
+		for (final int index : slots) {
+			if (index == EMPTY)
+				continue;
+
+			int slot = hash(index) & mask;
+			while (this.slots[slot] != EMPTY) {
+				slot = slot + 1 & mask;
+			}
+			this.slots[slot] = index;
+		}
+	}
+
+	private static int hash(final int index) {
+		final int hash = index * 0x9E3779B9;
+		return hash ^ hash >>> 16;
+	}
+}
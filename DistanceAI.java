@@ -18,11 +18,23 @@
 
 package com.github.schnupperstudium.robots.client.ai.hidden;
 
+import java.io.IOException;
+import java.lang.ref.Cleaner;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
 import com.github.schnupperstudium.robots.ai.action.EntityAction;
 import com.github.schnupperstudium.robots.client.AbstractAI;
 import com.github.schnupperstudium.robots.client.RobotsClient;
 import com.github.schnupperstudium.robots.entity.Facing;
-import com.github.schnupperstudium.robots.entity.item.LaserCharge;
 import com.github.schnupperstudium.robots.world.Tile;
 
 /**
@@ -36,15 +48,126 @@ import com.github.schnupperstudium.robots.world.Tile;
  * <li>Use teleporters to reach other areas of the map</li>
  * </ul>
  * To see which task the AI can do next, it uses a {@link DistanceScalingMap} in the
- * background.
+ * background, which is followed by a {@link DistancePilot}.
+ * <br><br>
+ * If the system property <code>robots.map.store</code> names a directory, every level has its
+ * own {@link MapStore stored map} <code>&lt;layoutId&gt;.rmap</code> in that directory. The
+ * {@link #getLayoutId(int, int, List) layout id} is taken from the start tile of the robot and
+ * its first vision, which are the same whenever the level is played again. The AI warm starts
+ * with the stored map of its level if it matches the level and stores its own map in that file
+ * every <code>robots.map.store.interval</code> turns, default 100. The map is written in the
+ * background, so the turns never wait for the file system.
+ * <br><br>
+ * If the system property <code>robots.planner.deadline</code> sets a time budget per turn in
+ * microseconds, the turns are planned in the background as described by the {@link DistancePilot}.
+ * <br><br>
+ * If the system property <code>robots.team.shared</code> is set to <code>true</code>, all AIs of a
+ * game share what they see and the goals they head for through a {@link TeamMap}.
+ * <br><br>
+ * If the system property <code>robots.record</code> names a directory, every turn of the AI is
+ * {@link TurnRecorder recorded} to the file <code>&lt;gameId&gt;-&lt;entityUUID&gt;.rlog</code> in that
+ * directory, which can be played back offline by a {@link TurnReplay}.
  * 
  * @author Simon Grossmann
  * @since 27 Aug 2019
  */
 public final class DistanceAI extends AbstractAI {
 
+	/**
+	 * The directory of the stored maps or <code>null</code> if maps are not stored.
+	 */
+	private static final Path STORE_DIRECTORY = System.getProperty("robots.map.store") != null
+			? Paths.get(System.getProperty("robots.map.store")) : null;
+	
+	/**
+	 * The number of turns between two exports of the map to the {@link #storeFile store file}.
+	 */
+	private static final int STORE_INTERVAL = Integer.getInteger("robots.map.store.interval", 100);
+	
+	/**
+	 * The thread writing the maps to the {@link #storeFile store files}, so the turns never wait
+	 * for the file system and the maps of all AIs are written one after another.
+	 */
+	private static final ExecutorService STORE_WRITER = STORE_DIRECTORY != null
+			? Executors.newSingleThreadExecutor(runnable -> {
+				final Thread thread = new Thread(runnable, "robots-map-store");
+				thread.setDaemon(true);
+				return thread;
+			}) : null;
+	
+	/**
+	 * The {@link #storeVersion version} of the snapshot to export if no export is pending.
+	 */
+	private static final long NO_EXPORT = Long.MIN_VALUE;
+	
+	/**
+	 * Whether the AIs of a game share their maps through a {@link TeamMap}, default <code>false</code>.
+	 */
+	private static final boolean SHARED_MAP = Boolean.getBoolean("robots.team.shared");
+	
+	/**
+	 * The directory of the recorded turns or <code>null</code> if turns are not recorded.
+	 */
+	private static final Path RECORD_DIRECTORY = System.getProperty("robots.record") != null
+			? Paths.get(System.getProperty("robots.record")) : null;
+	
+	/**
+	 * The recorders of all AIs which were not closed yet. The client gives no notice when the game
+	 * ends, so the recorders are closed once their AI is garbage collected or the JVM exits. Only the
+	 * recorders are held here, so the AIs and their maps can be collected while the JVM keeps running.
+	 */
+	private static final Set<TurnRecorder> OPEN_RECORDERS = ConcurrentHashMap.newKeySet();
+	
+	/**
+	 * The cleaner closing the recorder of an AI once the AI is garbage collected.
+	 */
+	private static final Cleaner RECORDER_CLEANER = RECORD_DIRECTORY != null ? Cleaner.create() : null;
+	
+	static {
+		if (RECORD_DIRECTORY != null)
+			Runtime.getRuntime().addShutdownHook(new Thread(DistanceAI::closeRecorders, "robots-recorders"));
+	}
+	
 	private final DistanceScalingMap map;
 	
+	/**
+	 * The {@link DistancePilot pilot} making the decisions of this AI.
+	 */
+	private final DistancePilot pilot;
+	
+	/**
+	 * The view of the pilot on the robot of this AI.
+	 */
+	private final RobotView view;
+	
+	/**
+	 * The recorder of the turns of this AI or <code>null</code> if the turns are not recorded.
+	 */
+	private TurnRecorder recorder;
+	
+	/**
+	 * The number of turns made by this AI.
+	 */
+	private int turns;
+	
+	/**
+	 * The file of the stored map of the level, <code>null</code> before the first turn or if maps
+	 * are not stored.
+	 */
+	private Path storeFile;
+	
+	/**
+	 * The export of the map waiting for or being written by the {@link #STORE_WRITER store writer},
+	 * <code>null</code> if the map was not exported yet.
+	 */
+	private Future<?> storing;
+	
+	/**
+	 * The version of the latest {@link MapSnapshot snapshot} when the pending export was requested,
+	 * {@link #NO_EXPORT} if no export is pending.
+	 */
+	private long storeVersion = NO_EXPORT;
+	
 	/**
 	 * Creates a new {@link DistanceAI}.
 	 * <br>
@@ -58,60 +181,271 @@ public final class DistanceAI extends AbstractAI {
 		super(client, gameId, entityUUID);
 		
 		// initialize and open the map view
-		this.map = new DistanceScalingMap(this);
+		this.map = new DistanceScalingMap();
+		if (SHARED_MAP)
+			this.map.share(TeamMap.of(gameId), entityUUID);
+		this.pilot = new DistancePilot(this.map);
+		this.view = new AIView();
 		this.openMapView();
+		
+		if (RECORD_DIRECTORY != null) {
+			try {
+				final TurnRecorder recorder = TurnRecorder.open(RECORD_DIRECTORY.resolve(gameId + "-" + entityUUID + ".rlog"));
+				OPEN_RECORDERS.add(recorder);
+				// the action must not reference the AI, otherwise it would never be collected
+				RECORDER_CLEANER.register(this, () -> closeRecorder(recorder));
+				this.recorder = recorder;
+			} catch (final IOException e) {
+				System.err.println("Could not record the turns: " + e);
+			}
+		}
 	}
 	
-	@Override
-	public EntityAction makeTurn() {
-		if (this.getBeneathTile().hasItem())
-			return EntityAction.pickUpItem();
-		
-		this.map.updateMap(this.getVision());
-		this.updateMap(this.map);
-		
-		final Tile target = this.map.getNextTile(this.getX(), this.getY());
-		if (target != null)
-			return this.convertToActions(target);
+	/**
+	 * Sets the {@link PlannerListener listener} receiving the metrics of every turn of this AI.
+	 * If the turns have a deadline, the listener is called by the thread planning in the background.
+	 * 
+	 * @param listener The listener or <code>null</code> to remove the listener.
+	 * 
+	 * @see DistanceScalingMap#setPlannerListener(PlannerListener)
+	 */
+	public void setPlannerListener(final PlannerListener listener) {
+		this.map.setPlannerListener(listener);
+	}
+	
+	/**
+	 * Returns the number of turns whose plan was not done before the deadline.
+	 * 
+	 * @return The number of missed deadlines.
+	 */
+	public int getDeadlineMisses() {
+		return this.pilot.getDeadlineMisses();
+	}
+	
+	/**
+	 * Returns the number of steps taken from an older plan, because the plan of the turn
+	 * was not done before the deadline.
+	 * 
+	 * @return The number of fallback steps.
+	 */
+	public int getFallbackSteps() {
+		return this.pilot.getFallbackSteps();
+	}
+	
+	/**
+	 * Returns the id of the layout of a level, which tells the levels apart whose maps are stored.
+	 * The id hashes the start tile of the robot and the materials of the tiles of its first vision,
+	 * regardless of the order of the tiles. Items and visitors are left out, since other robots may
+	 * have taken or moved them already.
+	 * 
+	 * @param x The x coordinate of the start tile.
+	 * @param y The y coordinate of the start tile.
+	 * @param vision The first vision of the robot.
+	 * @return The id of the layout.
+	 */
+	static long getLayoutId(final int x, final int y, final List<Tile> vision) {
+		long id = mix(((long) x << 32) ^ (y & 0xFFFFFFFFL));
+		for (final Tile tile : vision) {
+			final long cell = ((long) tile.getX() << 40) ^ ((long) (tile.getY() & 0xFFFFFF) << 16) ^ tile.getMaterial().ordinal();
+			id += mix(cell);
+		}
 		
-		return EntityAction.noAction();
+		return id;
 	}
 	
-	private EntityAction convertToActions(final Tile target) {
-		if (target.getX() == this.getX() && target.getY() == this.getY()
-				|| Math.abs(target.getX() - this.getX()) > 1
-				|| Math.abs(target.getY() - this.getY()) > 1)
-			return EntityAction.noAction();
+	/**
+	 * Scrambles the bits of a value, like the finalizer of the SplitMix64 generator.
+	 * 
+	 * @param value The value to scramble.
+	 * @return The scrambled value.
+	 */
+	private static long mix(long value) {
+		value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+		value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+		return value ^ (value >>> 31);
+	}
+	
+	/**
+	 * Resolves the file of the stored map of the level in the first turn, once the robot sees the
+	 * tiles around its start, and warm starts the pilot with it if the level was stored before.
+	 */
+	private void openStore() {
+		final long id = getLayoutId(this.getX(), this.getY(), this.getVision());
+		this.storeFile = STORE_DIRECTORY.resolve(String.format("%016x.rmap", id));
+		if (Files.isRegularFile(this.storeFile)) {
+			try {
+				this.pilot.warmStart(MapStore.open(this.storeFile));
+			} catch (final IOException e) {
+				System.err.println("Could not open the stored map: " + e);
+			}
+		}
+	}
+	
+	@Override
+	public EntityAction makeTurn() {
+		if (STORE_DIRECTORY != null && this.storeFile == null)
+			this.openStore();
 		
-		final Facing currentFacing = this.getFacing();
-		final Facing targetFacing = this.getFacing(target);
-		if (targetFacing == currentFacing.left()) {
+		final Step step = this.pilot.makeTurn(this.view);
+		if (this.recorder != null)
+			this.record(step);
+		if (this.storeFile != null)
+			this.storeMap();
+		
+		switch (step) {
+		case PICK_UP:
+			return EntityAction.pickUpItem();
+		case TURN_LEFT:
 			return EntityAction.turnLeft();
-		} else if (currentFacing != targetFacing) {
+		case TURN_RIGHT:
 			return EntityAction.turnRight();
+		case MOVE_FORWARD:
+			return EntityAction.moveForward();
+		case USE_ITEM:
+			return EntityAction.useItem(this.getInventory().findItem(this.pilot.getItemToUse()));
+		default:
+			return EntityAction.noAction();
 		}
+	}
+	
+	/**
+	 * Records the current turn, the recording is stopped if the turn can not be written.
+	 * 
+	 * @param step The step of the AI in this turn.
+	 */
+	private synchronized void record(final Step step) {
+		final TurnRecorder recorder = this.recorder;
+		if (recorder == null)
+			return;
 		
-		if (target.getX() != this.getX() || target.getY() != this.getY()) {
-			if (this.map.canShootBoulder(target)) {
-				return EntityAction.useItem(this.getInventory().findItem(LaserCharge.ITEM_NAME));
-			} else if (this.map.hasKeyForGate(target)) {
-				return EntityAction.useItem(this.getInventory()
-						.findItem(DistanceScalingMap.GATE_KEYS.get(target.getMaterial())));
-			} else {
-				if (this.map.canUseTeleporter(target)) {
-					this.map.useTeleporter(this.getBeneathTile(), target);
-				}
-				
-				return EntityAction.moveForward();
+		try {
+			synchronized (recorder) {
+				if (OPEN_RECORDERS.contains(recorder))
+					recorder.record(this.view, step, this.pilot.getItemToUse());
 			}
+		} catch (final IOException e) {
+			System.err.println("Could not record the turn: " + e);
+			this.closeRecorder();
+		}
+	}
+	
+	/**
+	 * Exports the map every {@link #STORE_INTERVAL} turns. The map keeps changing while the
+	 * export is written, so a {@link MapSnapshot snapshot} is written by the {@link #STORE_WRITER
+	 * store writer} instead. Snapshots are only taken when asked for, so the export waits for the
+	 * first snapshot taken after it was requested. An export is also delayed while the previous
+	 * one is not written yet.
+	 */
+	private void storeMap() {
+		if (++this.turns % STORE_INTERVAL == 0 && this.storeVersion == NO_EXPORT) {
+			final MapSnapshot snapshot = this.map.getSnapshot();
+			this.storeVersion = snapshot != null ? snapshot.getVersion() : -1L;
+			this.map.requestSnapshot();
 		}
+		if (this.storeVersion == NO_EXPORT || this.storing != null && !this.storing.isDone())
+			return;
+		
+		final MapSnapshot snapshot = this.map.getSnapshot();
+		if (snapshot == null || snapshot.getVersion() <= this.storeVersion)
+			return;
 		
-		return EntityAction.noAction();
+		this.storeVersion = NO_EXPORT;
+		final Path file = this.storeFile;
+		this.storing = STORE_WRITER.submit(() -> {
+			try {
+				snapshot.export(file);
+			} catch (final IOException e) {
+				System.err.println("Could not store the map: " + e);
+			}
+		});
+	}
+	
+	/**
+	 * Stops recording the turns of this AI.
+	 */
+	private synchronized void closeRecorder() {
+		if (this.recorder == null)
+			return;
+		
+		closeRecorder(this.recorder);
+		this.recorder = null;
+	}
+	
+	/**
+	 * Closes a recorder unless it was closed already.
+	 * 
+	 * @param recorder The recorder to close.
+	 */
+	private static void closeRecorder(final TurnRecorder recorder) {
+		synchronized (recorder) {
+			if (!OPEN_RECORDERS.remove(recorder))
+				return;
+			
+			try {
+				recorder.close();
+			} catch (final IOException e) {
+				System.err.println("Could not close the recorded turns: " + e);
+			}
+		}
+	}
+	
+	/**
+	 * Closes the recorders of all AIs when the JVM exits, so the last turns are written.
+	 */
+	private static void closeRecorders() {
+		for (final TurnRecorder recorder : OPEN_RECORDERS) {
+			closeRecorder(recorder);
+		}
 	}
 	
-	private Facing getFacing(final Tile target) {
-		final int dx = target.getX() - this.getX();
-		final int dy = target.getY() - this.getY();
-		return Facing.of(dx, dy);
+	/**
+	 * The {@link RobotView} of the robot controlled by this AI.
+	 */
+	private final class AIView implements RobotView {
+		
+		@Override
+		public int getX() {
+			return DistanceAI.this.getX();
+		}
+		
+		@Override
+		public int getY() {
+			return DistanceAI.this.getY();
+		}
+		
+		@Override
+		public Facing getFacing() {
+			return DistanceAI.this.getFacing();
+		}
+		
+		@Override
+		public boolean hasItemBeneath() {
+			return DistanceAI.this.getBeneathTile().hasItem();
+		}
+		
+		@Override
+		public Capabilities getCapabilities() {
+			return Capabilities.of(DistanceAI.this.getInventory());
+		}
+		
+		@Override
+		public void observe(final DistanceScalingMap map) {
+			final List<Tile> vision = DistanceAI.this.getVision();
+			if (DistanceAI.this.recorder != null)
+				DistanceAI.this.recorder.observed(vision);
+			map.updateMap(vision);
+			DistanceAI.this.updateMap(map.getView());
+		}
+		
+		@Override
+		public Consumer<DistanceScalingMap> capture() {
+			final List<Tile> vision = DistanceAI.this.getVision();
+			if (DistanceAI.this.recorder != null)
+				DistanceAI.this.recorder.observed(vision);
+			return map -> {
+				map.updateMap(vision);
+				DistanceAI.this.updateMap(map.getView());
+			};
+		}
 	}
 }
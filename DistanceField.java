@@ -0,0 +1,692 @@
+/*
+ * KIT Schnupperstudium Robots AIs
+ * Copyright (C) 2019  Simon Grossmann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.schnupperstudium.robots.client.ai.hidden;
+
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+
+import com.github.schnupperstudium.robots.entity.Facing;
+
+/**
+ * The distance field of a {@link DistanceScalingMap}, stored as the values of its {@link TileGrid}.
+ * <br><br>
+ * Every goal starts with its goal value, every other passable tile gets the value of its lowest
+ * valued neighbor plus one. The tile of the robot is never walked across. Tiles that can not be
+ * reached from any goal keep the value <code>0</code>.
+ * <br><br>
+ * The goals are taken from a {@link GoalIndex}, so finding them does not require a scan of
+ * the whole grid. The values are computed by a multi-source search in the style of Dial's algorithm. Since the
+ * goals start with very different values, they are sorted once and merged with the single bucket
+ * of tiles reached by the search, which settles every tile exactly once.
+ * <br><br>
+ * The field remembers the tiles that changed since the last update. If only a few tiles changed,
+ * only the part of the field depending on them is repaired: first every value that lost its
+ * support is reset, then the reset and the changed tiles are relaxed again. If too many tiles
+ * changed, the field is rebuilt from scratch.
+ * <br><br>
+ * Once the grid has more than {@link Wavefront#PARALLEL_AREA} cells, the values are relaxed in
+ * parallel by a {@link Wavefront}, which produces exactly the same values. Since paths are only
+ * planned on the field if <code>robots.planner.facing</code> is <code>false</code>, this is the
+ * only mode that plans in parallel.
+ */
+final class DistanceField {
+
+	/**
+	 * The share of changed tiles (as a power of two) above which the field is rebuilt
+	 * from scratch instead of being repaired.
+	 */
+	private static final int FULL_REBUILD_SHIFT = 3;
+
+	/**
+	 * Neighbor facings.
+	 */
+	private static final Facing[] NEIGHBOR_FACINGS = {
+			Facing.NORTH, Facing.EAST, Facing.SOUTH, Facing.WEST
+	};
+
+	/**
+	 * The {@link TileGrid grid} holding the values.
+	 */
+	private final TileGrid grid;
+
+	/**
+	 * The {@link GoalIndex index} of the tiles that can be goals.
+	 */
+	private final GoalIndex goals;
+
+	/**
+	 * Returns the goal value of a tile or <code>0</code> if the tile is no goal.
+	 */
+	private final IntUnaryOperator goalValues;
+
+	/**
+	 * The queue of tile indices used by the relaxation.
+	 */
+	private final BucketQueue queue;
+
+	/**
+	 * The parallel relaxation used for large grids.
+	 */
+	private final Wavefront wavefront;
+
+	/**
+	 * The tiles changed since the last update.
+	 */
+	private final IntQueue changed;
+
+	/**
+	 * The tiles whose value lost its support during a repair.
+	 */
+	private final IntQueue affected;
+
+	/**
+	 * The affected tiles whose neighbors still have to be checked during a repair.
+	 */
+	private final IntQueue pending;
+
+	/**
+	 * One bit per tile marking the changed tiles.
+	 */
+	private long[] changedMarks;
+
+	/**
+	 * One bit per tile marking the affected tiles.
+	 */
+	private long[] affectedMarks;
+
+	/**
+	 * Whether the field has to be rebuilt from scratch.
+	 */
+	private boolean invalid;
+
+	/**
+	 * Whether the values were repaired since the field was rebuilt from scratch.
+	 */
+	private boolean repaired;
+
+	/**
+	 * The index of the robot's tile during the last update.
+	 */
+	private int start;
+
+	/**
+	 * Creates a new {@link DistanceField}.
+	 *
+	 * @param grid The grid holding the values.
+	 * @param goals The index of the tiles that can be goals.
+	 * @param goalValues Returns the goal value of a tile or <code>0</code> if the tile is no goal.
+	 */
+	DistanceField(final TileGrid grid, final GoalIndex goals, final IntUnaryOperator goalValues) {
+		this.grid = grid;
+		this.goals = goals;
+		this.goalValues = goalValues;
+		this.queue = new BucketQueue(grid);
+		this.wavefront = new Wavefront(grid);
+		this.changed = new IntQueue();
+		this.affected = new IntQueue();
+		this.pending = new IntQueue();
+		this.changedMarks = new long[0];
+		this.affectedMarks = new long[0];
+		this.invalid = true;
+		this.start = TileGrid.NO_INDEX;
+	}
+
+	/**
+	 * Marks a tile as changed. This has to be called for every tile whose material,
+	 * visitor, item or goal value changed.
+	 *
+	 * @param index The index of the tile.
+	 */
+	void invalidateTile(final int index) {
+		if (this.invalid)
+			return;
+
+		if (this.changed.size() > this.grid.size() >> FULL_REBUILD_SHIFT) {
+			this.invalidateAll();
+			return;
+		}
+
+		this.ensureMarks();
+		if (!mark(this.changedMarks, index))
+			this.changed.add(index);
+	}
+
+	/**
+	 * Marks all tiles of a category of the {@link GoalIndex} as changed.
+	 *
+	 * @param category The category.
+	 */
+	void invalidateCategory(final int category) {
+		final CellSet tiles = this.goals.get(category);
+		for (int slot = 0; slot < tiles.capacity() && !this.invalid; slot++) {
+			final int index = tiles.get(slot);
+			if (index != TileGrid.NO_INDEX)
+				this.invalidateTile(index);
+		}
+	}
+
+	/**
+	 * Marks the whole field as changed, so that it is rebuilt on the next update.
+	 */
+	void invalidateAll() {
+		this.invalid = true;
+		while (!this.changed.isEmpty()) {
+			unmark(this.changedMarks, this.changed.poll());
+		}
+	}
+
+	/**
+	 * Updates the field for a robot on the given tile.
+	 *
+	 * @param start The index of the robot's tile.
+	 * @param metrics The metrics to record the update in or <code>null</code> to record nothing.
+	 */
+	void update(final int start, final PlannerMetrics metrics) {
+		if (this.start != start) {
+			if (this.start != TileGrid.NO_INDEX)
+				this.invalidateTile(this.start);
+			this.invalidateTile(start);
+			this.start = start;
+		}
+
+		if (this.invalid) {
+			this.rebuild(metrics);
+		} else if (!this.changed.isEmpty()) {
+			this.repair(metrics);
+		}
+	}
+
+	/**
+	 * Updates the field like {@link #update(int, PlannerMetrics)} and compares the values with a
+	 * rebuild from scratch, which replaces them. This is far more expensive than an update and
+	 * only used by the {@link Simulation} to check that a repair yields the same values as a rebuild.
+	 *
+	 * @param start The index of the robot's tile.
+	 * @return The number of tiles whose repaired value differs from the rebuilt value or
+	 * 		<code>-1</code> if the field was not repaired since it was rebuilt.
+	 */
+	int verify(final int start) {
+		this.update(start, null);
+		if (!this.repaired)
+			return -1;
+
+		final TileGrid grid = this.grid;
+		final int[] values = new int[grid.size()];
+		for (int index = 0; index < values.length; index++) {
+			values[index] = grid.getValue(index);
+		}
+
+		this.invalidateAll();
+		this.rebuild(null);
+		int mismatches = 0;
+		for (int index = 0; index < values.length; index++) {
+			if (grid.getValue(index) != values[index])
+				mismatches++;
+		}
+
+		return mismatches;
+	}
+
+	/**
+	 * Rebuilds the field from scratch.
+	 */
+	private void rebuild(final PlannerMetrics metrics) {
+		final long begin = metrics != null ? System.nanoTime() : 0L;
+		final TileGrid grid = this.grid;
+		grid.clearValues();
+
+		if (this.start != TileGrid.NO_INDEX)
+			grid.setValue(this.start, this.getInitialValue(this.start));
+
+		this.queue.clear();
+		int seeds = 0;
+		for (int category = 0; category < GoalIndex.FRONTIER; category++) {
+			final CellSet tiles = this.goals.get(category);
+			for (int slot = 0; slot < tiles.capacity(); slot++) {
+				final int index = tiles.get(slot);
+				if (index != TileGrid.NO_INDEX && this.seed(index))
+					seeds++;
+			}
+		}
+
+		final CellBits frontier = this.goals.getFrontier();
+		for (int index = frontier.next(0); index != TileGrid.NO_INDEX; index = frontier.next(index + 1)) {
+			if (!this.goals.contains(index) && this.seed(index))
+				seeds++;
+		}
+
+		if (metrics != null) {
+			metrics.rebuilt = true;
+			metrics.seeds += seeds;
+			metrics.seedNanos += System.nanoTime() - begin;
+		}
+
+		this.relax(metrics);
+		this.invalid = false;
+		this.repaired = false;
+	}
+
+	/**
+	 * Sets the initial value of a tile and adds it to the sources of the search if it is a goal.
+	 *
+	 * @param index The index of the tile.
+	 * @return <code>True</code> if the tile is a source, <code>false</code> otherwise.
+	 */
+	private boolean seed(final int index) {
+		final int value = this.getInitialValue(index);
+		if (value <= 0 || value == Integer.MAX_VALUE)
+			return false;
+
+		this.grid.setValue(index, value);
+		this.queue.addSource(index, value);
+		return true;
+	}
+
+	/**
+	 * Repairs the part of the field depending on the changed tiles.
+	 */
+	private void repair(final PlannerMetrics metrics) {
+		final long begin = metrics != null ? System.nanoTime() : 0L;
+		final TileGrid grid = this.grid;
+		final IntQueue changed = this.changed;
+		final IntQueue affected = this.affected;
+		this.repaired = true;
+		this.ensureMarks();
+
+		// every changed tile loses its value, then every tile whose value only
+		// depended on tiles without a value loses its value as well
+		final IntQueue pending = this.pending;
+		while (!changed.isEmpty()) {
+			final int index = changed.poll();
+			unmark(this.changedMarks, index);
+			if (!mark(this.affectedMarks, index)) {
+				affected.add(index);
+				pending.add(index);
+			}
+		}
+
+		while (!pending.isEmpty()) {
+			final int index = pending.poll();
+			for (final Facing facing : NEIGHBOR_FACINGS) {
+				final int neighbor = grid.neighbor(index, facing);
+				if (neighbor != TileGrid.NO_INDEX && this.hasLostSupport(neighbor)) {
+					mark(this.affectedMarks, neighbor);
+					affected.add(neighbor);
+					pending.add(neighbor);
+				}
+			}
+		}
+
+		final int count = affected.size();
+		int seeds = 0;
+		for (int i = 0; i < count; i++) {
+			final int index = affected.poll();
+			grid.setValue(index, this.getInitialValue(index));
+			affected.add(index);
+		}
+
+		// the affected tiles take the best value of their neighbors and are relaxed again
+		final BucketQueue queue = this.queue;
+		queue.clear();
+		while (!affected.isEmpty()) {
+			final int index = affected.poll();
+			unmark(this.affectedMarks, index);
+
+			int value = grid.getValue(index);
+			if (value != Integer.MAX_VALUE && grid.isPassable(index)) {
+				for (final Facing facing : NEIGHBOR_FACINGS) {
+					final int neighbor = grid.neighbor(index, facing);
+					if (neighbor == TileGrid.NO_INDEX)
+						continue;
+
+					final int neighborValue = grid.getValue(neighbor);
+					if (neighborValue > 0 && neighborValue != Integer.MAX_VALUE
+							&& (value == 0 || value > neighborValue + 1))
+						value = neighborValue + 1;
+				}
+				grid.setValue(index, value);
+			}
+
+			if (value > 0 && value != Integer.MAX_VALUE) {
+				queue.addSource(index, value);
+				seeds++;
+			}
+		}
+
+		if (metrics != null) {
+			metrics.resetTiles += count;
+			metrics.seeds += seeds;
+			metrics.seedNanos += System.nanoTime() - begin;
+		}
+
+		this.relax(metrics);
+	}
+
+	/**
+	 * Checks whether a tile, whose neighbor lost its value, lost its support as well. This
+	 * is the case if its value neither stems from its own goal value nor from a neighbor
+	 * that still has a value.
+	 *
+	 * @param index The index of the tile.
+	 * @return <code>True</code> if the tile lost its support, <code>false</code> otherwise.
+	 */
+	private boolean hasLostSupport(final int index) {
+		final TileGrid grid = this.grid;
+		final int value = grid.getValue(index);
+		if (value == 0 || value == Integer.MAX_VALUE || isMarked(this.affectedMarks, index)
+				|| !grid.isPassable(index) || this.goalValues.applyAsInt(index) == value)
+			return false;
+
+		for (final Facing facing : NEIGHBOR_FACINGS) {
+			final int neighbor = grid.neighbor(index, facing);
+			if (neighbor != TileGrid.NO_INDEX && grid.getValue(neighbor) == value - 1
+					&& !isMarked(this.affectedMarks, neighbor))
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Returns the value a tile starts with, which is its goal value. The tile of the
+	 * robot starts with {@link Integer#MAX_VALUE} unless it is a goal.
+	 *
+	 * @param index The index of the tile.
+	 * @return The initial value of the tile.
+	 */
+	private int getInitialValue(final int index) {
+		final int value = this.goalValues.applyAsInt(index);
+		return value == 0 && index == this.start ? Integer.MAX_VALUE : value;
+	}
+
+	/**
+	 * Relaxes the tiles in the queue in the order of their values until no value can
+	 * be lowered anymore. Only the sources of the queue may be set.
+	 */
+	private void relax(final PlannerMetrics metrics) {
+		final TileGrid grid = this.grid;
+		final BucketQueue queue = this.queue;
+		if (grid.size() > Wavefront.PARALLEL_AREA) {
+			this.wavefront.relax(queue.getSources(), queue.getSourceCount(), metrics);
+			queue.clear();
+			return;
+		}
+
+		final long begin = metrics != null ? System.nanoTime() : 0L;
+		int pushes = 0;
+		int relaxations = 0;
+		int scanned = 0;
+		while (!queue.isEmpty()) {
+			final int tile = queue.poll();
+			if (tile == TileGrid.NO_INDEX)
+				continue;
+
+			final int value = grid.getValue(tile);
+			scanned++;
+
+			for (final Facing facing : NEIGHBOR_FACINGS) {
+				final int neighbor = grid.neighbor(tile, facing);
+				if (neighbor == TileGrid.NO_INDEX || !grid.isPassable(neighbor))
+					continue;
+
+				final int neighborValue = grid.getValue(neighbor);
+				if (neighborValue == Integer.MAX_VALUE)
+					continue;
+
+				if (neighborValue == 0 || neighborValue > value + 1) {
+					grid.setValue(neighbor, value + 1);
+					queue.add(neighbor);
+					pushes++;
+					if (neighborValue != 0)
+						relaxations++;
+				}
+			}
+		}
+
+		if (metrics != null) {
+			metrics.pushes += pushes;
+			metrics.relaxations += relaxations;
+			metrics.scannedTiles += scanned;
+			metrics.relaxNanos += System.nanoTime() - begin;
+		}
+	}
+
+	/**
+	 * Makes sure the marks cover every tile of the grid.
+	 */
+	private void ensureMarks() {
+		final int length = (this.grid.size() + 63) >>> 6;
+		if (this.changedMarks.length < length) {
+			this.changedMarks = Arrays.copyOf(this.changedMarks, length);
+			this.affectedMarks = Arrays.copyOf(this.affectedMarks, length);
+		}
+	}
+
+	/**
+	 * Sets the bit of a tile.
+	 *
+	 * @param marks The bits.
+	 * @param index The index of the tile.
+	 * @return Whether the bit was set before.
+	 */
+	private static boolean mark(final long[] marks, final int index) {
+		final long bit = 1L << index;
+		final boolean marked = (marks[index >>> 6] & bit) != 0;
+		marks[index >>> 6] |= bit;
+		return marked;
+	}
+
+	private static void unmark(final long[] marks, final int index) {
+		marks[index >>> 6] &= ~(1L << index);
+	}
+
+	private static boolean isMarked(final long[] marks, final int index) {
+		return (marks[index >>> 6] & 1L << index) != 0;
+	}
+
+	/**
+	 * A monotone bucket queue of primitive tile indices for a search in which every step
+	 * costs one. The key of a tile is its current value in the {@link TileGrid grid}.
+	 * <br><br>
+	 * The sources of the search are sorted by their key once. Every tile reached by the
+	 * search has the key of the last polled tile plus one, so all of them fit into a single
+	 * first-in-first-out bucket. Polling merges both in the order of their keys.
+	 */
+	private static final class BucketQueue {
+
+		/**
+		 * The grid holding the keys.
+		 */
+		private final TileGrid grid;
+
+		/**
+		 * The bucket of tiles reached by the search.
+		 */
+		private final IntQueue bucket = new IntQueue();
+
+		/**
+		 * The sources, each packed as key and index.
+		 */
+		private long[] sources = new long[64];
+
+		/**
+		 * The number of sources.
+		 */
+		private int sourceCount;
+
+		/**
+		 * The position of the next source to poll.
+		 */
+		private int sourcePosition;
+
+		/**
+		 * Whether the sources are sorted.
+		 */
+		private boolean sorted;
+
+		public BucketQueue(final TileGrid grid) {
+			this.grid = grid;
+		}
+
+		public boolean isEmpty() {
+			return this.bucket.isEmpty() && this.sourcePosition == this.sourceCount;
+		}
+
+		public void clear() {
+			this.bucket.clear();
+			this.sourceCount = 0;
+			this.sourcePosition = 0;
+			this.sorted = true;
+		}
+
+		/**
+		 * Adds a source of the search. Sources have to be added before the first poll.
+		 *
+		 * @param index The index of the tile.
+		 * @param key The key of the tile.
+		 */
+		public void addSource(final int index, final int key) {
+			if (this.sourceCount == this.sources.length)
+				this.sources = Arrays.copyOf(this.sources, this.sourceCount * 2);
+
+			this.sources[this.sourceCount++] = (long) key << 32 | index & 0xFFFFFFFFL;
+			this.sorted = false;
+		}
+
+		/**
+		 * Returns the sources sorted by their key, each packed as key and index.
+		 *
+		 * @return The sources.
+		 */
+		public long[] getSources() {
+			if (!this.sorted) {
+				Arrays.sort(this.sources, 0, this.sourceCount);
+				this.sorted = true;
+			}
+
+			return this.sources;
+		}
+
+		public int getSourceCount() {
+			return this.sourceCount;
+		}
+
+		/**
+		 * Adds a tile reached by the search, whose key is the key of the last polled tile plus one.
+		 *
+		 * @param index The index of the tile.
+		 */
+		public void add(final int index) {
+			this.bucket.add(index);
+		}
+
+		/**
+		 * Removes and returns the tile with the lowest key.
+		 *
+		 * @return The index of the tile or {@link TileGrid#NO_INDEX} if the polled source
+		 * 		was reached with a lower value in the meantime.
+		 */
+		public int poll() {
+			if (!this.sorted) {
+				Arrays.sort(this.sources, 0, this.sourceCount);
+				this.sorted = true;
+			}
+
+			if (this.sourcePosition < this.sourceCount) {
+				final long source = this.sources[this.sourcePosition];
+				if (this.bucket.isEmpty() || (int) (source >>> 32) < this.grid.getValue(this.bucket.peek())) {
+					this.sourcePosition++;
+					final int index = (int) source;
+					return this.grid.getValue(index) == (int) (source >>> 32) ? index : TileGrid.NO_INDEX;
+				}
+			}
+
+			return this.bucket.poll();
+		}
+	}
+
+	/**
+	 * A growable first-in-first-out queue of primitive tile indices.
+	 */
+	private static final class IntQueue {
+
+		/**
+		 * The ring buffer holding the elements.
+		 */
+		private int[] elements = new int[64];
+
+		/**
+		 * The position of the first element.
+		 */
+		private int head;
+
+		/**
+		 * The number of elements in the queue.
+		 */
+		private int size;
+
+		public boolean isEmpty() {
+			return this.size == 0;
+		}
+
+		public int size() {
+			return this.size;
+		}
+
+		public void clear() {
+			this.head = 0;
+			this.size = 0;
+		}
+
+		/**
+		 * Appends an element to the end of the queue, growing the buffer if necessary.
+		 *
+		 * @param element The element to add.
+		 */
+		public void add(final int element) {
+			if (this.size == this.elements.length) {
+				final int[] elements = new int[this.elements.length * 2];
+				final int tail = this.elements.length - this.head;
+				System.arraycopy(this.elements, this.head, elements, 0, tail);
+				System.arraycopy(this.elements, 0, elements, tail, this.head);
+				this.elements = elements;
+				this.head = 0;
+			}
+
+			this.elements[(this.head + this.size) & (this.elements.length - 1)] = element;
+			this.size++;
+		}
+
+		public int peek() {
+			return this.elements[this.head];
+		}
+
+		/**
+		 * Removes and returns the first element of the queue.
+		 *
+		 * @return The first element.
+		 */
+		public int poll() {
+			final int element = this.elements[this.head];
+			this.head = (this.head + 1) & (this.elements.length - 1);
+			this.size--;
+			return element;
+		}
+	}
+}
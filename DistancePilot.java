@@ -0,0 +1,898 @@
+/*
+ * KIT Schnupperstudium Robots AIs
+ * Copyright (C) 2019  Simon Grossmann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.schnupperstudium.robots.client.ai.hidden;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+import com.github.schnupperstudium.robots.entity.Facing;
+import com.github.schnupperstudium.robots.entity.item.LaserCharge;
+
+/**
+ * Decides the next {@link Step} of a robot by following the paths of a {@link DistanceScalingMap}.
+ * <br><br>
+ * This is the turn logic of the {@link DistanceAI}. It only talks to the robot through a
+ * {@link RobotView}, which means it can be used by the AI in a running game as well as
+ * by the headless {@link Simulation}.
+ * <br><br>
+ * If the system property <code>robots.planner.deadline</code> sets a time budget per turn in
+ * microseconds, turns are planned in the background and the pilot only waits for the plan
+ * until the budget runs out. If the plan is not done in time, the robot follows the last plan
+ * that was done instead, while the planning goes on and everything the robot sees is queued
+ * until the map is free again. Without a budget, every turn is planned synchronously.
+ * <br><br>
+ * Turns which only follow a plan that is still valid take a few microseconds, so they are decided
+ * right away. Only the turns which plan a new path are handed to the background, which costs about
+ * 10 to 20 microseconds for waking the planning thread. The budget has to cover that, otherwise every
+ * new path misses the deadline. About 100 microseconds, roughly the 90th percentile of the turns on
+ * 48x48 levels, bound the slow turns while the robot rarely has to follow an old plan. The budget
+ * needs a spare processor for the planning and is ignored on a single processor.
+ * <br><br>
+ * If the system property <code>robots.planner.speculative</code> is set on more than one processor,
+ * a synchronous pilot plans the next turn in the background right after it decided a step, while
+ * the robot waits for its next vision. The map is changed the way the step is expected to change it and planned
+ * for the tile, facing and capabilities the robot is expected to have. The turn itself only adds
+ * the vision and checks whether the plan is still valid. If it is not, but the robot can still take
+ * the next step of the plan, the step is taken and the planning is left to the background again,
+ * so a plan reacts to what the robot sees one turn later. Only if the step turned out differently
+ * or the plan can not be followed anymore, the turn plans synchronously. Pilots of a team never
+ * plan ahead, since their planning publishes claims to the team.
+ */
+final class DistancePilot {
+
+	/**
+	 * The time budget of a turn in nanoseconds or <code>0</code> if turns are planned without a deadline.
+	 * The budget is ignored on a single processor, where the turn can not go on before the planning
+	 * in the background gives up the processor.
+	 */
+	static final long DEADLINE_NANOS = Runtime.getRuntime().availableProcessors() > 1
+			? TimeUnit.MICROSECONDS.toNanos(Long.getLong("robots.planner.deadline", 0L)) : 0L;
+
+	/**
+	 * Whether the next turn is planned in the background once a step was decided, see {@link #planAhead(RobotView, Step)}.
+	 * Like the deadline, planning ahead is ignored on a single processor, where the turn has to wait
+	 * for the planning in the background instead of running next to it. There the wall time of a
+	 * turn including that wait rose from 3.5 to 22 us at the median and from 233 to 2009 us at the
+	 * 99th percentile, while games took about 1.5% more turns, since plans react one turn later.
+	 */
+	static final boolean SPECULATIVE = Runtime.getRuntime().availableProcessors() > 1
+			&& Boolean.getBoolean("robots.planner.speculative");
+
+	/**
+	 * The number of turns in a row a robot of a team tries to step onto the same tile before it
+	 * {@link #stepAside(RobotView) steps aside}, since a robot of the team stands in its way.
+	 */
+	private static final int BLOCKED_TURNS = 2;
+
+	/**
+	 * The number of turns a robot of a team {@link #backOut(RobotView) backs out} the first time
+	 * a stuck robot stands in its way. Every time it is stuck again for the same goal, the robot
+	 * backs out twice as long, up to twice the length of its trail.
+	 */
+	private static final int BACK_OUT_TURNS = 8;
+
+	/**
+	 * The number of tiles a robot of a team remembers to back out along.
+	 */
+	private static final int TRAIL_LENGTH = 64;
+
+	/**
+	 * The executor planning the turns in the background if turns have a deadline or are planned ahead.
+	 */
+	private static final ExecutorService PLANNERS = Executors.newCachedThreadPool(runnable -> {
+		final Thread thread = new Thread(runnable, "robots-planner");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * The map used to find the paths.
+	 */
+	private final DistanceScalingMap map;
+
+	/**
+	 * The planning of the map running in the background or <code>null</code> if the map is free.
+	 */
+	private Future<?> planning;
+
+	/**
+	 * The task planning the turn in the background.
+	 */
+	private final Runnable task = this::plan;
+
+	/**
+	 * The planning of the next turn started by {@link #planAhead(RobotView, Step)} or <code>null</code>
+	 * if the next turn is not planned ahead.
+	 */
+	private Future<?> speculation;
+
+	/**
+	 * The task planning the next turn ahead in the background.
+	 */
+	private final Runnable speculativeTask = this::planSpeculatively;
+
+	/**
+	 * The x coordinate of the robot the running planning plans for.
+	 */
+	private int planX;
+
+	/**
+	 * The y coordinate of the robot the running planning plans for.
+	 */
+	private int planY;
+
+	/**
+	 * The facing of the robot the running planning plans for.
+	 */
+	private Facing planFacing;
+
+	/**
+	 * The capabilities of the robot the running planning plans for.
+	 */
+	private Capabilities planCapabilities;
+
+	/**
+	 * The turn the running planning was started in.
+	 */
+	private int planTurn;
+
+	/**
+	 * The next tile found by the last planning that is done.
+	 */
+	private int planTarget;
+
+	/**
+	 * The copy of the plan of the map made by the planning in the background.
+	 */
+	private final Plan planned = new Plan();
+
+	/**
+	 * The last plan that was done in time, which is followed if the next plan is late.
+	 */
+	private final Plan cached = new Plan();
+
+	/**
+	 * The turn the {@link #cached cached plan} was started in.
+	 */
+	private int cachedTurn;
+
+	/**
+	 * The snapshot of the map taken when the running planning was started. The map is busy while
+	 * the planning runs, so the {@link #fallback(RobotView) fallback} reads the snapshot instead.
+	 */
+	private MapSnapshot snapshot;
+
+	/**
+	 * The random numbers used by robots of a team to {@link #stepAside(RobotView) step aside}.
+	 */
+	private final Random random = new Random(0L);
+
+	/**
+	 * The tile the robot tried to step forward from in the last turn.
+	 */
+	private int moveFrom = TileGrid.NO_INDEX;
+
+	/**
+	 * The tile the robot tried to step onto in the last turn.
+	 */
+	private int moveTo = TileGrid.NO_INDEX;
+
+	/**
+	 * The number of turns in a row the robot tried to step from {@link #moveFrom} onto {@link #moveTo}.
+	 */
+	private int moveTries;
+
+	/**
+	 * The coordinates of the tiles the robot came from, in a ring ending at {@link #trailEnd}.
+	 */
+	private final int[] trailX = new int[TRAIL_LENGTH];
+
+	private final int[] trailY = new int[TRAIL_LENGTH];
+
+	/**
+	 * The index after the last tile of the trail and the number of tiles on it.
+	 */
+	private int trailEnd;
+
+	private int trailSize;
+
+	/**
+	 * The coordinates of the robot in the last turn.
+	 */
+	private int lastX = Integer.MIN_VALUE;
+
+	private int lastY = Integer.MIN_VALUE;
+
+	/**
+	 * The number of turns the robot still backs out.
+	 */
+	private int backingOut;
+
+	/**
+	 * The number of turns the robot waited to back out onto the last tile of its trail.
+	 */
+	private int backOutTries;
+
+	/**
+	 * The number of turns the robot backs out the next time and the goal it was stuck for.
+	 */
+	private int backOutTurns = BACK_OUT_TURNS;
+
+	private int backOutGoal = TileGrid.NO_INDEX;
+
+	/**
+	 * The observations of the robot queued while the map was busy.
+	 */
+	private final List<Consumer<DistanceScalingMap>> observations = new ArrayList<>();
+
+	/**
+	 * The number of turns planned with a deadline.
+	 */
+	private int turns;
+
+	/**
+	 * The number of turns whose plan was not done in time.
+	 */
+	private int deadlineMisses;
+
+	/**
+	 * The number of steps taken from the {@link #cached cached plan} after the deadline was missed.
+	 */
+	private int fallbackSteps;
+
+	/**
+	 * The sum of the ages in turns of the cached plans the fallback steps were taken from.
+	 */
+	private long fallbackAge;
+
+	/**
+	 * The number of turns planned ahead in the background.
+	 */
+	private int speculations;
+
+	/**
+	 * The number of turns planned ahead whose robot had the expected tile, facing and capabilities.
+	 */
+	private int speculationHits;
+
+	/**
+	 * The number of turns planned synchronously although planning ahead was enabled.
+	 */
+	private int synchronousPlans;
+
+	/**
+	 * The nanoseconds turns waited for the planning ahead in the background.
+	 */
+	private long speculationWait;
+
+	/**
+	 * The name of the item to use if the last step was {@link Step#USE_ITEM}.
+	 */
+	private String itemToUse;
+
+	/**
+	 * The stored map to warm start the map with after the next vision, may be <code>null</code>.
+	 */
+	private MapStore warmStart;
+
+	/**
+	 * Creates a new {@link DistancePilot}.
+	 *
+	 * @param map The map used to find the paths.
+	 */
+	DistancePilot(final DistanceScalingMap map) {
+		this.map = map;
+	}
+
+	/**
+	 * Returns the map used to find the paths.
+	 *
+	 * @return The map.
+	 */
+	DistanceScalingMap getMap() {
+		return this.map;
+	}
+
+	/**
+	 * Returns the name of the item to use if the last step was {@link Step#USE_ITEM}.
+	 *
+	 * @return The name of the item or <code>null</code>.
+	 */
+	String getItemToUse() {
+		return this.itemToUse;
+	}
+
+	/**
+	 * Checks whether the planning of an earlier turn is still running in the background.
+	 *
+	 * @return <code>True</code> if the map is busy, <code>false</code> otherwise.
+	 */
+	boolean isPlanning() {
+		return this.planning != null;
+	}
+
+	/**
+	 * Returns the number of turns whose plan was not done before the deadline.
+	 *
+	 * @return The number of missed deadlines.
+	 */
+	int getDeadlineMisses() {
+		return this.deadlineMisses;
+	}
+
+	/**
+	 * Returns the number of steps taken from an older plan, because the plan of the turn
+	 * was not done before the deadline.
+	 *
+	 * @return The number of fallback steps.
+	 */
+	int getFallbackSteps() {
+		return this.fallbackSteps;
+	}
+
+	/**
+	 * Returns the mean age of the plans the fallback steps were taken from, which is the number
+	 * of turns the robot saw since the plan was started.
+	 *
+	 * @return The mean age of the fallback steps in turns.
+	 */
+	double getMeanFallbackAge() {
+		return this.fallbackSteps == 0 ? 0.0 : (double) this.fallbackAge / this.fallbackSteps;
+	}
+
+	/**
+	 * Returns the number of turns that were planned ahead in the background.
+	 *
+	 * @return The number of speculative plans.
+	 */
+	int getSpeculations() {
+		return this.speculations;
+	}
+
+	/**
+	 * Returns the number of turns planned ahead whose step turned out as expected, so the robot
+	 * stood on the expected tile with the expected facing and capabilities.
+	 *
+	 * @return The number of confirmed speculative plans.
+	 */
+	int getSpeculationHits() {
+		return this.speculationHits;
+	}
+
+	/**
+	 * Returns the nanoseconds the turns waited for the planning ahead in the background to be done,
+	 * which are part of the wall time of {@link #makeTurn(RobotView)}.
+	 *
+	 * @return The nanoseconds waited for speculative plans.
+	 */
+	long getSpeculationWaitNanos() {
+		return this.speculationWait;
+	}
+
+	/**
+	 * Returns the number of turns that had to be planned synchronously although planning ahead
+	 * was enabled, because the step of the last turn turned out differently than expected or the
+	 * plan could not be followed anymore.
+	 *
+	 * @return The number of synchronous plans.
+	 */
+	int getSynchronousPlans() {
+		return this.synchronousPlans;
+	}
+
+	/**
+	 * Warm starts the map with a {@link MapStore stored map} of the level. The stored map
+	 * is verified against the next vision of the robot and only loaded if it matches.
+	 *
+	 * @param store The stored map.
+	 * @see DistanceScalingMap#warmStart(MapStore)
+	 */
+	void warmStart(final MapStore store) {
+		this.warmStart = store;
+	}
+
+	/**
+	 * Decides the next step of the robot. Items beneath the robot are always picked up,
+	 * otherwise the map is updated with the vision of the robot and the robot is steered
+	 * towards the next tile on the optimal path.
+	 *
+	 * @param robot The robot to decide for.
+	 * @return The next step of the robot.
+	 */
+	Step makeTurn(final RobotView robot) {
+		this.itemToUse = null;
+		if (this.speculation != null)
+			this.awaitSpeculation(robot);
+		if (this.map.isShared())
+			this.trace(robot);
+
+		final Step step = this.decide(robot);
+		if (this.isSpeculative())
+			this.planAhead(robot, step);
+
+		return step;
+	}
+
+	/**
+	 * Checks whether the pilot plans the next turn ahead, which needs the system property, no
+	 * deadline and a map of its own.
+	 *
+	 * @return <code>True</code> if turns are planned ahead, <code>false</code> otherwise.
+	 */
+	private boolean isSpeculative() {
+		return SPECULATIVE && DEADLINE_NANOS == 0 && !this.map.isShared();
+	}
+
+	/**
+	 * Decides the next step of the robot like {@link #makeTurn(RobotView)}, once the map is free.
+	 *
+	 * @param robot The robot to decide for.
+	 * @return The next step of the robot.
+	 */
+	private Step decide(final RobotView robot) {
+		if (robot.hasItemBeneath())
+			return Step.PICK_UP;
+
+		final Capabilities capabilities = robot.getCapabilities();
+		if (DEADLINE_NANOS > 0)
+			return this.makeTurn(robot, capabilities, System.nanoTime() + DEADLINE_NANOS);
+
+		robot.observe(this.map);
+		this.applyWarmStart();
+
+		final boolean speculative = this.isSpeculative();
+		final int target = this.map.getNextIndex(robot.getX(), robot.getY(), robot.getFacing(), capabilities, speculative);
+		if (speculative && this.map.hasPlanned())
+			this.synchronousPlans++;
+		if (target != TileGrid.NO_INDEX)
+			return this.convertToStep(robot, target);
+
+		return this.map.isShared() ? this.stepAside(robot) : Step.NONE;
+	}
+
+	/**
+	 * Decides the next step of the robot within a deadline. The turn is planned in the
+	 * background, once the planning of an earlier turn is done. If the plan is not done
+	 * before the deadline, the robot follows the last plan that was done.
+	 *
+	 * @param robot The robot to decide for.
+	 * @param capabilities The capabilities of the robot in this turn.
+	 * @param deadline The {@link System#nanoTime() time} the step has to be decided at.
+	 * @return The next step of the robot.
+	 */
+	private Step makeTurn(final RobotView robot, final Capabilities capabilities, final long deadline) {
+		this.turns++;
+		this.observations.add(robot.capture());
+		if (this.planning != null && !this.await(deadline))
+			return this.fallback(robot);
+
+		// the map is free, so it catches up on everything the robot saw in the meantime
+		final DistanceScalingMap map = this.map;
+		for (final Consumer<DistanceScalingMap> observation : this.observations) {
+			observation.accept(map);
+		}
+		this.observations.clear();
+		this.applyWarmStart();
+
+		this.planX = robot.getX();
+		this.planY = robot.getY();
+		this.planFacing = robot.getFacing();
+		this.planCapabilities = capabilities;
+		this.planTurn = this.turns;
+		if (map.isPlanCurrent(this.planX, this.planY, capabilities)) {
+			// following the plan is quicker than handing it to another thread
+			this.planTarget = map.getNextIndex(this.planX, this.planY, this.planFacing, capabilities);
+			this.cached.copy(map.getPlan());
+			this.cachedTurn = this.planTurn;
+		} else {
+			this.snapshot = map.snapshot();
+			this.planning = PLANNERS.submit(this.task);
+			if (!this.await(deadline))
+				return this.fallback(robot);
+		}
+
+		if (this.planTarget != TileGrid.NO_INDEX)
+			return this.convertToStep(robot, this.planTarget);
+
+		return this.map.isShared() ? this.stepAside(robot) : Step.NONE;
+	}
+
+	/**
+	 * Plans the next turn in the background for the robot the given step is expected to leave.
+	 * The map is changed the way the step is expected to change it right away, so the vision of
+	 * the next turn only confirms or corrects it. Steps whose outcome the map can not tell, like
+	 * opening a gate or stepping onto a teleporter that was never used, are not planned ahead.
+	 *
+	 * @param robot The robot the step was decided for.
+	 * @param step The step of the robot.
+	 */
+	private void planAhead(final RobotView robot, final Step step) {
+		final DistanceScalingMap map = this.map;
+		final int x = robot.getX();
+		final int y = robot.getY();
+		final Facing facing = robot.getFacing();
+		final int tile = map.getTileIndex(x, y);
+		final int front = map.getTileIndex(x + facing.dx, y + facing.dy);
+		if (tile == TileGrid.NO_INDEX)
+			return;
+
+		int nextX = x;
+		int nextY = y;
+		Facing nextFacing = facing;
+		Capabilities capabilities = robot.getCapabilities();
+		switch (step) {
+		case PICK_UP:
+			// picking up an item does not need the map, so it only sees now what the next turn has to confirm
+			robot.observe(map);
+			this.applyWarmStart();
+			capabilities = map.expectPickUp(tile, capabilities);
+			break;
+		case USE_ITEM:
+			// the material of an opened gate is only known once the robot sees it
+			if (front == TileGrid.NO_INDEX || !LaserCharge.ITEM_NAME.equals(this.itemToUse))
+				return;
+
+			capabilities = map.expectShot(front, capabilities);
+			break;
+		case TURN_LEFT:
+			nextFacing = facing.left();
+			break;
+		case TURN_RIGHT:
+			nextFacing = facing.right();
+			break;
+		case MOVE_FORWARD:
+			final int destination = front != TileGrid.NO_INDEX && map.isTeleporter(front)
+					? map.getTeleporterDestination(front) : front;
+			if (destination == TileGrid.NO_INDEX)
+				return;
+
+			map.expectMove(tile, destination);
+			nextX = map.getTileX(destination);
+			nextY = map.getTileY(destination);
+			break;
+		default:
+			break;
+		}
+
+		this.planX = nextX;
+		this.planY = nextY;
+		this.planFacing = nextFacing;
+		this.planCapabilities = capabilities;
+		this.speculations++;
+		this.speculation = PLANNERS.submit(this.speculativeTask);
+	}
+
+	/**
+	 * Plans the turn requested by {@link #planAhead(RobotView, Step)} in the background, including
+	 * the planning deferred by the last turn. The plan stays in the map, which keeps following it
+	 * if the robot is where it was expected to be.
+	 */
+	private void planSpeculatively() {
+		this.map.getNextIndex(this.planX, this.planY, this.planFacing, this.planCapabilities);
+	}
+
+	/**
+	 * Waits for the planning of this turn started in the last turn, which has to be done before
+	 * the vision of the robot may change the map.
+	 *
+	 * @param robot The robot to decide for.
+	 */
+	private void awaitSpeculation(final RobotView robot) {
+		// the map must not be touched before the planning is done, so interrupts are kept for later
+		final long start = System.nanoTime();
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					this.speculation.get();
+					break;
+				} catch (final InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		} catch (final ExecutionException e) {
+			throw new IllegalStateException("Could not plan the turn ahead", e.getCause());
+		} finally {
+			this.speculation = null;
+			this.speculationWait += System.nanoTime() - start;
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+
+		if (robot.getX() == this.planX && robot.getY() == this.planY && robot.getFacing() == this.planFacing
+				&& robot.getCapabilities().equals(this.planCapabilities))
+			this.speculationHits++;
+	}
+
+	/**
+	 * Plans the turn requested by {@link #makeTurn(RobotView, Capabilities, long)} in the background.
+	 */
+	private void plan() {
+		final DistanceScalingMap map = this.map;
+		this.planTarget = map.getNextIndex(this.planX, this.planY, this.planFacing, this.planCapabilities);
+		this.planned.copy(map.getPlan());
+	}
+
+	/**
+	 * Waits for the running planning until the deadline and keeps its plan if it is done.
+	 *
+	 * @param deadline The {@link System#nanoTime() time} to wait until.
+	 * @return <code>True</code> if the planning is done, <code>false</code> otherwise.
+	 */
+	private boolean await(final long deadline) {
+		try {
+			this.planning.get(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+		} catch (final TimeoutException e) {
+			return false;
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		} catch (final ExecutionException e) {
+			this.planning = null;
+			throw new IllegalStateException("Could not plan the turn", e.getCause());
+		}
+
+		this.planning = null;
+		this.cached.copy(this.planned);
+		this.cachedTurn = this.planTurn;
+		return true;
+	}
+
+	/**
+	 * Decides the next step of the robot from the last plan that was done, because the plan
+	 * of this turn missed the deadline. As the map is still busy, the tiles are read from the
+	 * {@link #snapshot} taken when the planning started. The robot only turns or steps onto
+	 * passable tiles and waits in front of everything that needs the map.
+	 *
+	 * @param robot The robot to decide for.
+	 * @return The next step of the robot.
+	 */
+	private Step fallback(final RobotView robot) {
+		this.deadlineMisses++;
+		final TileGrid grid = this.snapshot.getGrid();
+		final int start = grid.index(robot.getX(), robot.getY());
+		final Plan plan = this.cached;
+		if (start == TileGrid.NO_INDEX || !plan.follow(start))
+			return Step.NONE;
+
+		final int target = plan.getStep();
+		if (target == TileGrid.NO_INDEX || !grid.isPassable(target) || DistanceScalingMap.isTeleporter(grid, target))
+			return Step.NONE;
+
+		final Step step = turnTowards(robot.getFacing(), grid.getX(target) - robot.getX(), grid.getY(target) - robot.getY());
+		if (step == Step.MOVE_FORWARD && this.map.isShared() && this.isBlocked(start, target))
+			return Step.NONE;
+
+		this.fallbackSteps++;
+		this.fallbackAge += this.turns - this.cachedTurn;
+		return step;
+	}
+
+	/**
+	 * Warm starts the map with the stored map, if there is one.
+	 */
+	private void applyWarmStart() {
+		if (this.warmStart != null) {
+			this.map.warmStart(this.warmStart);
+			this.warmStart = null;
+		}
+	}
+
+	/**
+	 * Decides the step of a robot without any goal that shares its map with a team. Since
+	 * the robot may block the way of another robot of the team, it does not stand still but
+	 * wanders randomly: it mostly steps forward if it can and turns to a random open side
+	 * otherwise, so it follows corridors instead of turning around in them.
+	 *
+	 * @param robot The robot to decide for.
+	 * @return The next step of the robot.
+	 */
+	private Step stepAside(final RobotView robot) {
+		if (this.backingOut > 0)
+			return this.backOut(robot);
+
+		return this.wander(robot);
+	}
+
+	/**
+	 * Lets the robot wander like {@link #stepAside(RobotView)}.
+	 *
+	 * @param robot The robot to decide for.
+	 * @return The next step of the robot.
+	 */
+	private Step wander(final RobotView robot) {
+		final Facing facing = robot.getFacing();
+		final boolean left = this.canStep(robot, facing.left());
+		final boolean right = this.canStep(robot, facing.right());
+		if (this.canStep(robot, facing) && (this.random.nextInt(3) > 0 || !left && !right))
+			return Step.MOVE_FORWARD;
+
+		if (left != right)
+			return left ? Step.TURN_LEFT : Step.TURN_RIGHT;
+
+		return this.random.nextBoolean() ? Step.TURN_LEFT : Step.TURN_RIGHT;
+	}
+
+	/**
+	 * Checks whether a robot can step onto its neighbouring tile in a direction.
+	 *
+	 * @param robot The robot.
+	 * @param facing The direction of the tile.
+	 * @return <code>True</code> if the tile is passable, no teleporter and free of robots, <code>false</code> otherwise.
+	 */
+	private boolean canStep(final RobotView robot, final Facing facing) {
+		final DistanceScalingMap map = this.map;
+		final int tile = map.getTileIndex(robot.getX() + facing.dx, robot.getY() + facing.dy);
+		return tile != TileGrid.NO_INDEX && map.isPassable(tile) && !map.isTeleporter(tile) && !map.isGivingWay(tile);
+	}
+
+	/**
+	 * Remembers the tile the robot came from on its trail. If the robot stepped back onto
+	 * the last tile of its trail, the tile is taken off the trail instead, so the trail leads
+	 * back the way the robot came. A robot that was teleported starts a new trail.
+	 *
+	 * @param robot The robot.
+	 */
+	private void trace(final RobotView robot) {
+		final int x = robot.getX();
+		final int y = robot.getY();
+		final int last = (this.trailEnd + TRAIL_LENGTH - 1) % TRAIL_LENGTH;
+		if (this.trailSize > 0 && this.trailX[last] == x && this.trailY[last] == y) {
+			this.trailEnd = last;
+			this.trailSize--;
+			this.backOutTries = 0;
+		} else if (x == this.lastX && Math.abs(y - this.lastY) == 1 || y == this.lastY && Math.abs(x - this.lastX) == 1) {
+			this.trailX[this.trailEnd] = this.lastX;
+			this.trailY[this.trailEnd] = this.lastY;
+			this.trailEnd = (this.trailEnd + 1) % TRAIL_LENGTH;
+			this.trailSize = Math.min(this.trailSize + 1, TRAIL_LENGTH);
+		} else if (x != this.lastX || y != this.lastY) {
+			this.trailSize = 0;
+			this.backingOut = 0;
+		}
+
+		this.lastX = x;
+		this.lastY = y;
+	}
+
+	/**
+	 * Lets the robot back out, since a robot of the team that should give way to it is
+	 * {@link DistanceScalingMap#isStuck(int) stuck} in front of it, for example in a dead end.
+	 * The robot backs out longer every time it is stuck again for the same goal.
+	 */
+	private void startBackingOut() {
+		final int goal = this.map.getPlan().getGoal();
+		if (goal != this.backOutGoal) {
+			this.backOutGoal = goal;
+			this.backOutTurns = BACK_OUT_TURNS;
+		}
+
+		this.backingOut = this.backOutTurns;
+		this.backOutTurns = Math.min(this.backOutTurns * 2, 2 * TRAIL_LENGTH);
+		this.backOutTries = 0;
+	}
+
+	/**
+	 * Steers the robot backing out back along its trail, which leads away from the robot in its
+	 * way unless that robot stands on it. If there is no such trail or the robot waited more than
+	 * {@link #BLOCKED_TURNS} turns to step onto it, the robot {@link #wander(RobotView) wanders}
+	 * instead, which never steps onto the tile of another robot.
+	 *
+	 * @param robot The robot to decide for.
+	 * @return The next step of the robot.
+	 */
+	private Step backOut(final RobotView robot) {
+		this.backingOut--;
+		if (this.trailSize > 0 && this.backOutTries <= BLOCKED_TURNS) {
+			final int last = (this.trailEnd + TRAIL_LENGTH - 1) % TRAIL_LENGTH;
+			final int tile = this.map.getTileIndex(this.trailX[last], this.trailY[last]);
+			if (tile != TileGrid.NO_INDEX && !this.map.isGivingWay(tile)) {
+				final Step step = turnTowards(robot.getFacing(), this.trailX[last] - robot.getX(), this.trailY[last] - robot.getY());
+				if (step != Step.MOVE_FORWARD || ++this.backOutTries <= BLOCKED_TURNS)
+					return step;
+			}
+		}
+
+		return this.wander(robot);
+	}
+
+	/**
+	 * Checks whether the robot tried to step forward onto the same tile for {@link #BLOCKED_TURNS}
+	 * turns in a row without moving. Once it is blocked, the robot tries again from the beginning.
+	 *
+	 * @param from The index of the robot's tile.
+	 * @param to The index of the tile the robot steps onto.
+	 * @return <code>True</code> if the robot is blocked, <code>false</code> otherwise.
+	 */
+	private boolean isBlocked(final int from, final int to) {
+		if (from != this.moveFrom || to != this.moveTo) {
+			this.moveFrom = from;
+			this.moveTo = to;
+			this.moveTries = 0;
+		}
+
+		if (++this.moveTries <= BLOCKED_TURNS)
+			return false;
+
+		this.moveTries = 0;
+		return true;
+	}
+
+	private Step convertToStep(final RobotView robot, final int target) {
+		if (this.backingOut > 0)
+			return this.backOut(robot);
+
+		final DistanceScalingMap map = this.map;
+		final Step turn = turnTowards(robot.getFacing(), map.getTileX(target) - robot.getX(), map.getTileY(target) - robot.getY());
+		if (turn != Step.MOVE_FORWARD)
+			return turn;
+
+		if (map.canShootBoulder(target)) {
+			this.itemToUse = LaserCharge.ITEM_NAME;
+			return Step.USE_ITEM;
+		} else if (map.hasKeyForGate(target)) {
+			this.itemToUse = DistanceScalingMap.GATE_KEYS.get(map.getMaterial(target));
+			return Step.USE_ITEM;
+		}
+
+		if (map.isShared() && this.isBlocked(map.getTileIndex(robot.getX(), robot.getY()), target)) {
+			if (map.isStuck(target))
+				this.startBackingOut();
+
+			return this.stepAside(robot);
+		}
+
+		if (map.isTeleporter(target)) {
+			map.useTeleporter(map.getTileIndex(robot.getX(), robot.getY()), target);
+		}
+
+		return Step.MOVE_FORWARD;
+	}
+
+	/**
+	 * Turns a robot towards a neighbouring tile.
+	 *
+	 * @param facing The facing of the robot.
+	 * @param dx The x offset of the tile from the robot.
+	 * @param dy The y offset of the tile from the robot.
+	 * @return The step turning the robot towards the tile, {@link Step#MOVE_FORWARD} if it faces
+	 * 		the tile already or {@link Step#NONE} if the tile is no neighbour.
+	 */
+	private static Step turnTowards(final Facing facing, final int dx, final int dy) {
+		if (dx == 0 && dy == 0 || Math.abs(dx) > 1 || Math.abs(dy) > 1)
+			return Step.NONE;
+
+		final Facing targetFacing = Facing.of(dx, dy);
+		if (targetFacing == facing.left()) {
+			return Step.TURN_LEFT;
+		} else if (facing != targetFacing) {
+			return Step.TURN_RIGHT;
+		}
+
+		return Step.MOVE_FORWARD;
+	}
+}
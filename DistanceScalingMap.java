@@ -18,15 +18,18 @@
 
 package com.github.schnupperstudium.robots.client.ai.hidden;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.AbstractList;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Queue;
-import java.util.stream.Collectors;
+import java.util.Set;
 
-import com.github.schnupperstudium.robots.client.AbstractAI;
 import com.github.schnupperstudium.robots.entity.Facing;
 import com.github.schnupperstudium.robots.entity.Item;
 import com.github.schnupperstudium.robots.entity.LivingEntity;
@@ -50,6 +53,8 @@ import com.github.schnupperstudium.robots.world.Material;
 import com.github.schnupperstudium.robots.world.Tile;
 import com.github.schnupperstudium.robots.world.World;
 
+import jdk.jfr.EventType;
+
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.paint.Color;
 import javafx.scene.paint.Paint;
@@ -58,14 +63,19 @@ import javafx.scene.paint.Paint;
  * A scalable {@link Map} implementation that only stores all known {@link Tile tiles}.
  * This map can be used to find efficient paths through the {@link World}.
  * <br><br>
- * Internally this map holds a two-dimensional array of all known tiles in the world,
- * which can be updated using {@link #updateMap(List)} where you can pass the current
- * vision of the {@link Robot}. This automatically scales the map.
+ * Internally this map holds a {@link TileGrid} of primitive arrays describing all known
+ * tiles in the world, which can be updated using {@link #updateMap(List)} where you can
+ * pass the current vision of the {@link Robot}. This automatically scales the map.
+ * {@link Tile} objects are only created when they are requested through {@link #getTile(int, int)}.
  * <br><br>
  * Then to get the next tile you ideally want to aim for, you can use the
  * {@link #getNextTile(Tile)} method. This returns the ideal next tile to visit depending
  * on the weights in the map implementation. It weights different items or unexplored parts
  * of the world with the goal to explore every single part of the world and find every item.
+ * <br><br>
+ * All mutable state, including the teleporters used by the robot, belongs to the map instance.
+ * Any number of maps can therefore be used concurrently in the same JVM, as long as each map
+ * is only used by one thread at a time.
  * 
  * @author Simon Grossmann
  * @since 27 Aug 2019
@@ -77,7 +87,7 @@ public final class DistanceScalingMap implements Map {
 	/**
 	 * Holds the keys needed for the different gates.
 	 */
-	protected static final java.util.Map<Material, String> GATE_KEYS = new HashMap<>();
+	protected static final java.util.Map<Material, String> GATE_KEYS;
 	
 	/**
 	 * Whether to render the debug overlay.
@@ -97,11 +107,10 @@ public final class DistanceScalingMap implements Map {
 	};
 	
 	/**
-	 * Holds all materials that represent a tile where the robot gets
-	 * teleported and the number of times such a teleported has been used.
-	 * It only makes sense to use such a teleporter twice - one time per direction.
+	 * Holds all materials that represent a tile where the robot gets teleported.
 	 */
-	private static final java.util.Map<Material, Integer> TELEPORTER_MATERIALS = new HashMap<>();
+	private static final Set<Material> TELEPORTER_MATERIALS = Collections.unmodifiableSet(EnumSet.of(
+			Material.TELEPORTER_BLUE, Material.TELEPORTER_GREEN, Material.TELEPORTER_RED, Material.TELEPORTER_YELLOW));
 	
 	/**
 	 * Holds the weights of different item types.
@@ -113,6 +122,30 @@ public final class DistanceScalingMap implements Map {
 	 */
 	private static final java.util.Map<Class<? extends LivingEntity>, Integer> CHARGES_NEEDED = new HashMap<>();
 	
+	/**
+	 * Holds the bit of the key needed for a gate, indexed by the ordinal of the gate material.
+	 * The bit is <code>0</code> for all materials which are no gate.
+	 */
+	private static final int[] GATE_KEY_BITS = new int[Material.values().length];
+	
+	/**
+	 * Holds the weight of the items, indexed by their {@link EntityKinds kind}.
+	 * The weight is <code>0</code> for items the AI does not know.
+	 */
+	private static final int[] ITEM_KIND_VALUES = new int[EntityKinds.OTHER_ITEM + 1];
+	
+	/**
+	 * Holds the bit of the key an item is, indexed by its {@link EntityKinds kind}.
+	 * The bit is <code>0</code> for all items which are no key.
+	 */
+	private static final int[] ITEM_KEY_BITS = new int[EntityKinds.OTHER_ITEM + 1];
+	
+	/**
+	 * Holds the amount of laser charges needed to destroy a visitor, indexed by its
+	 * {@link EntityKinds kind}. The amount is <code>0</code> for visitors that can not be destroyed.
+	 */
+	private static final int[] VISITOR_CHARGES = new int[EntityKinds.OTHER_VISITOR + 1];
+	
 	/**
 	 * The weight of the cookie item.
 	 */
@@ -134,315 +167,1852 @@ public final class DistanceScalingMap implements Map {
 	private static final int CHARGE_VALUE = 50;
 	
 	/**
-	 * The weight of a boulder.
+	 * The weight of a boulder.
+	 */
+	private static final int BOULDER_VALUE = 50;
+	
+	/**
+	 * The weight of a star. This is the most important item in the game.
+	 */
+	private static final int STAR_VALUE = 1;
+	
+	/**
+	 * The weight of unexplored parts of the world. This has currently
+	 * by far the highest weight to make sure that the primary goal of the
+	 * robot is to explore the world.
+	 */
+	private static final int UNDEFINED_VALUE = STAR_VALUE * 100;
+	
+	/**
+	 * The weight of a teleport tile. If the robot did explore everything
+	 * in an area, it should go to a teleport tile. 
+	 */
+	private static final int TELEPORTER_VALUE = UNDEFINED_VALUE * 100;
+	
+	/**
+	 * Whether the paths are planned by the {@link FacingPlanner}, which counts the actions of
+	 * the robot including turns, instead of the {@link DistanceField}, which counts tiles.
+	 * Only the field is relaxed in parallel on large grids, see {@link Wavefront}.
+	 */
+	private static final boolean FACING_PLANNER = Boolean.parseBoolean(System.getProperty("robots.planner.facing", "true"));
+	
+	/**
+	 * Whether the {@link FacingPlanner} visits the known stars in the order of a {@link TourPlanner tour}
+	 * instead of always heading for the nearest star, default <code>false</code>.
+	 */
+	private static final boolean TOUR_PLANNER = Boolean.parseBoolean(System.getProperty("robots.planner.tour", "false"));
+	
+	/**
+	 * Whether the paths on maps larger than {@link HierarchicalPlanner#AREA} are planned by the
+	 * {@link HierarchicalPlanner}, default <code>false</code>.
+	 */
+	private static final boolean HIERARCHICAL_PLANNER = Boolean.getBoolean("robots.planner.hierarchical");
+	
+	/**
+	 * Whether the keys and charges worth collecting and the gates and boulders worth opening are
+	 * decided by the {@link InventoryPlanner}, default <code>true</code>.
+	 */
+	private static final boolean INVENTORY_PLANNER = Boolean.parseBoolean(System.getProperty("robots.planner.inventory", "true"));
+	
+	/**
+	 * The value added to the goal value of a tile claimed by a robot of the team that has priority.
+	 */
+	private static final int CLAIM_PENALTY = UNDEFINED_VALUE;
+	
+	/**
+	 * The type of the {@link PlannerTurnEvent}, used to check whether it is enabled.
+	 */
+	private static final EventType TURN_EVENT = EventType.getEventType(PlannerTurnEvent.class);
+	
+	/**
+	 * The {@link TileGrid grid} holding the tiles known by the map.
+	 */
+	private final TileGrid grid;
+	
+	/**
+	 * The {@link Bounds} of the map.
+	 */
+	private Bounds bounds;
+	
+	/**
+	 * The list of map render additions. Used in debugging.
+	 */
+	private final List<MapRenderAddition> mapRenderAdditions;
+	
+	/**
+	 * The {@link GoalIndex index} of the tiles that can be goals of the path finding.
+	 */
+	private final GoalIndex goals;
+	
+	/**
+	 * The {@link DistanceField distance field} over the grid used by the path finding.
+	 */
+	private final DistanceField field;
+	
+	/**
+	 * The {@link FacingPlanner planner} used instead of the distance field if the facing of the robot is known.
+	 */
+	private final FacingPlanner planner;
+	
+	/**
+	 * The {@link TourPlanner tour} over the known stars used by the facing planner.
+	 */
+	private final TourPlanner tour;
+	
+	/**
+	 * The {@link HierarchicalPlanner planner} used on large maps or <code>null</code> if it is disabled.
+	 */
+	private final HierarchicalPlanner hierarchy;
+	
+	/**
+	 * The {@link InventoryPlanner planner} of the keys, charges, gates and boulders or <code>null</code> if it is disabled.
+	 */
+	private final InventoryPlanner inventory;
+	
+	/**
+	 * The teleporters the robot used already. It only makes sense to head for
+	 * a teleporter once, since its counterpart leads back. Afterwards paths may
+	 * still lead through it, once its destination is known.
+	 */
+	private final CellSet usedTeleporters;
+	
+	/**
+	 * The teleporters whose destination the robot learned by using them or assumed, as pairs of the
+	 * teleporter and the tile stepping onto it leads to.
+	 */
+	private int[] teleporterLinks;
+	
+	/**
+	 * The teleporters whose destination was only {@link #pairTeleporter(int) assumed}, since they were
+	 * the only two of their color. The link is confirmed once the robot used the teleporter and
+	 * dropped once another teleporter of the color shows up.
+	 */
+	private final CellSet assumedLinks;
+	
+	/**
+	 * Whether the last call of {@link #getNextIndex(int, int, Facing, Capabilities, boolean)} planned a new path.
+	 */
+	private boolean planned;
+	
+	/**
+	 * The number of ints used in {@link #teleporterLinks}.
+	 */
+	private int teleporterLinkSize;
+	
+	/**
+	 * The teleporter the robot stepped onto last or {@link TileGrid#NO_INDEX} if its destination is known.
+	 */
+	private int pendingTeleporter;
+	
+	/**
+	 * The tile the robot stepped onto the {@link #pendingTeleporter} from.
+	 */
+	private int pendingSource;
+	
+	/**
+	 * The {@link Capabilities capabilities} of the robot the distance field was computed with.
+	 */
+	private Capabilities capabilities;
+	
+	/**
+	 * The {@link Plan plan} computed by the last path finding, which is followed
+	 * until it becomes invalid.
+	 */
+	private final Plan plan;
+	
+	/**
+	 * The tiles changed since the plan was computed.
+	 */
+	private final CellSet changedTiles;
+	
+	/**
+	 * Whether the plan has to be recomputed regardless of the changed tiles.
+	 */
+	private boolean replan;
+	
+	/**
+	 * The {@link TeamMap knowledge} shared with the team of the robot or <code>null</code> if the robot plays alone.
+	 */
+	private TeamMap team;
+	
+	/**
+	 * The id of the robot in its team.
+	 */
+	private long teamRobot;
+	
+	/**
+	 * The version of the team map read last.
+	 */
+	private long teamVersion;
+	
+	/**
+	 * The version of the claims of the team read last.
+	 */
+	private int claimVersion;
+	
+	/**
+	 * The goal claimed by the robot or {@link TileGrid#NO_INDEX}.
+	 */
+	private int claimedGoal;
+	
+	/**
+	 * The tiles changed by the vision of the robot, which are published to the team.
+	 */
+	private final VisionBuffer sharedTiles;
+	
+	/**
+	 * The tiles read from the team.
+	 */
+	private final VisionBuffer teamTiles;
+	
+	/**
+	 * The goals claimed by robots of the team that have priority.
+	 */
+	private CellSet claimed;
+	
+	/**
+	 * The goals claimed before the last change of the claims.
+	 */
+	private CellSet previousClaimed;
+	
+	/**
+	 * The packed coordinates of the goals claimed by robots of the team that have priority,
+	 * read from the team map.
+	 */
+	private long[] claimGoals;
+	
+	/**
+	 * The {@link PlannerListener listener} receiving the metrics of every turn, may be <code>null</code>.
+	 */
+	private PlannerListener listener;
+	
+	/**
+	 * The {@link PlannerMetrics metrics} of the current turn, only recorded if the listener
+	 * is set or the {@link PlannerTurnEvent} is enabled.
+	 */
+	private final PlannerMetrics metrics;
+	
+	/**
+	 * The locations of the plan which are rendered as overlay.
+	 */
+	private final PathOverlay pathOverlay;
+	
+	/**
+	 * The read-only view of the map, which shows the latest snapshot.
+	 */
+	private final Map view;
+	
+	/**
+	 * The latest {@link MapSnapshot snapshot} of the map, <code>null</code> until the first turn.
+	 */
+	private volatile MapSnapshot snapshot;
+	
+	/**
+	 * Whether the latest snapshot was read through the view. Snapshots are only taken
+	 * after a turn if the previous one was read, so a map nobody looks at never copies anything.
+	 */
+	private volatile boolean snapshotRead;
+	
+	/**
+	 * Initializes the item weights, gate keys and charges needed.
+	 */
+	static {
+		ITEM_VALUES.put(Cookie.class, COOKIE_VALUE);
+		ITEM_VALUES.put(BlueKey.class, KEY_VALUE);
+		ITEM_VALUES.put(GreenKey.class, KEY_VALUE);
+		ITEM_VALUES.put(RedKey.class, KEY_VALUE);
+		ITEM_VALUES.put(YellowKey.class, KEY_VALUE);
+		ITEM_VALUES.put(LaserCharge.class, CHARGE_VALUE);
+		ITEM_VALUES.put(Star.class, STAR_VALUE);
+		
+		final java.util.Map<Material, String> gateKeys = new EnumMap<>(Material.class);
+		gateKeys.put(Material.GATE_CLOSED_BLUE, BlueKey.ITEM_NAME);
+		gateKeys.put(Material.GATE_CLOSED_GREEN, GreenKey.ITEM_NAME);
+		gateKeys.put(Material.GATE_CLOSED_RED, RedKey.ITEM_NAME);
+		gateKeys.put(Material.GATE_CLOSED_YELLOW, YellowKey.ITEM_NAME);
+		GATE_KEYS = Collections.unmodifiableMap(gateKeys);
+		
+		CHARGES_NEEDED.put(LargeBoulder.class, 3);
+		CHARGES_NEEDED.put(MediumBoulder.class, 2);
+		CHARGES_NEEDED.put(SmallBoulder.class, 1);
+		
+		for (final java.util.Map.Entry<Material, String> entry : GATE_KEYS.entrySet()) {
+			GATE_KEY_BITS[entry.getKey().ordinal()] = Capabilities.getKeyBit(entry.getValue());
+		}
+		for (int kind = 0; kind < ITEM_KIND_VALUES.length; kind++) {
+			ITEM_KIND_VALUES[kind] = ITEM_VALUES.getOrDefault(EntityKinds.getItemClass(kind), 0);
+		}
+		for (int kind = 0; kind < VISITOR_CHARGES.length; kind++) {
+			VISITOR_CHARGES[kind] = CHARGES_NEEDED.getOrDefault(EntityKinds.getVisitorClass(kind), 0);
+		}
+		ITEM_KEY_BITS[EntityKinds.BLUE_KEY] = Capabilities.getKeyBit(BlueKey.ITEM_NAME);
+		ITEM_KEY_BITS[EntityKinds.GREEN_KEY] = Capabilities.getKeyBit(GreenKey.ITEM_NAME);
+		ITEM_KEY_BITS[EntityKinds.RED_KEY] = Capabilities.getKeyBit(RedKey.ITEM_NAME);
+		ITEM_KEY_BITS[EntityKinds.YELLOW_KEY] = Capabilities.getKeyBit(YellowKey.ITEM_NAME);
+	}
+	
+	/**
+	 * Creates a new {@link DistanceScalingMap}.
+	 */
+	public DistanceScalingMap() {
+		this.grid = new TileGrid();
+		this.bounds = new Bounds();
+		this.usedTeleporters = new CellSet();
+		this.teleporterLinks = new int[8];
+		this.assumedLinks = new CellSet();
+		this.pendingTeleporter = TileGrid.NO_INDEX;
+		this.pendingSource = TileGrid.NO_INDEX;
+		this.capabilities = Capabilities.NONE;
+		this.mapRenderAdditions = new ArrayList<>();
+		this.goals = new GoalIndex();
+		this.field = new DistanceField(this.grid, this.goals, this::getGoalValue);
+		this.planner = new FacingPlanner(this.grid, this::getGoalValue, this::getFinishCost, this::getTeleporterDestination);
+		this.tour = new TourPlanner(this.grid, this::isStar, this.goals::isFrontier);
+		this.hierarchy = HIERARCHICAL_PLANNER ? new HierarchicalPlanner(this.grid, this.goals, this::getGoalValue) : null;
+		this.inventory = INVENTORY_PLANNER ? new InventoryPlanner(this.grid, this.goals,
+				index -> ITEM_KEY_BITS[this.grid.getItemKind(index)], index -> GATE_KEY_BITS[this.grid.getMaterial(index).ordinal()],
+				index -> VISITOR_CHARGES[this.grid.getVisitorKind(index)], this::getTeleporterDestination,
+				this::isTeleporter) : null;
+		this.plan = new Plan();
+		this.changedTiles = new CellSet();
+		this.replan = true;
+		this.claimedGoal = TileGrid.NO_INDEX;
+		this.sharedTiles = new VisionBuffer();
+		this.teamTiles = new VisionBuffer();
+		this.claimed = new CellSet();
+		this.previousClaimed = new CellSet();
+		this.claimGoals = new long[4];
+		this.metrics = new PlannerMetrics();
+		this.pathOverlay = new PathOverlay(this.grid, this.plan);
+		this.view = new SnapshotView();
+		
+		if (RENDER_LOCATION_OVERLAY) {
+			this.mapRenderAdditions.add(new MapLocationOverlay(this.pathOverlay, Color.RED, 0.5));
+		}
+	}
+	
+	/**
+	 * Returns a read-only view of the map, which can be rendered by any thread without locking.
+	 * The view shows the latest immutable {@link MapSnapshot snapshot} of the map, which is
+	 * published after every turn. The map itself must only be used by the thread of the AI.
+	 * 
+	 * @return The view of the map.
+	 */
+	public Map getView() {
+		return this.view;
+	}
+	
+	/**
+	 * Sets the {@link PlannerListener listener} receiving the {@link PlannerMetrics metrics}
+	 * of every turn planned by this map. Without a listener and without a recording of the
+	 * {@link PlannerTurnEvent}, no metrics are recorded at all.
+	 * 
+	 * @param listener The listener or <code>null</code> to remove the listener.
+	 */
+	public void setPlannerListener(final PlannerListener listener) {
+		this.listener = listener;
+	}
+	
+	@Override
+	public boolean hasMapRenderAdditions() {
+		return RENDER_LOCATION_OVERLAY;
+	}
+	
+	@Override
+	public List<MapRenderAddition> getMapRenderAdditions() {
+		return this.mapRenderAdditions;
+	}
+	
+	@Override
+	public int getMinX() {
+		return this.bounds.x.min;
+	}
+
+	@Override
+	public int getMaxX() {
+		return this.bounds.x.max + 1;
+	}
+
+	@Override
+	public int getMinY() {
+		return this.bounds.y.min;
+	}
+
+	@Override
+	public int getMaxY() {
+		return this.bounds.y.max + 1;
+	}
+
+	@Override
+	public int getWidth() {
+		return this.bounds.width();
+	}
+
+	@Override
+	public int getHeight() {
+		return this.bounds.height();
+	}
+
+	@Override
+	public Tile getTile(final int x, final int y) {
+		return createTile(this.grid, x, y);
+	}
+	
+	/**
+	 * Creates the {@link Tile} at the given position of a grid. The value of the tile
+	 * is only set if the grid holds the values.
+	 * 
+	 * @param grid The grid to read the tile from.
+	 * @param x The x coordinate of the tile.
+	 * @param y The y coordinate of the tile.
+	 * @return The tile.
+	 */
+	static Tile createTile(final TileGrid grid, final int x, final int y) {
+		final int index = grid.index(x, y);
+		if (index == TileGrid.NO_INDEX)
+			return new MapTile(x, y);
+		
+		final MapTile tile = new MapTile(x, y);
+		tile.setMaterial(grid.getMaterial(index));
+		tile.setVisitor(grid.getVisitor(index));
+		tile.setItem(grid.getItem(index));
+		if (grid.hasValues())
+			tile.value = grid.getValue(index);
+		return tile;
+	}
+
+	/**
+	 * Updates the {@link DistanceScalingMap map} with the given {@link Tile tiles}.
+	 * This will scale the map as well to make sure the new tiles fit within
+	 * the maps bounds.
+	 * 
+	 * @param tiles The tiles to update the map with.
+	 */
+	public void updateMap(final List<Tile> tiles) {
+		if (tiles == null || tiles.isEmpty()) {
+			return;
+		}
+		
+		final PlannerMetrics metrics = this.getMetrics();
+		final long begin = metrics != null ? System.nanoTime() : 0L;
+		int minX = Integer.MAX_VALUE;
+		int minY = Integer.MAX_VALUE;
+		int maxX = Integer.MIN_VALUE;
+		int maxY = Integer.MIN_VALUE;
+		for (final Tile tile : tiles) {
+			minX = Math.min(minX, tile.getX());
+			minY = Math.min(minY, tile.getY());
+			maxX = Math.max(maxX, tile.getX());
+			maxY = Math.max(maxY, tile.getY());
+		}
+		final boolean expanded = this.expand(minX, minY, maxX, maxY);
+		
+		int changed = 0;
+		for (final Tile tile : tiles) {
+			final int index = this.grid.index(tile.getX(), tile.getY());
+			final boolean updated = this.isGivingWay(tile)
+					? this.grid.update(index, tile.getMaterial(), EntityKinds.itemKind(tile.getItem()), EntityKinds.NONE)
+					: this.grid.update(index, tile);
+			if (updated) {
+				this.tileChanged(index);
+				this.tileSeen(index);
+				changed++;
+			}
+		}
+		
+		if (this.team != null)
+			this.exchange(minX, minY, maxX, maxY);
+		if (metrics != null) {
+			metrics.updated(System.nanoTime() - begin, tiles.size(), changed, expanded);
+		}
+	}
+	
+	/**
+	 * Updates the {@link DistanceScalingMap map} with the tiles of the given {@link VisionBuffer}.
+	 * This works exactly like {@link #updateMap(List)}, but does not need any {@link Tile} objects,
+	 * which is why the tiles of the map do not hold any items or visitors afterwards.
+	 * 
+	 * @param vision The tiles to update the map with.
+	 */
+	void updateMap(final VisionBuffer vision) {
+		if (vision.isEmpty()) {
+			return;
+		}
+		
+		final PlannerMetrics metrics = this.getMetrics();
+		final long begin = metrics != null ? System.nanoTime() : 0L;
+		final boolean expanded = this.expand(vision.getMinX(), vision.getMinY(), vision.getMaxX(), vision.getMaxY());
+		
+		int changed = 0;
+		for (int i = 0; i < vision.size(); i++) {
+			final int index = this.grid.index(vision.getX(i), vision.getY(i));
+			final int visitor = this.team != null && this.isGivingWay(vision.getX(i), vision.getY(i), vision.getVisitor(i))
+					? EntityKinds.NONE : vision.getVisitor(i);
+			if (this.grid.update(index, vision.getMaterial(i), vision.getItem(i), visitor)) {
+				this.tileChanged(index);
+				this.tileSeen(index);
+				changed++;
+			}
+		}
+		
+		if (this.team != null)
+			this.exchange(vision.getMinX(), vision.getMinY(), vision.getMaxX(), vision.getMaxY());
+		if (metrics != null) {
+			metrics.updated(System.nanoTime() - begin, vision.size(), changed, expanded);
+		}
+	}
+	
+	/**
+	 * Shares the knowledge of the map with a team of robots playing the same game. From then on,
+	 * every update of the map publishes the changed tiles to the {@link TeamMap team map} and
+	 * adds the tiles the other robots published. The tiles within the current vision of the
+	 * robot are always taken from the vision, since they are the most recent ones.
+	 * <br><br>
+	 * After every path finding, the robot claims the goal of its plan. Goals claimed by robots
+	 * with a lower id are worth less, so the robots of a team spread across the goals. The robot
+	 * also tells the team where it stands and steps to: robots without a goal and robots with a
+	 * higher id {@link TeamMap#isGivingWay(long, int, int) give way}, so a robot plans its paths
+	 * through the robots giving way to it, while those plan around it. If a robot is blocked by
+	 * another robot nonetheless, the {@link DistancePilot} lets it step aside or back out.
+	 * 
+	 * @param team The team map.
+	 * @param robot The id of the robot, which has to be unique within the team.
+	 */
+	void share(final TeamMap team, final long robot) {
+		this.team = team;
+		this.teamRobot = robot;
+		this.teamVersion = 0L;
+		this.claimVersion = team.getClaimVersion() - 1;
+		
+		// the tiles known so far are published with the next update
+		final TileGrid grid = this.grid;
+		this.sharedTiles.clear();
+		for (int x = this.bounds.x.min; x <= this.bounds.x.max; x++) {
+			for (int y = this.bounds.y.min; y <= this.bounds.y.max; y++) {
+				final int index = grid.index(x, y);
+				if (index != TileGrid.NO_INDEX && !grid.isUndefined(index))
+					this.tileSeen(index);
+			}
+		}
+	}
+	
+	/**
+	 * Checks whether the map is {@link #share(TeamMap, long) shared} with a team.
+	 * 
+	 * @return <code>True</code> if the map is shared, <code>false</code> otherwise.
+	 */
+	boolean isShared() {
+		return this.team != null;
+	}
+	
+	/**
+	 * Checks whether a tile holds a robot of the team that gives way to the robot or is stepped
+	 * onto by one. The map shows such a tile as free, since the robot plans its paths through it.
+	 * 
+	 * @param index The index of the tile.
+	 * @return <code>True</code> if a robot giving way is on the tile, <code>false</code> otherwise.
+	 */
+	boolean isGivingWay(final int index) {
+		return this.team != null && this.team.isGivingWay(this.teamRobot, this.grid.getX(index), this.grid.getY(index));
+	}
+	
+	/**
+	 * Checks whether a tile holds a robot of the team that should give way to the robot,
+	 * but is {@link TeamMap#isStuck(long, int, int) stuck}.
+	 * 
+	 * @param index The index of the tile.
+	 * @return <code>True</code> if a stuck robot is on the tile, <code>false</code> otherwise.
+	 */
+	boolean isStuck(final int index) {
+		return this.team != null && this.team.isStuck(this.teamRobot, this.grid.getX(index), this.grid.getY(index));
+	}
+	
+	/**
+	 * Checks whether a tile seen by the robot holds a robot of the team that gives way to it.
+	 * 
+	 * @param x The x coordinate of the tile.
+	 * @param y The y coordinate of the tile.
+	 * @param visitor The kind of the visitor on the tile.
+	 * @return <code>True</code> if the visitor gives way to the robot, <code>false</code> otherwise.
+	 */
+	private boolean isGivingWay(final int x, final int y, final int visitor) {
+		return visitor == EntityKinds.OTHER_VISITOR && this.team.isGivingWay(this.teamRobot, x, y);
+	}
+	
+	/**
+	 * Checks whether a tile seen by the robot holds a robot of the team that gives way to it,
+	 * see {@link #isGivingWay(int, int, int)}.
+	 * 
+	 * @param tile The tile.
+	 * @return <code>True</code> if the map is shared and the visitor gives way to the robot,
+	 * 		<code>false</code> otherwise.
+	 */
+	private boolean isGivingWay(final Tile tile) {
+		return this.team != null && tile.hasVisitor()
+				&& this.isGivingWay(tile.getX(), tile.getY(), EntityKinds.visitorKind(tile.getVisitor()));
+	}
+	
+	/**
+	 * Remembers a tile changed by the vision of the robot to publish it to the team.
+	 * 
+	 * @param index The index of the tile.
+	 */
+	private void tileSeen(final int index) {
+		if (this.team == null)
+			return;
+		
+		final TileGrid grid = this.grid;
+		this.sharedTiles.add(grid.getX(index), grid.getY(index), grid.getMaterial(index),
+				grid.getItemKind(index), grid.getVisitorKind(index));
+	}
+	
+	/**
+	 * Publishes the tiles changed by the vision of the robot to the team, adds the tiles
+	 * published by the others outside of the vision and updates the claimed goals.
+	 * 
+	 * @param minX The minimum x coordinate of the vision.
+	 * @param minY The minimum y coordinate of the vision.
+	 * @param maxX The maximum x coordinate of the vision.
+	 * @param maxY The maximum y coordinate of the vision.
+	 */
+	private void exchange(final int minX, final int minY, final int maxX, final int maxY) {
+		final TeamMap team = this.team;
+		team.publish(this.sharedTiles);
+		this.sharedTiles.clear();
+		
+		final VisionBuffer tiles = this.teamTiles;
+		this.teamVersion = team.read(this.teamVersion, tiles);
+		if (!tiles.isEmpty()) {
+			this.expand(tiles.getMinX(), tiles.getMinY(), tiles.getMaxX(), tiles.getMaxY());
+			final TileGrid grid = this.grid;
+			for (int i = 0; i < tiles.size(); i++) {
+				final int x = tiles.getX(i);
+				final int y = tiles.getY(i);
+				if (x >= minX && x <= maxX && y >= minY && y <= maxY)
+					continue;
+				
+				final int index = grid.index(x, y);
+				if (grid.update(index, tiles.getMaterial(i), tiles.getItem(i), tiles.getVisitor(i)))
+					this.tileChanged(index);
+			}
+			tiles.clear();
+		}
+		
+		final int claimVersion = team.getClaimVersion();
+		if (claimVersion != this.claimVersion) {
+			this.claimVersion = claimVersion;
+			this.updateClaims();
+		}
+	}
+	
+	/**
+	 * Collects the goals claimed by robots of the team with a lower id and updates the
+	 * distance field and the plan for every goal that was claimed or released.
+	 */
+	private void updateClaims() {
+		final TileGrid grid = this.grid;
+		final CellSet previous = this.claimed;
+		final CellSet claimed = this.previousClaimed;
+		claimed.clear();
+		int count = this.team.readClaims(this.teamRobot, this.claimGoals);
+		while (count == this.claimGoals.length) {
+			this.claimGoals = new long[count * 2];
+			count = this.team.readClaims(this.teamRobot, this.claimGoals);
+		}
+		for (int i = 0; i < count; i++) {
+			final int index = grid.index(TeamMap.unpackX(this.claimGoals[i]), TeamMap.unpackY(this.claimGoals[i]));
+			if (index != TileGrid.NO_INDEX)
+				claimed.add(index);
+		}
+		
+		// the claims are swapped first, so the goal values are up to date while the tiles are invalidated
+		this.claimed = claimed;
+		this.previousClaimed = previous;
+		this.claimsChanged(previous, claimed);
+		this.claimsChanged(claimed, previous);
+	}
+	
+	/**
+	 * Invalidates every tile of a set of claimed goals which is not part of the other set.
+	 * 
+	 * @param tiles The goals to check.
+	 * @param others The goals to compare with.
+	 */
+	private void claimsChanged(final CellSet tiles, final CellSet others) {
+		for (int slot = 0; slot < tiles.capacity(); slot++) {
+			final int index = tiles.get(slot);
+			if (index == TileGrid.NO_INDEX || others.contains(index))
+				continue;
+			
+			this.field.invalidateTile(index);
+			if (!this.replan)
+				this.changedTiles.add(index);
+		}
+	}
+	
+	/**
+	 * Tells the team where the robot stands and steps to and claims the goal of the plan.
+	 * 
+	 * @param start The index of the robot's tile.
+	 */
+	private void updateTeam(final int start) {
+		final Plan plan = this.plan;
+		final TileGrid grid = this.grid;
+		final int next = plan.getStep() != TileGrid.NO_INDEX ? plan.getStep() : start;
+		this.team.locate(this.teamRobot, grid.getX(start), grid.getY(start), grid.getX(next), grid.getY(next));
+		
+		final int goal = plan.getGoal();
+		if (goal == this.claimedGoal)
+			return;
+		
+		this.claimedGoal = goal;
+		if (goal == TileGrid.NO_INDEX)
+			this.team.release(this.teamRobot);
+		else
+			this.team.claim(this.teamRobot, grid.getX(goal), grid.getY(goal));
+	}
+	
+	/**
+	 * Writes the known tiles of the map to a {@link MapStore stored map}, which can be used
+	 * to {@link #warmStart(MapStore) warm start} a map on the same level in later games.
+	 * 
+	 * @param file The file to write the map to.
+	 * @throws IOException If the file can not be written.
+	 */
+	public void export(final Path file) throws IOException {
+		MapStore.write(file, this.grid, this.bounds.x.min, this.bounds.y.min, this.getWidth(), this.getHeight());
+	}
+	
+	/**
+	 * Updates the distance field for a robot on the given tile and compares the repaired values
+	 * with a rebuild from scratch, see {@link DistanceField#verify(int)}. The field is updated even
+	 * if the paths are planned by another planner, so every change of the map is repaired.
+	 * 
+	 * @param x The x coordinate of the robot.
+	 * @param y The y coordinate of the robot.
+	 * @return The number of tiles whose repaired value differs from the rebuilt value or
+	 * 		<code>-1</code> if the field was not repaired.
+	 */
+	int verifyField(final int x, final int y) {
+		final int start = this.grid.index(x, y);
+		return start != TileGrid.NO_INDEX ? this.field.verify(start) : -1;
+	}
+	
+	/**
+	 * Makes sure that a {@link MapSnapshot snapshot} is taken after the next turn, even if
+	 * nobody reads the {@link #getView() view}.
+	 */
+	void requestSnapshot() {
+		this.snapshotRead = true;
+	}
+	
+	/**
+	 * Returns the latest {@link MapSnapshot snapshot} of the map, which is taken by the thread
+	 * planning the turn and may be read by any thread.
+	 * 
+	 * @return The latest snapshot or <code>null</code> if none was taken yet.
+	 */
+	MapSnapshot getSnapshot() {
+		return this.snapshot;
+	}
+	
+	/**
+	 * Loads the tiles of a {@link MapStore stored map} that were not seen yet. The stored map
+	 * is verified against the tiles seen so far first: it is only loaded if it overlaps with
+	 * them and if their materials match, except for gates which may have been opened.
+	 * Loaded tiles are replaced by the live vision like any other tile once they are seen.
+	 * <br><br>
+	 * A map should be warm started right after the first vision was added.
+	 * 
+	 * @param store The stored map.
+	 * @return <code>True</code> if the stored map was loaded, <code>false</code> if it does not match.
+	 */
+	boolean warmStart(final MapStore store) {
+		final TileGrid grid = this.grid;
+		final int minX = Math.max(this.bounds.x.min, store.getMinX());
+		final int minY = Math.max(this.bounds.y.min, store.getMinY());
+		final int maxX = Math.min(this.bounds.x.max, store.getMinX() + store.getWidth() - 1);
+		final int maxY = Math.min(this.bounds.y.max, store.getMinY() + store.getHeight() - 1);
+		int matches = 0;
+		for (int x = minX; x <= maxX; x++) {
+			for (int y = minY; y <= maxY; y++) {
+				final Material material = grid.getMaterial(grid.index(x, y));
+				if (material == Material.UNDEFINED)
+					continue;
+				if (MapStore.getStoredMaterial(material) != store.getMaterial(x, y))
+					return false;
+				
+				matches++;
+			}
+		}
+		if (matches == 0)
+			return false;
+		
+		this.expand(store.getMinX(), store.getMinY(),
+				store.getMinX() + store.getWidth() - 1, store.getMinY() + store.getHeight() - 1);
+		for (int x = store.getMinX(); x < store.getMinX() + store.getWidth(); x++) {
+			for (int y = store.getMinY(); y < store.getMinY() + store.getHeight(); y++) {
+				final int index = grid.index(x, y);
+				final Material material = store.getMaterial(x, y);
+				if (material == Material.UNDEFINED || grid.getMaterial(index) != Material.UNDEFINED)
+					continue;
+				
+				if (grid.update(index, material, store.getItemKind(x, y), store.getVisitorKind(x, y)))
+					this.tileChanged(index);
+			}
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Expands the bounds of the map so that they contain the given rectangle.
+	 * 
+	 * @param minX The minimum x coordinate.
+	 * @param minY The minimum y coordinate.
+	 * @param maxX The maximum x coordinate.
+	 * @param maxY The maximum y coordinate.
+	 * @return <code>True</code> if the bounds were expanded, <code>false</code> otherwise.
+	 */
+	private boolean expand(final int minX, final int minY, final int maxX, final int maxY) {
+		if (this.bounds.contains(minX, minY) && this.bounds.contains(maxX, maxY))
+			return false;
+		
+		final Bounds oldBounds = this.bounds;
+		final Bounds newBounds = oldBounds.expanded(minX, minY, maxX, maxY);
+		this.grid.allocate(newBounds.x.min, newBounds.y.min, newBounds.x.max, newBounds.y.max);
+		this.bounds = newBounds;
+		this.expandGoals(oldBounds, newBounds);
+		
+		// the border of the map moved, which changes the goals everywhere
+		this.field.invalidateAll();
+		this.replan = true;
+		return true;
+	}
+	
+	/**
+	 * Updates the goals, the distance field and the plan after a tile changed.
+	 * 
+	 * @param index The index of the changed tile.
+	 */
+	private void tileChanged(final int index) {
+		if (this.isStar(index))
+			this.tour.invalidate();
+		this.tour.mapChanged();
+		final int category = this.getGoalCategory(index);
+		if (this.inventory != null)
+			this.inventory.mapChanged(category != GoalIndex.NONE || this.goals.contains(index));
+		this.goals.update(index, category);
+		this.field.invalidateTile(index);
+		if (this.hierarchy != null)
+			this.hierarchy.invalidateTile(index);
+		if (!this.replan)
+			this.changedTiles.add(index);
+		this.pairTeleporter(index);
+		
+		// the tile may move the frontier on itself and on its neighbors
+		this.updateFrontier(index);
+		for (final Facing facing : NEIGHBOR_FACINGS) {
+			final int neighbor = this.grid.neighbor(index, facing);
+			if (neighbor != TileGrid.NO_INDEX)
+				this.updateFrontier(neighbor);
+		}
+	}
+	
+	/**
+	 * Adds a tile to the frontier of the {@link GoalIndex} or removes it, and updates the
+	 * distance field and the plan if that changed the frontier.
+	 * 
+	 * @param index The index of the tile.
+	 */
+	private void updateFrontier(final int index) {
+		if (this.goals.setFrontier(index, this.bordersUnknown(index))) {
+			this.field.invalidateTile(index);
+			if (this.hierarchy != null)
+				this.hierarchy.invalidateTile(index);
+			if (!this.replan)
+				this.changedTiles.add(index);
+		}
+	}
+	
+	/**
+	 * Computes the optimal next tile to visit.
+	 * <br><br>
+	 * The optimal next tile to visit is computed by counting the actions needed to reach
+	 * a certain item and by the weight of that item. The underlying {@link DistanceField}
+	 * is only repaired where the map changed since the last call.
+	 * <br><br>
+	 * The path to the chosen goal is kept as a {@link Plan}, which is followed in the next
+	 * turns without any path finding, as long as none of the tiles ahead changed and no
+	 * changed tile became a goal that could be better than the planned one.
+	 * 
+	 * @param x The x coordinate of the robot.
+	 * @param y The y coordinate of the robot.
+	 * @param capabilities The capabilities of the robot in this turn.
+	 * @return The optimal tile to visit next.
+	 */
+	public Tile getNextTile(final int x, final int y, final Capabilities capabilities) {
+		final int step = this.getNextIndex(x, y, capabilities);
+		return step == TileGrid.NO_INDEX ? null : this.getTile(this.grid.getX(step), this.grid.getY(step));
+	}
+	
+	/**
+	 * Computes the optimal next tile to visit like {@link #getNextTile(int, int, Capabilities)},
+	 * but returns the index of the tile instead of creating a {@link Tile} object.
+	 * 
+	 * @param x The x coordinate of the robot.
+	 * @param y The y coordinate of the robot.
+	 * @param capabilities The capabilities of the robot in this turn.
+	 * @return The index of the optimal tile to visit next or {@link TileGrid#NO_INDEX}.
+	 */
+	int getNextIndex(final int x, final int y, final Capabilities capabilities) {
+		return this.getNextIndex(x, y, null, capabilities);
+	}
+	
+	/**
+	 * Computes the optimal next tile to visit like {@link #getNextIndex(int, int, Capabilities)}.
+	 * If the facing of the robot is given, the path is planned by the {@link FacingPlanner},
+	 * which minimizes the actions of the robot instead of the tiles it steps on. On large maps,
+	 * goals far away from the robot may be planned by the {@link HierarchicalPlanner} instead.
+	 * 
+	 * @param x The x coordinate of the robot.
+	 * @param y The y coordinate of the robot.
+	 * @param facing The facing of the robot or <code>null</code> if it is not known.
+	 * @param capabilities The capabilities of the robot in this turn.
+	 * @return The index of the optimal tile to visit next or {@link TileGrid#NO_INDEX}.
+	 */
+	int getNextIndex(final int x, final int y, final Facing facing, final Capabilities capabilities) {
+		return this.getNextIndex(x, y, facing, capabilities, false);
+	}
+	
+	/**
+	 * Computes the optimal next tile to visit like {@link #getNextIndex(int, int, Facing, Capabilities)}.
+	 * If planning is deferred and the plan is not valid anymore, but the robot can still take its
+	 * next step, the step is handed out without planning and the next call plans with everything
+	 * seen until then. This is meant for a robot that {@link DistancePilot plans its next turn}
+	 * in the background, so planning stays off its turn.
+	 * 
+	 * @param x The x coordinate of the robot.
+	 * @param y The y coordinate of the robot.
+	 * @param facing The facing of the robot or <code>null</code> if it is not known.
+	 * @param capabilities The capabilities of the robot in this turn.
+	 * @param deferPlanning Whether planning may be deferred to the next call.
+	 * @return The index of the optimal tile to visit next or {@link TileGrid#NO_INDEX}.
+	 */
+	int getNextIndex(final int x, final int y, final Facing facing, final Capabilities capabilities,
+			final boolean deferPlanning) {
+		final TileGrid grid = this.grid;
+		final int start = grid.index(x, y);
+		if (start == TileGrid.NO_INDEX)
+			return TileGrid.NO_INDEX;
+		
+		this.learnTeleporter(start);
+		
+		final PlannerMetrics metrics = this.getMetrics();
+		PlannerTurnEvent event = null;
+		if (metrics != null && TURN_EVENT.isEnabled()) {
+			event = new PlannerTurnEvent();
+			event.begin();
+		}
+		long time = metrics != null ? System.nanoTime() : 0L;
+		
+		final boolean capabilitiesChanged = !capabilities.equals(this.capabilities);
+		if (capabilitiesChanged) {
+			this.capabilities = capabilities;
+			this.field.invalidateCategory(GoalIndex.BOULDERS);
+			this.field.invalidateCategory(GoalIndex.GATES);
+			// the keys and charges worth collecting depend on the ones the robot holds
+			if (this.inventory != null)
+				this.field.invalidateCategory(GoalIndex.ITEMS);
+			this.replan = true;
+		}
+		final int categories = this.inventory != null ? this.inventory.update(start, capabilities) : 0;
+		if (categories != 0) {
+			// the plan decides which keys and charges are worth collecting and which barriers worth opening
+			for (int category = 0; category < GoalIndex.FRONTIER; category++) {
+				if ((categories & 1 << category) != 0)
+					this.field.invalidateCategory(category);
+			}
+			this.replan = true;
+		}
+		
+		final Plan plan = this.plan;
+		final boolean valid = this.isPlanValid(start);
+		if (metrics != null) {
+			final long now = System.nanoTime();
+			metrics.validateNanos = now - time;
+			metrics.replanned = !valid;
+			time = now;
+		}
+		
+		final boolean deferred = !valid && deferPlanning && !capabilitiesChanged && this.canFollowPlan(start);
+		if (valid || deferred) {
+			// a deferred plan is followed one more step, the next call plans with everything seen until then
+			if (start != plan.getStart())
+				plan.advance();
+		} else if (this.hierarchy != null && this.bounds.width() * this.bounds.height() >= HierarchicalPlanner.AREA
+				&& this.hierarchy.plan(start, facing, plan, metrics)) {
+			// the first leg of the path to a far away goal was planned on the graph of the clusters
+		} else if (FACING_PLANNER && facing != null) {
+			this.planner.plan(start, facing, plan, metrics);
+			
+			// once the nearest goal is a star, the stars are visited in the order of the tour
+			final int goal = plan.getGoal();
+			if (TOUR_PLANNER && goal != TileGrid.NO_INDEX && this.isStar(goal)) {
+				final int target = this.tour.next(start, this.goals.get(GoalIndex.ITEMS));
+				if (target != TileGrid.NO_INDEX && target != goal
+						&& !this.planner.planTo(start, facing, target, plan, metrics)) {
+					// the star can not be reached anymore, so the tour is rebuilt next time
+					this.tour.invalidate();
+					this.planner.plan(start, facing, plan, metrics);
+				}
+			}
+		} else {
+			this.field.update(start, metrics);
+			if (metrics != null)
+				time = System.nanoTime();
+			
+			plan.reset(start);
+			int tile = this.getNextPathTile(start);
+			while (tile != TileGrid.NO_INDEX) {
+				plan.add(tile, grid.getValue(tile));
+				tile = this.getNextPathTile(tile);
+			}
+			if (metrics != null)
+				metrics.extractNanos = System.nanoTime() - time;
+		}
+		
+		this.changedTiles.clear();
+		this.replan = deferred;
+		this.planned = !valid && !deferred;
+		if (this.team != null)
+			this.updateTeam(start);
+		
+		if (this.snapshotRead)
+			this.takeSnapshot();
+		if (metrics != null) {
+			this.publish(metrics, event);
+		}
+		
+		return plan.getStep();
+	}
+	
+	/**
+	 * Takes a {@link MapSnapshot snapshot} of the map right away like {@link #takeSnapshot()}.
+	 * It must not be called while another thread changes the map.
+	 * 
+	 * @return The snapshot.
+	 */
+	MapSnapshot snapshot() {
+		this.takeSnapshot();
+		return this.snapshot;
+	}
+	
+	/**
+	 * Takes a {@link MapSnapshot snapshot} of the map and publishes it to the view. Only the
+	 * chunks of the grid that changed since the previous snapshot are copied and the planned
+	 * path is shared with the previous snapshot as long as it did not change. The values of
+	 * the tiles are only copied if they are rendered.
+	 */
+	private void takeSnapshot() {
+		final MapSnapshot previous = this.snapshot;
+		final TileGrid grid = this.grid.snapshot(previous != null ? previous.getGrid() : null, RENDER_DEBUG_OVERLAY);
+		List<Location> path = previous != null ? previous.getPath() : Collections.emptyList();
+		if (!path.equals(this.pathOverlay))
+			path = Collections.unmodifiableList(Arrays.asList(this.pathOverlay.toArray(new Location[0])));
+		
+		final Bounds bounds = this.bounds;
+		this.snapshotRead = false;
+		this.snapshot = new MapSnapshot(previous != null ? previous.getVersion() + 1 : 0, grid,
+				this.getMinX(), this.getMinY(), this.getMaxX(), this.getMaxY(), bounds.width(), bounds.height(),
+				path, RENDER_LOCATION_OVERLAY);
+	}
+	
+	/**
+	 * Returns the {@link PlannerMetrics metrics} to record the current turn in.
+	 * 
+	 * @return The metrics or <code>null</code> if no metrics are recorded.
+	 */
+	private PlannerMetrics getMetrics() {
+		return this.listener != null || TURN_EVENT.isEnabled() ? this.metrics : null;
+	}
+	
+	/**
+	 * Completes the {@link PlannerMetrics metrics} of the current turn, passes them to the
+	 * listener and the flight recorder and starts the next turn.
+	 * 
+	 * @param metrics The metrics of the turn.
+	 * @param event The flight recorder event of the turn, may be <code>null</code>.
+	 */
+	private void publish(final PlannerMetrics metrics, final PlannerTurnEvent event) {
+		final Plan plan = this.plan;
+		metrics.area = this.bounds.width() * this.bounds.height();
+		metrics.pathLength = plan.getLength() - plan.getPosition();
+		if (plan.getLength() > 0)
+			metrics.goalCategory = this.goals.getCategory(plan.getGoal());
+		
+		final PlannerListener listener = this.listener;
+		if (listener != null)
+			listener.turnPlanned(metrics);
+		
+		if (event != null) {
+			event.end();
+			if (event.shouldCommit()) {
+				event.set(metrics);
+				event.commit();
+			}
+		}
+		
+		metrics.next();
+	}
+	
+	/**
+	 * Checks whether the {@link Plan plan} can still be followed by a robot on the given tile.
+	 * This is the case if the robot is on the tile it was on when the current step was handed
+	 * out or on the tile of the current step, none of the tiles ahead changed and none of the
+	 * changed tiles became a goal which could be reached cheaper than the planned one.
+	 * 
+	 * @param start The index of the robot's tile.
+	 * @return <code>True</code> if the plan is still valid, <code>false</code> otherwise.
+	 */
+	private boolean isPlanValid(final int start) {
+		final Plan plan = this.plan;
+		if (this.replan || plan.getStep() == TileGrid.NO_INDEX)
+			return false;
+		
+		int position = plan.getPosition();
+		if (start != plan.getStart()) {
+			if (start != plan.getStep() || position + 1 >= plan.getLength())
+				return false;
+			
+			position++;
+		}
+		
+		// the cost of the next tile is the cost of the remaining plan minus one,
+		// since the plan is not touched as long as it is followed
+		final TileGrid grid = this.grid;
+		final int cost = plan.getCost(position) + 1;
+		final int x = grid.getX(start);
+		final int y = grid.getY(start);
+		final CellSet changedTiles = this.changedTiles;
+		for (int slot = 0; slot < changedTiles.capacity(); slot++) {
+			final int index = changedTiles.get(slot);
+			if (index == TileGrid.NO_INDEX || index == start)
+				continue;
+			
+			if (plan.isAhead(index))
+				return false;
+			
+			final int value = this.getGoalValue(index);
+			if (value > 0 && value + Math.abs(grid.getX(index) - x) + Math.abs(grid.getY(index) - y) < cost)
+				return false;
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Checks whether the next call of {@link #getNextIndex(int, int, Facing, Capabilities)} for a
+	 * robot on the given tile only follows the current plan, which is quick, instead of planning a
+	 * new path. Nothing is changed by the check.
+	 * 
+	 * @param x The x coordinate of the robot.
+	 * @param y The y coordinate of the robot.
+	 * @param capabilities The capabilities of the robot in the next turn.
+	 * @return <code>True</code> if the plan is followed, <code>false</code> if it may be planned again.
+	 */
+	boolean isPlanCurrent(final int x, final int y, final Capabilities capabilities) {
+		final int start = this.grid.index(x, y);
+		return start != TileGrid.NO_INDEX && capabilities.equals(this.capabilities)
+				&& (this.inventory == null || !this.inventory.isDue(capabilities)) && this.isPlanValid(start);
+	}
+	
+	/**
+	 * Checks whether a robot on the given tile can take the next step of the plan right away,
+	 * even though the plan is not valid anymore. This is the case if the robot is where the plan
+	 * expects it and it can still step onto the tile of the step or finish the goal on it.
+	 * 
+	 * @param start The index of the robot's tile.
+	 * @return <code>True</code> if the step can be taken, <code>false</code> otherwise.
+	 */
+	private boolean canFollowPlan(final int start) {
+		final Plan plan = this.plan;
+		if (plan.getStep() == TileGrid.NO_INDEX)
+			return false;
+		
+		int position = plan.getPosition();
+		if (start != plan.getStart()) {
+			if (start != plan.getStep() || position + 1 >= plan.getLength())
+				return false;
+			
+			position++;
+		}
+		
+		final int step = plan.get(position);
+		return this.grid.isPassable(step) || this.canShootBoulder(step) || this.hasKeyForGate(step);
+	}
+	
+	/**
+	 * Checks whether the last call of {@link #getNextIndex(int, int, Facing, Capabilities, boolean)}
+	 * planned a new path instead of following the plan.
+	 * 
+	 * @return <code>True</code> if the map planned, <code>false</code> otherwise.
+	 */
+	boolean hasPlanned() {
+		return this.planned;
+	}
+	
+	/**
+	 * Returns the path rendered as overlay of the map, which is a view of the {@link #getPlan() plan}
+	 * without the tile of the robot.
+	 * 
+	 * @return The path.
+	 */
+	List<Location> getPath() {
+		return this.pathOverlay;
+	}
+	
+	/**
+	 * Returns the {@link Plan plan} computed by the last call of {@link #getNextIndex(int, int, Facing, Capabilities)},
+	 * which is changed by the next call.
+	 * 
+	 * @return The current plan.
+	 */
+	Plan getPlan() {
+		return this.plan;
+	}
+	
+	/**
+	 * Checks whether a robot can step onto a tile without using an item.
+	 * 
+	 * @param index The index of the tile.
+	 * @return <code>True</code> if the tile is passable, <code>false</code> otherwise.
+	 */
+	boolean isPassable(final int index) {
+		return this.grid.isPassable(index);
+	}
+	
+	/**
+	 * Returns the path finding value of a tile, which is only up to date after the map
+	 * {@link #hasPlanned() planned} with the distance field.
+	 * 
+	 * @param index The index of the tile.
+	 * @return The value of the tile.
+	 */
+	int getValue(final int index) {
+		return this.grid.getValue(index);
+	}
+	
+	/**
+	 * Returns the index of the tile with the given coordinates.
+	 * 
+	 * @param x The x coordinate of the tile.
+	 * @param y The y coordinate of the tile.
+	 * @return The index of the tile or {@link TileGrid#NO_INDEX} if it is outside of the map.
+	 */
+	int getTileIndex(final int x, final int y) {
+		return this.grid.index(x, y);
+	}
+	
+	/**
+	 * Returns the x coordinate of a tile.
+	 * 
+	 * @param index The index of the tile.
+	 * @return The x coordinate of the tile.
+	 */
+	int getTileX(final int index) {
+		return this.grid.getX(index);
+	}
+	
+	/**
+	 * Returns the y coordinate of a tile.
+	 * 
+	 * @param index The index of the tile.
+	 * @return The y coordinate of the tile.
+	 */
+	int getTileY(final int index) {
+		return this.grid.getY(index);
+	}
+	
+	/**
+	 * Returns the material of a tile.
+	 * 
+	 * @param index The index of the tile.
+	 * @return The material, {@link Material#UNDEFINED} if the tile was not seen yet.
+	 */
+	Material getMaterial(final int index) {
+		return this.grid.getMaterial(index);
+	}
+	
+	protected boolean hasKeyForGate(final Tile tile) {
+		return this.hasKeyForGate(tile.getMaterial());
+	}
+	
+	boolean hasKeyForGate(final int index) {
+		return this.hasKeyForGate(this.grid.getMaterial(index));
+	}
+	
+	private boolean hasKeyForGate(final Material material) {
+		final int key = GATE_KEY_BITS[material.ordinal()];
+		return key != 0 && this.capabilities.hasKeys(key);
+	}
+	
+	protected boolean canShootBoulder(final Tile tile) {
+		return this.canShootBoulderKind(EntityKinds.visitorKind(tile.getVisitor()));
+	}
+	
+	boolean canShootBoulder(final int index) {
+		return this.canShootBoulderKind(this.grid.getVisitorKind(index));
+	}
+	
+	private boolean canShootBoulderKind(final int visitor) {
+		final int chargesNeeded = VISITOR_CHARGES[visitor];
+		return chargesNeeded != 0 && this.capabilities.getCharges() >= chargesNeeded;
+	}
+	
+	protected boolean canUseTeleporter(final Tile tile) {
+		return this.canUseTeleporter(this.grid.index(tile.getX(), tile.getY()), tile.getMaterial());
+	}
+	
+	boolean canUseTeleporter(final int index) {
+		return this.canUseTeleporter(index, this.grid.getMaterial(index));
+	}
+	
+	private boolean canUseTeleporter(final int index, final Material material) {
+		return TELEPORTER_MATERIALS.contains(material) && !this.usedTeleporters.contains(index)
+				&& this.getTeleporterDestination(index) == TileGrid.NO_INDEX;
+	}
+	
+	/**
+	 * Checks whether a tile is a teleporter, regardless of whether the robot used it already.
+	 * 
+	 * @param index The index of the tile.
+	 * @return <code>True</code> if stepping onto the tile teleports the robot, <code>false</code> otherwise.
+	 */
+	boolean isTeleporter(final int index) {
+		return isTeleporter(this.grid, index);
+	}
+	
+	/**
+	 * Checks whether a cell of a grid is a teleporter, see {@link #isTeleporter(int)}.
+	 * 
+	 * @param grid The grid holding the cell, which may be a snapshot.
+	 * @param index The index of the cell.
+	 * @return <code>True</code> if stepping onto the cell teleports the robot, <code>false</code> otherwise.
+	 */
+	static boolean isTeleporter(final TileGrid grid, final int index) {
+		return TELEPORTER_MATERIALS.contains(grid.getMaterial(index));
+	}
+	
+	/**
+	 * Remembers that the robot steps from the source tile onto the target teleporter.
+	 * 
+	 * @param source The tile the robot leaves.
+	 * @param target The teleporter the robot uses.
+	 */
+	protected void useTeleporter(final Tile source, final Tile target) {
+		this.useTeleporter(this.grid.index(source.getX(), source.getY()), this.grid.index(target.getX(), target.getY()));
+	}
+	
+	/**
+	 * Remembers that the robot steps from the source tile onto the target teleporter. Where the
+	 * teleporter leads is learned from the position of the robot in the next turn.
+	 * 
+	 * @param source The index of the tile the robot leaves.
+	 * @param target The index of the teleporter the robot uses.
+	 */
+	void useTeleporter(final int source, final int target) {
+		if (target != TileGrid.NO_INDEX && this.usedTeleporters.add(target)) {
+			this.field.invalidateTile(target);
+		}
+		this.replan = true;
+		if (target != TileGrid.NO_INDEX && (this.getTeleporterDestination(target) == TileGrid.NO_INDEX
+				|| this.assumedLinks.contains(target))) {
+			this.pendingTeleporter = target;
+			this.pendingSource = source;
+		}
+		
+		if (source != TileGrid.NO_INDEX) {
+			this.grid.clearVisitor(source);
+			this.goals.update(source, this.getGoalCategory(source));
+			this.field.invalidateTile(source);
+			if (this.hierarchy != null)
+				this.hierarchy.invalidateTile(source);
+			this.updateFrontier(source);
+		}
+	}
+	
+	/**
+	 * Changes the map the way the robot expects it to look once it picked up the item on
+	 * its tile, before the robot sees it. If the vision of the next turn shows the same,
+	 * it does not change the map anymore.
+	 * 
+	 * @param index The index of the robot's tile.
+	 * @param capabilities The capabilities of the robot before it picks up the item.
+	 * @return The capabilities the robot is expected to have afterwards.
+	 */
+	Capabilities expectPickUp(final int index, final Capabilities capabilities) {
+		final TileGrid grid = this.grid;
+		final int item = grid.getItemKind(index);
+		if (item == EntityKinds.NONE)
+			return capabilities;
+		
+		this.expectTile(index, grid.getMaterial(index), EntityKinds.NONE, grid.getVisitorKind(index));
+		if (item == EntityKinds.LASER_CHARGE)
+			return Capabilities.of(capabilities.getCharges() + 1, capabilities.getKeys());
+		
+		return Capabilities.of(capabilities.getCharges(), capabilities.getKeys() | ITEM_KEY_BITS[item]);
+	}
+	
+	/**
+	 * Changes the map the way the robot expects it to look once it shot a laser charge at the
+	 * tile in front of it, before the robot sees it: a shot makes a boulder one size smaller and
+	 * removes the smallest one.
+	 * 
+	 * @param index The index of the tile in front of the robot.
+	 * @param capabilities The capabilities of the robot before it shoots.
+	 * @return The capabilities the robot is expected to have afterwards.
+	 */
+	Capabilities expectShot(final int index, final Capabilities capabilities) {
+		final TileGrid grid = this.grid;
+		final int visitor = grid.getVisitorKind(index);
+		if (VISITOR_CHARGES[visitor] != 0)
+			this.expectTile(index, grid.getMaterial(index), grid.getItemKind(index), visitor - 1);
+		
+		return Capabilities.of(Math.max(0, capabilities.getCharges() - 1), capabilities.getKeys());
+	}
+	
+	/**
+	 * Changes the map the way the robot expects it to look once it stepped from one tile onto
+	 * another, before the robot sees it: the robot takes its visitor along, so the tile it left
+	 * does not block the paths leading back.
+	 * 
+	 * @param from The index of the tile the robot leaves.
+	 * @param to The index of the tile the robot lands on.
+	 */
+	void expectMove(final int from, final int to) {
+		final TileGrid grid = this.grid;
+		final int visitor = grid.getVisitorKind(from);
+		if (visitor == EntityKinds.NONE)
+			return;
+		
+		this.expectTile(from, grid.getMaterial(from), grid.getItemKind(from), EntityKinds.NONE);
+		this.expectTile(to, grid.getMaterial(to), grid.getItemKind(to), visitor);
+	}
+	
+	/**
+	 * Updates a tile with what the robot expects to see there. Unlike a vision, the tile
+	 * is not published to the team, since the vision of the next turn confirms it or corrects it.
+	 * 
+	 * @param index The index of the tile.
+	 * @param material The expected material.
+	 * @param item The expected item kind.
+	 * @param visitor The expected visitor kind.
+	 */
+	private void expectTile(final int index, final Material material, final int item, final int visitor) {
+		if (this.grid.update(index, material, item, visitor))
+			this.tileChanged(index);
+	}
+	
+	/**
+	 * Learns the destination of the teleporter the robot stepped onto last, once the robot
+	 * left the tile it stepped onto the teleporter from. The robot lands on the other teleporter
+	 * of the same color, which leads back, so both directions are learned at once. If the robot
+	 * stands on anything else, the step onto the teleporter failed and nothing is learned.
+	 * A learned link replaces an assumed or outdated one.
+	 * 
+	 * @param start The index of the robot's tile.
+	 */
+	private void learnTeleporter(final int start) {
+		final int teleporter = this.pendingTeleporter;
+		if (teleporter == TileGrid.NO_INDEX || start == this.pendingSource)
+			return;
+		
+		this.pendingTeleporter = TileGrid.NO_INDEX;
+		if (start == teleporter || this.grid.getMaterial(start) != this.grid.getMaterial(teleporter))
+			return;
+		
+		if (this.getTeleporterDestination(teleporter) != start || this.assumedLinks.contains(teleporter))
+			this.linkTeleporter(teleporter, start, false);
+		if (this.getTeleporterDestination(start) != teleporter || this.assumedLinks.contains(start))
+			this.linkTeleporter(start, teleporter, false);
+	}
+	
+	/**
+	 * Assumes that a teleporter and the other teleporter of its color are linked, once both of
+	 * them are known and neither was linked yet. Since the teleporters of a color come in pairs,
+	 * stepping onto one of them leads to the other one without trying it first. If more than two
+	 * teleporters of the color are known, the assumed links of the color are dropped and nothing
+	 * is linked until the robot used the teleporters.
+	 * 
+	 * @param index The index of the teleporter.
+	 */
+	private void pairTeleporter(final int index) {
+		final TileGrid grid = this.grid;
+		final Material material = grid.getMaterial(index);
+		if (!TELEPORTER_MATERIALS.contains(material) || this.getTeleporterDestination(index) != TileGrid.NO_INDEX)
+			return;
+		
+		int other = TileGrid.NO_INDEX;
+		int others = 0;
+		final CellSet teleporters = this.goals.get(GoalIndex.TELEPORTERS);
+		for (int slot = 0; slot < teleporters.capacity(); slot++) {
+			final int teleporter = teleporters.get(slot);
+			if (teleporter == TileGrid.NO_INDEX || teleporter == index || grid.getMaterial(teleporter) != material)
+				continue;
+			
+			other = teleporter;
+			others++;
+		}
+		
+		if (others == 1) {
+			if (this.getTeleporterDestination(other) == TileGrid.NO_INDEX) {
+				this.linkTeleporter(index, other, true);
+				this.linkTeleporter(other, index, true);
+			}
+			return;
+		}
+		
+		for (int slot = 0; slot < teleporters.capacity(); slot++) {
+			final int teleporter = teleporters.get(slot);
+			if (teleporter != TileGrid.NO_INDEX && this.assumedLinks.contains(teleporter)
+					&& grid.getMaterial(teleporter) == material)
+				this.unlinkTeleporter(teleporter);
+		}
+	}
+	
+	/**
+	 * Remembers the destination of a teleporter, replacing the one it had. A teleporter with a
+	 * known destination is no goal anymore, paths lead through it instead.
+	 * 
+	 * @param teleporter The index of the teleporter.
+	 * @param destination The index of the tile stepping onto the teleporter leads to.
+	 * @param assumed Whether the destination is only assumed instead of learned by using the teleporter.
+	 */
+	private void linkTeleporter(final int teleporter, final int destination, final boolean assumed) {
+		final int link = this.findTeleporterLink(teleporter);
+		if (link != -1) {
+			this.teleporterLinks[link + 1] = destination;
+		} else {
+			if (this.teleporterLinkSize == this.teleporterLinks.length)
+				this.teleporterLinks = Arrays.copyOf(this.teleporterLinks, this.teleporterLinkSize * 2);
+			
+			this.teleporterLinks[this.teleporterLinkSize++] = teleporter;
+			this.teleporterLinks[this.teleporterLinkSize++] = destination;
+		}
+		
+		if (assumed)
+			this.assumedLinks.add(teleporter);
+		else
+			this.assumedLinks.remove(teleporter);
+		this.teleporterChanged(teleporter);
+	}
+	
+	/**
+	 * Forgets the assumed destination of a teleporter, which makes it a goal again unless the robot used it.
+	 * 
+	 * @param teleporter The index of the teleporter.
 	 */
-	private static final int BOULDER_VALUE = 50;
+	private void unlinkTeleporter(final int teleporter) {
+		final int link = this.findTeleporterLink(teleporter);
+		if (link == -1)
+			return;
+		
+		// the last link takes the place of the removed one
+		final int[] links = this.teleporterLinks;
+		this.teleporterLinkSize -= 2;
+		links[link] = links[this.teleporterLinkSize];
+		links[link + 1] = links[this.teleporterLinkSize + 1];
+		this.assumedLinks.remove(teleporter);
+		this.teleporterChanged(teleporter);
+	}
 	
 	/**
-	 * The weight of a star. This is the most important item in the game.
+	 * Updates the distance field and the plan after the destination of a teleporter changed.
+	 * 
+	 * @param teleporter The index of the teleporter.
 	 */
-	private static final int STAR_VALUE = 1;
+	private void teleporterChanged(final int teleporter) {
+		this.field.invalidateTile(teleporter);
+		if (this.hierarchy != null)
+			this.hierarchy.invalidateTile(teleporter);
+		if (this.inventory != null)
+			this.inventory.mapChanged(true);
+		this.replan = true;
+	}
 	
 	/**
-	 * The weight of unexplored parts of the world. This has currently
-	 * by far the highest weight to make sure that the primary goal of the
-	 * robot is to explore the world.
+	 * Finds the link of a teleporter in {@link #teleporterLinks}.
+	 * 
+	 * @param teleporter The index of the teleporter.
+	 * @return The position of the teleporter in the links or <code>-1</code> if it is not linked.
 	 */
-	private static final int UNDEFINED_VALUE = STAR_VALUE * 100;
+	private int findTeleporterLink(final int teleporter) {
+		final int[] links = this.teleporterLinks;
+		for (int i = 0; i < this.teleporterLinkSize; i += 2) {
+			if (links[i] == teleporter)
+				return i;
+		}
+		
+		return -1;
+	}
 	
 	/**
-	 * The weight of a teleport tile. If the robot did explore everything
-	 * in an area, it should go to a teleport tile. 
+	 * Returns the tile stepping onto a teleporter leads to, if the robot learned it already.
+	 * 
+	 * @param index The index of the tile.
+	 * @return The index of the destination or {@link TileGrid#NO_INDEX} if the tile is no teleporter
+	 * 		or its destination is not known.
 	 */
-	private static final int TELEPORTER_VALUE = UNDEFINED_VALUE * 100;
+	int getTeleporterDestination(final int index) {
+		final int link = this.findTeleporterLink(index);
+		return link != -1 ? this.teleporterLinks[link + 1] : TileGrid.NO_INDEX;
+	}
 	
 	/**
-	 * The {@link Tile tiles} known by the map.
+	 * Returns the goal value of a tile, which is the weight the path finding starts
+	 * with on that tile. Goals claimed by a robot of the team with priority are worth less.
+	 * 
+	 * @param index The index of the tile.
+	 * @return The goal value of the tile or <code>0</code> if it is not a goal.
 	 */
-	private MapTile[][] tiles;
+	int getGoalValue(final int index) {
+		final int value = this.getOwnGoalValue(index);
+		return value != 0 && this.team != null && this.claimed.contains(index) ? value + CLAIM_PENALTY : value;
+	}
 	
 	/**
-	 * The {@link Bounds} of the map.
+	 * Returns the goal value of a tile regardless of the claims of the team.
+	 * 
+	 * @param index The index of the tile.
+	 * @return The goal value of the tile or <code>0</code> if it is not a goal.
 	 */
-	private Bounds bounds;
+	private int getOwnGoalValue(final int index) {
+		final TileGrid grid = this.grid;
+		if (!this.bounds.contains(grid.getX(index), grid.getY(index))) {
+			return 0;
+		} else if (grid.hasItem(index)) {
+			return this.getItemValue(index);
+		} else if (this.canShootBoulderKind(grid.getVisitorKind(index))) {
+			return this.isPlanned(index) ? BOULDER_VALUE : 0;
+		} else if (this.hasKeyForGate(grid.getMaterial(index))) {
+			return this.isPlanned(index) ? GATE_VALUE : 0;
+		} else if (this.goals.isFrontier(index)) {
+			return UNDEFINED_VALUE;
+		} else if (this.canUseTeleporter(index, grid.getMaterial(index))) {
+			return TELEPORTER_VALUE;
+		}
+		
+		return 0;
+	}
 	
 	/**
-	 * The {@link AbstractAI AI}, which uses this {@link DistanceScalingMap map}.
+	 * Returns the goal value of an item. While the {@link InventoryPlanner} has a plan, keys and
+	 * charges the plan does not need are no goals once the map is explored. Before that they keep
+	 * their weight, since they may be needed behind the frontier and collecting them on the way
+	 * is cheaper than coming back for them.
+	 * 
+	 * @param index The index of the tile holding the item.
+	 * @return The goal value of the item or <code>0</code> if it is not a goal.
 	 */
-	private final AbstractAI ai;
+	private int getItemValue(final int index) {
+		final int kind = this.grid.getItemKind(index);
+		final InventoryPlanner inventory = this.inventory;
+		if (inventory == null || !inventory.isValid()) {
+			return ITEM_KIND_VALUES[kind];
+		} else if (ITEM_KEY_BITS[kind] != 0) {
+			if ((inventory.getNeededKeys() & ~this.capabilities.getKeys() & ITEM_KEY_BITS[kind]) != 0)
+				return ITEM_KIND_VALUES[kind];
+		} else if (kind == EntityKinds.LASER_CHARGE) {
+			if (this.capabilities.getCharges() < inventory.getNeededCharges())
+				return ITEM_KIND_VALUES[kind];
+		} else {
+			return ITEM_KIND_VALUES[kind];
+		}
+		
+		return inventory.isExplored() ? 0 : ITEM_KIND_VALUES[kind];
+	}
 	
 	/**
-	 * The list of locations of the optimal path. Used in debugging.
+	 * Checks whether a gate or boulder is worth opening. Without a plan of the {@link InventoryPlanner}
+	 * every gate and boulder the robot can open is.
+	 * 
+	 * @param index The index of the gate or boulder.
+	 * @return <code>True</code> if the robot should open it, <code>false</code> otherwise.
 	 */
-	private final List<Location> overlayLocations;
+	private boolean isPlanned(final int index) {
+		return this.inventory == null || !this.inventory.isValid() || this.inventory.isPlanned(index);
+	}
 	
-	/**
-	 * The list of map render additions. Used in debugging.
-	 */
-	private final List<MapRenderAddition> mapRenderAdditions;
+	private boolean isStar(final int index) {
+		return this.grid.getItemKind(index) == EntityKinds.STAR;
+	}
 	
 	/**
-	 * Initializes the teleport materials, item weights, gate keys and charges needed.
+	 * Checks whether a tile belongs to the frontier to the unexplored part of the map. These
+	 * are the known tiles within the bounds that can be walked on and lie next to an undefined
+	 * tile or on the border of the map, beyond which nothing is known. Teleporters are left out,
+	 * as stepping on them does not explore their surroundings.
+	 * 
+	 * @param index The index of the tile.
+	 * @return <code>True</code> if the tile is part of the frontier, <code>false</code> otherwise.
 	 */
-	static {
-		TELEPORTER_MATERIALS.put(Material.TELEPORTER_BLUE, 0);
-		TELEPORTER_MATERIALS.put(Material.TELEPORTER_GREEN, 0);
-		TELEPORTER_MATERIALS.put(Material.TELEPORTER_RED, 0);
-		TELEPORTER_MATERIALS.put(Material.TELEPORTER_YELLOW, 0);
-		
-		ITEM_VALUES.put(Cookie.class, COOKIE_VALUE);
-		ITEM_VALUES.put(BlueKey.class, KEY_VALUE);
-		ITEM_VALUES.put(GreenKey.class, KEY_VALUE);
-		ITEM_VALUES.put(RedKey.class, KEY_VALUE);
-		ITEM_VALUES.put(YellowKey.class, KEY_VALUE);
-		ITEM_VALUES.put(LaserCharge.class, CHARGE_VALUE);
-		ITEM_VALUES.put(Star.class, STAR_VALUE);
+	private boolean bordersUnknown(final int index) {
+		final TileGrid grid = this.grid;
+		final int x = grid.getX(index);
+		final int y = grid.getY(index);
+		if (!this.bounds.contains(x, y) || !grid.isPassable(index)
+				|| TELEPORTER_MATERIALS.contains(grid.getMaterial(index)))
+			return false;
+		else if (this.isBorder(x, y))
+			return true;
 		
-		GATE_KEYS.put(Material.GATE_CLOSED_BLUE, BlueKey.ITEM_NAME);
-		GATE_KEYS.put(Material.GATE_CLOSED_GREEN, GreenKey.ITEM_NAME);
-		GATE_KEYS.put(Material.GATE_CLOSED_RED, RedKey.ITEM_NAME);
-		GATE_KEYS.put(Material.GATE_CLOSED_YELLOW, YellowKey.ITEM_NAME);
+		for (final Facing facing : NEIGHBOR_FACINGS) {
+			if (this.isUnknown(grid.neighbor(index, facing)))
+				return true;
+		}
 		
-		CHARGES_NEEDED.put(LargeBoulder.class, 3);
-		CHARGES_NEEDED.put(MediumBoulder.class, 2);
-		CHARGES_NEEDED.put(SmallBoulder.class, 1);
+		return false;
 	}
 	
 	/**
-	 * Creates a new {@link DistanceScalingMap}.
+	 * Returns the number of actions needed to finish a goal once the robot faces it: an item
+	 * is stepped on and picked up, a boulder is shot once per charge needed and a tile of the
+	 * frontier is stepped on before the robot turns to face the unknown tile next to it.
+	 * Every other goal is either opened or stepped on.
+	 * 
+	 * @param index The index of the goal.
+	 * @param direction The facing of the robot as its position in {@link #NEIGHBOR_FACINGS}.
+	 * @return The number of actions.
 	 */
-	public DistanceScalingMap(final AbstractAI ai) {
-		this.tiles = new MapTile[0][0];
-		this.bounds = new Bounds();
-		this.ai = ai;
-		this.overlayLocations = new ArrayList<>();
-		this.mapRenderAdditions = new ArrayList<>();
-		
-		if (RENDER_LOCATION_OVERLAY) {
-			this.mapRenderAdditions.add(new MapLocationOverlay(this.overlayLocations, Color.RED, 0.5));
+	private int getFinishCost(final int index, final int direction) {
+		final TileGrid grid = this.grid;
+		if (grid.hasItem(index)) {
+			return 2;
+		} else if (grid.hasVisitor(index)) {
+			return Math.max(1, VISITOR_CHARGES[grid.getVisitorKind(index)]);
+		} else if (this.goals.isFrontier(index)) {
+			if (this.isUnknown(grid.neighbor(index, NEIGHBOR_FACINGS[direction])))
+				return 2;
+			else if (this.isUnknown(grid.neighbor(index, NEIGHBOR_FACINGS[direction + 1 & 3]))
+					|| this.isUnknown(grid.neighbor(index, NEIGHBOR_FACINGS[direction + 3 & 3])))
+				return 3;
+			
+			return 4;
 		}
+		
+		return 1;
 	}
 	
-	@Override
-	public boolean hasMapRenderAdditions() {
-		return RENDER_LOCATION_OVERLAY;
-	}
-	
-	@Override
-	public List<MapRenderAddition> getMapRenderAdditions() {
-		return this.mapRenderAdditions;
+	/**
+	 * Checks whether nothing is known about a tile.
+	 * 
+	 * @param index The index of the tile, may be {@link TileGrid#NO_INDEX}.
+	 * @return <code>True</code> if the tile is unknown, <code>false</code> otherwise.
+	 */
+	private boolean isUnknown(final int index) {
+		return index == TileGrid.NO_INDEX || this.grid.isUndefined(index);
 	}
 	
-	@Override
-	public int getMinX() {
-		return this.bounds.x.min;
-	}
-
-	@Override
-	public int getMaxX() {
-		return this.bounds.x.max + 1;
-	}
-
-	@Override
-	public int getMinY() {
-		return this.bounds.y.min;
-	}
-
-	@Override
-	public int getMaxY() {
-		return this.bounds.y.max + 1;
-	}
-
-	@Override
-	public int getWidth() {
-		return this.bounds.width();
-	}
-
-	@Override
-	public int getHeight() {
-		return this.bounds.height();
-	}
-
-	@Override
-	public MapTile getTile(final int x, final int y) {
-		if (this.bounds.contains(x, y))
-			return this.tiles[x - this.getMinX()][y - this.getMinY()];
-		else
-			return new MapTile(x, y);
-	}
-
 	/**
-	 * Updates the {@link DistanceScalingMap map} with the given {@link Tile tiles}.
-	 * This will scale the map as well to make sure the new tiles fit within
-	 * the maps bounds.
+	 * Returns the category of the {@link GoalIndex} a tile belongs to, which only depends
+	 * on the tile itself and not on the inventory.
 	 * 
-	 * @param tiles The tiles to update the map with.
+	 * @param index The index of the tile.
+	 * @return The category of the tile or {@link GoalIndex#NONE}.
 	 */
-	public void updateMap(final List<Tile> tiles) {
-		if (tiles == null || tiles.isEmpty()) {
-			return;
-		}
-		
-		final int minX = tiles.stream().mapToInt(Tile::getX).min().getAsInt();
-		final int minY = tiles.stream().mapToInt(Tile::getY).min().getAsInt();
-		final int maxX = tiles.stream().mapToInt(Tile::getX).max().getAsInt();
-		final int maxY = tiles.stream().mapToInt(Tile::getY).max().getAsInt();
-		
-		if (!this.bounds.contains(minX, minY) || !this.bounds.contains(maxX, maxY)) {
-			final Bounds newBounds = this.bounds.expanded(minX, minY, maxX, maxY);
-			final MapTile[][] newTiles = new MapTile[newBounds.width()][newBounds.height()];
-			
-			for (int i = 0; i < newBounds.width(); i++) {
-				final int x = i + newBounds.x.min;
-				for (int j = 0; j < newBounds.height(); j++) {
-					newTiles[i][j] = this.getTile(x, j + newBounds.y.min);
-				}
-			}
-			this.tiles = newTiles;
-			this.bounds = newBounds;
+	private int getGoalCategory(final int index) {
+		final TileGrid grid = this.grid;
+		if (grid.hasItem(index)) {
+			return GoalIndex.ITEMS;
+		} else if (VISITOR_CHARGES[grid.getVisitorKind(index)] != 0) {
+			return GoalIndex.BOULDERS;
+		} else if (GATE_KEYS.containsKey(grid.getMaterial(index))) {
+			return GoalIndex.GATES;
+		} else if (TELEPORTER_MATERIALS.contains(grid.getMaterial(index))) {
+			return GoalIndex.TELEPORTERS;
 		}
 		
-		for (final Tile tile : tiles) {
-			this.getTile(tile.getX(), tile.getY()).update(tile);
-		}
+		return GoalIndex.NONE;
 	}
 	
 	/**
-	 * Computes the optimal next tile to visit.
-	 * <br><br>
-	 * The optimal next tile to visit is computed by counting the actions needed to reach
-	 * a certain item and by the weight of that item.
+	 * Adds the tiles that became part of the map by expanding its bounds to the
+	 * {@link GoalIndex} and updates the frontier on the old border of the map.
 	 * 
-	 * @param x The x coordinate of the robot.
-	 * @param y The y coordinate of the robot.
-	 * @return The optimal tile to visit next.
+	 * @param oldBounds The bounds before the expansion.
+	 * @param newBounds The bounds after the expansion.
 	 */
-	public Tile getNextTile(final int x, final int y) {
-		this.clearValues();
-		this.getTile(x, y).value = Integer.MAX_VALUE;
-		
-		final Queue<MapTile> queue = new LinkedList<>();
-		for (int i = 0; i < this.tiles.length; i++) {
-			for (int j = 0; j < this.tiles[i].length; j++) {
-				final MapTile tile = this.tiles[i][j];
-				if (tile.hasItem()) {
-					tile.value = ITEM_VALUES.get(tile.getItem().getClass());
-					queue.add(tile);
-				} else if (this.canShootBoulder(tile)) {
-					tile.value = BOULDER_VALUE;
-					queue.add(tile);
-				} else if (this.hasKeyForGate(tile)) {
-					tile.value = GATE_VALUE;
-					queue.add(tile);
-				} else if (tile.getMaterial() == Material.UNDEFINED
-						|| i == 0 || i == this.tiles.length - 1
-						|| j == 0 || j == this.tiles[i].length - 1) {
-					tile.value = UNDEFINED_VALUE;
-					queue.add(tile);
-				} else if (this.canUseTeleporter(tile)) {
-					tile.value = TELEPORTER_VALUE;
-					queue.add(tile);
-				}
-			}
-		}
-		
-		while (!queue.isEmpty()) {
-			final MapTile tile = queue.poll();
-			if (tile.value == 0)
-				continue;
-			
-			for (final Facing facing : NEIGHBOR_FACINGS) {
-				final MapTile neighbor = this.getNeighborTile(tile, facing);
-				if (!neighbor.canVisit()
-						|| neighbor.getMaterial() == Material.UNDEFINED
-						|| neighbor.getMaterial() == Material.VOID)
-					continue;
-				
-				if (neighbor.value == Integer.MAX_VALUE)
+	private void expandGoals(final Bounds oldBounds, final Bounds newBounds) {
+		for (int x = newBounds.x.min; x <= newBounds.x.max; x++) {
+			for (int y = newBounds.y.min; y <= newBounds.y.max; y++) {
+				if (oldBounds.contains(x, y)) {
+					// skip the column segment covered by the old bounds
+					y = oldBounds.y.max;
 					continue;
-	
-				if (neighbor.value == 0) {
-					neighbor.value = tile.value + 1;
-					queue.add(neighbor);
-				} else {
-					final int newValue = Math.min(neighbor.value, tile.value + 1);
-					if (neighbor.value > newValue) {
-						neighbor.value = newValue;
-						queue.add(neighbor);
-					}
 				}
+				
+				final int index = this.grid.index(x, y);
+				this.goals.update(index, this.getGoalCategory(index));
+				this.resetFrontier(index);
 			}
 		}
 		
-		final LinkedList<Tile> path = new LinkedList<>();
-		MapTile tile = this.getTile(x, y);
-		do {
-			tile = this.getNeighbors(tile).stream().min((t1, t2) -> {
-				return Integer.compare(t1.value, t2.value);
-			}).orElse(null);
-			if (tile != null) {
-				path.add(tile);
-			}
-		} while (tile != null || path.isEmpty());
-		
-		if (RENDER_LOCATION_OVERLAY) {
-			this.overlayLocations.clear();
-			this.overlayLocations.addAll(path.stream().map(t -> new Location(t.getX(), t.getY()))
-					.collect(Collectors.toList()));
+		// the tiles on the old border are only part of the frontier if they are next to an undefined tile now
+		for (int x = oldBounds.x.min; x <= oldBounds.x.max; x++) {
+			this.resetFrontier(this.grid.index(x, oldBounds.y.min));
+			this.resetFrontier(this.grid.index(x, oldBounds.y.max));
+		}
+		for (int y = oldBounds.y.min; y <= oldBounds.y.max; y++) {
+			this.resetFrontier(this.grid.index(oldBounds.x.min, y));
+			this.resetFrontier(this.grid.index(oldBounds.x.max, y));
 		}
-		
-		return path.isEmpty() ? null : path.poll();
-	}
-	
-	protected boolean hasKeyForGate(final Tile tile) {
-		return GATE_KEYS.containsKey(tile.getMaterial())
-				&& this.ai.getInventory().hasItem(GATE_KEYS.get(tile.getMaterial()));
-	}
-	
-	protected boolean canShootBoulder(final Tile tile) {
-		if (!tile.hasVisitor() || !CHARGES_NEEDED.containsKey(tile.getVisitor().getClass()))
-			return false;
-		
-		final int charges = (int) this.ai.getInventory().getItems().stream()
-				.filter(i -> i.getName().equals(LaserCharge.ITEM_NAME)).count();
-		return charges >= CHARGES_NEEDED.get(tile.getVisitor().getClass());
-	}
-	
-	protected boolean canUseTeleporter(final Tile tile) {
-		return TELEPORTER_MATERIALS.containsKey(tile.getMaterial())
-				&& TELEPORTER_MATERIALS.get(tile.getMaterial()) < 2;
-	}
-	
-	protected void useTeleporter(final Tile source, final Tile target) {
-		TELEPORTER_MATERIALS.put(target.getMaterial(), TELEPORTER_MATERIALS.get(target.getMaterial()) + 1);
-		this.getTile(source.getX(), source.getY()).setVisitor(null);
 	}
 	
-	private void clearValues() {
-		for (int i = 0; i < this.tiles.length; i++) {
-			for (int j = 0; j < this.tiles[i].length; j++) {
-				this.tiles[i][j].value = 0;
-			}
-		}
+	/**
+	 * Adds a tile to the frontier of the {@link GoalIndex} or removes it without updating
+	 * the distance field, which is rebuilt anyway after the bounds were expanded.
+	 * 
+	 * @param index The index of the tile.
+	 */
+	private void resetFrontier(final int index) {
+		if (this.goals.setFrontier(index, this.bordersUnknown(index)) && this.hierarchy != null)
+			this.hierarchy.invalidateTile(index);
 	}
 	
-	private MapTile getNeighborTile(final Tile source, final Facing facing) {
-		return this.getTile(source.getX() + facing.dx, source.getY() + facing.dy);
+	/**
+	 * Checks whether the given coordinates lie on the outermost columns or rows of the map.
+	 * 
+	 * @param x The x coordinate.
+	 * @param y The y coordinate.
+	 * @return <code>True</code> if the coordinates are on the border, <code>false</code> otherwise.
+	 */
+	private boolean isBorder(final int x, final int y) {
+		return x == this.bounds.x.min || x == this.bounds.x.max
+				|| y == this.bounds.y.min || y == this.bounds.y.max;
 	}
 	
-	private Collection<MapTile> getNeighbors(final MapTile tile) {
-		if (tile == null)
-			return new ArrayList<>();
-		
-		if (tile.value == 0)
-			return new ArrayList<>();
-		
-		final List<MapTile> result = new ArrayList<>();
+	/**
+	 * Returns the next tile on the path, which is the neighbor with the lowest
+	 * positive value below the value of the given tile.
+	 * 
+	 * @param index The index of the current tile on the path.
+	 * @return The index of the next tile or {@link TileGrid#NO_INDEX} if the path ends.
+	 */
+	private int getNextPathTile(final int index) {
+		final TileGrid grid = this.grid;
+		int result = TileGrid.NO_INDEX;
+		int resultValue = grid.getValue(index);
 		for (final Facing facing : NEIGHBOR_FACINGS) {
-			final MapTile neighbor = this.getNeighborTile(tile, facing);
-			final int neighborValue = neighbor.value;
-			if (neighborValue > 0 && neighborValue < tile.value)
-				result.add(neighbor);
+			final int neighbor = grid.neighbor(index, facing);
+			if (neighbor == TileGrid.NO_INDEX)
+				continue;
+			
+			final int neighborValue = grid.getValue(neighbor);
+			if (neighborValue > 0 && neighborValue < resultValue) {
+				result = neighbor;
+				resultValue = neighborValue;
+			}
 		}
 		
 		return result;
@@ -583,6 +2153,141 @@ public final class DistanceScalingMap implements Map {
 		}
 	}
 	
+	/**
+	 * The locations of the part of the {@link Plan plan} that was not passed yet, which are
+	 * rendered as overlay of the map. This is a view of the plan, so following or recomputing
+	 * the plan does not touch the overlay at all. The locations are only created when the
+	 * overlay is rendered and are reused as long as the plan does not change.
+	 * <br><br>
+	 * The overlay is rendered without synchronization, so it may show a stale path for a frame.
+	 */
+	private static final class PathOverlay extends AbstractList<Location> {
+		
+		/**
+		 * The grid of the map.
+		 */
+		public final TileGrid grid;
+		
+		/**
+		 * The plan of the map.
+		 */
+		public final Plan plan;
+		
+		/**
+		 * The locations created so far, indexed by their position on the plan.
+		 */
+		public Location[] locations = new Location[16];
+		
+		/**
+		 * Creates a new {@link PathOverlay}.
+		 * 
+		 * @param grid The grid of the map.
+		 * @param plan The plan of the map.
+		 */
+		public PathOverlay(final TileGrid grid, final Plan plan) {
+			this.grid = grid;
+			this.plan = plan;
+		}
+		
+		@Override
+		public Location get(final int index) {
+			final int position = this.plan.getPosition() + index;
+			if (index < 0 || position >= this.plan.getLength())
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + this.size());
+			
+			if (position >= this.locations.length)
+				this.locations = Arrays.copyOf(this.locations, Math.max(position + 1, this.locations.length * 2));
+			
+			final int tile = this.plan.get(position);
+			final int x = this.grid.getX(tile);
+			final int y = this.grid.getY(tile);
+			Location location = this.locations[position];
+			if (location == null || location.getX() != x || location.getY() != y) {
+				location = new Location(x, y);
+				this.locations[position] = location;
+			}
+			
+			return location;
+		}
+		
+		@Override
+		public int size() {
+			return Math.max(0, this.plan.getLength() - this.plan.getPosition());
+		}
+	}
+	
+	/**
+	 * The read-only view of the {@link DistanceScalingMap map} returned by {@link #getView()},
+	 * which delegates to the latest {@link MapSnapshot snapshot}. Until the first snapshot is
+	 * published, the view is empty.
+	 */
+	private final class SnapshotView implements Map {
+		
+		/**
+		 * The snapshot shown before the first turn.
+		 */
+		private final MapSnapshot empty = new MapSnapshot(-1, new TileGrid(), 0, 0, 0, 0, 0, 0,
+				Collections.emptyList(), false);
+		
+		/**
+		 * Returns the latest snapshot and remembers that it was read.
+		 * 
+		 * @return The latest snapshot.
+		 */
+		private MapSnapshot latest() {
+			final MapSnapshot snapshot = DistanceScalingMap.this.snapshot;
+			if (!DistanceScalingMap.this.snapshotRead)
+				DistanceScalingMap.this.snapshotRead = true;
+			
+			return snapshot != null ? snapshot : this.empty;
+		}
+		
+		@Override
+		public boolean hasMapRenderAdditions() {
+			return RENDER_LOCATION_OVERLAY;
+		}
+		
+		@Override
+		public List<MapRenderAddition> getMapRenderAdditions() {
+			return this.latest().getMapRenderAdditions();
+		}
+		
+		@Override
+		public int getMinX() {
+			return this.latest().getMinX();
+		}
+		
+		@Override
+		public int getMaxX() {
+			return this.latest().getMaxX();
+		}
+		
+		@Override
+		public int getMinY() {
+			return this.latest().getMinY();
+		}
+		
+		@Override
+		public int getMaxY() {
+			return this.latest().getMaxY();
+		}
+		
+		@Override
+		public int getWidth() {
+			return this.latest().getWidth();
+		}
+		
+		@Override
+		public int getHeight() {
+			return this.latest().getHeight();
+		}
+		
+		@Override
+		public Tile getTile(final int x, final int y) {
+			return this.latest().getTile(x, y);
+		}
+	}
+	
 	/**
 	 * Represents a {@link Tile} with the addition of weights that is
 	 * being used internally in the path finding algorithm to move the
@@ -624,26 +2329,6 @@ public final class DistanceScalingMap implements Map {
 			}
 		}
 		
-		/**
-		 * Updates the properties of this {@link MapTile tile}
-		 * to mirror the given {@link Tile tile} on the map.
-		 * <br>
-		 * This updates only properties necessary for the path finding,
-		 * which are the following:
-		 * <ul>
-		 * <li>the material of the tile</li>
-		 * <li>whether there is a visitor which would block the tile</li>
-		 * <li>the item on the tile</li>
-		 * </ul>
-		 * 
-		 * @param tile The tile on the map.
-		 */
-		public void update(final Tile tile) {
-			this.setMaterial(tile.getMaterial());
-			this.setVisitor(tile.getVisitor());
-			this.setItem(tile.getItem());
-		}
-
 		@Override
 		public String toString() {
 			return "MapTile [value=" + this.value + ", x=" + this.getX() + ", y=" + this.getY() +
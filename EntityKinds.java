@@ -0,0 +1,146 @@
+/*
+ * KIT Schnupperstudium Robots AIs
+ * Copyright (C) 2019  Simon Grossmann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.schnupperstudium.robots.client.ai.hidden;
+
+import com.github.schnupperstudium.robots.entity.Item;
+import com.github.schnupperstudium.robots.entity.LivingEntity;
+import com.github.schnupperstudium.robots.entity.item.BlueKey;
+import com.github.schnupperstudium.robots.entity.item.Cookie;
+import com.github.schnupperstudium.robots.entity.item.GreenKey;
+import com.github.schnupperstudium.robots.entity.item.LaserCharge;
+import com.github.schnupperstudium.robots.entity.item.RedKey;
+import com.github.schnupperstudium.robots.entity.item.Star;
+import com.github.schnupperstudium.robots.entity.item.YellowKey;
+import com.github.schnupperstudium.robots.entity.scenery.LargeBoulder;
+import com.github.schnupperstudium.robots.entity.scenery.MediumBoulder;
+import com.github.schnupperstudium.robots.entity.scenery.SmallBoulder;
+
+/**
+ * Maps the items and visitors of the game to small integer kinds, so that the
+ * {@link TileGrid} can store them in primitive arrays and tiles can be described
+ * without any entity objects.
+ * <br><br>
+ * The kind <code>0</code> always stands for no entity, every entity that is not known
+ * to the AI is mapped to the {@link #OTHER_ITEM other item} or {@link #OTHER_VISITOR other visitor} kind.
+ */
+final class EntityKinds {
+
+	/**
+	 * The kind of an empty tile.
+	 */
+	static final int NONE = 0;
+
+	static final int STAR = 1;
+
+	static final int COOKIE = 2;
+
+	static final int LASER_CHARGE = 3;
+
+	static final int BLUE_KEY = 4;
+
+	static final int GREEN_KEY = 5;
+
+	static final int RED_KEY = 6;
+
+	static final int YELLOW_KEY = 7;
+
+	/**
+	 * The kind of any item the AI does not know.
+	 */
+	static final int OTHER_ITEM = 8;
+
+	static final int SMALL_BOULDER = 1;
+
+	static final int MEDIUM_BOULDER = 2;
+
+	static final int LARGE_BOULDER = 3;
+
+	/**
+	 * The kind of any visitor which is no boulder, like another robot.
+	 */
+	static final int OTHER_VISITOR = 4;
+
+	/**
+	 * The classes of the known items, indexed by their kind.
+	 */
+	private static final Class<?>[] ITEM_CLASSES = {
+			null, Star.class, Cookie.class, LaserCharge.class,
+			BlueKey.class, GreenKey.class, RedKey.class, YellowKey.class
+	};
+
+	/**
+	 * The classes of the known visitors, indexed by their kind.
+	 */
+	private static final Class<?>[] VISITOR_CLASSES = {
+			null, SmallBoulder.class, MediumBoulder.class, LargeBoulder.class
+	};
+
+	private EntityKinds() {
+		// no instances
+	}
+
+	/**
+	 * Returns the kind of an item.
+	 *
+	 * @param item The item, may be <code>null</code>.
+	 * @return The kind of the item.
+	 */
+	static int itemKind(final Item item) {
+		return item == null ? NONE : kind(ITEM_CLASSES, item.getClass(), OTHER_ITEM);
+	}
+
+	/**
+	 * Returns the kind of a visitor.
+	 *
+	 * @param visitor The visitor, may be <code>null</code>.
+	 * @return The kind of the visitor.
+	 */
+	static int visitorKind(final LivingEntity visitor) {
+		return visitor == null ? NONE : kind(VISITOR_CLASSES, visitor.getClass(), OTHER_VISITOR);
+	}
+
+	/**
+	 * Returns the class of the items of a kind.
+	 *
+	 * @param kind The kind of the item.
+	 * @return The class of the item or <code>null</code> if the kind has no known class.
+	 */
+	static Class<?> getItemClass(final int kind) {
+		return kind > NONE && kind < ITEM_CLASSES.length ? ITEM_CLASSES[kind] : null;
+	}
+
+	/**
+	 * Returns the class of the visitors of a kind.
+	 *
+	 * @param kind The kind of the visitor.
+	 * @return The class of the visitor or <code>null</code> if the kind has no known class.
+	 */
+	static Class<?> getVisitorClass(final int kind) {
+		return kind > NONE && kind < VISITOR_CLASSES.length ? VISITOR_CLASSES[kind] : null;
+	}
+
+	private static int kind(final Class<?>[] classes, final Class<?> type, final int other) {
+		for (int kind = 1; kind < classes.length; kind++) {
+			if (classes[kind] == type)
+				return kind;
+		}
+
+		return other;
+	}
+}
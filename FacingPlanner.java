@@ -0,0 +1,348 @@
+/*
+ * KIT Schnupperstudium Robots AIs
+ * Copyright (C) 2019  Simon Grossmann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.schnupperstudium.robots.client.ai.hidden;
+
+import java.util.Arrays;
+import java.util.function.IntBinaryOperator;
+import java.util.function.IntUnaryOperator;
+
+import com.github.schnupperstudium.robots.entity.Facing;
+
+/**
+ * A planner for a {@link DistanceScalingMap} whose costs are the actions of the robot
+ * instead of the tiles it steps on.
+ * <br><br>
+ * The state of the search is the tile of the robot together with its {@link Facing facing}.
+ * Turning left, turning right and moving forward cost one action each, so turning around
+ * costs two actions and a goal behind the robot is more expensive than a goal in front of
+ * it. Reaching a goal costs the actions needed to get in front of it plus the actions to
+ * finish it, like picking up an item, shooting a boulder once per charge or opening a gate,
+ * plus the goal value. The planner chooses the goal with the lowest total cost.
+ * <br><br>
+ * Stepping onto a teleporter whose destination is known moves the robot to the destination
+ * within the same action, keeping its facing. A path through a teleporter ends on the teleporter,
+ * since the robot plans again once it was teleported, and its goal is {@link Plan#setGoal(int) set}
+ * separately.
+ * <br><br>
+ * Since every action costs one, the search is a breadth first search over the states
+ * starting at the robot, which stops as soon as no cheaper goal can be found anymore.
+ * The search is done from scratch for every plan, its arrays are reused between searches.
+ */
+final class FacingPlanner {
+
+	/**
+	 * The facings in the order of their state bits, every facing is followed by its right neighbor.
+	 */
+	private static final Facing[] FACINGS = {
+			Facing.NORTH, Facing.EAST, Facing.SOUTH, Facing.WEST
+	};
+
+	/**
+	 * The {@link TileGrid grid} to plan on.
+	 */
+	private final TileGrid grid;
+
+	/**
+	 * Returns the goal value of a tile or <code>0</code> if the tile is no goal.
+	 */
+	private final IntUnaryOperator goalValues;
+
+	/**
+	 * Returns the number of actions needed to finish a goal once the robot faces it, given the
+	 * goal and the position of the facing of the robot in {@link #FACINGS}.
+	 */
+	private final IntBinaryOperator finishCosts;
+
+	/**
+	 * Returns the tile stepping onto a tile leads to if it is a teleporter with a known destination,
+	 * {@link TileGrid#NO_INDEX} otherwise.
+	 */
+	private final IntUnaryOperator destinations;
+
+	/**
+	 * Returns the goal value of the {@link #target} and <code>0</code> for every other tile.
+	 */
+	private final IntUnaryOperator targetValues;
+
+	/**
+	 * The only goal of the current search or {@link TileGrid#NO_INDEX} if all goals are searched.
+	 */
+	private int target;
+
+	/**
+	 * The cost of every state reached by the current search.
+	 */
+	private int[] costs;
+
+	/**
+	 * The state every state was reached from by the current search.
+	 */
+	private int[] predecessors;
+
+	/**
+	 * The search every state was reached by the last time, so the arrays never have to be cleared.
+	 */
+	private int[] searches;
+
+	/**
+	 * The states in the order they were reached, which is the queue of the search.
+	 */
+	private int[] queue;
+
+	/**
+	 * The tiles of the path found by the last search, in reverse order.
+	 */
+	private int[] path;
+
+	/**
+	 * The number of the current search.
+	 */
+	private int search;
+
+	/**
+	 * Creates a new {@link FacingPlanner}.
+	 *
+	 * @param grid The grid to plan on.
+	 * @param goalValues Returns the goal value of a tile or <code>0</code> if the tile is no goal.
+	 * @param finishCosts Returns the number of actions needed to finish a goal once the robot faces it,
+	 * 		given the goal and the facing of the robot as its position in north, east, south and west.
+	 * @param destinations Returns the tile stepping onto a tile leads to if it is a teleporter with a known
+	 * 		destination, {@link TileGrid#NO_INDEX} otherwise.
+	 */
+	FacingPlanner(final TileGrid grid, final IntUnaryOperator goalValues, final IntBinaryOperator finishCosts,
+			final IntUnaryOperator destinations) {
+		this.grid = grid;
+		this.goalValues = goalValues;
+		this.finishCosts = finishCosts;
+		this.destinations = destinations;
+		this.targetValues = index -> index == this.target ? goalValues.applyAsInt(index) : 0;
+		this.target = TileGrid.NO_INDEX;
+		this.costs = new int[0];
+		this.predecessors = new int[0];
+		this.searches = new int[0];
+		this.queue = new int[0];
+		this.path = new int[16];
+	}
+
+	/**
+	 * Plans the path of a robot to the goal with the lowest total cost. The path holds
+	 * every tile the robot steps on followed by the goal, each with the remaining cost of
+	 * the plan once the robot stepped on it.
+	 *
+	 * @param start The index of the robot's tile.
+	 * @param facing The facing of the robot.
+	 * @param plan The plan to store the path in, which is reset first.
+	 * @param metrics The metrics to record the search in or <code>null</code> to record nothing.
+	 * @return <code>True</code> if a goal was found, <code>false</code> otherwise.
+	 */
+	boolean plan(final int start, final Facing facing, final Plan plan, final PlannerMetrics metrics) {
+		return this.search(start, facing, this.goalValues, plan, metrics);
+	}
+
+	/**
+	 * Plans the path of a robot to the given goal like {@link #plan(int, Facing, Plan, PlannerMetrics)},
+	 * ignoring all other goals.
+	 *
+	 * @param start The index of the robot's tile.
+	 * @param facing The facing of the robot.
+	 * @param target The index of the goal.
+	 * @param plan The plan to store the path in, which is reset first.
+	 * @param metrics The metrics to record the search in or <code>null</code> to record nothing.
+	 * @return <code>True</code> if the goal can be reached, <code>false</code> otherwise.
+	 */
+	boolean planTo(final int start, final Facing facing, final int target, final Plan plan, final PlannerMetrics metrics) {
+		this.target = target;
+		try {
+			return this.search(start, facing, this.targetValues, plan, metrics);
+		} finally {
+			this.target = TileGrid.NO_INDEX;
+		}
+	}
+
+	/**
+	 * Searches the goal with the lowest total cost.
+	 *
+	 * @param start The index of the robot's tile.
+	 * @param facing The facing of the robot.
+	 * @param goalValues Returns the goal value of a tile or <code>0</code> if the tile is no goal.
+	 * @param plan The plan to store the path in, which is reset first.
+	 * @param metrics The metrics to record the search in or <code>null</code> to record nothing.
+	 * @return <code>True</code> if a goal was found, <code>false</code> otherwise.
+	 */
+	private boolean search(final int start, final Facing facing, final IntUnaryOperator goalValues,
+			final Plan plan, final PlannerMetrics metrics) {
+		final long begin = metrics != null ? System.nanoTime() : 0L;
+		final TileGrid grid = this.grid;
+		this.prepare(grid.size() << 2);
+
+		int head = 0;
+		int tail = 0;
+		final int first = start << 2 | indexOf(facing);
+		this.reach(first, 0, -1);
+		this.queue[tail++] = first;
+
+		int best = Integer.MAX_VALUE;
+		int bestState = -1;
+		int bestGoal = TileGrid.NO_INDEX;
+		while (head < tail) {
+			final int state = this.queue[head++];
+			final int cost = this.costs[state];
+			// every goal costs at least one action to finish and has a value of at least one
+			if (cost + 2 >= best)
+				break;
+
+			final int tile = state >>> 2;
+			final int direction = state & 3;
+			final int ahead = grid.neighbor(tile, FACINGS[direction]);
+			if (ahead != TileGrid.NO_INDEX && ahead != start) {
+				final int value = goalValues.applyAsInt(ahead);
+				if (value > 0 && value != Integer.MAX_VALUE) {
+					final int total = cost + this.finishCosts.applyAsInt(ahead, direction) + value;
+					if (total < best) {
+						best = total;
+						bestState = state;
+						bestGoal = ahead;
+					}
+				}
+
+				if (grid.isPassable(ahead)) {
+					final int destination = this.destinations.applyAsInt(ahead);
+					final int next = (destination != TileGrid.NO_INDEX ? destination : ahead) << 2 | direction;
+					if (this.reach(next, cost + 1, state))
+						this.queue[tail++] = next;
+				}
+			} else if (ahead == start && this.destinations.applyAsInt(start) != TileGrid.NO_INDEX) {
+				// the robot may step off a teleporter and back onto it, which is the only way out of a dead end
+				final int next = this.destinations.applyAsInt(start) << 2 | direction;
+				if (this.reach(next, cost + 1, state))
+					this.queue[tail++] = next;
+			}
+
+			final int left = tile << 2 | (direction + 3 & 3);
+			if (this.reach(left, cost + 1, state))
+				this.queue[tail++] = left;
+			final int right = tile << 2 | (direction + 1 & 3);
+			if (this.reach(right, cost + 1, state))
+				this.queue[tail++] = right;
+		}
+
+		plan.reset(start);
+		if (bestGoal != TileGrid.NO_INDEX) {
+			if (this.extract(start, bestState, best, plan))
+				plan.setGoal(bestGoal);
+			else
+				plan.add(bestGoal, best - this.costs[bestState] - 1);
+		}
+
+		if (metrics != null) {
+			metrics.rebuilt = true;
+			metrics.scannedTiles += head;
+			metrics.pushes += tail;
+			metrics.relaxNanos += System.nanoTime() - begin;
+		}
+
+		return bestGoal != TileGrid.NO_INDEX;
+	}
+
+	/**
+	 * Adds the tiles stepped on until the given state or the first teleporter to the plan.
+	 *
+	 * @param start The index of the robot's tile.
+	 * @param last The state in front of the goal.
+	 * @param best The total cost of the goal.
+	 * @param plan The plan to add the tiles to.
+	 * @return <code>True</code> if the path ends on a teleporter, <code>false</code> if it ends in front of the goal.
+	 */
+	private boolean extract(final int start, final int last, final int best, final Plan plan) {
+		int length = 0;
+		int state = last;
+		int predecessor = this.predecessors[state];
+		while (predecessor != -1) {
+			// only moves change the tile, turns keep it
+			if (predecessor >>> 2 != state >>> 2) {
+				if (length == this.path.length)
+					this.path = Arrays.copyOf(this.path, length * 2);
+				this.path[length++] = state;
+			}
+
+			state = predecessor;
+			predecessor = this.predecessors[state];
+		}
+
+		int tile = start;
+		for (int i = length - 1; i >= 0; i--) {
+			final int step = this.path[i];
+			final int ahead = this.grid.neighbor(tile, FACINGS[step & 3]);
+			plan.add(ahead, best - this.costs[step]);
+			// a step that does not end on the tile ahead was taken onto a teleporter
+			if (ahead != step >>> 2)
+				return true;
+
+			tile = ahead;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Reaches a state with the given cost, unless it was reached by the current search already.
+	 *
+	 * @param state The state.
+	 * @param cost The cost of the state.
+	 * @param predecessor The state it was reached from or <code>-1</code> for the start.
+	 * @return <code>True</code> if the state was reached for the first time, <code>false</code> otherwise.
+	 */
+	private boolean reach(final int state, final int cost, final int predecessor) {
+		if (this.searches[state] == this.search)
+			return false;
+
+		this.searches[state] = this.search;
+		this.costs[state] = cost;
+		this.predecessors[state] = predecessor;
+		return true;
+	}
+
+	/**
+	 * Starts a new search and makes sure the arrays cover the given number of states.
+	 *
+	 * @param states The number of states.
+	 */
+	private void prepare(final int states) {
+		if (this.searches.length < states) {
+			this.costs = Arrays.copyOf(this.costs, states);
+			this.predecessors = Arrays.copyOf(this.predecessors, states);
+			this.searches = Arrays.copyOf(this.searches, states);
+			this.queue = Arrays.copyOf(this.queue, states);
+		}
+
+		if (++this.search == 0) {
+			Arrays.fill(this.searches, 0);
+			this.search = 1;
+		}
+	}
+
+	private static int indexOf(final Facing facing) {
+		for (int i = 0; i < FACINGS.length; i++) {
+			if (FACINGS[i] == facing)
+				return i;
+		}
+
+		throw new IllegalArgumentException("Unknown facing: " + facing);
+	}
+}
@@ -0,0 +1,350 @@
+/*
+ * KIT Schnupperstudium Robots AIs
+ * Copyright (C) 2019  Simon Grossmann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.schnupperstudium.robots.client.ai.hidden;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.SplittableRandom;
+
+import com.github.schnupperstudium.robots.entity.Facing;
+import com.github.schnupperstudium.robots.world.Location;
+import com.github.schnupperstudium.robots.world.Tile;
+
+/**
+ * Compares the paths of a {@link DistanceScalingMap} with a reference, which is the path finding
+ * the map used before the {@link DistanceField}: every goal is put into a FIFO queue, every tile is
+ * relaxed again whenever its value drops and the path walks down the values from the robot to the
+ * lowest valued neighbor. The goal values and the passable tiles are taken from the map, so only
+ * the search and the path are compared.
+ * <br><br>
+ * Every game generates a level of random size, openness, stars, boulders, gates and teleporters
+ * with the {@link LevelGenerator} and moves a robot through it at random. The robot either follows
+ * its path, steps onto a random neighbor or jumps onto a random floor tile anywhere in the level,
+ * which grows the bounds of the map. After the map was updated with the vision of the robot, a star
+ * may appear or disappear on a random tile and the charges and keys of the robot may change. Then the
+ * next tile is computed by {@link DistanceScalingMap#getNextTile(int, int, Capabilities)}. Whenever
+ * the map planned a new path, its values, the next tile and the {@link DistanceScalingMap#getPath() path}
+ * of the overlay must match the reference. Turns only following the plan are not compared, since
+ * the map does not update its values for them.
+ * <br><br>
+ * The check is configured through system properties:
+ * <ul>
+ * <li><code>robots.check.games</code>: the number of games, default 100</li>
+ * <li><code>robots.check.turns</code>: the number of turns of a game, default 300</li>
+ * <li><code>robots.check.size</code>: the largest width and height of the levels, default 64</li>
+ * <li><code>robots.check.seed</code>: the seed of the first game, default 0</li>
+ * </ul>
+ * The values of large grids are relaxed by the {@link Wavefront}, which can be checked by lowering
+ * <code>robots.field.parallel.area</code>. The hierarchical planner has to be off, as it is by default.
+ */
+final class FieldCheck {
+
+	private static final int GAMES = Integer.getInteger("robots.check.games", 100);
+
+	private static final int TURNS = Integer.getInteger("robots.check.turns", 300);
+
+	private static final int SIZE = Integer.getInteger("robots.check.size", 64);
+
+	private static final long SEED = Long.getLong("robots.check.seed", 0L);
+
+	private static final int VISION_RADIUS = 2;
+
+	/**
+	 * The number of differing turns which are printed in detail.
+	 */
+	private static final int PRINTED_MISMATCHES = 10;
+
+	/**
+	 * Neighbor facings, in the order the reference walks down the values.
+	 */
+	private static final Facing[] NEIGHBOR_FACINGS = {
+			Facing.NORTH, Facing.EAST, Facing.SOUTH, Facing.WEST
+	};
+
+	private FieldCheck() {
+		// no instances
+	}
+
+	public static void main(final String[] args) {
+		long turns = 0;
+		long compared = 0;
+		long mismatches = 0;
+		for (int game = 0; game < GAMES; game++) {
+			final long[] result = play(SEED + game);
+			turns += TURNS;
+			compared += result[0];
+			mismatches += result[1];
+		}
+
+		System.out.printf("games:               %d%n", GAMES);
+		System.out.printf("compared turns:      %d of %d turns planned a new path, %d differed%n", compared, turns, mismatches);
+		if (mismatches > 0)
+			throw new IllegalStateException(mismatches + " turns differ from the reference");
+	}
+
+	/**
+	 * Plays a game on a random level and compares every turn planning a new path with the reference.
+	 *
+	 * @param seed The seed of the game.
+	 * @return The number of compared turns and the number of differing turns.
+	 */
+	private static long[] play(final long seed) {
+		final SplittableRandom random = new SplittableRandom(seed);
+		final int size = 5 + random.nextInt(Math.max(1, SIZE - 4));
+		final int area = size * size;
+		final LevelGenerator generator = new LevelGenerator(size, size, random.nextInt(101),
+				1 + random.nextInt(1 + area / 50), random.nextInt(1 + area / 100), random.nextInt(5),
+				random.nextInt(5), VISION_RADIUS);
+		final SimulatedWorld world = generator.generate(random.nextLong());
+		final int height = world.getHeight();
+		final int[] floor = findFloor(world);
+
+		final DistanceScalingMap map = new DistanceScalingMap();
+		final VisionBuffer vision = new VisionBuffer();
+		Capabilities capabilities = Capabilities.NONE;
+		int robot = floor[random.nextInt(floor.length)];
+		long compared = 0;
+		long mismatches = 0;
+		for (int turn = 0; turn < TURNS; turn++) {
+			final int x = robot / height;
+			final int y = robot % height;
+			world.see(vision, x, y, VISION_RADIUS);
+			map.updateMap(vision);
+
+			if (random.nextInt(4) == 0) {
+				final int star = floor[random.nextInt(floor.length)];
+				vision.clear();
+				vision.add(star / height, star % height, LevelGenerator.FLOOR,
+						random.nextBoolean() ? EntityKinds.STAR : EntityKinds.NONE, EntityKinds.NONE);
+				map.updateMap(vision);
+			}
+			if (random.nextInt(16) == 0)
+				capabilities = Capabilities.of(random.nextInt(4), random.nextInt(16));
+
+			final Tile next = map.getNextTile(x, y, capabilities);
+			if (map.hasPlanned()) {
+				compared++;
+				final String mismatch = compare(map, x, y, next);
+				if (mismatch != null) {
+					if (mismatches++ < PRINTED_MISMATCHES)
+						System.err.printf("seed %d, turn %d: %s%n", seed, turn, mismatch);
+				}
+			}
+
+			robot = move(random, world, floor, robot, next);
+		}
+
+		return new long[] { compared, mismatches };
+	}
+
+	/**
+	 * Moves the robot to its next tile, a random neighbor or a random floor tile.
+	 *
+	 * @param random The random numbers of the game.
+	 * @param world The world of the game.
+	 * @param floor The floor tiles of the world.
+	 * @param robot The tile of the robot, packed as <code>x * height + y</code>.
+	 * @param next The next tile of the path or <code>null</code>.
+	 * @return The new tile of the robot.
+	 */
+	private static int move(final SplittableRandom random, final SimulatedWorld world, final int[] floor,
+			final int robot, final Tile next) {
+		final int height = world.getHeight();
+		final int choice = random.nextInt(32);
+		if (choice == 0)
+			return floor[random.nextInt(floor.length)];
+
+		if (choice < 16 && next != null && world.canVisit(next.getX(), next.getY()))
+			return next.getX() * height + next.getY();
+
+		final Facing facing = NEIGHBOR_FACINGS[random.nextInt(NEIGHBOR_FACINGS.length)];
+		final int x = robot / height + facing.dx;
+		final int y = robot % height + facing.dy;
+		return world.canVisit(x, y) ? x * height + y : robot;
+	}
+
+	/**
+	 * Compares the values, the next tile and the path of the map with the reference.
+	 *
+	 * @param map The map that planned a new path.
+	 * @param x The x coordinate of the robot.
+	 * @param y The y coordinate of the robot.
+	 * @param next The next tile returned by the map.
+	 * @return A description of the differences or <code>null</code> if there are none.
+	 */
+	private static String compare(final DistanceScalingMap map, final int x, final int y, final Tile next) {
+		final int minX = map.getMinX();
+		final int minY = map.getMinY();
+		final int[][] values = relax(map, x, y);
+		int differingValues = 0;
+		for (int i = 0; i < values.length; i++) {
+			for (int j = 0; j < values[i].length; j++) {
+				if (map.getValue(map.getTileIndex(i + minX, j + minY)) != values[i][j])
+					differingValues++;
+			}
+		}
+
+		final List<Location> path = walk(values, x - minX, y - minY, minX, minY);
+		final Location step = path.isEmpty() ? null : path.get(0);
+		final boolean sameStep = next == null ? step == null
+				: step != null && next.getX() == step.getX() && next.getY() == step.getY();
+		final List<Location> overlay = map.getPath();
+		boolean samePath = overlay.size() == path.size();
+		for (int i = 0; samePath && i < path.size(); i++) {
+			samePath = overlay.get(i).getX() == path.get(i).getX() && overlay.get(i).getY() == path.get(i).getY();
+		}
+
+		if (differingValues == 0 && sameStep && samePath)
+			return null;
+
+		return String.format("%d of %d values differ, next tile %s instead of %s, path of %d tiles %s the reference of %d tiles",
+				differingValues, values.length * values[0].length, format(next), format(step), overlay.size(),
+				samePath ? "matches" : "differs from", path.size());
+	}
+
+	/**
+	 * Computes the values of the reference: the tile of the robot starts with {@link Integer#MAX_VALUE},
+	 * every goal with its goal value, and every tile taken from the queue lowers the value of its passable
+	 * neighbors to its own value plus one, which puts them back into the queue.
+	 *
+	 * @param map The map to take the goals and passable tiles from.
+	 * @param x The x coordinate of the robot.
+	 * @param y The y coordinate of the robot.
+	 * @return The values of the tiles within the bounds of the map, indexed by their offset from the minimum.
+	 */
+	private static int[][] relax(final DistanceScalingMap map, final int x, final int y) {
+		final int minX = map.getMinX();
+		final int minY = map.getMinY();
+		final int width = map.getWidth();
+		final int height = map.getHeight();
+		final int[][] values = new int[width][height];
+		values[x - minX][y - minY] = Integer.MAX_VALUE;
+
+		final Queue<Integer> queue = new LinkedList<>();
+		for (int i = 0; i < width; i++) {
+			for (int j = 0; j < height; j++) {
+				final int value = map.getGoalValue(map.getTileIndex(i + minX, j + minY));
+				if (value > 0) {
+					values[i][j] = value;
+					queue.add(i * height + j);
+				}
+			}
+		}
+
+		while (!queue.isEmpty()) {
+			final int tile = queue.poll();
+			final int i = tile / height;
+			final int j = tile % height;
+			if (values[i][j] == 0)
+				continue;
+
+			for (final Facing facing : NEIGHBOR_FACINGS) {
+				final int neighborI = i + facing.dx;
+				final int neighborJ = j + facing.dy;
+				if (neighborI < 0 || neighborJ < 0 || neighborI >= width || neighborJ >= height
+						|| !map.isPassable(map.getTileIndex(neighborI + minX, neighborJ + minY)))
+					continue;
+
+				final int neighborValue = values[neighborI][neighborJ];
+				if (neighborValue == Integer.MAX_VALUE)
+					continue;
+
+				if (neighborValue == 0 || neighborValue > values[i][j] + 1) {
+					values[neighborI][neighborJ] = values[i][j] + 1;
+					queue.add(neighborI * height + neighborJ);
+				}
+			}
+		}
+
+		return values;
+	}
+
+	/**
+	 * Walks down the values of the reference from the robot: the next tile is always the neighbor
+	 * with the lowest positive value below the value of the current tile, the first one on a tie.
+	 *
+	 * @param values The values of the reference.
+	 * @param i The x offset of the robot from the minimum.
+	 * @param j The y offset of the robot from the minimum.
+	 * @param minX The minimum x coordinate of the map.
+	 * @param minY The minimum y coordinate of the map.
+	 * @return The path without the tile of the robot.
+	 */
+	private static List<Location> walk(final int[][] values, final int i, final int j, final int minX, final int minY) {
+		final List<Location> path = new ArrayList<>();
+		int tileI = i;
+		int tileJ = j;
+		while (values[tileI][tileJ] != 0) {
+			int nextI = -1;
+			int nextJ = -1;
+			int nextValue = values[tileI][tileJ];
+			for (final Facing facing : NEIGHBOR_FACINGS) {
+				final int neighborI = tileI + facing.dx;
+				final int neighborJ = tileJ + facing.dy;
+				if (neighborI < 0 || neighborJ < 0 || neighborI >= values.length || neighborJ >= values[0].length)
+					continue;
+
+				final int neighborValue = values[neighborI][neighborJ];
+				if (neighborValue > 0 && neighborValue < nextValue) {
+					nextI = neighborI;
+					nextJ = neighborJ;
+					nextValue = neighborValue;
+				}
+			}
+			if (nextI == -1)
+				break;
+
+			path.add(new Location(nextI + minX, nextJ + minY));
+			tileI = nextI;
+			tileJ = nextJ;
+		}
+
+		return path;
+	}
+
+	private static String format(final Location location) {
+		return location != null ? "(" + location.getX() + ", " + location.getY() + ")" : "none";
+	}
+
+	private static String format(final Tile tile) {
+		return tile != null ? "(" + tile.getX() + ", " + tile.getY() + ")" : "none";
+	}
+
+	/**
+	 * Returns the tiles a robot can stand on.
+	 *
+	 * @param world The world.
+	 * @return The tiles, packed as <code>x * height + y</code>.
+	 */
+	private static int[] findFloor(final SimulatedWorld world) {
+		final int[] floor = new int[world.getWidth() * world.getHeight()];
+		int count = 0;
+		for (int x = 0; x < world.getWidth(); x++) {
+			for (int y = 0; y < world.getHeight(); y++) {
+				if (world.canVisit(x, y))
+					floor[count++] = x * world.getHeight() + y;
+			}
+		}
+
+		return Arrays.copyOf(floor, count);
+	}
+}
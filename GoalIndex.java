@@ -0,0 +1,180 @@
+/*
+ * KIT Schnupperstudium Robots AIs
+ * Copyright (C) 2019  Simon Grossmann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.schnupperstudium.robots.client.ai.hidden;
+
+/**
+ * Indexes the tiles of a {@link DistanceScalingMap} that can become goals of the path finding,
+ * so that the goals do not have to be searched in the whole map.
+ * <br><br>
+ * Every tile is part of at most one of the categories {@link #ITEMS}, {@link #BOULDERS},
+ * {@link #GATES} and {@link #TELEPORTERS}, which describe what is on the tile. Whether a tile
+ * actually is a goal depends on the inventory and is decided by the map. The known tiles that
+ * can be walked on and border the unknown part of the map form the {@link #FRONTIER}, which is
+ * kept in addition to that as {@link CellBits bits}.
+ */
+final class GoalIndex {
+
+	/**
+	 * The category of tiles which are not indexed.
+	 */
+	static final int NONE = -1;
+
+	/**
+	 * The category of tiles holding an item.
+	 */
+	static final int ITEMS = 0;
+
+	/**
+	 * The category of tiles holding a boulder.
+	 */
+	static final int BOULDERS = 1;
+
+	/**
+	 * The category of closed gates.
+	 */
+	static final int GATES = 2;
+
+	/**
+	 * The category of teleporters.
+	 */
+	static final int TELEPORTERS = 3;
+
+	/**
+	 * The known tiles that can be walked on and border the unknown part of the map.
+	 */
+	static final int FRONTIER = 4;
+
+	/**
+	 * The number of categories.
+	 */
+	static final int CATEGORIES = 5;
+
+	/**
+	 * The names of the categories, indexed by the category.
+	 */
+	private static final String[] NAMES = {
+			"items", "boulders", "gates", "teleporters", "frontier"
+	};
+
+	/**
+	 * The tiles of every category except for the {@link #FRONTIER}.
+	 */
+	private final CellSet[] categories;
+
+	/**
+	 * The tiles of the {@link #FRONTIER}.
+	 */
+	private final CellBits frontier;
+
+	/**
+	 * Creates a new, empty {@link GoalIndex}.
+	 */
+	GoalIndex() {
+		this.categories = new CellSet[FRONTIER];
+		for (int i = 0; i < FRONTIER; i++) {
+			this.categories[i] = new CellSet();
+		}
+		this.frontier = new CellBits();
+	}
+
+	/**
+	 * Returns the tiles of a category except for the {@link #FRONTIER}.
+	 *
+	 * @param category The category.
+	 * @return The tiles of the category.
+	 */
+	CellSet get(final int category) {
+		return this.categories[category];
+	}
+
+	CellBits getFrontier() {
+		return this.frontier;
+	}
+
+	/**
+	 * Moves a tile into the given category and removes it from all others,
+	 * except for the {@link #FRONTIER}.
+	 *
+	 * @param index The index of the tile.
+	 * @param category The new category of the tile or {@link #NONE}.
+	 */
+	void update(final int index, final int category) {
+		for (int i = 0; i < FRONTIER; i++) {
+			if (i == category)
+				this.categories[i].add(index);
+			else
+				this.categories[i].remove(index);
+		}
+	}
+
+	/**
+	 * Adds a tile to the {@link #FRONTIER} or removes it.
+	 *
+	 * @param index The index of the tile.
+	 * @param frontier Whether the tile is part of the frontier.
+	 * @return <code>True</code> if the frontier changed, <code>false</code> otherwise.
+	 */
+	boolean setFrontier(final int index, final boolean frontier) {
+		return frontier ? this.frontier.add(index) : this.frontier.remove(index);
+	}
+
+	boolean isFrontier(final int index) {
+		return this.frontier.contains(index);
+	}
+
+	/**
+	 * Checks whether a tile is part of any category except for the {@link #FRONTIER}.
+	 *
+	 * @param index The index of the tile.
+	 * @return <code>True</code> if the tile is indexed, <code>false</code> otherwise.
+	 */
+	boolean contains(final int index) {
+		for (int i = 0; i < FRONTIER; i++) {
+			if (this.categories[i].contains(index))
+				return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Returns the category of a tile. The {@link #FRONTIER} is only returned for tiles
+	 * that are not part of any other category.
+	 *
+	 * @param index The index of the tile.
+	 * @return The category of the tile or {@link #NONE}.
+	 */
+	int getCategory(final int index) {
+		for (int i = 0; i < FRONTIER; i++) {
+			if (this.categories[i].contains(index))
+				return i;
+		}
+
+		return this.frontier.contains(index) ? FRONTIER : NONE;
+	}
+
+	/**
+	 * Returns the name of a category.
+	 *
+	 * @param category The category or {@link #NONE}.
+	 * @return The name of the category.
+	 */
+	static String getName(final int category) {
+		return category == NONE ? "none" : NAMES[category];
+	}
+}
@@ -0,0 +1,946 @@
+/*
+ * KIT Schnupperstudium Robots AIs
+ * Copyright (C) 2019  Simon Grossmann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.schnupperstudium.robots.client.ai.hidden;
+
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+
+import com.github.schnupperstudium.robots.entity.Facing;
+
+/**
+ * A hierarchical planner for large {@link DistanceScalingMap maps}, which finds far away goals
+ * without searching every tile between the robot and the goal.
+ * <br><br>
+ * Every {@link TileGrid chunk} of the grid is a cluster. Wherever two clusters share a run of
+ * passable tiles on their border, the run is an entrance with a node on either side, one in the
+ * middle of a short run and one at either end of a long run. Within a cluster, the distances
+ * between its nodes and from its nodes to every tile of the {@link GoalIndex} inside or right next
+ * to the cluster are computed by a breadth first search restricted to the cluster. Those tables
+ * only depend on the tiles, so a cluster is only refreshed after one of its tiles or the tiles
+ * next to it changed, and only once a search reaches it. The goal values are applied when
+ * planning: gates and boulders are part of the tables like every other goal and only count once
+ * the inventory of the robot can open or destroy them.
+ * <br><br>
+ * Goals within or right next to the cluster of the robot are left to the other planners, whose
+ * search ends at the nearest goal anyway. Otherwise, the distances from the robot to the nodes of
+ * its cluster seed a search of the graph of all nodes, whose edges are the distances within the
+ * clusters and a single step between the two nodes of an entrance. Only the first leg of the path
+ * to the best goal is refined, which leads to the entrance through which the robot leaves its
+ * cluster. If the facing of the robot is known, the first leg is the one with the fewest actions
+ * like the paths of the {@link FacingPlanner}. The robot plans again once it reached the other
+ * side, so the cost of a plan depends on the number of entrances instead of the number of tiles.
+ * <br><br>
+ * Since paths through a cluster have to stay within the cluster and turns are only counted on the
+ * first leg, the plans are not always the cheapest. The refresh of the clusters is recorded as the
+ * seeding phase of the {@link PlannerMetrics metrics}.
+ */
+final class HierarchicalPlanner {
+
+	/**
+	 * The number of cells the bounds of a map need before it is planned hierarchically.
+	 */
+	static final int AREA = Integer.getInteger("robots.planner.hierarchical.area", 1 << 12);
+
+	/**
+	 * The facings in the order of the sides of a cluster, every facing is followed by its right neighbor.
+	 */
+	private static final Facing[] FACINGS = {
+			Facing.NORTH, Facing.EAST, Facing.SOUTH, Facing.WEST
+	};
+
+	/**
+	 * The number of bits of the node of a cluster within the id of a node.
+	 */
+	private static final int NODE_BITS = 6;
+
+	/**
+	 * The mask of the node of a cluster within the id of a node.
+	 */
+	private static final int NODE_MASK = (1 << NODE_BITS) - 1;
+
+	/**
+	 * The mask of a cell within its cluster.
+	 */
+	private static final int CELL_MASK = TileGrid.CHUNK_CELLS - 1;
+
+	/**
+	 * The length of a run of passable tiles from which on an entrance gets a node at either end.
+	 */
+	private static final int LONG_ENTRANCE = 6;
+
+	/**
+	 * The number of columns and rows of the area whose goals are tabled for a cluster, which is the
+	 * cluster and the tiles around it.
+	 */
+	private static final int GOAL_AREA = TileGrid.CHUNK_SIZE + 2;
+
+	private final TileGrid grid;
+
+	private final GoalIndex goals;
+
+	/**
+	 * Returns the goal value of a tile or <code>0</code> if the tile is no goal.
+	 */
+	private final IntUnaryOperator goalValues;
+
+	/**
+	 * The clusters, indexed by the number of their chunk.
+	 */
+	private Cluster[] clusters;
+
+	/**
+	 * The clusters that have to be refreshed before they are searched, one bit per chunk.
+	 */
+	private long[] dirty;
+
+	/**
+	 * The cost of every node reached by the current search, indexed by the id of the node.
+	 */
+	private int[] nodeCosts;
+
+	/**
+	 * The node every node was reached from by the current search.
+	 */
+	private int[] nodePredecessors;
+
+	/**
+	 * The search every node was reached by the last time.
+	 */
+	private int[] nodeSearches;
+
+	/**
+	 * The binary heap of the nodes to settle, every entry holds the cost in the upper and the id
+	 * of the node in the lower half.
+	 */
+	private long[] heap;
+
+	private int heapSize;
+
+	/**
+	 * The cost of every cell of a cluster reached by the current search within the cluster.
+	 */
+	private final int[] cellCosts;
+
+	/**
+	 * The cell every cell was reached from by the current search within the cluster.
+	 */
+	private final int[] cellPredecessors;
+
+	/**
+	 * The search within a cluster every cell was reached by the last time.
+	 */
+	private final int[] cellSearches;
+
+	/**
+	 * The queue of the search within a cluster.
+	 */
+	private final int[] queue;
+
+	/**
+	 * The cost of every state of the robot, which is a cell together with a facing, reached by the
+	 * current refinement of the first leg.
+	 */
+	private final int[] stateCosts;
+
+	/**
+	 * The state every state was reached from by the current refinement.
+	 */
+	private final int[] statePredecessors;
+
+	/**
+	 * The refinement every state was reached by the last time.
+	 */
+	private final int[] stateSearches;
+
+	/**
+	 * The queue of the refinement.
+	 */
+	private final int[] stateQueue;
+
+	/**
+	 * Marks the tiles of the {@link GoalIndex} within and around the cluster that is refreshed.
+	 */
+	private final boolean[] goalTiles;
+
+	/**
+	 * The search within a cluster every goal around the cluster was found by the last time.
+	 */
+	private final int[] goalSearches;
+
+	/**
+	 * The tiles or states of the first leg, in reverse order.
+	 */
+	private int[] path;
+
+	/**
+	 * The number of the current search of the graph.
+	 */
+	private int search;
+
+	/**
+	 * The number of the current search within a cluster.
+	 */
+	private int cellSearch;
+
+	/**
+	 * The number of the current refinement.
+	 */
+	private int stateSearch;
+
+	/**
+	 * The nodes, goal tiles and goal distances collected while refreshing a cluster.
+	 */
+	private final int[] scratchNodes;
+
+	private int[] scratchGoals;
+
+	private int[] scratchDistances;
+
+	/**
+	 * The tile of the robot during the current plan, which is passable even though the robot blocks it.
+	 */
+	private int robot;
+
+	/**
+	 * The time spent refreshing clusters during the current plan.
+	 */
+	private long refreshNanos;
+
+	/**
+	 * Creates a new {@link HierarchicalPlanner}.
+	 *
+	 * @param grid The grid to plan on.
+	 * @param goals The index of the tiles that can be goals.
+	 * @param goalValues Returns the goal value of a tile or <code>0</code> if the tile is no goal.
+	 */
+	HierarchicalPlanner(final TileGrid grid, final GoalIndex goals, final IntUnaryOperator goalValues) {
+		this.grid = grid;
+		this.goals = goals;
+		this.goalValues = goalValues;
+		this.clusters = new Cluster[0];
+		this.dirty = new long[0];
+		this.nodeCosts = new int[0];
+		this.nodePredecessors = new int[0];
+		this.nodeSearches = new int[0];
+		this.heap = new long[64];
+		this.cellCosts = new int[TileGrid.CHUNK_CELLS];
+		this.cellPredecessors = new int[TileGrid.CHUNK_CELLS];
+		this.cellSearches = new int[TileGrid.CHUNK_CELLS];
+		this.queue = new int[TileGrid.CHUNK_CELLS];
+		this.stateCosts = new int[TileGrid.CHUNK_CELLS << 2];
+		this.statePredecessors = new int[TileGrid.CHUNK_CELLS << 2];
+		this.stateSearches = new int[TileGrid.CHUNK_CELLS << 2];
+		this.stateQueue = new int[TileGrid.CHUNK_CELLS << 2];
+		this.goalTiles = new boolean[GOAL_AREA * GOAL_AREA];
+		this.goalSearches = new int[GOAL_AREA * GOAL_AREA];
+		this.path = new int[2 * TileGrid.CHUNK_SIZE];
+		this.scratchNodes = new int[4 * TileGrid.CHUNK_SIZE];
+		this.scratchGoals = new int[64];
+		this.scratchDistances = new int[64];
+		this.robot = TileGrid.NO_INDEX;
+	}
+
+	/**
+	 * Marks the clusters depending on a tile as changed. This has to be called for every tile
+	 * whose material, visitor, item or goal category changed, including the {@link GoalIndex#FRONTIER}.
+	 *
+	 * @param index The index of the tile.
+	 */
+	void invalidateTile(final int index) {
+		this.invalidateCluster(index >>> 2 * TileGrid.CHUNK_BITS);
+		// the tile borders the clusters next to it, whose entrances and goals depend on it
+		final int i = index >>> TileGrid.CHUNK_BITS & TileGrid.CHUNK_SIZE - 1;
+		final int j = index & TileGrid.CHUNK_SIZE - 1;
+		if (i == 0 || j == 0 || i == TileGrid.CHUNK_SIZE - 1 || j == TileGrid.CHUNK_SIZE - 1) {
+			for (final Facing facing : FACINGS) {
+				final int neighbor = this.grid.neighbor(index, facing);
+				if (neighbor != TileGrid.NO_INDEX)
+					this.invalidateCluster(neighbor >>> 2 * TileGrid.CHUNK_BITS);
+			}
+		}
+	}
+
+	/**
+	 * Plans the first leg of the path of a robot to the goal with the lowest total cost, unless there
+	 * is a goal within or right next to the cluster of the robot. The plan ends on the first tile
+	 * outside of the cluster and the goal is {@link Plan#setGoal(int) set} separately.
+	 *
+	 * @param start The index of the robot's tile.
+	 * @param facing The facing of the robot or <code>null</code> if it is not known.
+	 * @param plan The plan to store the path in, which is reset first.
+	 * @param metrics The metrics to record the search in or <code>null</code> to record nothing.
+	 * @return <code>True</code> if the first leg was planned, <code>false</code> if there is a goal
+	 * 		close to the robot or no goal at all.
+	 */
+	boolean plan(final int start, final Facing facing, final Plan plan, final PlannerMetrics metrics) {
+		final long begin = metrics != null ? System.nanoTime() : 0L;
+		this.refreshNanos = 0L;
+		this.robot = start;
+		final boolean planned = this.search(start, facing, plan, metrics);
+		this.robot = TileGrid.NO_INDEX;
+		if (metrics != null) {
+			metrics.seedNanos += this.refreshNanos;
+			metrics.relaxNanos += System.nanoTime() - begin - this.refreshNanos;
+		}
+
+		return planned;
+	}
+
+	/**
+	 * Searches the goal with the lowest total cost like {@link #plan(int, Facing, Plan, PlannerMetrics)}.
+	 */
+	private boolean search(final int start, final Facing facing, final Plan plan, final PlannerMetrics metrics) {
+		final IntUnaryOperator goalValues = this.goalValues;
+		final int cluster = start >>> 2 * TileGrid.CHUNK_BITS;
+		final int chunks = this.grid.size() / TileGrid.CHUNK_CELLS;
+		if (this.clusters.length < chunks) {
+			final int old = this.clusters.length;
+			this.clusters = Arrays.copyOf(this.clusters, chunks);
+			for (int chunk = old; chunk < chunks; chunk++) {
+				this.invalidateCluster(chunk);
+			}
+		}
+
+		// goals close to the robot are found faster by the other planners, which the goals of the
+		// cluster before its refresh tell often enough to save the refresh
+		if (this.clusters[cluster] != null && this.hasGoal(this.clusters[cluster], start))
+			return false;
+
+		final boolean stale = this.isDirty(cluster);
+		final Cluster own = this.getCluster(cluster);
+		if (stale && this.hasGoal(own, start))
+			return false;
+
+		final int scanned = this.searchCluster(start);
+
+		// search the graph of the entrances, seeded with the nodes of the cluster of the robot
+		this.prepare();
+		for (int node = 0; node < own.size(); node++) {
+			final int position = own.cells[node] & CELL_MASK;
+			if (this.cellSearches[position] == this.cellSearch)
+				this.reach(cluster << NODE_BITS | node, this.cellCosts[position], -1);
+		}
+
+		int best = Integer.MAX_VALUE;
+		int bestGoal = TileGrid.NO_INDEX;
+		int bestNode = -1;
+		int settled = 0;
+		int pushes = this.heapSize;
+		while (this.heapSize > 0) {
+			final long entry = this.poll();
+			final int cost = (int) (entry >>> 32);
+			final int id = (int) entry;
+			// every goal costs at least one more
+			if (cost + 1 >= best)
+				break;
+			if (cost > this.nodeCosts[id])
+				continue;
+
+			settled++;
+			final Cluster current = this.clusters[id >>> NODE_BITS];
+			final int node = id & NODE_MASK;
+			for (int goal = current.goalStarts[node]; goal < current.goalStarts[node + 1]; goal++) {
+				final int tile = current.goalTiles[goal];
+				if (tile == start)
+					continue;
+
+				final int value = goalValues.applyAsInt(tile);
+				if (value > 0 && value != Integer.MAX_VALUE && cost + current.goalDistances[goal] + value < best) {
+					best = cost + current.goalDistances[goal] + value;
+					bestGoal = tile;
+					bestNode = id;
+				}
+			}
+
+			final int size = current.size();
+			for (int other = 0; other < size; other++) {
+				final int distance = current.distances[node * size + other];
+				if (other != node && distance >= 0 && this.reach(id & ~NODE_MASK | other, cost + distance, id))
+					pushes++;
+			}
+
+			final int twin = this.getTwin(current, node);
+			if (twin != -1 && this.reach(twin, cost + 1, id))
+				pushes++;
+		}
+
+		plan.reset(start);
+		if (bestNode != -1) {
+			this.addLeg(start, facing, bestNode, best, plan);
+			if (plan.getLength() > 0)
+				plan.setGoal(bestGoal);
+		}
+
+		if (metrics != null) {
+			metrics.rebuilt = true;
+			metrics.scannedTiles += scanned + settled;
+			metrics.pushes += scanned + pushes;
+		}
+
+		return plan.getLength() > 0;
+	}
+
+	/**
+	 * Checks whether a goal within or right next to a cluster can be reached from its nodes.
+	 *
+	 * @param cluster The cluster of the robot.
+	 * @param start The index of the robot's tile.
+	 * @return <code>True</code> if there is a goal, <code>false</code> otherwise.
+	 */
+	private boolean hasGoal(final Cluster cluster, final int start) {
+		final int[] goalTiles = cluster.goalTiles;
+		for (int goal = 0; goal < goalTiles.length; goal++) {
+			if (goalTiles[goal] == start)
+				continue;
+
+			final int value = this.goalValues.applyAsInt(goalTiles[goal]);
+			if (value > 0 && value != Integer.MAX_VALUE)
+				return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Adds the first leg of the path to the goal found through the given node: the path to the last
+	 * node within the cluster of the robot followed by the other side of its entrance.
+	 *
+	 * @param start The index of the robot's tile.
+	 * @param facing The facing of the robot or <code>null</code> if it is not known.
+	 * @param last The node the goal was found through.
+	 * @param best The total cost of the goal.
+	 * @param plan The plan to add the tiles to.
+	 */
+	private void addLeg(final int start, final Facing facing, final int last, final int best, final Plan plan) {
+		final int cluster = start >>> 2 * TileGrid.CHUNK_BITS;
+		int exit = -1;
+		int entry = -1;
+		for (int id = last; id != -1; id = this.nodePredecessors[id]) {
+			final int predecessor = this.nodePredecessors[id];
+			if (predecessor != -1 && id >>> NODE_BITS != cluster && predecessor >>> NODE_BITS == cluster) {
+				exit = predecessor;
+				entry = id;
+			}
+		}
+
+		if (exit == -1)
+			return;
+
+		final Cluster own = this.clusters[cluster];
+		final int exitCell = own.cells[exit & NODE_MASK];
+		final int cost;
+		if (facing != null) {
+			cost = this.addTurningPath(start, facing, exitCell, own.sides[exit & NODE_MASK], best, plan);
+		} else {
+			// refreshing the clusters reached by the graph search replaced the search of the cluster of the robot
+			this.searchCluster(start);
+			cost = this.addPath(start, exitCell, best, plan);
+		}
+
+		if (cost >= 0)
+			plan.add(this.getCell(entry), best - cost - 1);
+	}
+
+	/**
+	 * Adds the path from the robot to a cell of its cluster found by the last search of the cluster.
+	 *
+	 * @param start The index of the robot's tile.
+	 * @param last The last cell of the path.
+	 * @param best The total cost of the goal.
+	 * @param plan The plan to add the tiles to.
+	 * @return The number of steps of the path or <code>-1</code> if the cell can not be reached.
+	 */
+	private int addPath(final int start, final int last, final int best, final Plan plan) {
+		if (this.cellSearches[last & CELL_MASK] != this.cellSearch)
+			return -1;
+
+		int length = 0;
+		for (int cell = last; cell != start; cell = this.cellPredecessors[cell & CELL_MASK]) {
+			if (length == this.path.length)
+				this.path = Arrays.copyOf(this.path, length * 2);
+			this.path[length++] = cell;
+		}
+
+		for (int i = length - 1; i >= 0; i--) {
+			final int cell = this.path[i];
+			plan.add(cell, best - this.cellCosts[cell & CELL_MASK]);
+		}
+
+		return this.cellCosts[last & CELL_MASK];
+	}
+
+	/**
+	 * Adds the path with the fewest actions from the robot to a cell of its cluster, on which the
+	 * robot faces the given side of the cluster. Turning and moving forward cost one action each.
+	 *
+	 * @param start The index of the robot's tile.
+	 * @param facing The facing of the robot.
+	 * @param last The last cell of the path.
+	 * @param side The side the robot faces on the last cell as its position in {@link #FACINGS}.
+	 * @param best The total cost of the goal.
+	 * @param plan The plan to add the tiles to.
+	 * @return The number of actions of the path or <code>-1</code> if the cell can not be reached.
+	 */
+	private int addTurningPath(final int start, final Facing facing, final int last, final int side,
+			final int best, final Plan plan) {
+		final TileGrid grid = this.grid;
+		final int cluster = start >>> 2 * TileGrid.CHUNK_BITS;
+		final int base = cluster << 2 * TileGrid.CHUNK_BITS;
+		if (++this.stateSearch == 0) {
+			Arrays.fill(this.stateSearches, 0);
+			this.stateSearch = 1;
+		}
+
+		// a state is the position of a cell within the cluster followed by the facing of the robot
+		int tail = 0;
+		final int first = (start & CELL_MASK) << 2 | indexOf(facing);
+		final int target = (last & CELL_MASK) << 2 | side;
+		this.reachState(first, 0, -1);
+		this.stateQueue[tail++] = first;
+		for (int head = 0; head < tail && this.stateSearches[target] != this.stateSearch; head++) {
+			final int state = this.stateQueue[head];
+			final int cost = this.stateCosts[state] + 1;
+			final int direction = state & 3;
+			final int ahead = grid.neighbor(base | state >>> 2, FACINGS[direction]);
+			if (ahead != TileGrid.NO_INDEX && ahead >>> 2 * TileGrid.CHUNK_BITS == cluster && this.isPassable(ahead)
+					&& this.reachState((ahead & CELL_MASK) << 2 | direction, cost, state))
+				this.stateQueue[tail++] = (ahead & CELL_MASK) << 2 | direction;
+			if (this.reachState(state & ~3 | direction + 3 & 3, cost, state))
+				this.stateQueue[tail++] = state & ~3 | direction + 3 & 3;
+			if (this.reachState(state & ~3 | direction + 1 & 3, cost, state))
+				this.stateQueue[tail++] = state & ~3 | direction + 1 & 3;
+		}
+
+		if (this.stateSearches[target] != this.stateSearch)
+			return -1;
+
+		// only moving forward changes the cell, turning keeps it
+		int length = 0;
+		for (int state = target; this.statePredecessors[state] != -1; state = this.statePredecessors[state]) {
+			if (this.statePredecessors[state] >>> 2 != state >>> 2) {
+				if (length == this.path.length)
+					this.path = Arrays.copyOf(this.path, length * 2);
+				this.path[length++] = state;
+			}
+		}
+
+		for (int i = length - 1; i >= 0; i--) {
+			final int state = this.path[i];
+			plan.add(base | state >>> 2, best - this.stateCosts[state]);
+		}
+
+		return this.stateCosts[target];
+	}
+
+	/**
+	 * Reaches a state of the refinement with the given cost, unless the current refinement reached it already.
+	 */
+	private boolean reachState(final int state, final int cost, final int predecessor) {
+		if (this.stateSearches[state] == this.stateSearch)
+			return false;
+
+		this.stateSearches[state] = this.stateSearch;
+		this.stateCosts[state] = cost;
+		this.statePredecessors[state] = predecessor;
+		return true;
+	}
+
+	/**
+	 * Returns a cluster, which is refreshed first if it changed since it was refreshed the last time.
+	 * Refreshing a cluster replaces the last search within a cluster.
+	 *
+	 * @param number The number of the cluster.
+	 * @return The cluster.
+	 */
+	private Cluster getCluster(final int number) {
+		if (this.isDirty(number)) {
+			final long begin = System.nanoTime();
+			this.dirty[number >>> 6] &= ~(1L << number);
+			this.clusters[number] = this.build(number);
+			this.refreshNanos += System.nanoTime() - begin;
+		}
+
+		return this.clusters[number];
+	}
+
+	private boolean isDirty(final int number) {
+		return (this.dirty[number >>> 6] & 1L << number) != 0L;
+	}
+
+	/**
+	 * Computes the nodes of a cluster and the distances from every node to the other nodes and to the goals.
+	 *
+	 * @param cluster The number of the cluster.
+	 * @return The cluster.
+	 */
+	private Cluster build(final int cluster) {
+		final TileGrid grid = this.grid;
+		final int base = cluster << 2 * TileGrid.CHUNK_BITS;
+		final int last = TileGrid.CHUNK_SIZE - 1;
+
+		// find the entrances on every side of the cluster
+		int size = 0;
+		final int[] nodes = this.scratchNodes;
+		for (int side = 0; side < FACINGS.length; side++) {
+			final Facing facing = FACINGS[side];
+			int run = -1;
+			for (int k = 0; k <= TileGrid.CHUNK_SIZE; k++) {
+				boolean open = false;
+				if (k < TileGrid.CHUNK_SIZE) {
+					final int cell = base | getBorderCell(facing, k);
+					final int neighbor = grid.neighbor(cell, facing);
+					open = this.isPassable(cell) && neighbor != TileGrid.NO_INDEX && this.isPassable(neighbor);
+				}
+
+				if (open && run == -1) {
+					run = k;
+				} else if (!open && run != -1) {
+					if (k - run < LONG_ENTRANCE) {
+						nodes[size++] = side << 8 | (run + k - 1) / 2;
+					} else {
+						nodes[size++] = side << 8 | run;
+						nodes[size++] = side << 8 | k - 1;
+					}
+					run = -1;
+				}
+			}
+		}
+
+		final int[] cells = new int[size];
+		final byte[] sides = new byte[size];
+		for (int node = 0; node < size; node++) {
+			sides[node] = (byte) (nodes[node] >>> 8);
+			cells[node] = base | getBorderCell(FACINGS[sides[node]], nodes[node] & 0xFF);
+		}
+
+		// look the goals within and around the cluster up once instead of once per search
+		final boolean[] goalTiles = this.goalTiles;
+		final int originX = grid.getX(base) - 1;
+		final int originY = grid.getY(base) - 1;
+		for (int column = 0; column < GOAL_AREA; column++) {
+			for (int row = 0; row < GOAL_AREA; row++) {
+				final boolean inside = column > 0 && row > 0 && column <= TileGrid.CHUNK_SIZE && row <= TileGrid.CHUNK_SIZE;
+				final int index = inside ? base | column - 1 << TileGrid.CHUNK_BITS | row - 1
+						: grid.index(originX + column, originY + row);
+				goalTiles[column * GOAL_AREA + row] = index != TileGrid.NO_INDEX
+						&& this.goals.getCategory(index) != GoalIndex.NONE;
+			}
+		}
+
+		// search the cluster from every node
+		final int[] distances = new int[size * size];
+		final int[] goalStarts = new int[size + 1];
+		int goals = 0;
+		for (int node = 0; node < size; node++) {
+			goalStarts[node] = goals;
+			final int scanned = this.searchCluster(cells[node]);
+			for (int other = 0; other < size; other++) {
+				final int position = cells[other] & CELL_MASK;
+				distances[node * size + other] = this.cellSearches[position] == this.cellSearch
+						? this.cellCosts[position] : -1;
+			}
+
+			// every goal is recorded the first time it is found, which is at its lowest distance
+			final int slot = getSlot(cells[node]);
+			if (goalTiles[slot])
+				goals = this.addGoal(cells[node], slot, 0, goals);
+			for (int head = 0; head < scanned; head++) {
+				final int cell = this.queue[head];
+				final int cost = this.cellCosts[cell & CELL_MASK] + 1;
+				final int center = getSlot(cell);
+				for (final Facing facing : FACINGS) {
+					final int neighborSlot = center + facing.dx * GOAL_AREA + facing.dy;
+					if (goalTiles[neighborSlot])
+						goals = this.addGoal(grid.neighbor(cell, facing), neighborSlot, cost, goals);
+				}
+			}
+		}
+		goalStarts[size] = goals;
+
+		return new Cluster(cells, sides, distances, goalStarts,
+				Arrays.copyOf(this.scratchGoals, goals), Arrays.copyOf(this.scratchDistances, goals));
+	}
+
+	/**
+	 * Adds a goal found by the current search within a cluster, unless it was found before.
+	 *
+	 * @param index The index of the goal.
+	 * @param slot The position of the goal in the area around the cluster.
+	 * @param distance The distance of the goal.
+	 * @param goals The number of goals collected.
+	 * @return The new number of goals collected.
+	 */
+	private int addGoal(final int index, final int slot, final int distance, final int goals) {
+		if (this.goalSearches[slot] == this.cellSearch)
+			return goals;
+
+		this.goalSearches[slot] = this.cellSearch;
+		if (goals == this.scratchGoals.length) {
+			this.scratchGoals = Arrays.copyOf(this.scratchGoals, goals * 2);
+			this.scratchDistances = Arrays.copyOf(this.scratchDistances, goals * 2);
+		}
+		this.scratchGoals[goals] = index;
+		this.scratchDistances[goals] = distance;
+		return goals + 1;
+	}
+
+	/**
+	 * Searches the passable tiles of the cluster of a tile, starting at the tile. The tiles are
+	 * left in the {@link #queue} in the order they were reached.
+	 *
+	 * @param start The index of the tile.
+	 * @return The number of tiles reached.
+	 */
+	private int searchCluster(final int start) {
+		final TileGrid grid = this.grid;
+		final int cluster = start >>> 2 * TileGrid.CHUNK_BITS;
+		if (++this.cellSearch == 0) {
+			Arrays.fill(this.cellSearches, 0);
+			Arrays.fill(this.goalSearches, 0);
+			this.cellSearch = 1;
+		}
+
+		if (!this.isPassable(start))
+			return 0;
+
+		int tail = 0;
+		final int first = start & CELL_MASK;
+		this.cellSearches[first] = this.cellSearch;
+		this.cellCosts[first] = 0;
+		this.cellPredecessors[first] = TileGrid.NO_INDEX;
+		this.queue[tail++] = start;
+		for (int head = 0; head < tail; head++) {
+			final int cell = this.queue[head];
+			final int cost = this.cellCosts[cell & CELL_MASK] + 1;
+			for (final Facing facing : FACINGS) {
+				final int neighbor = grid.neighbor(cell, facing);
+				if (neighbor == TileGrid.NO_INDEX || neighbor >>> 2 * TileGrid.CHUNK_BITS != cluster
+						|| !this.isPassable(neighbor))
+					continue;
+
+				final int position = neighbor & CELL_MASK;
+				if (this.cellSearches[position] == this.cellSearch)
+					continue;
+
+				this.cellSearches[position] = this.cellSearch;
+				this.cellCosts[position] = cost;
+				this.cellPredecessors[position] = cell;
+				this.queue[tail++] = neighbor;
+			}
+		}
+
+		return tail;
+	}
+
+	/**
+	 * Returns the node on the other side of the entrance of a node, refreshing its cluster if needed.
+	 *
+	 * @param cluster The cluster of the node.
+	 * @param node The node within the cluster.
+	 * @return The id of the other node or <code>-1</code> if there is none.
+	 */
+	private int getTwin(final Cluster cluster, final int node) {
+		final int neighbor = this.grid.neighbor(cluster.cells[node], FACINGS[cluster.sides[node]]);
+		if (neighbor == TileGrid.NO_INDEX)
+			return -1;
+
+		final int number = neighbor >>> 2 * TileGrid.CHUNK_BITS;
+		final Cluster other = this.getCluster(number);
+		for (int twin = 0; twin < other.size(); twin++) {
+			if (other.cells[twin] == neighbor)
+				return number << NODE_BITS | twin;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Checks whether a tile is passable, which the tile of the robot is. Otherwise the entrances of
+	 * a cluster would change whenever the robot stands on one of them.
+	 */
+	private boolean isPassable(final int index) {
+		return index == this.robot || this.grid.isPassable(index);
+	}
+
+	private int getCell(final int id) {
+		return this.clusters[id >>> NODE_BITS].cells[id & NODE_MASK];
+	}
+
+	/**
+	 * Reaches a node with the given cost, unless the current search reached it cheaper already.
+	 *
+	 * @param id The id of the node.
+	 * @param cost The cost of the node.
+	 * @param predecessor The node it was reached from or <code>-1</code> for the nodes around the robot.
+	 * @return <code>True</code> if the node was reached cheaper, <code>false</code> otherwise.
+	 */
+	private boolean reach(final int id, final int cost, final int predecessor) {
+		if (this.nodeSearches[id] == this.search && this.nodeCosts[id] <= cost)
+			return false;
+
+		this.nodeSearches[id] = this.search;
+		this.nodeCosts[id] = cost;
+		this.nodePredecessors[id] = predecessor;
+		this.push((long) cost << 32 | id);
+		return true;
+	}
+
+	/**
+	 * Starts a new search of the graph and makes sure the arrays cover all nodes.
+	 */
+	private void prepare() {
+		final int nodes = this.clusters.length << NODE_BITS;
+		if (this.nodeSearches.length < nodes) {
+			this.nodeCosts = Arrays.copyOf(this.nodeCosts, nodes);
+			this.nodePredecessors = Arrays.copyOf(this.nodePredecessors, nodes);
+			this.nodeSearches = Arrays.copyOf(this.nodeSearches, nodes);
+		}
+
+		if (++this.search == 0) {
+			Arrays.fill(this.nodeSearches, 0);
+			this.search = 1;
+		}
+		this.heapSize = 0;
+	}
+
+	private void invalidateCluster(final int cluster) {
+		if (cluster >>> 6 >= this.dirty.length)
+			this.dirty = Arrays.copyOf(this.dirty, Math.max((cluster >>> 6) + 1, this.dirty.length * 2));
+		this.dirty[cluster >>> 6] |= 1L << cluster;
+	}
+
+	private void push(final long entry) {
+		if (this.heapSize == this.heap.length)
+			this.heap = Arrays.copyOf(this.heap, this.heapSize * 2);
+
+		final long[] heap = this.heap;
+		int i = this.heapSize++;
+		while (i > 0) {
+			final int parent = i - 1 >>> 1;
+			if (heap[parent] <= entry)
+				break;
+
+			heap[i] = heap[parent];
+			i = parent;
+		}
+		heap[i] = entry;
+	}
+
+	private long poll() {
+		final long[] heap = this.heap;
+		final long result = heap[0];
+		final long entry = heap[--this.heapSize];
+		int i = 0;
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= this.heapSize)
+				break;
+			if (child + 1 < this.heapSize && heap[child + 1] < heap[child])
+				child++;
+			if (entry <= heap[child])
+				break;
+
+			heap[i] = heap[child];
+			i = child;
+		}
+		heap[i] = entry;
+		return result;
+	}
+
+	/**
+	 * Returns the position of a cell on a side of a cluster within the cluster.
+	 *
+	 * @param side The side of the cluster.
+	 * @param k The position of the cell along the side.
+	 * @return The position of the cell within the cluster.
+	 */
+	private static int getBorderCell(final Facing side, final int k) {
+		final int last = TileGrid.CHUNK_SIZE - 1;
+		final int i = side.dx != 0 ? (side.dx > 0 ? last : 0) : k;
+		final int j = side.dy != 0 ? (side.dy > 0 ? last : 0) : k;
+		return i << TileGrid.CHUNK_BITS | j;
+	}
+
+	/**
+	 * Returns the position of a cell of a cluster in the area of the goals around the cluster.
+	 */
+	private static int getSlot(final int cell) {
+		return ((cell >>> TileGrid.CHUNK_BITS & TileGrid.CHUNK_SIZE - 1) + 1) * GOAL_AREA + (cell & TileGrid.CHUNK_SIZE - 1) + 1;
+	}
+
+	private static int indexOf(final Facing facing) {
+		for (int i = 0; i < FACINGS.length; i++) {
+			if (FACINGS[i] == facing)
+				return i;
+		}
+
+		throw new IllegalArgumentException("Unknown facing " + facing);
+	}
+
+	/**
+	 * The nodes of a cluster with the distances between them and to the goals around them.
+	 */
+	private static final class Cluster {
+
+		/**
+		 * The tile of every node.
+		 */
+		private final int[] cells;
+
+		/**
+		 * The side of the cluster every node lies on, as its position in {@link HierarchicalPlanner#FACINGS}.
+		 */
+		private final byte[] sides;
+
+		/**
+		 * The distance from every node to every other node, indexed by <code>from * size + to</code>,
+		 * <code>-1</code> if the node can not be reached within the cluster.
+		 */
+		private final int[] distances;
+
+		/**
+		 * The position of the first goal of every node in the goal arrays, followed by the number of goals.
+		 */
+		private final int[] goalStarts;
+
+		/**
+		 * The goals that can be reached from the nodes, grouped by node.
+		 */
+		private final int[] goalTiles;
+
+		/**
+		 * The distance from the node to every goal, including the step onto the goal.
+		 */
+		private final int[] goalDistances;
+
+		private Cluster(final int[] cells, final byte[] sides, final int[] distances, final int[] goalStarts,
+				final int[] goalTiles, final int[] goalDistances) {
+			this.cells = cells;
+			this.sides = sides;
+			this.distances = distances;
+			this.goalStarts = goalStarts;
+			this.goalTiles = goalTiles;
+			this.goalDistances = goalDistances;
+		}
+
+		private int size() {
+			return this.cells.length;
+		}
+	}
+}
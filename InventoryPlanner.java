@@ -0,0 +1,868 @@
+/*
+ * KIT Schnupperstudium Robots AIs
+ * Copyright (C) 2019  Simon Grossmann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.schnupperstudium.robots.client.ai.hidden;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.function.IntPredicate;
+import java.util.function.IntUnaryOperator;
+
+import com.github.schnupperstudium.robots.entity.Facing;
+
+/**
+ * Decides which keys and laser charges a robot of a {@link DistanceScalingMap} needs and which
+ * gates and boulders it has to open, so it neither collects items it never uses nor shoots
+ * boulders that do not lead anywhere.
+ * <br><br>
+ * The known part of the map is split into regions, the tiles connected without opening a gate
+ * or destroying a boulder. Every gate and boulder is a barrier between the regions around it,
+ * the unknown tiles behind a barrier count as a region of their own. A region is a target if it
+ * holds a star or borders the unknown part of the map.
+ * <br><br>
+ * The plan is a search over the regions reached so far together with the keys held and the
+ * charges left, which follow from the regions: every key and charge in a reached region is
+ * collected. Opening a barrier costs one action and every charge it takes. The search finds the
+ * cheapest way to reach every target that can be reached at all, or as many of them as the
+ * charges suffice for. Keys are never used up, but
+ * charges are, so shooting the wrong boulders first can make other targets unreachable. The
+ * cheapest charges spent on every set of reached regions are memoized, so every set is only
+ * expanded again if it is reached with more charges left.
+ * <br><br>
+ * The plan is only computed again after the map or the inventory changed, and after changes
+ * of the terrain only every few turns. If the regions do not fit into the search or the search
+ * does not finish within its time budget, there is no plan and the map falls back to the fixed
+ * weights of the items.
+ */
+final class InventoryPlanner {
+
+	/**
+	 * The time budget of a search in microseconds.
+	 */
+	private static final long BUDGET_NANOS = Long.getLong("robots.planner.inventory.budget", 1000L) * 1000L;
+
+	/**
+	 * The number of turns a plan is kept after tiles without keys, charges, stars, gates, boulders
+	 * or teleporters changed. These only change how the regions are connected, which rarely changes
+	 * the plan.
+	 */
+	private static final int REFRESH_TURNS = Integer.getInteger("robots.planner.inventory.refresh", 8);
+
+	/**
+	 * The number of tiles labeled per turn on average. A plan labeling more tiles than that delays
+	 * the next plan accordingly, so the planning stays cheap on large maps.
+	 */
+	private static final int TILES_PER_TURN = Integer.getInteger("robots.planner.inventory.tiles", 128);
+
+	/**
+	 * The maximum number of regions, one bit of the reached regions per region.
+	 */
+	private static final int MAX_REGIONS = Long.SIZE;
+
+	/**
+	 * The number of states expanded between two checks of the time budget.
+	 */
+	private static final int BUDGET_CHECK = 64;
+
+	private static final Facing[] NEIGHBOR_FACINGS = {
+			Facing.NORTH, Facing.EAST, Facing.SOUTH, Facing.WEST
+	};
+
+	/**
+	 * The {@link TileGrid grid} to plan on.
+	 */
+	private final TileGrid grid;
+
+	/**
+	 * The {@link GoalIndex index} of the tiles that can be goals.
+	 */
+	private final GoalIndex goals;
+
+	/**
+	 * Returns the bit of the key lying on a tile or <code>0</code> if there is no key.
+	 */
+	private final IntUnaryOperator keyBits;
+
+	/**
+	 * Returns the bit of the key opening the gate on a tile or <code>0</code> if there is no gate.
+	 */
+	private final IntUnaryOperator gateKeys;
+
+	/**
+	 * Returns the charges needed to destroy the boulder on a tile or <code>0</code> if there is no boulder.
+	 */
+	private final IntUnaryOperator boulderCharges;
+
+	/**
+	 * Returns the tile stepping onto a tile leads to if it is a teleporter with a known destination,
+	 * {@link TileGrid#NO_INDEX} otherwise.
+	 */
+	private final IntUnaryOperator destinations;
+
+	/**
+	 * Checks whether a tile is a teleporter.
+	 */
+	private final IntPredicate teleporters;
+
+	/**
+	 * The region of every tile labeled by the current plan, or of every barrier its position in the barriers.
+	 */
+	private int[] labels;
+
+	/**
+	 * The labeling every tile was labeled by the last time.
+	 */
+	private int[] labelings;
+
+	/**
+	 * The queue of the labeling.
+	 */
+	private int[] queue;
+
+	/**
+	 * The teleporters the robot can land on, which were labeled together with their neighbors.
+	 */
+	private final CellSet landed;
+
+	/**
+	 * The number of the current labeling.
+	 */
+	private int labeling;
+
+	/**
+	 * The number of regions.
+	 */
+	private int regionCount;
+
+	/**
+	 * The keys lying in every region.
+	 */
+	private final int[] regionKeys;
+
+	/**
+	 * The charges lying in every region.
+	 */
+	private final int[] regionCharges;
+
+	/**
+	 * The number of barriers around every region.
+	 */
+	private final int[] regionBarriers;
+
+	/**
+	 * The regions holding a star or bordering the unknown part of the map.
+	 */
+	private long targets;
+
+	/**
+	 * Whether no region borders the unknown part of the map.
+	 */
+	private boolean explored;
+
+	/**
+	 * The tile of every barrier.
+	 */
+	private int[] barrierTiles;
+
+	/**
+	 * The regions around every barrier.
+	 */
+	private long[] barrierRegions;
+
+	/**
+	 * The key opening every barrier, <code>0</code> for boulders.
+	 */
+	private int[] barrierKeys;
+
+	/**
+	 * The charges destroying every barrier, <code>0</code> for gates.
+	 */
+	private int[] barrierCharges;
+
+	private int barrierCount;
+
+	/**
+	 * The regions reached by every state of the search.
+	 */
+	private long[] stateRegions;
+
+	/**
+	 * The charges spent by every state.
+	 */
+	private int[] stateSpent;
+
+	/**
+	 * The state every state was reached from, <code>-1</code> for the first state.
+	 */
+	private int[] statePredecessors;
+
+	/**
+	 * The barrier opened by every state.
+	 */
+	private int[] stateBarriers;
+
+	private int stateCount;
+
+	/**
+	 * The binary heap of the states to expand, every entry holds the cost in the upper and the
+	 * state in the lower half.
+	 */
+	private long[] heap;
+
+	private int heapSize;
+
+	/**
+	 * The fewest charges spent to reach a set of regions.
+	 */
+	private final HashMap<Long, Integer> spent;
+
+	/**
+	 * The barriers opened by the plan.
+	 */
+	private final CellSet planned;
+
+	/**
+	 * Whether there is a plan.
+	 */
+	private boolean valid;
+
+	/**
+	 * The keys used by the plan.
+	 */
+	private int neededKeys;
+
+	/**
+	 * The charges spent by the plan.
+	 */
+	private int neededCharges;
+
+	/**
+	 * Whether a key, charge, star, gate, boulder or teleporter changed since the last plan.
+	 */
+	private boolean changed;
+
+	/**
+	 * Whether any other tile changed since the last plan.
+	 */
+	private boolean terrainChanged;
+
+	/**
+	 * The number of turns since the last plan.
+	 */
+	private int age;
+
+	/**
+	 * The number of tiles labeled by the last plan.
+	 */
+	private int labeled;
+
+	/**
+	 * The capabilities of the robot the last plan was computed for.
+	 */
+	private Capabilities capabilities;
+
+	/**
+	 * Creates a new {@link InventoryPlanner}.
+	 *
+	 * @param grid The grid to plan on.
+	 * @param goals The index of the tiles that can be goals.
+	 * @param keyBits Returns the bit of the key lying on a tile or <code>0</code> if there is no key.
+	 * @param gateKeys Returns the bit of the key opening the gate on a tile or <code>0</code> if there is no gate.
+	 * @param boulderCharges Returns the charges needed to destroy the boulder on a tile or <code>0</code>
+	 * 		if there is no boulder.
+	 * @param destinations Returns the tile stepping onto a tile leads to if it is a teleporter with a known
+	 * 		destination, {@link TileGrid#NO_INDEX} otherwise.
+	 * @param teleporters Checks whether a tile is a teleporter.
+	 */
+	InventoryPlanner(final TileGrid grid, final GoalIndex goals, final IntUnaryOperator keyBits,
+			final IntUnaryOperator gateKeys, final IntUnaryOperator boulderCharges, final IntUnaryOperator destinations,
+			final IntPredicate teleporters) {
+		this.grid = grid;
+		this.goals = goals;
+		this.keyBits = keyBits;
+		this.gateKeys = gateKeys;
+		this.boulderCharges = boulderCharges;
+		this.destinations = destinations;
+		this.teleporters = teleporters;
+		this.labels = new int[0];
+		this.labelings = new int[0];
+		this.queue = new int[0];
+		this.landed = new CellSet();
+		this.regionKeys = new int[MAX_REGIONS];
+		this.regionCharges = new int[MAX_REGIONS];
+		this.regionBarriers = new int[MAX_REGIONS];
+		this.barrierTiles = new int[16];
+		this.barrierRegions = new long[16];
+		this.barrierKeys = new int[16];
+		this.barrierCharges = new int[16];
+		this.stateRegions = new long[64];
+		this.stateSpent = new int[64];
+		this.statePredecessors = new int[64];
+		this.stateBarriers = new int[64];
+		this.heap = new long[64];
+		this.spent = new HashMap<>();
+		this.planned = new CellSet();
+		this.changed = true;
+		this.capabilities = Capabilities.NONE;
+	}
+
+	/**
+	 * Remembers that a tile of the map changed, so the plan is computed again.
+	 *
+	 * @param goal Whether the tile holds or held a key, charge, star, gate, boulder or teleporter,
+	 * 		which changes the plan right away. Other tiles change it after {@link #REFRESH_TURNS}.
+	 */
+	void mapChanged(final boolean goal) {
+		if (goal)
+			this.changed = true;
+		else
+			this.terrainChanged = true;
+	}
+
+	/**
+	 * Checks whether the next {@link #update(int, Capabilities) update} may compute the plan again,
+	 * without changing anything.
+	 *
+	 * @param capabilities The capabilities of the robot.
+	 * @return <code>True</code> if the plan may be computed again, <code>false</code> otherwise.
+	 */
+	boolean isDue(final Capabilities capabilities) {
+		final int age = this.age + 1;
+		return age >= this.labeled / TILES_PER_TURN && (this.changed || !capabilities.equals(this.capabilities)
+				|| this.terrainChanged && age >= REFRESH_TURNS);
+	}
+
+	/**
+	 * Computes the plan again if the map or the capabilities of the robot changed since the last plan
+	 * and the last plan is old enough.
+	 *
+	 * @param start The index of the robot's tile.
+	 * @param capabilities The capabilities of the robot.
+	 * @return The {@link GoalIndex} categories whose goal values changed with the plan, one bit per category.
+	 */
+	int update(final int start, final Capabilities capabilities) {
+		final boolean inventoryChanged = !capabilities.equals(this.capabilities);
+		final int interval = this.labeled / TILES_PER_TURN;
+		if (++this.age < interval || !this.changed && !inventoryChanged && (!this.terrainChanged || this.age < REFRESH_TURNS))
+			return 0;
+
+		this.changed = false;
+		this.terrainChanged = false;
+		this.age = 0;
+		this.capabilities = capabilities;
+		final boolean valid = this.valid;
+		final int neededKeys = this.neededKeys;
+		final int neededCharges = this.neededCharges;
+		final boolean explored = this.explored;
+		final int plannedSize = this.planned.size();
+		final int plannedHash = this.getPlannedHash();
+
+		this.plan(start, capabilities);
+		int categories = 0;
+		if (valid != this.valid || this.valid && (inventoryChanged || neededKeys != this.neededKeys
+				|| neededCharges != this.neededCharges || explored != this.explored))
+			categories |= 1 << GoalIndex.ITEMS;
+		if (valid != this.valid || plannedSize != this.planned.size() || plannedHash != this.getPlannedHash())
+			categories |= 1 << GoalIndex.BOULDERS | 1 << GoalIndex.GATES;
+
+		return categories;
+	}
+
+	/**
+	 * Checks whether there is a plan. Without a plan, the map uses the fixed weights of the items.
+	 *
+	 * @return <code>True</code> if there is a plan, <code>false</code> otherwise.
+	 */
+	boolean isValid() {
+		return this.valid;
+	}
+
+	/**
+	 * Checks whether the plan opens a gate or destroys a boulder.
+	 *
+	 * @param index The index of the gate or boulder.
+	 * @return <code>True</code> if the barrier is opened, <code>false</code> otherwise.
+	 */
+	boolean isPlanned(final int index) {
+		return this.planned.contains(index);
+	}
+
+	/**
+	 * Returns the keys used by the plan, including the ones the robot holds already.
+	 *
+	 * @return The keys, one bit per key color.
+	 */
+	int getNeededKeys() {
+		return this.neededKeys;
+	}
+
+	/**
+	 * Returns the charges spent by the plan, including the ones the robot holds already.
+	 *
+	 * @return The number of laser charges.
+	 */
+	int getNeededCharges() {
+		return this.neededCharges;
+	}
+
+	/**
+	 * Checks whether the regions of the plan are explored completely, so items not needed by
+	 * the plan are never needed.
+	 *
+	 * @return <code>True</code> if no region borders the unknown part of the map, <code>false</code> otherwise.
+	 */
+	boolean isExplored() {
+		return this.explored;
+	}
+
+	/**
+	 * Computes the plan.
+	 *
+	 * @param start The index of the robot's tile.
+	 * @param capabilities The capabilities of the robot.
+	 */
+	private void plan(final int start, final Capabilities capabilities) {
+		this.valid = false;
+		this.neededKeys = 0;
+		this.neededCharges = 0;
+		this.planned.clear();
+		this.labeled = 0;
+		// without gates and boulders there is nothing to plan
+		if (this.goals.get(GoalIndex.BOULDERS).isEmpty() && this.goals.get(GoalIndex.GATES).isEmpty()
+				|| !this.label(start))
+			return;
+
+		final long deadline = System.nanoTime() + BUDGET_NANOS;
+		final int best = this.search(capabilities, deadline);
+		if (best == -1)
+			return;
+
+		this.valid = true;
+		for (int state = best; this.statePredecessors[state] != -1; state = this.statePredecessors[state]) {
+			final int barrier = this.stateBarriers[state];
+			this.planned.add(this.barrierTiles[barrier]);
+			this.neededKeys |= this.barrierKeys[barrier];
+			this.neededCharges += this.barrierCharges[barrier];
+		}
+	}
+
+	/**
+	 * Searches the cheapest way to reach every target that can be reached.
+	 *
+	 * @param capabilities The capabilities of the robot.
+	 * @param deadline The time at which the search gives up.
+	 * @return The state reaching the targets, or the most of them if charges run short, or <code>-1</code>
+	 * 		if the search gave up.
+	 */
+	private int search(final Capabilities capabilities, final long deadline) {
+		// the targets that could be reached with unlimited charges are the ones to reach
+		final long goal = this.targets & this.reach(capabilities.getKeys());
+		this.stateCount = 0;
+		this.heapSize = 0;
+		this.spent.clear();
+		this.addState(1L, 0, -1, -1, 0);
+
+		int best = 0;
+		int bestTargets = 0;
+		int expanded = 0;
+		while (this.heapSize > 0) {
+			final long entry = this.poll();
+			final int cost = (int) (entry >>> 32);
+			final int state = (int) entry;
+			final long regions = this.stateRegions[state];
+			final int spent = this.stateSpent[state];
+			if ((regions & goal) == goal)
+				return state;
+			if (this.spent.get(regions) < spent)
+				continue;
+			final int reached = Long.bitCount(regions & goal);
+			if (reached > bestTargets) {
+				best = state;
+				bestTargets = reached;
+			}
+			if (++expanded % BUDGET_CHECK == 0 && System.nanoTime() > deadline)
+				return -1;
+
+			int keys = capabilities.getKeys();
+			int charges = capabilities.getCharges() - spent;
+			for (long rest = regions; rest != 0L; rest &= rest - 1) {
+				final int region = Long.numberOfTrailingZeros(rest);
+				keys |= this.regionKeys[region];
+				charges += this.regionCharges[region];
+			}
+
+			for (int barrier = 0; barrier < this.barrierCount; barrier++) {
+				final long around = this.barrierRegions[barrier];
+				final long added = around & ~regions;
+				if ((around & regions) == 0L || added == 0L || !this.isUseful(added))
+					continue;
+
+				final int need = this.barrierCharges[barrier];
+				if ((keys & this.barrierKeys[barrier]) != this.barrierKeys[barrier] || need > charges)
+					continue;
+
+				this.addState(regions | added, spent + need, state, barrier, cost + 1 + need);
+			}
+		}
+
+		return best;
+	}
+
+	/**
+	 * Checks whether reaching regions can help reaching a target, which is the case unless they
+	 * are empty dead ends.
+	 *
+	 * @param regions The regions.
+	 * @return <code>True</code> if the regions are useful, <code>false</code> otherwise.
+	 */
+	private boolean isUseful(final long regions) {
+		if ((regions & this.targets) != 0L)
+			return true;
+
+		for (long rest = regions; rest != 0L; rest &= rest - 1) {
+			final int region = Long.numberOfTrailingZeros(rest);
+			if (this.regionKeys[region] != 0 || this.regionCharges[region] != 0 || this.regionBarriers[region] > 1)
+				return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Returns the regions that can be reached with the keys in reach and unlimited charges.
+	 *
+	 * @param keys The keys of the robot.
+	 * @return The regions.
+	 */
+	private long reach(final int keys) {
+		long regions = 1L;
+		int held = keys | this.regionKeys[0];
+		boolean grown = true;
+		while (grown) {
+			grown = false;
+			for (int barrier = 0; barrier < this.barrierCount; barrier++) {
+				final long around = this.barrierRegions[barrier];
+				if ((around & regions) == 0L || (around & ~regions) == 0L
+						|| (held & this.barrierKeys[barrier]) != this.barrierKeys[barrier])
+					continue;
+
+				for (long rest = around & ~regions; rest != 0L; rest &= rest - 1) {
+					held |= this.regionKeys[Long.numberOfTrailingZeros(rest)];
+				}
+				regions |= around;
+				grown = true;
+			}
+		}
+
+		return regions;
+	}
+
+	/**
+	 * Adds a state to the search, unless its regions were reached with fewer charges spent already.
+	 */
+	private void addState(final long regions, final int spent, final int predecessor, final int barrier, final int cost) {
+		final Integer best = this.spent.get(regions);
+		if (best != null && best <= spent)
+			return;
+
+		this.spent.put(regions, spent);
+		final int state = this.stateCount++;
+		if (state == this.stateRegions.length) {
+			this.stateRegions = Arrays.copyOf(this.stateRegions, state * 2);
+			this.stateSpent = Arrays.copyOf(this.stateSpent, state * 2);
+			this.statePredecessors = Arrays.copyOf(this.statePredecessors, state * 2);
+			this.stateBarriers = Arrays.copyOf(this.stateBarriers, state * 2);
+		}
+		this.stateRegions[state] = regions;
+		this.stateSpent[state] = spent;
+		this.statePredecessors[state] = predecessor;
+		this.stateBarriers[state] = barrier;
+		this.push((long) cost << 32 | state);
+	}
+
+	/**
+	 * Labels the regions and barriers that can be reached from the robot by opening barriers.
+	 *
+	 * @param start The index of the robot's tile.
+	 * @return <code>True</code> if all regions fit into the search, <code>false</code> otherwise.
+	 */
+	private boolean label(final int start) {
+		final TileGrid grid = this.grid;
+		final int size = grid.size();
+		if (this.labelings.length < size) {
+			this.labels = Arrays.copyOf(this.labels, size);
+			this.labelings = Arrays.copyOf(this.labelings, size);
+			this.queue = Arrays.copyOf(this.queue, Math.max(this.queue.length, size));
+		}
+		if (++this.labeling == 0) {
+			Arrays.fill(this.labelings, 0);
+			this.labeling = 1;
+		}
+
+		this.landed.clear();
+		this.regionCount = 0;
+		this.barrierCount = 0;
+		this.targets = 0L;
+		this.explored = true;
+		if (!this.labelRegion(start, start))
+			return false;
+
+		// the barriers found while labeling lead to further regions
+		for (int barrier = 0; barrier < this.barrierCount; barrier++) {
+			final int tile = this.barrierTiles[barrier];
+			for (final Facing facing : NEIGHBOR_FACINGS) {
+				final int neighbor = grid.neighbor(tile, facing);
+				int region = -1;
+				if (neighbor == TileGrid.NO_INDEX || grid.isUndefined(neighbor) || this.isBarrier(neighbor)) {
+					// the unknown tiles behind the barrier are a target of their own, and so are the
+					// tiles behind a further barrier, which only count if the barrier is opened
+					if (!this.addRegion())
+						return false;
+					region = this.regionCount - 1;
+					this.targets |= 1L << region;
+					this.explored = false;
+				} else if (this.labelings[neighbor] == this.labeling) {
+					region = this.labels[neighbor];
+				} else if (this.isOpen(neighbor, start)) {
+					if (!this.labelRegion(neighbor, start))
+						return false;
+					region = this.regionCount - 1;
+				}
+
+				if (region != -1 && (this.barrierRegions[barrier] & 1L << region) == 0L) {
+					this.barrierRegions[barrier] |= 1L << region;
+					this.regionBarriers[region]++;
+				}
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Labels the region of a tile and records the barriers around it.
+	 *
+	 * @param first The index of the tile.
+	 * @param start The index of the robot's tile.
+	 * @return <code>True</code> if the region fits into the search, <code>false</code> otherwise.
+	 */
+	private boolean labelRegion(final int first, final int start) {
+		if (!this.addRegion())
+			return false;
+
+		final TileGrid grid = this.grid;
+		final int region = this.regionCount - 1;
+		int tail = 0;
+		this.labelings[first] = this.labeling;
+		this.labels[first] = region;
+		this.queue[tail++] = first == start ? ~first : first;
+		if (first == start)
+			this.landed.add(start);
+		for (int head = 0; head < tail; head++) {
+			// the robot leaves a teleporter it stepped onto on the tile it leads to, so only the
+			// teleporters the robot stands on or lands on, stored inverted, lead to their neighbors
+			final boolean landed = this.queue[head] < 0;
+			final int tile = landed ? ~this.queue[head] : this.queue[head];
+			this.labeled++;
+			final boolean teleporter = this.teleporters.test(tile);
+			if (teleporter && !landed) {
+				tail = this.teleport(tile, region, start, tail);
+				continue;
+			} else if (!teleporter) {
+				this.collect(tile, region);
+			}
+
+			boolean leavable = false;
+			for (final Facing facing : NEIGHBOR_FACINGS) {
+				final int neighbor = grid.neighbor(tile, facing);
+				if (neighbor == TileGrid.NO_INDEX)
+					continue;
+
+				if (this.labelings[neighbor] == this.labeling) {
+					if (teleporter && !leavable)
+						leavable = this.isOpen(neighbor, start);
+				} else if (this.isOpen(neighbor, start)) {
+					this.labelings[neighbor] = this.labeling;
+					this.labels[neighbor] = region;
+					tail = this.enqueue(tail, neighbor);
+					leavable = true;
+				} else if (this.isBarrier(neighbor)) {
+					this.addBarrier(neighbor);
+				}
+			}
+
+			// stepping back onto a teleporter the robot landed on needs a tile to step off to
+			if (teleporter && leavable)
+				tail = this.teleport(tile, region, start, tail);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Labels the tile the robot lands on by stepping onto a teleporter.
+	 *
+	 * @return The new tail of the queue.
+	 */
+	private int teleport(final int teleporter, final int region, final int start, final int tail) {
+		final int destination = this.destinations.applyAsInt(teleporter);
+		if (destination == TileGrid.NO_INDEX) {
+			// a teleporter leading to an unknown tile borders the unknown part of the map
+			this.targets |= 1L << region;
+			this.explored = false;
+			return tail;
+		} else if (this.landed.contains(destination) || !this.isOpen(destination, start)
+				|| this.labelings[destination] == this.labeling && this.labels[destination] != region) {
+			return tail;
+		}
+
+		this.labelings[destination] = this.labeling;
+		this.labels[destination] = region;
+		this.landed.add(destination);
+		return this.enqueue(tail, ~destination);
+	}
+
+	/**
+	 * Adds an entry to the queue of the labeling, which grows if teleporters are queued twice.
+	 *
+	 * @return The new tail of the queue.
+	 */
+	private int enqueue(final int tail, final int entry) {
+		if (tail == this.queue.length)
+			this.queue = Arrays.copyOf(this.queue, tail * 2);
+
+		this.queue[tail] = entry;
+		return tail + 1;
+	}
+
+	/**
+	 * Records the contents of a tile of a region.
+	 */
+	private void collect(final int tile, final int region) {
+		final TileGrid grid = this.grid;
+		if (this.goals.isFrontier(tile)) {
+			this.targets |= 1L << region;
+			this.explored = false;
+		}
+
+		final int item = grid.getItemKind(tile);
+		if (item == EntityKinds.NONE) {
+			return;
+		} else if (item == EntityKinds.STAR) {
+			this.targets |= 1L << region;
+		} else if (item == EntityKinds.LASER_CHARGE) {
+			this.regionCharges[region]++;
+		} else {
+			this.regionKeys[region] |= this.keyBits.applyAsInt(tile);
+		}
+	}
+
+	private boolean addRegion() {
+		if (this.regionCount == MAX_REGIONS)
+			return false;
+
+		final int region = this.regionCount++;
+		this.regionKeys[region] = 0;
+		this.regionCharges[region] = 0;
+		this.regionBarriers[region] = 0;
+		return true;
+	}
+
+	private void addBarrier(final int tile) {
+		final int barrier = this.barrierCount++;
+		if (barrier == this.barrierTiles.length) {
+			this.barrierTiles = Arrays.copyOf(this.barrierTiles, barrier * 2);
+			this.barrierRegions = Arrays.copyOf(this.barrierRegions, barrier * 2);
+			this.barrierKeys = Arrays.copyOf(this.barrierKeys, barrier * 2);
+			this.barrierCharges = Arrays.copyOf(this.barrierCharges, barrier * 2);
+		}
+
+		this.labelings[tile] = this.labeling;
+		this.labels[tile] = barrier;
+		this.barrierTiles[barrier] = tile;
+		this.barrierRegions[barrier] = 0L;
+		this.barrierKeys[barrier] = this.gateKeys.applyAsInt(tile);
+		this.barrierCharges[barrier] = this.boulderCharges.applyAsInt(tile);
+	}
+
+	private boolean isBarrier(final int tile) {
+		return this.gateKeys.applyAsInt(tile) != 0 || this.boulderCharges.applyAsInt(tile) != 0;
+	}
+
+	/**
+	 * Checks whether a tile belongs to a region. Robots only block a tile for a moment, so their
+	 * tiles belong to the regions as well.
+	 */
+	private boolean isOpen(final int tile, final int start) {
+		final TileGrid grid = this.grid;
+		return tile == start || grid.isPassable(tile) || grid.getVisitorKind(tile) == EntityKinds.OTHER_VISITOR
+				&& TileGrid.isVisitable(grid.getMaterial(tile));
+	}
+
+	/**
+	 * Returns a hash of the planned barriers, which changes with them unless by chance.
+	 */
+	private int getPlannedHash() {
+		int hash = 0;
+		for (int slot = 0; slot < this.planned.capacity(); slot++) {
+			final int tile = this.planned.get(slot);
+			if (tile != TileGrid.NO_INDEX)
+				hash += tile * 0x9E3779B1;
+		}
+
+		return hash;
+	}
+
+	private void push(final long entry) {
+		if (this.heapSize == this.heap.length)
+			this.heap = Arrays.copyOf(this.heap, this.heapSize * 2);
+
+		final long[] heap = this.heap;
+		int i = this.heapSize++;
+		while (i > 0) {
+			final int parent = i - 1 >>> 1;
+			if (heap[parent] <= entry)
+				break;
+
+			heap[i] = heap[parent];
+			i = parent;
+		}
+		heap[i] = entry;
+	}
+
+	private long poll() {
+		final long[] heap = this.heap;
+		final long result = heap[0];
+		final long entry = heap[--this.heapSize];
+		int i = 0;
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= this.heapSize)
+				break;
+			if (child + 1 < this.heapSize && heap[child + 1] < heap[child])
+				child++;
+			if (entry <= heap[child])
+				break;
+
+			heap[i] = heap[child];
+			i = child;
+		}
+		heap[i] = entry;
+		return result;
+	}
+}
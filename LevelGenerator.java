@@ -0,0 +1,536 @@
+/*
+ * KIT Schnupperstudium Robots AIs
+ * Copyright (C) 2019  Simon Grossmann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.schnupperstudium.robots.client.ai.hidden;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import com.github.schnupperstudium.robots.entity.Facing;
+import com.github.schnupperstudium.robots.world.Material;
+
+/**
+ * Generates seeded levels for the {@link SimulatedWorld}.
+ * <br><br>
+ * A level is a maze carved out of walls, where a given percentage of the inner walls is removed
+ * again to get loops and open areas. The maze is filled with stars, boulders, laser charges,
+ * gates, keys and pairs of teleporters. The items are placed so the level can be solved:
+ * <ul>
+ * <li>Enough laser charges to destroy every boulder are placed where they can be reached without passing a boulder or gate</li>
+ * <li>The key of every gate is placed where it can be reached after opening the gates placed before it</li>
+ * <li>Teleporters are only placed at dead ends, so they never cut off a part of the maze</li>
+ * </ul>
+ * If an item does not fit or a robot collecting the reachable keys and charges can not reach
+ * every star, the level is thrown away and generated again from where the random numbers left off.
+ * The same seed always results in the same level.
+ */
+final class LevelGenerator {
+
+	/**
+	 * The material of the floor, which is the first material that can be visited
+	 * and is neither a teleporter nor a gate.
+	 */
+	static final Material FLOOR;
+
+	/**
+	 * The material of the walls, which is the first material that can not be visited
+	 * and is neither undefined nor a gate.
+	 */
+	static final Material WALL;
+
+	private static final Material[] TELEPORTERS = {
+			Material.TELEPORTER_BLUE, Material.TELEPORTER_GREEN, Material.TELEPORTER_RED, Material.TELEPORTER_YELLOW
+	};
+
+	private static final Material[] GATES = {
+			Material.GATE_CLOSED_BLUE, Material.GATE_CLOSED_GREEN, Material.GATE_CLOSED_RED, Material.GATE_CLOSED_YELLOW
+	};
+
+	/**
+	 * The keys of the {@link #GATES}.
+	 */
+	private static final int[] KEYS = {
+			EntityKinds.BLUE_KEY, EntityKinds.GREEN_KEY, EntityKinds.RED_KEY, EntityKinds.YELLOW_KEY
+	};
+
+	private static final Facing[] FACINGS = Facing.values();
+
+	/**
+	 * The number of levels generated for a seed before giving up on finding a solvable one.
+	 */
+	private static final int MAX_ATTEMPTS = 100;
+
+	/**
+	 * Finds the materials of the floor and the walls.
+	 */
+	static {
+		Material floor = null;
+		Material wall = Material.VOID;
+		for (final Material material : Material.values()) {
+			if (material == Material.UNDEFINED || Arrays.asList(TELEPORTERS).contains(material)
+					|| DistanceScalingMap.GATE_KEYS.containsKey(material))
+				continue;
+
+			if (floor == null && TileGrid.isVisitable(material)) {
+				floor = material;
+			} else if (wall == Material.VOID && !TileGrid.isVisitable(material) && material != Material.VOID) {
+				wall = material;
+			}
+		}
+
+		FLOOR = floor;
+		WALL = wall;
+	}
+
+	/**
+	 * The width of the generated levels, always odd.
+	 */
+	private final int width;
+
+	/**
+	 * The height of the generated levels, always odd.
+	 */
+	private final int height;
+
+	/**
+	 * The percentage of inner walls removed from the maze.
+	 */
+	private final int openness;
+
+	private final int stars;
+
+	private final int boulders;
+
+	private final int gates;
+
+	private final int teleporters;
+
+	private final int visionRadius;
+
+	/**
+	 * Creates a new {@link LevelGenerator}. The number of items and obstacles scales
+	 * with the area of the levels.
+	 *
+	 * @param width The width of the levels, rounded up to the next odd number.
+	 * @param height The height of the levels, rounded up to the next odd number.
+	 * @param openness The percentage of inner walls removed from the maze.
+	 * @param visionRadius The number of tiles the robot sees in every direction.
+	 */
+	LevelGenerator(final int width, final int height, final int openness, final int visionRadius) {
+		this(width, height, openness, Math.max(1, area(width, height) / 100), area(width, height) / 200,
+				Math.min(GATES.length, area(width, height) / 400), Math.min(TELEPORTERS.length, area(width, height) / 600),
+				visionRadius);
+	}
+
+	/**
+	 * Creates a new {@link LevelGenerator}.
+	 *
+	 * @param width The width of the levels, rounded up to the next odd number.
+	 * @param height The height of the levels, rounded up to the next odd number.
+	 * @param openness The percentage of inner walls removed from the maze.
+	 * @param stars The number of stars.
+	 * @param boulders The number of boulders.
+	 * @param gates The number of gates, at most one of every color.
+	 * @param teleporters The number of teleporter pairs, at most one of every color.
+	 * @param visionRadius The number of tiles the robot sees in every direction.
+	 */
+	LevelGenerator(final int width, final int height, final int openness, final int stars, final int boulders,
+			final int gates, final int teleporters, final int visionRadius) {
+		this.width = round(width);
+		this.height = round(height);
+		this.openness = openness;
+		this.stars = stars;
+		this.boulders = boulders;
+		this.gates = Math.min(GATES.length, gates);
+		this.teleporters = Math.min(TELEPORTERS.length, teleporters);
+		this.visionRadius = visionRadius;
+	}
+
+	/**
+	 * Rounds a dimension of the levels up to the next odd number of at least five.
+	 *
+	 * @param size The dimension.
+	 * @return The rounded dimension.
+	 */
+	private static int round(final int size) {
+		return Math.max(5, size | 1);
+	}
+
+	/**
+	 * Returns the area of the levels with the given dimensions once they are {@link #round(int) rounded}.
+	 *
+	 * @param width The width of the levels.
+	 * @param height The height of the levels.
+	 * @return The number of tiles of the levels.
+	 */
+	private static int area(final int width, final int height) {
+		return round(width) * round(height);
+	}
+
+	/**
+	 * Generates a solvable level.
+	 *
+	 * @param seed The seed of the level.
+	 * @return The world of the level.
+	 * @throws IllegalStateException If no solvable level was found for the seed.
+	 */
+	SimulatedWorld generate(final long seed) {
+		final SplittableRandom random = new SplittableRandom(seed);
+		for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+			final SimulatedWorld world = this.generate(random);
+			if (world != null)
+				return world;
+		}
+
+		throw new IllegalStateException("Could not generate a solvable level for seed " + seed);
+	}
+
+	/**
+	 * Generates a level with the next random numbers.
+	 *
+	 * @param random The random number generator.
+	 * @return The world of the level or <code>null</code> if the level can not be solved.
+	 */
+	private SimulatedWorld generate(final SplittableRandom random) {
+		final int size = this.width * this.height;
+		final byte[] materials = new byte[size];
+		final byte[] items = new byte[size];
+		final byte[] visitors = new byte[size];
+		final int[] teleporters = new int[size];
+		Arrays.fill(materials, (byte) WALL.ordinal());
+		Arrays.fill(teleporters, -1);
+
+		this.carve(random, materials);
+		final int robot = this.pick(random, materials, items, visitors, -1, null);
+
+		// teleporters first, they are only placed at dead ends
+		for (int i = 0; i < this.teleporters; i++) {
+			final int first = this.pickDeadEnd(random, materials, robot);
+			if (first == -1)
+				break;
+
+			materials[first] = (byte) TELEPORTERS[i].ordinal();
+			final int second = this.pickDeadEnd(random, materials, robot);
+			if (second == -1) {
+				materials[first] = (byte) FLOOR.ordinal();
+				break;
+			}
+
+			materials[second] = (byte) TELEPORTERS[i].ordinal();
+			teleporters[first] = second;
+			teleporters[second] = first;
+		}
+
+		int charges = 0;
+		for (int i = 0; i < this.boulders; i++) {
+			final int tile = this.pick(random, materials, items, visitors, robot, null);
+			if (tile == -1)
+				break;
+
+			visitors[tile] = (byte) (EntityKinds.SMALL_BOULDER + random.nextInt(3));
+			charges += visitors[tile];
+		}
+
+		// the gates are placed in corridors, their keys are placed one after another in the
+		// part of the maze that can be reached with the gates placed before them opened
+		final boolean[] corridors = this.findCorridors(materials);
+		int gates = 0;
+		for (; gates < this.gates; gates++) {
+			final int tile = this.pick(random, materials, items, visitors, robot, corridors);
+			if (tile == -1)
+				break;
+
+			materials[tile] = (byte) GATES[gates].ordinal();
+		}
+		boolean placed = true;
+		for (int i = 0; i < gates; i++) {
+			final boolean[] reachable = this.reach(materials, visitors, robot, (1 << i) - 1, false);
+			placed &= this.place(random, materials, items, visitors, robot, reachable, KEYS[i]);
+		}
+
+		final boolean[] reachable = this.reach(materials, visitors, robot, 0, true);
+		for (int i = 0; i < charges; i++) {
+			placed &= this.place(random, materials, items, visitors, robot, reachable, EntityKinds.LASER_CHARGE);
+		}
+		for (int i = 0; i < this.stars; i++) {
+			placed &= this.place(random, materials, items, visitors, robot, null, EntityKinds.STAR);
+		}
+		if (!placed || !this.isSolvable(materials, items, visitors, robot))
+			return null;
+
+		return new SimulatedWorld(this.width, this.height, materials, items, visitors, teleporters, FLOOR,
+				robot, FACINGS[random.nextInt(FACINGS.length)], this.visionRadius);
+	}
+
+	/**
+	 * Carves a maze into the walls using a randomized depth first search over the tiles with
+	 * odd coordinates, then removes {@link #openness} percent of the remaining inner walls.
+	 *
+	 * @param random The random number generator.
+	 * @param materials The materials of the level.
+	 */
+	private void carve(final SplittableRandom random, final byte[] materials) {
+		final byte floor = (byte) FLOOR.ordinal();
+		final int height = this.height;
+		final int[] stack = new int[this.width * height];
+		final int[] directions = new int[FACINGS.length];
+		int top = 0;
+		stack[top++] = height + 1;
+		materials[height + 1] = floor;
+		while (top > 0) {
+			final int tile = stack[top - 1];
+			int count = 0;
+			for (final Facing facing : FACINGS) {
+				final int x = tile / height + 2 * facing.dx;
+				final int y = tile % height + 2 * facing.dy;
+				if (x > 0 && y > 0 && x < this.width - 1 && y < height - 1 && materials[x * height + y] != floor)
+					directions[count++] = x * height + y;
+			}
+
+			if (count == 0) {
+				top--;
+				continue;
+			}
+
+			final int next = directions[random.nextInt(count)];
+			materials[(tile + next) / 2] = floor;
+			materials[next] = floor;
+			stack[top++] = next;
+		}
+
+		for (int x = 1; x < this.width - 1; x++) {
+			for (int y = 1; y < height - 1; y++) {
+				if ((x + y & 1) == 1 && random.nextInt(100) < this.openness)
+					materials[x * height + y] = floor;
+			}
+		}
+	}
+
+	/**
+	 * Finds all floor tiles that connect exactly two opposite floor tiles.
+	 *
+	 * @param materials The materials of the level.
+	 * @return Whether a tile is a corridor, indexed by the tile.
+	 */
+	private boolean[] findCorridors(final byte[] materials) {
+		final byte floor = (byte) FLOOR.ordinal();
+		final int height = this.height;
+		final boolean[] corridors = new boolean[materials.length];
+		for (int x = 1; x < this.width - 1; x++) {
+			for (int y = 1; y < height - 1; y++) {
+				final int tile = x * height + y;
+				if (materials[tile] != floor)
+					continue;
+
+				final boolean horizontal = materials[tile - height] == floor && materials[tile + height] == floor;
+				final boolean vertical = materials[tile - 1] == floor && materials[tile + 1] == floor;
+				corridors[tile] = horizontal != vertical && (horizontal
+						? materials[tile - 1] != floor && materials[tile + 1] != floor
+						: materials[tile - height] != floor && materials[tile + height] != floor);
+			}
+		}
+
+		return corridors;
+	}
+
+	/**
+	 * Finds all tiles that can be reached from the robot.
+	 *
+	 * @param materials The materials of the level.
+	 * @param visitors The visitors of the level.
+	 * @param robot The tile of the robot.
+	 * @param openGates The gates that are considered open, one bit per index into {@link #GATES}.
+	 * @param blockBoulders Whether boulders block the way.
+	 * @return Whether a tile can be reached, indexed by the tile.
+	 */
+	private boolean[] reach(final byte[] materials, final byte[] visitors, final int robot,
+			final int openGates, final boolean blockBoulders) {
+		final int height = this.height;
+		final boolean[] reachable = new boolean[materials.length];
+		final int[] queue = new int[materials.length];
+		int head = 0;
+		int tail = 0;
+		queue[tail++] = robot;
+		reachable[robot] = true;
+		while (head < tail) {
+			final int tile = queue[head++];
+			for (final Facing facing : FACINGS) {
+				final int neighbor = tile + facing.dx * height + facing.dy;
+				if (reachable[neighbor] || blockBoulders && visitors[neighbor] != EntityKinds.NONE
+						|| !this.isOpen(materials[neighbor], openGates))
+					continue;
+
+				reachable[neighbor] = true;
+				queue[tail++] = neighbor;
+			}
+		}
+
+		return reachable;
+	}
+
+	private boolean isOpen(final byte material, final int openGates) {
+		for (int i = 0; i < GATES.length; i++) {
+			if (material == GATES[i].ordinal())
+				return (openGates & 1 << i) != 0;
+		}
+
+		return material != WALL.ordinal();
+	}
+
+	/**
+	 * Places an item on a random free floor tile.
+	 *
+	 * @param random The random number generator.
+	 * @param materials The materials of the level.
+	 * @param items The items of the level.
+	 * @param visitors The visitors of the level.
+	 * @param robot The tile of the robot, which stays free.
+	 * @param allowed The tiles allowed for the item or <code>null</code> to allow all tiles.
+	 * @param item The kind of the item.
+	 * @return <code>True</code> if the item was placed, <code>false</code> if there is no free tile left.
+	 */
+	private boolean place(final SplittableRandom random, final byte[] materials, final byte[] items,
+			final byte[] visitors, final int robot, final boolean[] allowed, final int item) {
+		final int tile = this.pick(random, materials, items, visitors, robot, allowed);
+		if (tile == -1)
+			return false;
+
+		items[tile] = (byte) item;
+		return true;
+	}
+
+	/**
+	 * Checks whether a robot can pick up every star of a level. The robot collects every key and
+	 * laser charge it can reach, opens the gates of its keys and destroys the boulders next to the
+	 * tiles it can reach as long as it holds enough charges, until it gets no further.
+	 *
+	 * @param materials The materials of the level.
+	 * @param items The items of the level.
+	 * @param visitors The visitors of the level.
+	 * @param robot The tile of the robot.
+	 * @return <code>True</code> if every star can be reached, <code>false</code> otherwise.
+	 */
+	private boolean isSolvable(final byte[] materials, final byte[] items, final byte[] visitors, final int robot) {
+		final int height = this.height;
+		final byte[] boulders = visitors.clone();
+		final boolean[] collected = new boolean[items.length];
+		int openGates = 0;
+		int charges = 0;
+		boolean[] reachable;
+		boolean progress;
+		do {
+			progress = false;
+			reachable = this.reach(materials, boulders, robot, openGates, true);
+			for (int tile = 0; tile < items.length; tile++) {
+				if (!reachable[tile] || collected[tile] || items[tile] == EntityKinds.NONE)
+					continue;
+
+				collected[tile] = true;
+				if (items[tile] == EntityKinds.LASER_CHARGE)
+					charges++;
+				for (int i = 0; i < KEYS.length; i++) {
+					if (items[tile] == KEYS[i])
+						openGates |= 1 << i;
+				}
+				progress = true;
+			}
+
+			for (int tile = 0; tile < boulders.length; tile++) {
+				if (boulders[tile] == EntityKinds.NONE || boulders[tile] > charges)
+					continue;
+
+				for (final Facing facing : FACINGS) {
+					if (reachable[tile + facing.dx * height + facing.dy]) {
+						charges -= boulders[tile];
+						boulders[tile] = EntityKinds.NONE;
+						progress = true;
+						break;
+					}
+				}
+			}
+		} while (progress);
+
+		for (int tile = 0; tile < items.length; tile++) {
+			if (items[tile] == EntityKinds.STAR && !reachable[tile])
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Picks a random floor tile without item and visitor.
+	 *
+	 * @param random The random number generator.
+	 * @param materials The materials of the level.
+	 * @param items The items of the level.
+	 * @param visitors The visitors of the level.
+	 * @param excluded A tile that must not be picked.
+	 * @param allowed The tiles allowed to be picked or <code>null</code> to allow all tiles.
+	 * @return The picked tile or <code>-1</code> if there is no such tile.
+	 */
+	private int pick(final SplittableRandom random, final byte[] materials, final byte[] items,
+			final byte[] visitors, final int excluded, final boolean[] allowed) {
+		final byte floor = (byte) FLOOR.ordinal();
+		int count = 0;
+		int result = -1;
+		for (int tile = 0; tile < materials.length; tile++) {
+			if (materials[tile] != floor || items[tile] != EntityKinds.NONE || visitors[tile] != EntityKinds.NONE
+					|| tile == excluded || allowed != null && !allowed[tile])
+				continue;
+
+			// reservoir sampling over all candidates
+			if (random.nextInt(++count) == 0)
+				result = tile;
+		}
+
+		return result;
+	}
+
+	/**
+	 * Picks a random floor tile with exactly one neighbor that is no wall.
+	 *
+	 * @param random The random number generator.
+	 * @param materials The materials of the level.
+	 * @param excluded A tile that must not be picked.
+	 * @return The picked tile or <code>-1</code> if there is no such tile.
+	 */
+	private int pickDeadEnd(final SplittableRandom random, final byte[] materials, final int excluded) {
+		final byte floor = (byte) FLOOR.ordinal();
+		final int height = this.height;
+		int count = 0;
+		int result = -1;
+		for (int x = 1; x < this.width - 1; x++) {
+			for (int y = 1; y < height - 1; y++) {
+				final int tile = x * height + y;
+				if (materials[tile] != floor || tile == excluded)
+					continue;
+
+				int neighbors = 0;
+				for (final Facing facing : FACINGS) {
+					if (materials[tile + facing.dx * height + facing.dy] != (byte) WALL.ordinal())
+						neighbors++;
+				}
+				if (neighbors == 1 && random.nextInt(++count) == 0)
+					result = tile;
+			}
+		}
+
+		return result;
+	}
+}
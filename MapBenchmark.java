@@ -0,0 +1,308 @@
+/*
+ * KIT Schnupperstudium Robots AIs
+ * Copyright (C) 2019  Simon Grossmann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.schnupperstudium.robots.client.ai.hidden;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import com.github.schnupperstudium.robots.world.Tile;
+
+/**
+ * Measures the throughput and the allocation rate of {@link DistanceScalingMap#updateMap(VisionBuffer)}
+ * and {@link DistanceScalingMap#getNextTile(int, int, Capabilities)} in different scenarios.
+ * <br><br>
+ * Every scenario is a level of the {@link LevelGenerator} with a given size, which is either
+ * an open field or a maze and holds either a single star or a star on every tenth tile.
+ * Three workloads are measured for every scenario:
+ * <ul>
+ * <li><code>update</code>: updates a map knowing the whole level with the vision of a robot
+ * standing on a random tile, which does not change anything</li>
+ * <li><code>plan</code>: lets a star appear or disappear on a random tile of a map knowing the whole
+ * level and computes the next tile of a robot standing on a random tile</li>
+ * <li><code>explore</code>: plays {@value #EXPLORE_TURNS} turns on an empty map, which expands
+ * the bounds of the map over and over again, measured per turn</li>
+ * </ul>
+ * Every workload is warmed up first, then run for a fixed time. The allocation rate is taken
+ * from the allocated bytes of the measuring thread.
+ * <br><br>
+ * The benchmark is configured through system properties:
+ * <ul>
+ * <li><code>robots.benchmark.sizes</code>: the comma separated sizes of the levels, default 32,64,128,256,512,1024</li>
+ * <li><code>robots.benchmark.warmup</code>: the warm up time per workload in milliseconds, default 500</li>
+ * <li><code>robots.benchmark.time</code>: the measuring time per workload in milliseconds, default 1000</li>
+ * </ul>
+ */
+final class MapBenchmark {
+
+	private static final int[] SIZES = Arrays.stream(System.getProperty("robots.benchmark.sizes",
+			"32,64,128,256,512,1024").split(",")).mapToInt(size -> Integer.parseInt(size.trim())).toArray();
+
+	private static final long WARMUP_NANOS = Long.getLong("robots.benchmark.warmup", 500L) * 1000000L;
+
+	private static final long TIME_NANOS = Long.getLong("robots.benchmark.time", 1000L) * 1000000L;
+
+	/**
+	 * The number of turns played by the <code>explore</code> workload.
+	 */
+	private static final int EXPLORE_TURNS = 256;
+
+	/**
+	 * The number of operations run between two reads of the clock.
+	 */
+	private static final int BATCH = 64;
+
+	private static final int VISION_RADIUS = 2;
+
+	/**
+	 * The bean used to read the allocated bytes of the measuring thread.
+	 */
+	private static final com.sun.management.ThreadMXBean THREADS =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	/**
+	 * Consumes the results of the workloads, so that they can not be optimized away.
+	 */
+	private static int sink;
+
+	private MapBenchmark() {
+		// no instances
+	}
+
+	public static void main(final String[] args) {
+		System.out.printf("%-8s %6s %-5s %-5s %12s %12s %12s%n", "workload", "size", "map", "goals", "ops/s", "us/op", "B/op");
+		for (final int size : SIZES) {
+			for (final boolean maze : new boolean[] { false, true }) {
+				for (final boolean manyGoals : new boolean[] { false, true }) {
+					final LevelGenerator generator = new LevelGenerator(size, size, maze ? 0 : 100,
+							manyGoals ? size * size / 10 : 1, 0, 0, 0, VISION_RADIUS);
+					final String scenario = String.format("%6d %-5s %-5s", size, maze ? "maze" : "open", manyGoals ? "many" : "few");
+					report("update", scenario, measure(new Update(generator.generate(size))));
+					report("plan", scenario, measure(new Plan(generator.generate(size))));
+					report("explore", scenario, measure(new Explore(generator, size)));
+				}
+			}
+		}
+
+		if (sink == 42)
+			System.out.println();
+	}
+
+	/**
+	 * Warms up and measures a workload.
+	 *
+	 * @param workload The workload to measure.
+	 * @return The number of operations, the nanoseconds and the allocated bytes of the measurement.
+	 */
+	private static long[] measure(final Workload workload) {
+		run(workload, WARMUP_NANOS);
+		return run(workload, TIME_NANOS);
+	}
+
+	private static long[] run(final Workload workload, final long time) {
+		final long thread = Thread.currentThread().getId();
+		long operations = 0;
+		long nanos = 0;
+		long bytes = 0;
+		while (nanos < time) {
+			workload.prepare();
+			final long allocated = THREADS.getThreadAllocatedBytes(thread);
+			final long start = System.nanoTime();
+			operations += workload.run();
+			nanos += System.nanoTime() - start;
+			bytes += THREADS.getThreadAllocatedBytes(thread) - allocated;
+		}
+
+		return new long[] { operations, nanos, bytes };
+	}
+
+	private static void report(final String workload, final String scenario, final long[] result) {
+		System.out.printf("%-8s %s %12.0f %12.3f %12.1f%n", workload, scenario, result[0] * 1e9 / result[1],
+				result[1] / 1e3 / result[0], (double) result[2] / result[0]);
+	}
+
+	/**
+	 * Creates a map knowing the whole world.
+	 *
+	 * @param world The world.
+	 * @return The map.
+	 */
+	private static DistanceScalingMap createKnownMap(final SimulatedWorld world) {
+		final VisionBuffer vision = new VisionBuffer();
+		final int radius = Math.max(world.getWidth(), world.getHeight());
+		world.see(vision, world.getWidth() / 2, world.getHeight() / 2, radius);
+
+		final DistanceScalingMap map = new DistanceScalingMap();
+		map.updateMap(vision);
+		return map;
+	}
+
+	/**
+	 * Returns the tiles a robot can stand on.
+	 *
+	 * @param world The world.
+	 * @return The tiles, packed as <code>x * height + y</code>.
+	 */
+	private static int[] findFloor(final SimulatedWorld world) {
+		final int[] floor = new int[world.getWidth() * world.getHeight()];
+		int count = 0;
+		for (int x = 0; x < world.getWidth(); x++) {
+			for (int y = 0; y < world.getHeight(); y++) {
+				if (world.canVisit(x, y))
+					floor[count++] = x * world.getHeight() + y;
+			}
+		}
+
+		return Arrays.copyOf(floor, count);
+	}
+
+	/**
+	 * A workload of the benchmark.
+	 */
+	private interface Workload {
+
+		/**
+		 * Prepares the next run, which is not measured.
+		 */
+		default void prepare() {
+			// nothing to prepare
+		}
+
+		/**
+		 * Runs a batch of operations.
+		 *
+		 * @return The number of operations run.
+		 */
+		int run();
+	}
+
+	/**
+	 * The <code>update</code> workload.
+	 */
+	private static final class Update implements Workload {
+
+		private final DistanceScalingMap map;
+
+		/**
+		 * The visions of robots standing on random tiles.
+		 */
+		private final VisionBuffer[] visions;
+
+		private int next;
+
+		public Update(final SimulatedWorld world) {
+			this.map = createKnownMap(world);
+
+			final SplittableRandom random = new SplittableRandom(world.getWidth());
+			final int[] floor = findFloor(world);
+			this.visions = new VisionBuffer[BATCH];
+			for (int i = 0; i < this.visions.length; i++) {
+				final int tile = floor[random.nextInt(floor.length)];
+				this.visions[i] = new VisionBuffer();
+				world.see(this.visions[i], tile / world.getHeight(), tile % world.getHeight(), VISION_RADIUS);
+			}
+		}
+
+		@Override
+		public int run() {
+			for (int i = 0; i < BATCH; i++) {
+				this.map.updateMap(this.visions[this.next]);
+				this.next = (this.next + 1) % this.visions.length;
+			}
+
+			return BATCH;
+		}
+	}
+
+	/**
+	 * The <code>plan</code> workload.
+	 */
+	private static final class Plan implements Workload {
+
+		private final DistanceScalingMap map;
+
+		private final int height;
+
+		private final int[] floor;
+
+		private final SplittableRandom random;
+
+		/**
+		 * The buffer holding the tile with the star that appears or disappears.
+		 */
+		private final VisionBuffer change;
+
+		public Plan(final SimulatedWorld world) {
+			this.map = createKnownMap(world);
+			this.height = world.getHeight();
+			this.floor = findFloor(world);
+			this.random = new SplittableRandom(world.getWidth());
+			this.change = new VisionBuffer();
+		}
+
+		@Override
+		public int run() {
+			for (int i = 0; i < BATCH; i++) {
+				final int star = this.floor[this.random.nextInt(this.floor.length)];
+				this.change.clear();
+				this.change.add(star / this.height, star % this.height, LevelGenerator.FLOOR,
+						this.random.nextBoolean() ? EntityKinds.STAR : EntityKinds.NONE, EntityKinds.NONE);
+				this.map.updateMap(this.change);
+
+				final int robot = this.floor[this.random.nextInt(this.floor.length)];
+				final Tile next = this.map.getNextTile(robot / this.height, robot % this.height, Capabilities.NONE);
+				sink += next != null ? next.getX() : 0;
+			}
+
+			return BATCH;
+		}
+	}
+
+	/**
+	 * The <code>explore</code> workload.
+	 */
+	private static final class Explore implements Workload {
+
+		private final LevelGenerator generator;
+
+		private long seed;
+
+		private SimulatedWorld world;
+
+		public Explore(final LevelGenerator generator, final long seed) {
+			this.generator = generator;
+			this.seed = seed;
+		}
+
+		@Override
+		public void prepare() {
+			this.world = this.generator.generate(this.seed++);
+		}
+
+		@Override
+		public int run() {
+			final DistancePilot pilot = new DistancePilot(new DistanceScalingMap());
+			for (int turn = 0; turn < EXPLORE_TURNS; turn++) {
+				this.world.apply(pilot.makeTurn(this.world), pilot.getItemToUse());
+			}
+
+			return EXPLORE_TURNS;
+		}
+	}
+}
@@ -0,0 +1,212 @@
+/*
+ * KIT Schnupperstudium Robots AIs
+ * Copyright (C) 2019  Simon Grossmann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.schnupperstudium.robots.client.ai.hidden;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+import com.github.schnupperstudium.robots.gui.overlay.MapOverlays.MapLocationOverlay;
+import com.github.schnupperstudium.robots.gui.overlay.MapRenderAddition;
+import com.github.schnupperstudium.robots.world.Location;
+import com.github.schnupperstudium.robots.world.Map;
+import com.github.schnupperstudium.robots.world.Tile;
+
+import javafx.scene.paint.Color;
+
+/**
+ * An immutable snapshot of a {@link DistanceScalingMap} taken after a turn. The snapshot holds
+ * its own copy of the {@link TileGrid grid}, the bounds and the planned path, so it can be
+ * rendered by any thread without synchronization while the map keeps changing.
+ * <br><br>
+ * Consecutive snapshots share all chunks of the grid that did not change in between.
+ */
+final class MapSnapshot implements Map {
+	
+	/**
+	 * The version of the snapshot, which is increased with every snapshot taken of a map.
+	 */
+	private final long version;
+	
+	/**
+	 * The snapshot of the grid.
+	 */
+	private final TileGrid grid;
+	
+	/**
+	 * The minimum x coordinate of the map.
+	 */
+	private final int minX;
+	
+	/**
+	 * The minimum y coordinate of the map.
+	 */
+	private final int minY;
+	
+	/**
+	 * The maximum x coordinate of the map, exclusive.
+	 */
+	private final int maxX;
+	
+	/**
+	 * The maximum y coordinate of the map, exclusive.
+	 */
+	private final int maxY;
+	
+	/**
+	 * The width of the map.
+	 */
+	private final int width;
+	
+	/**
+	 * The height of the map.
+	 */
+	private final int height;
+	
+	/**
+	 * The locations of the part of the plan that was not passed yet.
+	 */
+	private final List<Location> path;
+	
+	/**
+	 * The render additions of the snapshot.
+	 */
+	private final List<MapRenderAddition> mapRenderAdditions;
+	
+	/**
+	 * Creates a new {@link MapSnapshot}.
+	 * 
+	 * @param version The version of the snapshot.
+	 * @param grid The snapshot of the grid, which must not be changed afterwards.
+	 * @param minX The minimum x coordinate of the map.
+	 * @param minY The minimum y coordinate of the map.
+	 * @param maxX The maximum x coordinate of the map, exclusive.
+	 * @param maxY The maximum y coordinate of the map, exclusive.
+	 * @param width The width of the map.
+	 * @param height The height of the map.
+	 * @param path The locations of the planned path, which must not be changed afterwards.
+	 * @param overlay Whether the path is rendered as overlay.
+	 */
+	MapSnapshot(final long version, final TileGrid grid, final int minX, final int minY,
+			final int maxX, final int maxY, final int width, final int height, final List<Location> path, final boolean overlay) {
+		this.version = version;
+		this.grid = grid;
+		this.minX = minX;
+		this.minY = minY;
+		this.maxX = maxX;
+		this.maxY = maxY;
+		this.width = width;
+		this.height = height;
+		this.path = path;
+		this.mapRenderAdditions = overlay
+				? Collections.singletonList(new MapLocationOverlay(path, Color.RED, 0.5))
+				: Collections.emptyList();
+	}
+	
+	/**
+	 * Returns the version of the snapshot.
+	 * 
+	 * @return The version of the snapshot.
+	 */
+	long getVersion() {
+		return this.version;
+	}
+	
+	/**
+	 * Returns the snapshot of the grid.
+	 * 
+	 * @return The snapshot of the grid.
+	 */
+	TileGrid getGrid() {
+		return this.grid;
+	}
+	
+	/**
+	 * Returns the locations of the planned path that was not passed yet when the snapshot was taken.
+	 * 
+	 * @return The locations of the path.
+	 */
+	List<Location> getPath() {
+		return this.path;
+	}
+	
+	/**
+	 * Writes the tiles of the snapshot to a {@link MapStore stored map}. Unlike
+	 * {@link DistanceScalingMap#export(Path)}, this may be done by any thread while the map
+	 * keeps changing.
+	 * 
+	 * @param file The file to write the map to.
+	 * @throws IOException If the file can not be written.
+	 */
+	void export(final Path file) throws IOException {
+		MapStore.write(file, this.grid, this.minX, this.minY, this.width, this.height);
+	}
+	
+	@Override
+	public boolean hasMapRenderAdditions() {
+		return !this.mapRenderAdditions.isEmpty();
+	}
+	
+	@Override
+	public List<MapRenderAddition> getMapRenderAdditions() {
+		return this.mapRenderAdditions;
+	}
+	
+	@Override
+	public int getMinX() {
+		return this.minX;
+	}
+	
+	@Override
+	public int getMaxX() {
+		return this.maxX;
+	}
+	
+	@Override
+	public int getMinY() {
+		return this.minY;
+	}
+	
+	@Override
+	public int getMaxY() {
+		return this.maxY;
+	}
+	
+	@Override
+	public int getWidth() {
+		return this.width;
+	}
+	
+	@Override
+	public int getHeight() {
+		return this.height;
+	}
+	
+	@Override
+	public Tile getTile(final int x, final int y) {
+		return DistanceScalingMap.createTile(this.grid, x, y);
+	}
+	
+	@Override
+	public String toString() {
+		return "MapSnapshot [version=" + this.version + ", minX=" + this.minX + ", minY=" + this.minY
+				+ ", width=" + this.width + ", height=" + this.height + ", path=" + this.path.size() + "]";
+	}
+}
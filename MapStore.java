@@ -0,0 +1,321 @@
+/*
+ * KIT Schnupperstudium Robots AIs
+ * Copyright (C) 2019  Simon Grossmann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.schnupperstudium.robots.client.ai.hidden;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import com.github.schnupperstudium.robots.world.Material;
+
+/**
+ * A map stored in a compact binary file, used to warm start a {@link DistanceScalingMap}
+ * on a level that was played before.
+ * <br><br>
+ * The file starts with a header holding a magic number, the format version and the bounds
+ * of the map, followed by the cells of the bounds row by row. Every cell is packed into
+ * {@value #CELL_BITS} bits: the ordinal of the material, the {@link EntityKinds kind} of
+ * the item and the kind of the visitor. The cells are written as a continuous stream of
+ * bits in big endian longs, so a level of 256 x 256 tiles takes less than 100 kB.
+ * <br><br>
+ * Stored maps are opened by memory-mapping the file read-only, which means opening even
+ * large maps does not read anything until the cells are accessed and processes opening
+ * the same file share its pages. Maps are written to a temporary file which replaces the
+ * stored file atomically, so a file that is mapped already is never changed.
+ * <br><br>
+ * The stored map describes the level as it was at the beginning of a game: items and
+ * boulders removed by the robot are written as they were seen first, open gates are
+ * written as closed gates and visitors which are no boulders are not written at all.
+ */
+final class MapStore {
+
+	/**
+	 * The magic number at the beginning of every stored map, the ASCII string <code>RMAP</code>.
+	 */
+	private static final int MAGIC = 0x524D4150;
+
+	/**
+	 * The version of the file format.
+	 */
+	private static final int VERSION = 1;
+
+	/**
+	 * The size of the header in bytes.
+	 */
+	private static final int HEADER_BYTES = 32;
+
+	private static final int MATERIAL_BITS = 5;
+
+	private static final int ITEM_BITS = 4;
+
+	private static final int VISITOR_BITS = 3;
+
+	/**
+	 * The number of bits of a single cell.
+	 */
+	private static final int CELL_BITS = MATERIAL_BITS + ITEM_BITS + VISITOR_BITS;
+
+	private static final Material[] MATERIALS = Material.values();
+
+	/**
+	 * Maps the ordinal of every material to the ordinal of the material it is stored as.
+	 */
+	private static final int[] STORED_MATERIALS = new int[MATERIALS.length];
+
+	/**
+	 * The buffer holding the stored map.
+	 */
+	private final ByteBuffer buffer;
+
+	private final int minX;
+
+	private final int minY;
+
+	private final int width;
+
+	private final int height;
+
+	/**
+	 * Initializes the stored materials.
+	 */
+	static {
+		if (MATERIALS.length > 1 << MATERIAL_BITS || EntityKinds.OTHER_ITEM >= 1 << ITEM_BITS
+				|| EntityKinds.OTHER_VISITOR >= 1 << VISITOR_BITS)
+			throw new ExceptionInInitializerError("The materials or entity kinds do not fit into a stored cell");
+
+		for (final Material material : MATERIALS) {
+			final String name = material.name();
+			STORED_MATERIALS[material.ordinal()] = name.startsWith("GATE_OPEN_")
+					? Material.valueOf("GATE_CLOSED_" + name.substring("GATE_OPEN_".length())).ordinal()
+					: material.ordinal();
+		}
+	}
+
+	/**
+	 * Creates a new {@link MapStore}.
+	 *
+	 * @param buffer The buffer holding the stored map.
+	 * @param minX The minimum x coordinate of the map.
+	 * @param minY The minimum y coordinate of the map.
+	 * @param width The width of the map.
+	 * @param height The height of the map.
+	 */
+	private MapStore(final ByteBuffer buffer, final int minX, final int minY, final int width, final int height) {
+		this.buffer = buffer;
+		this.minX = minX;
+		this.minY = minY;
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * Opens a stored map by memory-mapping its file.
+	 *
+	 * @param file The file of the stored map.
+	 * @return The stored map.
+	 * @throws IOException If the file can not be read or holds no stored map.
+	 */
+	static MapStore open(final Path file) throws IOException {
+		final ByteBuffer buffer;
+		try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC)
+			throw new IOException(file + " is no stored map");
+		if (buffer.getInt(4) != VERSION)
+			throw new IOException(file + " has the unsupported version " + buffer.getInt(4));
+
+		final int minX = buffer.getInt(8);
+		final int minY = buffer.getInt(12);
+		final int width = buffer.getInt(16);
+		final int height = buffer.getInt(20);
+		if (width < 0 || height < 0 || buffer.capacity() < HEADER_BYTES + getWords(width, height) * Long.BYTES)
+			throw new IOException(file + " is truncated");
+
+		return new MapStore(buffer, minX, minY, width, height);
+	}
+
+	/**
+	 * Writes the cells of a grid within the given bounds to a file. The file is replaced
+	 * atomically if it exists already.
+	 *
+	 * @param file The file to write the map to.
+	 * @param grid The grid holding the cells.
+	 * @param minX The minimum x coordinate of the bounds.
+	 * @param minY The minimum y coordinate of the bounds.
+	 * @param width The width of the bounds.
+	 * @param height The height of the bounds.
+	 * @throws IOException If the file can not be written.
+	 */
+	static void write(final Path file, final TileGrid grid, final int minX, final int minY,
+			final int width, final int height) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + getWords(width, height) * Long.BYTES);
+		buffer.putInt(0, MAGIC);
+		buffer.putInt(4, VERSION);
+		buffer.putInt(8, minX);
+		buffer.putInt(12, minY);
+		buffer.putInt(16, width);
+		buffer.putInt(20, height);
+
+		long word = 0L;
+		int offset = 0;
+		int position = HEADER_BYTES;
+		for (int y = minY; y < minY + height; y++) {
+			for (int x = minX; x < minX + width; x++) {
+				final long cell = pack(grid, grid.index(x, y));
+				word |= cell << offset;
+				offset += CELL_BITS;
+				if (offset >= Long.SIZE) {
+					buffer.putLong(position, word);
+					position += Long.BYTES;
+					offset -= Long.SIZE;
+					// the bits of the cell which did not fit into the full word
+					word = offset > 0 ? cell >>> CELL_BITS - offset : 0L;
+				}
+			}
+		}
+		if (offset > 0)
+			buffer.putLong(position, word);
+
+		final Path directory = file.toAbsolutePath().getParent();
+		Files.createDirectories(directory);
+		final Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+		try {
+			try (final FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+			}
+			Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+	}
+
+	/**
+	 * Packs a cell of a grid into the bits of a stored cell.
+	 *
+	 * @param grid The grid holding the cell.
+	 * @param index The index of the cell or {@link TileGrid#NO_INDEX}.
+	 * @return The packed cell.
+	 */
+	private static long pack(final TileGrid grid, final int index) {
+		if (index == TileGrid.NO_INDEX)
+			return Material.UNDEFINED.ordinal();
+
+		final int visitor = grid.getOriginalVisitorKind(index);
+		return STORED_MATERIALS[grid.getMaterial(index).ordinal()]
+				| grid.getOriginalItemKind(index) << MATERIAL_BITS
+				| (visitor == EntityKinds.OTHER_VISITOR ? EntityKinds.NONE : visitor) << MATERIAL_BITS + ITEM_BITS;
+	}
+
+	/**
+	 * Returns the number of longs needed to store the cells of a map.
+	 *
+	 * @param width The width of the map.
+	 * @param height The height of the map.
+	 * @return The number of longs.
+	 */
+	private static int getWords(final int width, final int height) {
+		return (int) (((long) width * height * CELL_BITS + Long.SIZE - 1) / Long.SIZE);
+	}
+
+	/**
+	 * Returns the material a material is stored as, which is the closed gate for an open
+	 * gate and the material itself otherwise.
+	 *
+	 * @param material The material.
+	 * @return The stored material.
+	 */
+	static Material getStoredMaterial(final Material material) {
+		return MATERIALS[STORED_MATERIALS[material.ordinal()]];
+	}
+
+	int getMinX() {
+		return this.minX;
+	}
+
+	int getMinY() {
+		return this.minY;
+	}
+
+	int getWidth() {
+		return this.width;
+	}
+
+	int getHeight() {
+		return this.height;
+	}
+
+	/**
+	 * Checks whether the given coordinates are within the bounds of the stored map.
+	 *
+	 * @param x The x coordinate.
+	 * @param y The y coordinate.
+	 * @return <code>True</code> if the coordinates are within the bounds, <code>false</code> otherwise.
+	 */
+	boolean contains(final int x, final int y) {
+		return x >= this.minX && x - this.minX < this.width && y >= this.minY && y - this.minY < this.height;
+	}
+
+	Material getMaterial(final int x, final int y) {
+		final int ordinal = this.getCell(x, y) & (1 << MATERIAL_BITS) - 1;
+		return ordinal < MATERIALS.length ? MATERIALS[ordinal] : Material.UNDEFINED;
+	}
+
+	int getItemKind(final int x, final int y) {
+		return Math.min(this.getCell(x, y) >>> MATERIAL_BITS & (1 << ITEM_BITS) - 1, EntityKinds.OTHER_ITEM);
+	}
+
+	int getVisitorKind(final int x, final int y) {
+		return Math.min(this.getCell(x, y) >>> MATERIAL_BITS + ITEM_BITS & (1 << VISITOR_BITS) - 1, EntityKinds.OTHER_VISITOR);
+	}
+
+	/**
+	 * Reads the packed bits of a cell.
+	 *
+	 * @param x The x coordinate of the cell.
+	 * @param y The y coordinate of the cell.
+	 * @return The packed cell, an undefined cell if the coordinates are out of bounds.
+	 */
+	private int getCell(final int x, final int y) {
+		if (!this.contains(x, y))
+			return Material.UNDEFINED.ordinal();
+
+		final long bit = ((long) (y - this.minY) * this.width + x - this.minX) * CELL_BITS;
+		final int position = HEADER_BYTES + (int) (bit >>> 6) * Long.BYTES;
+		final int offset = (int) bit & Long.SIZE - 1;
+		long cell = this.buffer.getLong(position) >>> offset;
+		if (offset + CELL_BITS > Long.SIZE)
+			cell |= this.buffer.getLong(position + Long.BYTES) << Long.SIZE - offset;
+
+		return (int) cell & (1 << CELL_BITS) - 1;
+	}
+
+	@Override
+	public String toString() {
+		return "MapStore [minX=" + this.minX + ", minY=" + this.minY + ", width=" + this.width
+				+ ", height=" + this.height + "]";
+	}
+}
@@ -0,0 +1,236 @@
+/*
+ * KIT Schnupperstudium Robots AIs
+ * Copyright (C) 2019  Simon Grossmann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.schnupperstudium.robots.client.ai.hidden;
+
+import java.util.Arrays;
+
+/**
+ * A path through a {@link DistanceScalingMap} computed by the path finding, which is
+ * followed over multiple turns until it becomes invalid.
+ * <br><br>
+ * The plan stores the indices of the tiles to visit together with the remaining cost of
+ * the plan on every tile, which is the number of actions still needed to reach the goal
+ * plus the goal value. The robot is expected to be either on
+ * the tile it was on when the current step was handed out, because it had to turn first,
+ * or on the tile of the current step.
+ */
+final class Plan {
+
+	/**
+	 * The indices of the tiles on the path.
+	 */
+	private int[] tiles;
+
+	/**
+	 * The remaining cost of the plan on every tile of the path.
+	 */
+	private int[] costs;
+
+	/**
+	 * The number of tiles on the path.
+	 */
+	private int length;
+
+	/**
+	 * The position of the current step on the path.
+	 */
+	private int position;
+
+	/**
+	 * The index of the tile the robot was on when the current step was handed out.
+	 */
+	private int start;
+
+	/**
+	 * The goal of the path if the path only leads part of the way to it, {@link TileGrid#NO_INDEX} otherwise.
+	 */
+	private int goal;
+
+	/**
+	 * The tiles on the path that were not passed yet.
+	 */
+	private final CellSet remaining;
+
+	/**
+	 * Creates a new, empty {@link Plan}.
+	 */
+	Plan() {
+		this.tiles = new int[16];
+		this.costs = new int[16];
+		this.remaining = new CellSet();
+		this.start = TileGrid.NO_INDEX;
+		this.goal = TileGrid.NO_INDEX;
+	}
+
+	/**
+	 * Discards the path and starts a new one for a robot on the given tile.
+	 *
+	 * @param start The index of the robot's tile.
+	 */
+	void reset(final int start) {
+		this.length = 0;
+		this.position = 0;
+		this.start = start;
+		this.goal = TileGrid.NO_INDEX;
+		this.remaining.clear();
+	}
+
+	/**
+	 * Appends a tile to the path.
+	 *
+	 * @param index The index of the tile.
+	 * @param cost The remaining cost of the plan on the tile.
+	 */
+	void add(final int index, final int cost) {
+		if (this.length == this.tiles.length) {
+			this.tiles = Arrays.copyOf(this.tiles, this.length * 2);
+			this.costs = Arrays.copyOf(this.costs, this.length * 2);
+		}
+
+		this.costs[this.length] = cost;
+		this.tiles[this.length++] = index;
+		this.remaining.add(index);
+	}
+
+	/**
+	 * Sets the goal of a path which only leads part of the way to it, so the path does not end
+	 * on the goal. The goal is reset with the path.
+	 *
+	 * @param goal The index of the goal.
+	 */
+	void setGoal(final int goal) {
+		this.goal = goal;
+	}
+
+	/**
+	 * Returns the goal of the path, which is the last tile unless the path only leads part of the way to it.
+	 *
+	 * @return The index of the goal or {@link TileGrid#NO_INDEX} if the path is empty.
+	 */
+	int getGoal() {
+		if (this.goal != TileGrid.NO_INDEX)
+			return this.goal;
+
+		return this.length > 0 ? this.tiles[this.length - 1] : TileGrid.NO_INDEX;
+	}
+
+	int getStart() {
+		return this.start;
+	}
+
+	/**
+	 * Returns the position of the current step on the path. Positions before it
+	 * have been passed already.
+	 *
+	 * @return The position of the current step.
+	 */
+	int getPosition() {
+		return this.position;
+	}
+
+	int getLength() {
+		return this.length;
+	}
+
+	/**
+	 * Returns the tile at a position on the path.
+	 *
+	 * @param position The position on the path.
+	 * @return The index of the tile.
+	 */
+	int get(final int position) {
+		return this.tiles[position];
+	}
+
+	/**
+	 * Returns the remaining cost of the plan on the tile at a position on the path.
+	 *
+	 * @param position The position on the path.
+	 * @return The remaining cost.
+	 */
+	int getCost(final int position) {
+		return this.costs[position];
+	}
+
+	/**
+	 * Returns the tile of the current step.
+	 *
+	 * @return The index of the tile or {@link TileGrid#NO_INDEX} if the path is finished.
+	 */
+	int getStep() {
+		return this.position < this.length ? this.tiles[this.position] : TileGrid.NO_INDEX;
+	}
+
+	/**
+	 * Checks whether a tile lies on the part of the path that was not passed yet.
+	 *
+	 * @param index The index of the tile.
+	 * @return <code>True</code> if the tile is still ahead, <code>false</code> otherwise.
+	 */
+	boolean isAhead(final int index) {
+		return this.remaining.contains(index);
+	}
+
+	/**
+	 * Moves on to the next step, after the robot reached the tile of the current step.
+	 */
+	void advance() {
+		this.remaining.remove(this.tiles[this.position]);
+		this.start = this.tiles[this.position++];
+	}
+
+	/**
+	 * Moves on along the path until the robot is on the tile the current step is handed out from.
+	 *
+	 * @param index The index of the robot's tile.
+	 * @return <code>True</code> if the tile lies on the path, <code>false</code> otherwise.
+	 */
+	boolean follow(final int index) {
+		if (this.start != index && !this.remaining.contains(index))
+			return false;
+
+		while (this.start != index) {
+			this.advance();
+		}
+
+		return true;
+	}
+
+	/**
+	 * Replaces this plan with a copy of another plan.
+	 *
+	 * @param plan The plan to copy.
+	 */
+	void copy(final Plan plan) {
+		if (this.tiles.length < plan.length) {
+			this.tiles = new int[plan.tiles.length];
+			this.costs = new int[plan.costs.length];
+		}
+
+		System.arraycopy(plan.tiles, 0, this.tiles, 0, plan.length);
+		System.arraycopy(plan.costs, 0, this.costs, 0, plan.length);
+		this.length = plan.length;
+		this.position = plan.position;
+		this.start = plan.start;
+		this.goal = plan.goal;
+		this.remaining.clear();
+		for (int i = plan.position; i < plan.length; i++) {
+			this.remaining.add(plan.tiles[i]);
+		}
+	}
+}
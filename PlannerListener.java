@@ -0,0 +1,39 @@
+/*
+ * KIT Schnupperstudium Robots AIs
+ * Copyright (C) 2019  Simon Grossmann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.schnupperstudium.robots.client.ai.hidden;
+
+/**
+ * Receives the {@link PlannerMetrics metrics} of every turn planned by a {@link DistanceScalingMap}.
+ * <br><br>
+ * The listener is called on the thread of the AI at the end of
+ * {@link DistanceScalingMap#getNextTile(int, int, Capabilities)}, so it should return quickly.
+ * The metrics object is reused for the next turn and must not be kept after the call returns.
+ *
+ * @see DistanceScalingMap#setPlannerListener(PlannerListener)
+ */
+@FunctionalInterface
+public interface PlannerListener {
+
+	/**
+	 * Called after the next tile of a turn is planned.
+	 *
+	 * @param metrics The metrics of the turn.
+	 */
+	void turnPlanned(PlannerMetrics metrics);
+}
@@ -0,0 +1,309 @@
+/*
+ * KIT Schnupperstudium Robots AIs
+ * Copyright (C) 2019  Simon Grossmann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.schnupperstudium.robots.client.ai.hidden;
+
+/**
+ * The metrics of a single turn planned by a {@link DistanceScalingMap}, covering every call of
+ * {@link DistanceScalingMap#updateMap(java.util.List) updateMap} since the last turn and the call of
+ * {@link DistanceScalingMap#getNextTile(int, int, Capabilities) getNextTile} that ends the turn.
+ * <br><br>
+ * Planning a turn is split into the following phases, which are timed separately:
+ * <ul>
+ * <li>Validation: checking whether the plan of the last turn can still be followed</li>
+ * <li>Seeding: resetting the values of the distance field and seeding it with the goals</li>
+ * <li>Relaxation: spreading the values from the goals across the map</li>
+ * <li>Extraction: following the values from the robot to the goal</li>
+ * </ul>
+ * The last three phases are only run if the plan had to be recomputed.
+ *
+ * @see PlannerListener
+ */
+public final class PlannerMetrics {
+
+	long turn;
+
+	long updateNanos;
+
+	int visionTiles;
+
+	int changedTiles;
+
+	int expansions;
+
+	long validateNanos;
+
+	boolean replanned;
+
+	boolean rebuilt;
+
+	long seedNanos;
+
+	int seeds;
+
+	int resetTiles;
+
+	long relaxNanos;
+
+	int pushes;
+
+	int relaxations;
+
+	int scannedTiles;
+
+	long extractNanos;
+
+	int pathLength;
+
+	int area;
+
+	int goalCategory = GoalIndex.NONE;
+
+	/**
+	 * Creates new, empty {@link PlannerMetrics}.
+	 */
+	PlannerMetrics() {
+		// empty metrics
+	}
+
+	/**
+	 * Records an update of the map.
+	 *
+	 * @param nanos The time spent updating the map.
+	 * @param tiles The number of tiles in the vision of the robot.
+	 * @param changed The number of tiles of the map that changed.
+	 * @param expanded Whether the bounds of the map were expanded.
+	 */
+	void updated(final long nanos, final int tiles, final int changed, final boolean expanded) {
+		this.updateNanos += nanos;
+		this.visionTiles += tiles;
+		this.changedTiles += changed;
+		if (expanded)
+			this.expansions++;
+	}
+
+	/**
+	 * Resets the metrics of the turn and moves on to the next turn.
+	 */
+	void next() {
+		this.turn++;
+		this.updateNanos = 0;
+		this.visionTiles = 0;
+		this.changedTiles = 0;
+		this.expansions = 0;
+		this.validateNanos = 0;
+		this.replanned = false;
+		this.rebuilt = false;
+		this.seedNanos = 0;
+		this.seeds = 0;
+		this.resetTiles = 0;
+		this.relaxNanos = 0;
+		this.pushes = 0;
+		this.relaxations = 0;
+		this.scannedTiles = 0;
+		this.extractNanos = 0;
+		this.pathLength = 0;
+		this.area = 0;
+		this.goalCategory = GoalIndex.NONE;
+	}
+
+	/**
+	 * Returns the number of turns planned before this turn.
+	 *
+	 * @return The number of the turn.
+	 */
+	public long getTurn() {
+		return this.turn;
+	}
+
+	/**
+	 * Returns the time spent updating the map with the vision of the robot.
+	 *
+	 * @return The time in nanoseconds.
+	 */
+	public long getUpdateNanos() {
+		return this.updateNanos;
+	}
+
+	/**
+	 * Returns the number of tiles in the vision of the robot.
+	 *
+	 * @return The number of tiles.
+	 */
+	public int getVisionTiles() {
+		return this.visionTiles;
+	}
+
+	/**
+	 * Returns the number of tiles of the map changed by the vision of the robot.
+	 *
+	 * @return The number of tiles.
+	 */
+	public int getChangedTiles() {
+		return this.changedTiles;
+	}
+
+	/**
+	 * Returns the number of times the bounds of the map were expanded.
+	 *
+	 * @return The number of expansions.
+	 */
+	public int getExpansions() {
+		return this.expansions;
+	}
+
+	/**
+	 * Returns the time spent checking whether the plan can still be followed.
+	 *
+	 * @return The time in nanoseconds.
+	 */
+	public long getValidateNanos() {
+		return this.validateNanos;
+	}
+
+	/**
+	 * Checks whether the plan was recomputed in this turn.
+	 *
+	 * @return <code>True</code> if the plan was recomputed, <code>false</code> if it was followed.
+	 */
+	public boolean isReplanned() {
+		return this.replanned;
+	}
+
+	/**
+	 * Checks whether the distance field was rebuilt from scratch instead of being repaired.
+	 *
+	 * @return <code>True</code> if the field was rebuilt, <code>false</code> otherwise.
+	 */
+	public boolean isRebuilt() {
+		return this.rebuilt;
+	}
+
+	/**
+	 * Returns the time spent resetting and seeding the distance field.
+	 *
+	 * @return The time in nanoseconds.
+	 */
+	public long getSeedNanos() {
+		return this.seedNanos;
+	}
+
+	/**
+	 * Returns the number of tiles the relaxation started from.
+	 *
+	 * @return The number of tiles.
+	 */
+	public int getSeeds() {
+		return this.seeds;
+	}
+
+	/**
+	 * Returns the number of tiles whose value was reset by a repair of the distance field.
+	 *
+	 * @return The number of tiles.
+	 */
+	public int getResetTiles() {
+		return this.resetTiles;
+	}
+
+	/**
+	 * Returns the time spent relaxing the distance field.
+	 *
+	 * @return The time in nanoseconds.
+	 */
+	public long getRelaxNanos() {
+		return this.relaxNanos;
+	}
+
+	/**
+	 * Returns the number of tiles pushed onto the queue of the relaxation.
+	 *
+	 * @return The number of pushes.
+	 */
+	public int getPushes() {
+		return this.pushes;
+	}
+
+	/**
+	 * Returns the number of times the relaxation lowered a value that was already set.
+	 *
+	 * @return The number of relaxations.
+	 */
+	public int getRelaxations() {
+		return this.relaxations;
+	}
+
+	/**
+	 * Returns the number of tiles taken from the queue of the relaxation.
+	 *
+	 * @return The number of tiles.
+	 */
+	public int getScannedTiles() {
+		return this.scannedTiles;
+	}
+
+	/**
+	 * Returns the time spent following the values from the robot to the goal.
+	 *
+	 * @return The time in nanoseconds.
+	 */
+	public long getExtractNanos() {
+		return this.extractNanos;
+	}
+
+	/**
+	 * Returns the number of tiles left on the path to the goal.
+	 *
+	 * @return The number of tiles.
+	 */
+	public int getPathLength() {
+		return this.pathLength;
+	}
+
+	/**
+	 * Returns the area of the map.
+	 *
+	 * @return The number of tiles within the bounds of the map.
+	 */
+	public int getArea() {
+		return this.area;
+	}
+
+	/**
+	 * Returns the category of the goal the robot is heading to, like <code>items</code>
+	 * or <code>frontier</code>.
+	 *
+	 * @return The name of the category or <code>none</code> if there is no goal.
+	 */
+	public String getGoalCategory() {
+		return GoalIndex.getName(this.goalCategory);
+	}
+
+	@Override
+	public String toString() {
+		return "PlannerMetrics [turn=" + this.turn + ", updateNanos=" + this.updateNanos
+				+ ", visionTiles=" + this.visionTiles + ", changedTiles=" + this.changedTiles
+				+ ", expansions=" + this.expansions + ", validateNanos=" + this.validateNanos
+				+ ", replanned=" + this.replanned + ", rebuilt=" + this.rebuilt
+				+ ", seedNanos=" + this.seedNanos + ", seeds=" + this.seeds + ", resetTiles=" + this.resetTiles
+				+ ", relaxNanos=" + this.relaxNanos + ", pushes=" + this.pushes + ", relaxations=" + this.relaxations
+				+ ", scannedTiles=" + this.scannedTiles + ", extractNanos=" + this.extractNanos
+				+ ", pathLength=" + this.pathLength + ", area=" + this.area
+				+ ", goalCategory=" + this.getGoalCategory() + "]";
+	}
+}
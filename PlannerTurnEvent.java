@@ -0,0 +1,132 @@
+/*
+ * KIT Schnupperstudium Robots AIs
+ * Copyright (C) 2019  Simon Grossmann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.schnupperstudium.robots.client.ai.hidden;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A JDK Flight Recorder event for every turn planned by a {@link DistanceScalingMap}.
+ * The duration of the event is the time spent in
+ * {@link DistanceScalingMap#getNextTile(int, int, Capabilities)}, the fields mirror the
+ * {@link PlannerMetrics} of the turn.
+ * <br><br>
+ * The event is disabled by default and can be enabled in a recording with
+ * <code>com.github.schnupperstudium.robots.PlannerTurn#enabled=true</code>.
+ */
+@Name("com.github.schnupperstudium.robots.PlannerTurn")
+@Label("Planner Turn")
+@Category({ "Robots", "Planner" })
+@Description("A turn planned by the distance scaling map")
+@Enabled(false)
+@StackTrace(false)
+final class PlannerTurnEvent extends Event {
+
+	@Label("Update Time")
+	@Timespan(Timespan.NANOSECONDS)
+	long updateTime;
+
+	@Label("Vision Tiles")
+	int visionTiles;
+
+	@Label("Changed Tiles")
+	int changedTiles;
+
+	@Label("Bounds Expansions")
+	int expansions;
+
+	@Label("Validation Time")
+	@Timespan(Timespan.NANOSECONDS)
+	long validateTime;
+
+	@Label("Replanned")
+	boolean replanned;
+
+	@Label("Rebuilt")
+	boolean rebuilt;
+
+	@Label("Seeding Time")
+	@Timespan(Timespan.NANOSECONDS)
+	long seedTime;
+
+	@Label("Seeds")
+	int seeds;
+
+	@Label("Reset Tiles")
+	int resetTiles;
+
+	@Label("Relaxation Time")
+	@Timespan(Timespan.NANOSECONDS)
+	long relaxTime;
+
+	@Label("Queue Pushes")
+	int pushes;
+
+	@Label("Relaxations")
+	@Description("Values lowered after they were set")
+	int relaxations;
+
+	@Label("Scanned Tiles")
+	int scannedTiles;
+
+	@Label("Extraction Time")
+	@Timespan(Timespan.NANOSECONDS)
+	long extractTime;
+
+	@Label("Path Length")
+	int pathLength;
+
+	@Label("Map Area")
+	int area;
+
+	@Label("Goal Category")
+	String goalCategory;
+
+	/**
+	 * Copies the given metrics into the fields of the event.
+	 *
+	 * @param metrics The metrics of the turn.
+	 */
+	void set(final PlannerMetrics metrics) {
+		this.updateTime = metrics.updateNanos;
+		this.visionTiles = metrics.visionTiles;
+		this.changedTiles = metrics.changedTiles;
+		this.expansions = metrics.expansions;
+		this.validateTime = metrics.validateNanos;
+		this.replanned = metrics.replanned;
+		this.rebuilt = metrics.rebuilt;
+		this.seedTime = metrics.seedNanos;
+		this.seeds = metrics.seeds;
+		this.resetTiles = metrics.resetTiles;
+		this.relaxTime = metrics.relaxNanos;
+		this.pushes = metrics.pushes;
+		this.relaxations = metrics.relaxations;
+		this.scannedTiles = metrics.scannedTiles;
+		this.extractTime = metrics.extractNanos;
+		this.pathLength = metrics.pathLength;
+		this.area = metrics.area;
+		this.goalCategory = metrics.getGoalCategory();
+	}
+}
@@ -0,0 +1,67 @@
+/*
+ * KIT Schnupperstudium Robots AIs
+ * Copyright (C) 2019  Simon Grossmann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.schnupperstudium.robots.client.ai.hidden;
+
+import java.util.function.Consumer;
+
+import com.github.schnupperstudium.robots.entity.Facing;
+
+/**
+ * What a {@link DistancePilot} needs to know about a robot to decide on its next {@link Step}.
+ * This decouples the decision of the AI from the client, so that the same decision can be
+ * made for a robot in a running game as well as for a robot in a {@link SimulatedWorld}.
+ */
+interface RobotView {
+
+	int getX();
+
+	int getY();
+
+	Facing getFacing();
+
+	/**
+	 * Checks whether there is an item on the tile beneath the robot.
+	 *
+	 * @return <code>True</code> if there is an item beneath the robot, <code>false</code> otherwise.
+	 */
+	boolean hasItemBeneath();
+
+	/**
+	 * Takes a snapshot of the inventory of the robot.
+	 *
+	 * @return The capabilities of the robot in this turn.
+	 */
+	Capabilities getCapabilities();
+
+	/**
+	 * Updates the map with everything the robot sees in this turn.
+	 *
+	 * @param map The map to update.
+	 */
+	void observe(DistanceScalingMap map);
+
+	/**
+	 * Captures everything the robot sees in this turn without updating a map yet. This is
+	 * used instead of {@link #observe(DistanceScalingMap)} while the map is still busy
+	 * planning an earlier turn.
+	 *
+	 * @return The observation, which updates the map it is applied to.
+	 */
+	Consumer<DistanceScalingMap> capture();
+}
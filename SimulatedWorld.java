@@ -0,0 +1,519 @@
+/*
+ * KIT Schnupperstudium Robots AIs
+ * Copyright (C) 2019  Simon Grossmann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.schnupperstudium.robots.client.ai.hidden;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import com.github.schnupperstudium.robots.entity.Facing;
+import com.github.schnupperstudium.robots.entity.item.BlueKey;
+import com.github.schnupperstudium.robots.entity.item.GreenKey;
+import com.github.schnupperstudium.robots.entity.item.LaserCharge;
+import com.github.schnupperstudium.robots.entity.item.RedKey;
+import com.github.schnupperstudium.robots.entity.item.YellowKey;
+import com.github.schnupperstudium.robots.world.Material;
+
+/**
+ * A small stand-in for the client and the world of the game, which is used to run
+ * games without a server. It holds one or more {@link Robot robots} and implements the rules the
+ * {@link DistanceAI} relies on:
+ * <ul>
+ * <li>The robot sees every tile within {@link #visionRadius} in both directions, tiles outside of the world are void</li>
+ * <li>Items beneath the robot can be picked up</li>
+ * <li>A laser charge shrinks the boulder in front of the robot by one size</li>
+ * <li>A key opens the gate of its color in front of the robot</li>
+ * <li>Moving onto a teleporter moves the robot to the other teleporter of its color</li>
+ * </ul>
+ * The game is finished as soon as every star of the world is picked up. The world itself is
+ * the {@link RobotView} of its first robot.
+ * <br><br>
+ * All tiles are kept in primitive arrays indexed by <code>x * height + y</code>, items and visitors
+ * are described by their {@link EntityKinds kinds}.
+ */
+final class SimulatedWorld implements RobotView {
+
+	/**
+	 * All materials, indexed by their ordinal.
+	 */
+	private static final Material[] MATERIALS = Material.values();
+
+	/**
+	 * The names of the keys, indexed by their kind relative to {@link EntityKinds#BLUE_KEY}.
+	 */
+	private static final String[] KEY_NAMES = {
+			BlueKey.ITEM_NAME, GreenKey.ITEM_NAME, RedKey.ITEM_NAME, YellowKey.ITEM_NAME
+	};
+
+	private final int width;
+
+	private final int height;
+
+	/**
+	 * The material ordinal of every tile.
+	 */
+	private final byte[] materials;
+
+	/**
+	 * The item kind of every tile.
+	 */
+	private final byte[] items;
+
+	/**
+	 * The visitor kind of every tile, without the robots.
+	 */
+	private final byte[] visitors;
+
+	/**
+	 * The tile a teleporter leads to or <code>-1</code> for tiles which are no teleporter.
+	 */
+	private final int[] teleporters;
+
+	/**
+	 * The material of an open gate.
+	 */
+	private final Material floor;
+
+	/**
+	 * The number of tiles the robot sees in every direction.
+	 */
+	private final int visionRadius;
+
+	/**
+	 * The number of stars in the world.
+	 */
+	private final int totalStars;
+
+	/**
+	 * The robots in the world, the first one is the robot viewed through the world itself.
+	 */
+	private final List<Robot> robots;
+
+	/**
+	 * The number of stars picked up by all robots.
+	 */
+	private int stars;
+
+	/**
+	 * Creates a new {@link SimulatedWorld}. The arrays are used by the world and must not be modified afterwards.
+	 *
+	 * @param width The width of the world.
+	 * @param height The height of the world.
+	 * @param materials The material ordinal of every tile.
+	 * @param items The item kind of every tile.
+	 * @param visitors The visitor kind of every tile.
+	 * @param teleporters The tile every teleporter leads to, <code>-1</code> for other tiles.
+	 * @param floor The material of an open gate.
+	 * @param robot The tile of the robot.
+	 * @param facing The facing of the robot.
+	 * @param visionRadius The number of tiles the robot sees in every direction.
+	 */
+	SimulatedWorld(final int width, final int height, final byte[] materials, final byte[] items,
+			final byte[] visitors, final int[] teleporters, final Material floor,
+			final int robot, final Facing facing, final int visionRadius) {
+		this.width = width;
+		this.height = height;
+		this.materials = materials;
+		this.items = items;
+		this.visitors = visitors;
+		this.teleporters = teleporters;
+		this.floor = floor;
+		this.visionRadius = visionRadius;
+		this.robots = new ArrayList<>();
+		this.robots.add(new Robot(robot, facing));
+
+		int totalStars = 0;
+		for (final byte item : items) {
+			if (item == EntityKinds.STAR)
+				totalStars++;
+		}
+		this.totalStars = totalStars;
+	}
+
+	@Override
+	public int getX() {
+		return this.robots.get(0).getX();
+	}
+
+	@Override
+	public int getY() {
+		return this.robots.get(0).getY();
+	}
+
+	@Override
+	public Facing getFacing() {
+		return this.robots.get(0).getFacing();
+	}
+
+	@Override
+	public boolean hasItemBeneath() {
+		return this.robots.get(0).hasItemBeneath();
+	}
+
+	@Override
+	public Capabilities getCapabilities() {
+		return this.robots.get(0).getCapabilities();
+	}
+
+	@Override
+	public void observe(final DistanceScalingMap map) {
+		this.robots.get(0).observe(map);
+	}
+
+	@Override
+	public Consumer<DistanceScalingMap> capture() {
+		return this.robots.get(0).capture();
+	}
+
+	/**
+	 * Returns the first robot of the world, which is viewed through the world itself.
+	 *
+	 * @return The first robot.
+	 */
+	Robot getFirstRobot() {
+		return this.robots.get(0);
+	}
+
+	/**
+	 * Adds another robot to the world, which starts on the free tile closest to the first robot
+	 * and faces the same direction. Robots see each other as visitors and block each other.
+	 *
+	 * @return The new robot or <code>null</code> if there is no free tile left.
+	 */
+	Robot addRobot() {
+		final Robot first = this.robots.get(0);
+		final boolean[] visited = new boolean[this.materials.length];
+		final ArrayDeque<Integer> queue = new ArrayDeque<>();
+		queue.add(first.tile);
+		visited[first.tile] = true;
+		while (!queue.isEmpty()) {
+			final int tile = queue.poll();
+			if (this.isFree(tile)) {
+				final Robot robot = new Robot(tile, first.facing);
+				this.robots.add(robot);
+				return robot;
+			}
+
+			for (final Facing facing : Facing.values()) {
+				final int x = tile / this.height + facing.dx;
+				final int y = tile % this.height + facing.dy;
+				if (x < 0 || y < 0 || x >= this.width || y >= this.height)
+					continue;
+
+				final int neighbor = x * this.height + y;
+				if (!visited[neighbor] && TileGrid.isVisitable(MATERIALS[this.materials[neighbor]])
+						&& this.teleporters[neighbor] == -1) {
+					visited[neighbor] = true;
+					queue.add(neighbor);
+				}
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Fills a {@link VisionBuffer} with the tiles a robot at the given position would see.
+	 * Every robot, including the one seeing, is seen as a visitor on its tile.
+	 *
+	 * @param vision The buffer to fill, which is cleared first.
+	 * @param centerX The x coordinate of the center of the vision.
+	 * @param centerY The y coordinate of the center of the vision.
+	 * @param radius The number of tiles seen in every direction.
+	 */
+	void see(final VisionBuffer vision, final int centerX, final int centerY, final int radius) {
+		vision.clear();
+		for (int x = centerX - radius; x <= centerX + radius; x++) {
+			for (int y = centerY - radius; y <= centerY + radius; y++) {
+				if (x < 0 || y < 0 || x >= this.width || y >= this.height) {
+					vision.add(x, y, Material.VOID, EntityKinds.NONE, EntityKinds.NONE);
+					continue;
+				}
+
+				final int tile = x * this.height + y;
+				final int visitor = this.isRobot(tile) ? EntityKinds.OTHER_VISITOR : this.visitors[tile];
+				vision.add(x, y, MATERIALS[this.materials[tile]], this.items[tile], visitor);
+			}
+		}
+	}
+
+	/**
+	 * Executes a step of the first robot. Steps which are not possible are ignored like in the game.
+	 *
+	 * @param step The step to execute.
+	 * @param itemName The name of the item to use for {@link Step#USE_ITEM}.
+	 * @return <code>True</code> if the step changed the world, <code>false</code> otherwise.
+	 */
+	boolean apply(final Step step, final String itemName) {
+		return this.robots.get(0).apply(step, itemName);
+	}
+
+	/**
+	 * Checks whether every star of the world was picked up.
+	 *
+	 * @return <code>True</code> if the game is finished, <code>false</code> otherwise.
+	 */
+	boolean isFinished() {
+		return this.stars == this.totalStars;
+	}
+
+	int getWidth() {
+		return this.width;
+	}
+
+	int getHeight() {
+		return this.height;
+	}
+
+	/**
+	 * Checks whether a robot could stand on the given tile.
+	 *
+	 * @param x The x coordinate of the tile.
+	 * @param y The y coordinate of the tile.
+	 * @return <code>True</code> if the tile can be visited, <code>false</code> otherwise.
+	 */
+	boolean canVisit(final int x, final int y) {
+		final int tile = x * this.height + y;
+		return TileGrid.isVisitable(MATERIALS[this.materials[tile]]) && this.visitors[tile] == EntityKinds.NONE;
+	}
+
+	int getStars() {
+		return this.stars;
+	}
+
+	int getTotalStars() {
+		return this.totalStars;
+	}
+
+	/**
+	 * Checks whether a tile is visitable and neither holds a visitor nor a robot nor a teleporter.
+	 */
+	private boolean isFree(final int tile) {
+		return TileGrid.isVisitable(MATERIALS[this.materials[tile]]) && this.visitors[tile] == EntityKinds.NONE
+				&& this.teleporters[tile] == -1 && !this.isRobot(tile);
+	}
+
+	/**
+	 * Checks whether a robot stands on a tile.
+	 */
+	private boolean isRobot(final int tile) {
+		for (int i = 0; i < this.robots.size(); i++) {
+			if (this.robots.get(i).tile == tile)
+				return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * A robot in the {@link SimulatedWorld}, which is the {@link RobotView} of its pilot.
+	 */
+	final class Robot implements RobotView {
+
+		/**
+		 * The buffer reused to pass the vision of the robot to the map.
+		 */
+		private final VisionBuffer vision;
+
+		/**
+		 * The tile of the robot.
+		 */
+		private int tile;
+
+		private Facing facing;
+
+		private int charges;
+
+		/**
+		 * The keys of the robot, one bit per key color.
+		 */
+		private int keys;
+
+		/**
+		 * The recorder of the turns of the robot or <code>null</code> if its turns are not recorded.
+		 */
+		private TurnRecorder recorder;
+
+		private Robot(final int tile, final Facing facing) {
+			this.tile = tile;
+			this.facing = facing;
+			this.vision = new VisionBuffer();
+		}
+
+		@Override
+		public int getX() {
+			return this.tile / SimulatedWorld.this.height;
+		}
+
+		@Override
+		public int getY() {
+			return this.tile % SimulatedWorld.this.height;
+		}
+
+		@Override
+		public Facing getFacing() {
+			return this.facing;
+		}
+
+		@Override
+		public boolean hasItemBeneath() {
+			return SimulatedWorld.this.items[this.tile] != EntityKinds.NONE;
+		}
+
+		@Override
+		public Capabilities getCapabilities() {
+			return Capabilities.of(this.charges, this.keys);
+		}
+
+		@Override
+		public void observe(final DistanceScalingMap map) {
+			SimulatedWorld.this.see(this.vision, this.getX(), this.getY(), SimulatedWorld.this.visionRadius);
+			if (this.recorder != null)
+				this.recorder.observed(this.vision);
+			map.updateMap(this.vision);
+		}
+
+		@Override
+		public Consumer<DistanceScalingMap> capture() {
+			final VisionBuffer vision = new VisionBuffer();
+			SimulatedWorld.this.see(vision, this.getX(), this.getY(), SimulatedWorld.this.visionRadius);
+			if (this.recorder != null)
+				this.recorder.observed(vision);
+			return map -> map.updateMap(vision);
+		}
+
+		/**
+		 * Records every following turn of the robot, which is its vision and the steps {@link #apply(Step, String) applied}.
+		 *
+		 * @param recorder The recorder or <code>null</code> to stop recording.
+		 */
+		void record(final TurnRecorder recorder) {
+			this.recorder = recorder;
+		}
+
+		/**
+		 * Executes a step of the robot. Steps which are not possible are ignored like in the game.
+		 *
+		 * @param step The step to execute.
+		 * @param itemName The name of the item to use for {@link Step#USE_ITEM}.
+		 * @return <code>True</code> if the step changed the world, <code>false</code> otherwise.
+		 */
+		boolean apply(final Step step, final String itemName) {
+			if (this.recorder != null) {
+				try {
+					this.recorder.record(this, step, itemName);
+				} catch (final IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+
+			switch (step) {
+			case PICK_UP:
+				return this.pickUp();
+			case TURN_LEFT:
+				this.facing = this.facing.left();
+				return true;
+			case TURN_RIGHT:
+				this.facing = this.facing.right();
+				return true;
+			case MOVE_FORWARD:
+				return this.moveForward();
+			case USE_ITEM:
+				return this.useItem(itemName);
+			default:
+				return false;
+			}
+		}
+
+		private boolean pickUp() {
+			final byte[] items = SimulatedWorld.this.items;
+			final int item = items[this.tile];
+			if (item == EntityKinds.STAR) {
+				SimulatedWorld.this.stars++;
+			} else if (item == EntityKinds.LASER_CHARGE) {
+				this.charges++;
+			} else if (item >= EntityKinds.BLUE_KEY && item <= EntityKinds.YELLOW_KEY) {
+				this.keys |= Capabilities.getKeyBit(KEY_NAMES[item - EntityKinds.BLUE_KEY]);
+			}
+
+			items[this.tile] = EntityKinds.NONE;
+			return item != EntityKinds.NONE;
+		}
+
+		private boolean moveForward() {
+			final SimulatedWorld world = SimulatedWorld.this;
+			final int target = this.getFront();
+			if (target == -1 || !TileGrid.isVisitable(MATERIALS[world.materials[target]])
+					|| world.visitors[target] != EntityKinds.NONE || world.isRobot(target))
+				return false;
+
+			final int destination = world.teleporters[target] != -1 ? world.teleporters[target] : target;
+			if (destination != this.tile && world.isRobot(destination))
+				return false;
+
+			this.tile = destination;
+			return true;
+		}
+
+		private boolean useItem(final String itemName) {
+			final SimulatedWorld world = SimulatedWorld.this;
+			final int target = this.getFront();
+			if (target == -1 || itemName == null)
+				return false;
+
+			if (itemName.equals(LaserCharge.ITEM_NAME)) {
+				if (this.charges == 0)
+					return false;
+
+				this.charges--;
+				final int visitor = world.visitors[target];
+				if (visitor >= EntityKinds.SMALL_BOULDER && visitor <= EntityKinds.LARGE_BOULDER)
+					world.visitors[target] = (byte) (visitor - 1);
+				return true;
+			} else if (this.hasKey(itemName) && itemName.equals(DistanceScalingMap.GATE_KEYS.get(MATERIALS[world.materials[target]]))) {
+				world.materials[target] = (byte) world.floor.ordinal();
+				return true;
+			}
+
+			return false;
+		}
+
+		private boolean hasKey(final String keyName) {
+			final int bit = Capabilities.getKeyBit(keyName);
+			return bit != 0 && (this.keys & bit) == bit;
+		}
+
+		/**
+		 * Returns the tile in front of the robot.
+		 *
+		 * @return The tile in front of the robot or <code>-1</code> if it is outside of the world.
+		 */
+		private int getFront() {
+			final int x = this.getX() + this.facing.dx;
+			final int y = this.getY() + this.facing.dy;
+			if (x < 0 || y < 0 || x >= SimulatedWorld.this.width || y >= SimulatedWorld.this.height)
+				return -1;
+
+			return x * SimulatedWorld.this.height + y;
+		}
+	}
+}
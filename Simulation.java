@@ -0,0 +1,485 @@
+/*
+ * KIT Schnupperstudium Robots AIs
+ * Copyright (C) 2019  Simon Grossmann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.schnupperstudium.robots.client.ai.hidden;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * A headless harness that plays many games of the {@link DistanceAI} in parallel and
+ * reports how well and how fast it plays. Every game runs the {@link DistancePilot} of
+ * the AI against a {@link SimulatedWorld} created by a {@link LevelGenerator}, so no
+ * server, client or GUI is needed.
+ * <br><br>
+ * The harness is configured through system properties:
+ * <ul>
+ * <li><code>robots.simulation.games</code>: the number of games, default 256</li>
+ * <li><code>robots.simulation.warmup</code>: the number of games played before measuring, default 32</li>
+ * <li><code>robots.simulation.size</code>: the width and height of the levels, default 48</li>
+ * <li><code>robots.simulation.openness</code>: the percentage of inner walls removed, default 10</li>
+ * <li><code>robots.simulation.vision</code>: the vision radius of the robot, default 2</li>
+ * <li><code>robots.simulation.turns</code>: the maximum number of turns of a game, default 100000</li>
+ * <li><code>robots.simulation.threads</code>: the parallelism of the pool, default the number of processors</li>
+ * <li><code>robots.simulation.seed</code>: the seed of the first game, default 0</li>
+ * <li><code>robots.simulation.replay</code>: whether every level is played a second time, warm
+ * started with the map stored after the first game, default false</li>
+ * <li><code>robots.simulation.team</code>: the number of robots sharing their map through a
+ * {@link TeamMap}, default 1. The robots make their steps one after another and a turn
+ * of the game is over once every robot made its step</li>
+ * <li><code>robots.simulation.record</code>: a directory every game is {@link TurnRecorder recorded}
+ * to as <code>&lt;seed&gt;.rlog</code>, only the turns of the first robot are recorded, default none</li>
+ * <li><code>robots.simulation.verify</code>: whether the repaired {@link DistanceField} is compared
+ * with a rebuild from scratch after every turn, default false. Only synchronous turns are verified,
+ * since the map is busy while turns are planned in the background</li>
+ * </ul>
+ */
+final class Simulation {
+
+	private static final int GAMES = Integer.getInteger("robots.simulation.games", 256);
+
+	private static final int WARMUP = Integer.getInteger("robots.simulation.warmup", 32);
+
+	private static final int SIZE = Integer.getInteger("robots.simulation.size", 48);
+
+	private static final int OPENNESS = Integer.getInteger("robots.simulation.openness", 10);
+
+	private static final int VISION = Integer.getInteger("robots.simulation.vision", 2);
+
+	private static final int MAX_TURNS = Integer.getInteger("robots.simulation.turns", 100000);
+
+	private static final int THREADS = Integer.getInteger("robots.simulation.threads",
+			Runtime.getRuntime().availableProcessors());
+
+	private static final long SEED = Long.getLong("robots.simulation.seed", 0L);
+
+	private static final boolean REPLAY = Boolean.getBoolean("robots.simulation.replay");
+
+	private static final int TEAM = Integer.getInteger("robots.simulation.team", 1);
+
+	private static final boolean VERIFY = Boolean.getBoolean("robots.simulation.verify")
+			&& DistancePilot.DEADLINE_NANOS == 0 && !DistancePilot.SPECULATIVE;
+
+	private static final Path RECORD_DIRECTORY = System.getProperty("robots.simulation.record") != null
+			? Paths.get(System.getProperty("robots.simulation.record")) : null;
+
+	/**
+	 * The number of turns in a row the robot may not change the world before the game is given up.
+	 */
+	private static final int STALL_TURNS = 16;
+
+	/**
+	 * The number of turns in a row no robot of a team may head for a goal before the game is given up.
+	 * Robots without a goal keep wandering and robots stuck in front of each other back out for a while,
+	 * which uncovers goals again, so a team gets more time than a single robot.
+	 */
+	private static final int TEAM_STALL_TURNS = 64;
+
+	private Simulation() {
+		// no instances
+	}
+
+	public static void main(final String[] args) throws InterruptedException, ExecutionException {
+		final LevelGenerator generator = new LevelGenerator(SIZE, SIZE, OPENNESS, VISION);
+		final ForkJoinPool pool = new ForkJoinPool(THREADS);
+		try {
+			run(pool, generator, SEED - WARMUP, WARMUP);
+
+			final long start = System.nanoTime();
+			final List<Result> results = run(pool, generator, SEED, GAMES);
+			report(results, System.nanoTime() - start);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Plays games with consecutive seeds in parallel.
+	 *
+	 * @param pool The pool to play the games on.
+	 * @param generator The generator of the levels.
+	 * @param seed The seed of the first game.
+	 * @param games The number of games.
+	 * @return The results of the games, ordered by their seed.
+	 */
+	private static List<Result> run(final ForkJoinPool pool, final LevelGenerator generator,
+			final long seed, final int games) throws InterruptedException, ExecutionException {
+		final List<Callable<Result>> tasks = new ArrayList<>(games);
+		for (int i = 0; i < games; i++) {
+			final long gameSeed = seed + i;
+			if (REPLAY)
+				tasks.add(() -> replay(generator, gameSeed));
+			else if (RECORD_DIRECTORY != null)
+				tasks.add(() -> record(generator, gameSeed));
+			else
+				tasks.add(() -> play(generator.generate(gameSeed)));
+		}
+
+		final List<Result> results = new ArrayList<>(games);
+		for (final Future<Result> future : pool.invokeAll(tasks)) {
+			results.add(future.get());
+		}
+
+		return results;
+	}
+
+	/**
+	 * Plays a game until every star is picked up, the robot stalls or the turn limit is reached.
+	 *
+	 * @param world The world of the game.
+	 * @return The result of the game.
+	 */
+	static Result play(final SimulatedWorld world) {
+		if (TEAM > 1)
+			return playTeam(world, TEAM);
+
+		return play(world, new DistancePilot(new DistanceScalingMap()), -1);
+	}
+
+	/**
+	 * Plays a game and records the turns of its first robot to the {@link #RECORD_DIRECTORY record directory}.
+	 *
+	 * @param generator The generator of the level.
+	 * @param seed The seed of the level.
+	 * @return The result of the game.
+	 */
+	private static Result record(final LevelGenerator generator, final long seed) {
+		final SimulatedWorld world = generator.generate(seed);
+		try (final TurnRecorder recorder = TurnRecorder.open(RECORD_DIRECTORY.resolve(seed + ".rlog"))) {
+			world.getFirstRobot().record(recorder);
+			return play(world);
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Plays a level twice: the first game starts without any knowledge, the second game is
+	 * warm started with the map stored after the first game.
+	 *
+	 * @param generator The generator of the level.
+	 * @param seed The seed of the level.
+	 * @return The result of the second game.
+	 */
+	private static Result replay(final LevelGenerator generator, final long seed) {
+		try {
+			final Path file = Files.createTempFile("robots-map-" + seed, ".bin");
+			try {
+				final DistanceScalingMap map = new DistanceScalingMap();
+				final Result cold = play(generator.generate(seed), new DistancePilot(map), -1);
+				map.export(file);
+
+				final DistancePilot pilot = new DistancePilot(new DistanceScalingMap());
+				pilot.warmStart(MapStore.open(file));
+				return play(generator.generate(seed), pilot, cold.turns);
+			} finally {
+				Files.deleteIfExists(file);
+			}
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Plays a game with the given pilot.
+	 *
+	 * @param world The world of the game.
+	 * @param pilot The pilot of the robot.
+	 * @param coldTurns The number of turns of the game that was played before without any knowledge of the level.
+	 * @return The result of the game.
+	 */
+	private static Result play(final SimulatedWorld world, final DistancePilot pilot, final int coldTurns) {
+		final long start = System.nanoTime();
+		final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		long turnCpu = 0L;
+		long[] turnNanos = new long[1024];
+		int fieldChecks = 0;
+		int fieldMismatches = 0;
+		int turns = 0;
+		int stalled = 0;
+		while (!world.isFinished() && turns < MAX_TURNS && stalled < STALL_TURNS) {
+			// the planning ahead runs on another thread, so only the CPU time of this thread is on the critical path
+			final long cpu = DistancePilot.SPECULATIVE ? threads.getCurrentThreadCpuTime() : 0L;
+			final long time = System.nanoTime();
+			final Step step = pilot.makeTurn(world);
+			if (turns == turnNanos.length)
+				turnNanos = Arrays.copyOf(turnNanos, turns * 2);
+			turnNanos[turns] = System.nanoTime() - time;
+			if (DistancePilot.SPECULATIVE)
+				turnCpu += threads.getCurrentThreadCpuTime() - cpu;
+			if (VERIFY) {
+				final int mismatches = pilot.getMap().verifyField(world.getX(), world.getY());
+				if (mismatches >= 0)
+					fieldChecks++;
+				if (mismatches > 0) {
+					fieldMismatches++;
+					System.err.printf("turn %d: %d tiles of the repaired field differ from a rebuild%n", turns, mismatches);
+				}
+			}
+			// waiting for a plan that is late does not count as stalling
+			stalled = world.apply(step, pilot.getItemToUse()) || pilot.isPlanning() ? 0 : stalled + 1;
+			turns++;
+		}
+
+		return new Result(turns, world.isFinished(), world.getStars(), world.getTotalStars(),
+				System.nanoTime() - start, coldTurns, pilot.getDeadlineMisses(), pilot.getFallbackSteps(),
+				pilot.getMeanFallbackAge(), pilot.getSpeculations(), pilot.getSpeculationHits(), pilot.getSynchronousPlans(),
+				turnCpu, pilot.getSpeculationWaitNanos(), Arrays.copyOf(turnNanos, turns), fieldChecks, fieldMismatches);
+	}
+
+	/**
+	 * Plays a game with a team of robots sharing a {@link TeamMap}, which are placed next to the first robot.
+	 *
+	 * @param world The world of the game.
+	 * @param size The number of robots.
+	 * @return The result of the game.
+	 */
+	private static Result playTeam(final SimulatedWorld world, final int size) {
+		final long start = System.nanoTime();
+		final TeamMap team = new TeamMap();
+		final List<SimulatedWorld.Robot> robots = new ArrayList<>(size);
+		final List<DistancePilot> pilots = new ArrayList<>(size);
+		robots.add(world.getFirstRobot());
+		while (robots.size() < size) {
+			final SimulatedWorld.Robot robot = world.addRobot();
+			if (robot == null)
+				break;
+
+			robots.add(robot);
+		}
+		for (int i = 0; i < robots.size(); i++) {
+			final DistanceScalingMap map = new DistanceScalingMap();
+			map.share(team, i);
+			pilots.add(new DistancePilot(map));
+		}
+
+		int turns = 0;
+		int stalled = 0;
+		while (!world.isFinished() && turns < MAX_TURNS && stalled < TEAM_STALL_TURNS) {
+			boolean changed = false;
+			for (int i = 0; i < robots.size() && !world.isFinished(); i++) {
+				final DistancePilot pilot = pilots.get(i);
+				final Step step = pilot.makeTurn(robots.get(i));
+				changed |= robots.get(i).apply(step, pilot.getItemToUse()) || pilot.isPlanning();
+			}
+			// robots without a goal keep wandering, so the game only goes on while any robot has a goal
+			changed &= team.hasClaims();
+			stalled = changed ? 0 : stalled + 1;
+			turns++;
+		}
+
+		int deadlineMisses = 0;
+		int fallbackSteps = 0;
+		double fallbackAge = 0.0;
+		for (final DistancePilot pilot : pilots) {
+			deadlineMisses += pilot.getDeadlineMisses();
+			fallbackSteps += pilot.getFallbackSteps();
+			fallbackAge += pilot.getMeanFallbackAge() * pilot.getFallbackSteps();
+		}
+
+		return new Result(turns, world.isFinished(), world.getStars(), world.getTotalStars(),
+				System.nanoTime() - start, -1, deadlineMisses, fallbackSteps,
+				fallbackSteps == 0 ? 0.0 : fallbackAge / fallbackSteps, 0, 0, 0, 0L, 0L, new long[0], 0, 0);
+	}
+
+	private static void report(final List<Result> results, final long elapsed) {
+		final int[] turns = results.stream().filter(result -> result.finished).mapToInt(result -> result.turns).toArray();
+		Arrays.sort(turns);
+		final long totalTurns = results.stream().mapToLong(result -> result.turns).sum();
+		final long totalNanos = results.stream().mapToLong(result -> result.nanos).sum();
+		final long stars = results.stream().mapToLong(result -> result.stars).sum();
+		final long totalStars = results.stream().mapToLong(result -> result.totalStars).sum();
+
+		System.out.printf("games:               %d on %d threads, %dx%d, %d%% open%n", results.size(), THREADS, SIZE, SIZE, OPENNESS);
+		if (TEAM > 1)
+			System.out.printf("team:                %d robots sharing their map%n", TEAM);
+		System.out.printf("completed:           %d (%d of %d stars)%n", turns.length, stars, totalStars);
+		if (turns.length > 0) {
+			System.out.printf("turns to completion: mean %.1f, median %d, p95 %d, max %d%n",
+					Arrays.stream(turns).average().getAsDouble(), turns[turns.length / 2],
+					turns[(int) Math.ceil(turns.length * 0.95) - 1], turns[turns.length - 1]);
+		}
+		if (REPLAY) {
+			System.out.printf("turns without store: mean %.1f (warm started mean %.1f)%n",
+					results.stream().mapToInt(result -> result.coldTurns).average().orElse(0.0),
+					results.stream().mapToInt(result -> result.turns).average().orElse(0.0));
+		}
+		if (DistancePilot.DEADLINE_NANOS > 0) {
+			final long misses = results.stream().mapToLong(result -> result.deadlineMisses).sum();
+			final long fallbackSteps = results.stream().mapToLong(result -> result.fallbackSteps).sum();
+			final double fallbackAge = results.stream().mapToDouble(result -> result.meanFallbackAge * result.fallbackSteps).sum();
+			System.out.printf("deadline misses:     %d of %d turns, %d fallback steps of mean age %.1f turns%n",
+					misses, totalTurns, fallbackSteps, fallbackSteps == 0 ? 0.0 : fallbackAge / fallbackSteps);
+		}
+		System.out.printf("wall time per turn:  %.2f us%n", totalTurns == 0 ? 0.0 : totalNanos / 1000.0 / totalTurns);
+		final long[] turnNanos = results.stream().flatMapToLong(result -> Arrays.stream(result.turnNanos)).sorted().toArray();
+		if (turnNanos.length > 0) {
+			// measured around makeTurn, so a turn waiting for the planning ahead counts the wait
+			System.out.printf("turn wall latency:   p50 %.1f, p90 %.1f, p99 %.1f, max %.1f us%n",
+					turnNanos[turnNanos.length / 2] / 1000.0, turnNanos[(int) (turnNanos.length * 0.9)] / 1000.0,
+					turnNanos[(int) (turnNanos.length * 0.99)] / 1000.0, turnNanos[turnNanos.length - 1] / 1000.0);
+		}
+		if (DistancePilot.SPECULATIVE) {
+			final long speculations = results.stream().mapToLong(result -> result.speculations).sum();
+			final long hits = results.stream().mapToLong(result -> result.speculationHits).sum();
+			final long synchronous = results.stream().mapToLong(result -> result.synchronousPlans).sum();
+			final long turnCpu = results.stream().mapToLong(result -> result.turnCpuNanos).sum();
+			final long wait = results.stream().mapToLong(result -> result.speculationWaitNanos).sum();
+			System.out.printf("planned ahead:       %d of %d turns, %.1f%% as expected, %d planned synchronously%n",
+					speculations, totalTurns, speculations == 0 ? 0.0 : 100.0 * hits / speculations, synchronous);
+			System.out.printf("critical path:       %.2f us CPU time of the turn per turn, %.2f us waited for the plan ahead%n",
+					totalTurns == 0 ? 0.0 : turnCpu / 1000.0 / totalTurns, totalTurns == 0 ? 0.0 : wait / 1000.0 / totalTurns);
+		}
+		if (VERIFY) {
+			final long checks = results.stream().mapToLong(result -> result.fieldChecks).sum();
+			final long mismatches = results.stream().mapToLong(result -> result.fieldMismatches).sum();
+			System.out.printf("field repairs:       %d of %d turns compared with a rebuild, %d differed%n",
+					checks, totalTurns, mismatches);
+		}
+		System.out.printf("games per second:    %.1f%n", results.size() / (elapsed / 1e9));
+	}
+
+	/**
+	 * The result of a single game.
+	 */
+	static final class Result {
+
+		/**
+		 * The number of turns played.
+		 */
+		public final int turns;
+
+		/**
+		 * Whether every star was picked up.
+		 */
+		public final boolean finished;
+
+		/**
+		 * The number of stars picked up.
+		 */
+		public final int stars;
+
+		/**
+		 * The number of stars in the world.
+		 */
+		public final int totalStars;
+
+		/**
+		 * The wall time of all turns in nanoseconds.
+		 */
+		public final long nanos;
+
+		/**
+		 * The number of turns of the same level played without a stored map, <code>-1</code>
+		 * if the game was not replayed.
+		 */
+		public final int coldTurns;
+
+		/**
+		 * The number of turns whose plan was not done before the deadline.
+		 */
+		public final int deadlineMisses;
+
+		/**
+		 * The number of steps taken from an older plan after a missed deadline.
+		 */
+		public final int fallbackSteps;
+
+		/**
+		 * The mean age in turns of the plans the fallback steps were taken from.
+		 */
+		public final double meanFallbackAge;
+
+		/**
+		 * The number of turns planned ahead in the background.
+		 */
+		public final int speculations;
+
+		/**
+		 * The number of turns planned ahead whose step turned out as expected.
+		 */
+		public final int speculationHits;
+
+		/**
+		 * The number of turns planned synchronously although planning ahead was enabled.
+		 */
+		public final int synchronousPlans;
+
+		/**
+		 * The CPU time in nanoseconds spent by the thread deciding the turns, if turns were planned ahead.
+		 */
+		public final long turnCpuNanos;
+
+		/**
+		 * The nanoseconds the turns waited for the planning ahead in the background.
+		 */
+		public final long speculationWaitNanos;
+
+		/**
+		 * The wall time of every call of {@link DistancePilot#makeTurn(RobotView)} in nanoseconds,
+		 * empty for a team.
+		 */
+		public final long[] turnNanos;
+
+		/**
+		 * The number of turns whose repaired distance field was compared with a rebuild.
+		 */
+		public final int fieldChecks;
+
+		/**
+		 * The number of turns whose repaired distance field differed from a rebuild.
+		 */
+		public final int fieldMismatches;
+
+		public Result(final int turns, final boolean finished, final int stars, final int totalStars,
+				final long nanos, final int coldTurns, final int deadlineMisses, final int fallbackSteps,
+				final double meanFallbackAge, final int speculations, final int speculationHits,
+				final int synchronousPlans, final long turnCpuNanos, final long speculationWaitNanos, final long[] turnNanos,
+				final int fieldChecks, final int fieldMismatches) {
+			this.turns = turns;
+			this.finished = finished;
+			this.stars = stars;
+			this.totalStars = totalStars;
+			this.nanos = nanos;
+			this.coldTurns = coldTurns;
+			this.deadlineMisses = deadlineMisses;
+			this.fallbackSteps = fallbackSteps;
+			this.meanFallbackAge = meanFallbackAge;
+			this.speculations = speculations;
+			this.speculationHits = speculationHits;
+			this.synchronousPlans = synchronousPlans;
+			this.turnCpuNanos = turnCpuNanos;
+			this.speculationWaitNanos = speculationWaitNanos;
+			this.turnNanos = turnNanos;
+			this.fieldChecks = fieldChecks;
+			this.fieldMismatches = fieldMismatches;
+		}
+	}
+}
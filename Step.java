@@ -0,0 +1,59 @@
+/*
+ * KIT Schnupperstudium Robots AIs
+ * Copyright (C) 2019  Simon Grossmann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.schnupperstudium.robots.client.ai.hidden;
+
+import com.github.schnupperstudium.robots.ai.action.EntityAction;
+
+/**
+ * The steps a {@link DistancePilot} can decide on. Every step corresponds to one of the
+ * {@link EntityAction entity actions} of the framework, but does not need a client to be created.
+ */
+enum Step {
+
+	/**
+	 * Do nothing.
+	 */
+	NONE,
+
+	/**
+	 * Pick up the item beneath the robot.
+	 */
+	PICK_UP,
+
+	/**
+	 * Turn to the left.
+	 */
+	TURN_LEFT,
+
+	/**
+	 * Turn to the right.
+	 */
+	TURN_RIGHT,
+
+	/**
+	 * Move to the tile in front of the robot.
+	 */
+	MOVE_FORWARD,
+
+	/**
+	 * Use an item of the inventory on the tile in front of the robot.
+	 * The name of the item is given by {@link DistancePilot#getItemToUse()}.
+	 */
+	USE_ITEM
+}
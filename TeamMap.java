@@ -0,0 +1,567 @@
+/*
+ * KIT Schnupperstudium Robots AIs
+ * Copyright (C) 2019  Simon Grossmann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.schnupperstudium.robots.client.ai.hidden;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.schnupperstudium.robots.world.Material;
+
+/**
+ * The knowledge shared by a team of robots playing the same game. Every {@link DistanceScalingMap}
+ * of the team {@link #publish(VisionBuffer) publishes} the tiles that changed in its vision and
+ * {@link #read(long, VisionBuffer) reads} the tiles the others published, so every robot plans
+ * with everything the team has seen.
+ * <br><br>
+ * The tiles are stored in world coordinates, since the grid indices of every robot differ, and
+ * grouped into chunks of {@value TileGrid#CHUNK_SIZE} x {@value TileGrid#CHUNK_SIZE} tiles like
+ * in a {@link TileGrid}. Every chunk is locked on its own, so robots exploring different parts of
+ * the world never wait for each other. Every write stamps its chunk with a new version from a
+ * global counter, so a reader only copies the chunks written since its last read.
+ * <br><br>
+ * Besides the tiles, every robot can {@link #claim(long, int, int) claim} the goal it heads for.
+ * A robot avoids the goals claimed by robots with a lower id, so two robots never chase the
+ * same star while the robot with the lower id always keeps its goal. Every robot also
+ * {@link #locate(long, int, int, int, int) tells} where it stands and steps to, so a robot
+ * can walk through the robots which {@link #isGivingWay(long, int, int) give way} to it: the
+ * robots with a higher id and the robots without a goal. If such a robot is
+ * {@link #isStuck(long, int, int) stuck}, the robot backs out instead.
+ * <br><br>
+ * The positions and claims are held in slots, which are allocated once and reused, so telling
+ * the position every turn allocates nothing. Since robots leave a game without notice, the slot
+ * of a robot which did not tell its position for some rounds of the team is dropped together
+ * with its claim.
+ */
+final class TeamMap {
+
+	/**
+	 * The team maps of the running games by their id. The maps are only referenced weakly,
+	 * so the map of a game is dropped once none of its robots is left.
+	 */
+	private static final Map<Long, WeakReference<TeamMap>> TEAMS = new ConcurrentHashMap<>();
+
+	/**
+	 * All materials, indexed by their ordinal.
+	 */
+	private static final Material[] MATERIALS = Material.values();
+
+	private static final byte UNDEFINED = (byte) Material.UNDEFINED.ordinal();
+
+	private static final int CHUNK_MASK = TileGrid.CHUNK_SIZE - 1;
+
+	/**
+	 * The number of slots allocated for a new team.
+	 */
+	private static final int INITIAL_SLOTS = 4;
+
+	/**
+	 * The number of rounds of the team after which a robot that did not tell its position
+	 * has left the game.
+	 */
+	private static final int STALE_ROUNDS = 8;
+
+	/**
+	 * The number of turns a robot may stand on the same tile before it is {@link #isStuck(long, int, int) stuck}.
+	 */
+	private static final int STUCK_TURNS = 4;
+
+	/**
+	 * The chunks of the map by their packed chunk coordinates.
+	 */
+	private final Map<Long, Chunk> chunks;
+
+	/**
+	 * The counter stamping every write.
+	 */
+	private final AtomicLong version;
+
+	/**
+	 * The counter increased with every change of the claims.
+	 */
+	private final AtomicInteger claimVersion;
+
+	/**
+	 * The slots holding the position and the claim of every robot, which are only replaced
+	 * when the team grows.
+	 */
+	private volatile Slot[] slots;
+
+	/**
+	 * The counter stamping every locate, which ages the slots of the robots that left.
+	 */
+	private final AtomicLong clock;
+
+	/**
+	 * Creates a new, empty {@link TeamMap}.
+	 */
+	TeamMap() {
+		this.chunks = new ConcurrentHashMap<>();
+		this.version = new AtomicLong();
+		this.claimVersion = new AtomicInteger();
+		this.slots = new Slot[INITIAL_SLOTS];
+		for (int i = 0; i < INITIAL_SLOTS; i++) {
+			this.slots[i] = new Slot();
+		}
+		this.clock = new AtomicLong();
+	}
+
+	/**
+	 * Returns the team map of a game, which is created by the first robot asking for it.
+	 *
+	 * @param gameId The id of the game.
+	 * @return The team map of the game.
+	 */
+	static TeamMap of(final long gameId) {
+		TEAMS.values().removeIf(reference -> reference.get() == null);
+		while (true) {
+			final WeakReference<TeamMap> reference = TEAMS.computeIfAbsent(gameId, id -> new WeakReference<>(new TeamMap()));
+			final TeamMap team = reference.get();
+			if (team != null)
+				return team;
+
+			TEAMS.remove(gameId, reference);
+		}
+	}
+
+	/**
+	 * Writes the tiles of a {@link VisionBuffer} to the map. The lock of a chunk is held while
+	 * consecutive tiles of the buffer lie in it, so a vision is written with one lock per chunk.
+	 * Robots are not part of the shared tiles, since they move every turn.
+	 *
+	 * @param tiles The tiles to write.
+	 */
+	void publish(final VisionBuffer tiles) {
+		int i = 0;
+		while (i < tiles.size()) {
+			final Chunk chunk = this.getChunk(tiles.getX(i) >> TileGrid.CHUNK_BITS, tiles.getY(i) >> TileGrid.CHUNK_BITS);
+			synchronized (chunk) {
+				do {
+					final int cell = (tiles.getX(i) & CHUNK_MASK) << TileGrid.CHUNK_BITS | tiles.getY(i) & CHUNK_MASK;
+					chunk.materials[cell] = (byte) tiles.getMaterial(i).ordinal();
+					chunk.items[cell] = (byte) tiles.getItem(i);
+					chunk.visitors[cell] = (byte) (tiles.getVisitor(i) == EntityKinds.OTHER_VISITOR ? EntityKinds.NONE : tiles.getVisitor(i));
+					i++;
+				} while (i < tiles.size() && tiles.getX(i) >> TileGrid.CHUNK_BITS == chunk.x
+						&& tiles.getY(i) >> TileGrid.CHUNK_BITS == chunk.y);
+
+				// the stamp is taken last, so a reader never misses a write that finishes after its read
+				chunk.version = this.version.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Copies every known tile of the chunks written after the given version to a {@link VisionBuffer}.
+	 *
+	 * @param since The version returned by the previous read or <code>0</code> for the first read.
+	 * @param tiles The buffer to copy the tiles to, which is cleared first.
+	 * @return The version to pass to the next read.
+	 */
+	long read(final long since, final VisionBuffer tiles) {
+		tiles.clear();
+		final long version = this.version.get();
+		for (final Chunk chunk : this.chunks.values()) {
+			if (chunk.version <= since)
+				continue;
+
+			synchronized (chunk) {
+				for (int cell = 0; cell < TileGrid.CHUNK_CELLS; cell++) {
+					if (chunk.materials[cell] == UNDEFINED)
+						continue;
+
+					tiles.add(chunk.x << TileGrid.CHUNK_BITS | cell >>> TileGrid.CHUNK_BITS,
+							chunk.y << TileGrid.CHUNK_BITS | cell & CHUNK_MASK,
+							MATERIALS[chunk.materials[cell]], chunk.items[cell], chunk.visitors[cell]);
+				}
+			}
+		}
+
+		return version;
+	}
+
+	/**
+	 * Sets the goal a robot heads for.
+	 *
+	 * @param robot The id of the robot.
+	 * @param x The x coordinate of the goal.
+	 * @param y The y coordinate of the goal.
+	 */
+	void claim(final long robot, final int x, final int y) {
+		final long goal = pack(x, y);
+		final Slot slot = this.getSlot(robot);
+		synchronized (slot) {
+			if (slot.claimed && slot.goal == goal)
+				return;
+
+			slot.goal = goal;
+			slot.claimed = true;
+		}
+		this.claimVersion.incrementAndGet();
+	}
+
+	/**
+	 * Removes the goal of a robot.
+	 *
+	 * @param robot The id of the robot.
+	 */
+	void release(final long robot) {
+		final Slot slot = this.getSlot(robot);
+		synchronized (slot) {
+			if (!slot.claimed)
+				return;
+
+			slot.claimed = false;
+		}
+		this.claimVersion.incrementAndGet();
+	}
+
+	/**
+	 * Returns the version of the claims, which changes whenever a robot claims another goal.
+	 *
+	 * @return The version of the claims.
+	 */
+	int getClaimVersion() {
+		return this.claimVersion.get();
+	}
+
+	/**
+	 * Checks whether any robot of the team claims a goal.
+	 *
+	 * @return <code>True</code> if a goal is claimed, <code>false</code> otherwise.
+	 */
+	boolean hasClaims() {
+		for (final Slot slot : this.slots) {
+			synchronized (slot) {
+				if (slot.used && slot.claimed)
+					return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Copies the goals claimed by the robots with a lower id than the given robot as packed
+	 * coordinates to an array. At most as many goals as the array holds are copied.
+	 *
+	 * @param robot The id of the robot.
+	 * @param goals The array to copy the goals to.
+	 * @return The number of goals copied.
+	 */
+	int readClaims(final long robot, final long[] goals) {
+		int count = 0;
+		for (final Slot slot : this.slots) {
+			if (count == goals.length)
+				break;
+
+			synchronized (slot) {
+				if (slot.used && slot.claimed && slot.robot < robot)
+					goals[count++] = slot.goal;
+			}
+		}
+
+		return count;
+	}
+
+	/**
+	 * Sets the tile a robot stands on and the tile it steps to next. Every robot of the team
+	 * is expected to do so once per turn, so the robots which did not for
+	 * {@value #STALE_ROUNDS} rounds of the team have left the game: their positions and
+	 * claims are dropped.
+	 *
+	 * @param robot The id of the robot.
+	 * @param x The x coordinate of the robot.
+	 * @param y The y coordinate of the robot.
+	 * @param nextX The x coordinate of the next tile of the robot.
+	 * @param nextY The y coordinate of the next tile of the robot.
+	 */
+	void locate(final long robot, final int x, final int y, final int nextX, final int nextY) {
+		final long position = pack(x, y);
+		final long next = pack(nextX, nextY);
+		final long stamp = this.clock.incrementAndGet();
+		while (true) {
+			final Slot slot = this.getSlot(robot);
+			synchronized (slot) {
+				// the slot may have been dropped in the meantime
+				if (!slot.used || slot.robot != robot)
+					continue;
+
+				slot.still = slot.located && slot.position == position ? slot.still + 1 : 0;
+				slot.position = position;
+				slot.next = next;
+				slot.located = true;
+				slot.stamp = stamp;
+				break;
+			}
+		}
+
+		this.dropStale(stamp);
+	}
+
+	/**
+	 * Checks whether a robot that gives way to the given robot stands on a tile or steps to it
+	 * next. The robots with a higher id give way to the robots with a lower id, and the robots
+	 * without a goal give way to all others, since they have nowhere to go.
+	 *
+	 * @param robot The id of the robot.
+	 * @param x The x coordinate of the tile.
+	 * @param y The y coordinate of the tile.
+	 * @return <code>True</code> if a robot giving way is on the tile, <code>false</code> otherwise.
+	 */
+	boolean isGivingWay(final long robot, final int x, final int y) {
+		final long tile = pack(x, y);
+		for (final Slot slot : this.slots) {
+			synchronized (slot) {
+				if (slot.isGivingWay(robot) && (slot.position == tile || slot.next == tile))
+					return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Checks whether a robot that {@link #isGivingWay(long, int, int) gives way} to the given robot
+	 * stood on a tile for more than {@value #STUCK_TURNS} turns. Such a robot can not make way,
+	 * for example since it waits in a dead end in front of the given robot.
+	 *
+	 * @param robot The id of the robot.
+	 * @param x The x coordinate of the tile.
+	 * @param y The y coordinate of the tile.
+	 * @return <code>True</code> if a robot giving way is stuck on the tile, <code>false</code> otherwise.
+	 */
+	boolean isStuck(final long robot, final int x, final int y) {
+		final long tile = pack(x, y);
+		for (final Slot slot : this.slots) {
+			synchronized (slot) {
+				if (slot.isGivingWay(robot) && slot.position == tile && slot.still > STUCK_TURNS)
+					return true;
+			}
+		}
+
+		return false;
+	}
+
+	static int unpackX(final long packed) {
+		return (int) (packed >> 32);
+	}
+
+	static int unpackY(final long packed) {
+		return (int) packed;
+	}
+
+	private static long pack(final int x, final int y) {
+		return (long) x << 32 | y & 0xFFFFFFFFL;
+	}
+
+	private Chunk getChunk(final int x, final int y) {
+		return this.chunks.computeIfAbsent(pack(x, y), key -> new Chunk(x, y));
+	}
+
+	/**
+	 * Returns the slot of a robot. A robot without a slot takes a free one, and if there is none,
+	 * the slots are doubled. Since robots rarely join a team, the slots are only locked for that.
+	 *
+	 * @param robot The id of the robot.
+	 * @return The slot of the robot.
+	 */
+	private Slot getSlot(final long robot) {
+		final Slot slot = this.findSlot(robot);
+		if (slot != null)
+			return slot;
+
+		synchronized (this) {
+			final Slot joined = this.findSlot(robot);
+			if (joined != null)
+				return joined;
+
+			for (final Slot free : this.slots) {
+				synchronized (free) {
+					if (!free.used) {
+						free.join(robot, this.clock.get());
+						return free;
+					}
+				}
+			}
+
+			final Slot[] slots = Arrays.copyOf(this.slots, this.slots.length * 2);
+			for (int i = this.slots.length; i < slots.length; i++) {
+				slots[i] = new Slot();
+			}
+			final Slot free = slots[this.slots.length];
+			synchronized (free) {
+				free.join(robot, this.clock.get());
+			}
+			this.slots = slots;
+			return free;
+		}
+	}
+
+	private Slot findSlot(final long robot) {
+		for (final Slot slot : this.slots) {
+			synchronized (slot) {
+				if (slot.used && slot.robot == robot)
+					return slot;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Drops the slots of the robots which did not locate themselves for {@value #STALE_ROUNDS}
+	 * rounds of the team, that is as many locates of the others as there are slots.
+	 *
+	 * @param clock The stamp of the latest locate.
+	 */
+	private void dropStale(final long clock) {
+		final Slot[] slots = this.slots;
+		final long limit = (long) STALE_ROUNDS * slots.length;
+		for (final Slot slot : slots) {
+			final boolean released;
+			synchronized (slot) {
+				if (!slot.used || clock - slot.stamp <= limit)
+					continue;
+
+				released = slot.claimed;
+				slot.used = false;
+			}
+			if (released)
+				this.claimVersion.incrementAndGet();
+		}
+	}
+
+	/**
+	 * A chunk of {@value TileGrid#CHUNK_SIZE} x {@value TileGrid#CHUNK_SIZE} tiles of the
+	 * {@link TeamMap}, which is locked on itself.
+	 */
+	private static final class Chunk {
+
+		/**
+		 * The chunk coordinates.
+		 */
+		public final int x;
+
+		public final int y;
+
+		/**
+		 * The material ordinal of every tile.
+		 */
+		public final byte[] materials;
+
+		/**
+		 * The item kind of every tile.
+		 */
+		public final byte[] items;
+
+		/**
+		 * The visitor kind of every tile.
+		 */
+		public final byte[] visitors;
+
+		/**
+		 * The stamp of the last write.
+		 */
+		public volatile long version;
+
+		public Chunk(final int x, final int y) {
+			this.x = x;
+			this.y = y;
+			this.materials = new byte[TileGrid.CHUNK_CELLS];
+			this.items = new byte[TileGrid.CHUNK_CELLS];
+			this.visitors = new byte[TileGrid.CHUNK_CELLS];
+			Arrays.fill(this.materials, UNDEFINED);
+		}
+	}
+
+	/**
+	 * The position and the claim of a robot of the team, which is locked on itself. Slots are
+	 * reused once their robot left the team, so they are allocated only when the team grows.
+	 */
+	private static final class Slot {
+
+		/**
+		 * Whether the slot belongs to a robot.
+		 */
+		public boolean used;
+
+		/**
+		 * The id of the robot.
+		 */
+		public long robot;
+
+		/**
+		 * Whether the robot told its position yet.
+		 */
+		public boolean located;
+
+		/**
+		 * The packed coordinates of the tile of the robot and of the tile it steps to next.
+		 */
+		public long position;
+
+		public long next;
+
+		/**
+		 * The number of locates in a row the robot stood on the same tile.
+		 */
+		public int still;
+
+		/**
+		 * Whether the robot claims a goal and the packed coordinates of the goal.
+		 */
+		public boolean claimed;
+
+		public long goal;
+
+		/**
+		 * The stamp of the last locate of the robot.
+		 */
+		public long stamp;
+
+		/**
+		 * Checks whether the robot of the slot gives way to another robot.
+		 *
+		 * @param robot The id of the other robot.
+		 * @return <code>True</code> if the robot gives way, <code>false</code> otherwise.
+		 */
+		public boolean isGivingWay(final long robot) {
+			return this.used && this.located && this.robot != robot && (this.robot > robot || !this.claimed);
+		}
+
+		/**
+		 * Assigns the slot to a robot.
+		 *
+		 * @param robot The id of the robot.
+		 * @param stamp The current stamp, so the robot is not dropped before its first locate.
+		 */
+		public void join(final long robot, final long stamp) {
+			this.used = true;
+			this.robot = robot;
+			this.located = false;
+			this.still = 0;
+			this.claimed = false;
+			this.stamp = stamp;
+		}
+	}
+}
@@ -0,0 +1,851 @@
+/*
+ * KIT Schnupperstudium Robots AIs
+ * Copyright (C) 2019  Simon Grossmann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.schnupperstudium.robots.client.ai.hidden;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+import com.github.schnupperstudium.robots.entity.Facing;
+import com.github.schnupperstudium.robots.entity.Item;
+import com.github.schnupperstudium.robots.entity.LivingEntity;
+import com.github.schnupperstudium.robots.world.Material;
+import com.github.schnupperstudium.robots.world.Tile;
+
+/**
+ * The primitive backing store of a {@link DistanceScalingMap}.
+ * <br><br>
+ * The grid is split into {@link Chunk chunks} of {@value #CHUNK_SIZE} x {@value #CHUNK_SIZE}
+ * cells. Instead of holding one {@link Tile} object per cell, every property needed by the
+ * path finding is kept in its own flat array of the chunk, indexed by <code>x * height + y</code>
+ * relative to the origin of the chunk. The only object references kept are the items and
+ * visitors of the cells, which are needed to answer {@link DistanceScalingMap#getTile(int, int)}.
+ * <br><br>
+ * Chunks are numbered in the order they are allocated and never move, so the index of a cell,
+ * which is made up of the chunk number and the position within the chunk, stays valid while
+ * the grid grows. The chunks are located through a directory that grows geometrically, which
+ * means growing the grid only costs the allocation of the new chunks.
+ * <br><br>
+ * The grid keeps track of the chunks whose cells changed, so that an immutable
+ * {@link #snapshot(TileGrid, boolean) snapshot} of the grid only has to copy those chunks
+ * and can share all other chunks with the previous snapshot.
+ */
+final class TileGrid {
+
+	/**
+	 * The index returned for coordinates outside of the grid.
+	 */
+	static final int NO_INDEX = -1;
+
+	/**
+	 * Flag marking a cell that can not be visited.
+	 */
+	static final byte FLAG_BLOCKED = 0x01;
+
+	/**
+	 * The number of bits needed to address a column or row within a chunk.
+	 */
+	static final int CHUNK_BITS = 4;
+
+	/**
+	 * The number of columns and rows of a chunk.
+	 */
+	static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+	/**
+	 * The number of cells in a chunk.
+	 */
+	static final int CHUNK_CELLS = CHUNK_SIZE * CHUNK_SIZE;
+
+	/**
+	 * The mask of a column or row within a chunk.
+	 */
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	/**
+	 * All materials, indexed by their ordinal.
+	 */
+	private static final Material[] MATERIALS = Material.values();
+
+	/**
+	 * Whether a material can be visited if there is no visitor on it, indexed by the ordinal.
+	 */
+	private static final boolean[] VISITABLE = new boolean[MATERIALS.length];
+
+	/**
+	 * The ordinal of {@link Material#UNDEFINED}.
+	 */
+	private static final byte UNDEFINED = (byte) Material.UNDEFINED.ordinal();
+
+	/**
+	 * The ordinal of {@link Material#VOID}.
+	 */
+	private static final byte VOID = (byte) Material.VOID.ordinal();
+
+	/**
+	 * The handle to set the values of the cells atomically.
+	 */
+	private static final VarHandle VALUES = MethodHandles.arrayElementVarHandle(int[].class);
+
+	/**
+	 * The chunks of the grid, indexed by their number.
+	 */
+	private Chunk[] chunks;
+
+	/**
+	 * The number of allocated chunks.
+	 */
+	private int chunkCount;
+
+	/**
+	 * The chunk numbers of the directory, indexed by <code>column * rows + row</code>.
+	 */
+	private int[] directory;
+
+	/**
+	 * The chunk column of the first directory column.
+	 */
+	private int directoryX;
+
+	/**
+	 * The chunk row of the first directory row.
+	 */
+	private int directoryY;
+
+	/**
+	 * The number of columns of the directory.
+	 */
+	private int directoryColumns;
+
+	/**
+	 * The number of rows of the directory.
+	 */
+	private int directoryRows;
+
+	/**
+	 * The chunks whose cells changed since the last snapshot, one bit per chunk number.
+	 */
+	private long[] dirtyChunks;
+
+	/**
+	 * Whether the directory changed since the last snapshot.
+	 */
+	private boolean directoryChanged;
+
+	/**
+	 * Whether the grid holds the path finding values of its cells. Snapshots may be taken without them.
+	 */
+	private boolean values;
+
+	/**
+	 * Probes the materials for whether they can be visited.
+	 */
+	static {
+		for (final Material material : MATERIALS) {
+			VISITABLE[material.ordinal()] = new Tile(null, 0, 0, material) { }.canVisit();
+		}
+	}
+
+	/**
+	 * Checks whether a material can be visited if there is no visitor on it.
+	 *
+	 * @param material The material to check.
+	 * @return <code>True</code> if the material can be visited, <code>false</code> otherwise.
+	 */
+	static boolean isVisitable(final Material material) {
+		return VISITABLE[material.ordinal()];
+	}
+
+	/**
+	 * Creates a new, empty {@link TileGrid}.
+	 */
+	TileGrid() {
+		this.chunks = new Chunk[16];
+		this.directory = new int[0];
+		this.dirtyChunks = new long[1];
+		this.values = true;
+	}
+
+	/**
+	 * Returns the number of cell indices in use, which is an exclusive upper bound
+	 * for every index in the grid.
+	 *
+	 * @return The number of cells.
+	 */
+	int size() {
+		return this.chunkCount * CHUNK_CELLS;
+	}
+
+	/**
+	 * Returns the index of the cell with the given coordinates.
+	 *
+	 * @param x The x coordinate of the cell.
+	 * @param y The y coordinate of the cell.
+	 * @return The index of the cell or {@link #NO_INDEX} if it is outside of the grid.
+	 */
+	int index(final int x, final int y) {
+		final int chunk = this.getChunk(x >> CHUNK_BITS, y >> CHUNK_BITS);
+		if (chunk == NO_INDEX)
+			return NO_INDEX;
+
+		return chunk << 2 * CHUNK_BITS | (x & CHUNK_MASK) << CHUNK_BITS | y & CHUNK_MASK;
+	}
+
+	/**
+	 * Returns the x coordinate of a cell.
+	 *
+	 * @param index The index of the cell.
+	 * @return The x coordinate of the cell.
+	 */
+	int getX(final int index) {
+		return this.chunks[index >>> 2 * CHUNK_BITS].x << CHUNK_BITS | (index >>> CHUNK_BITS) & CHUNK_MASK;
+	}
+
+	/**
+	 * Returns the y coordinate of a cell.
+	 *
+	 * @param index The index of the cell.
+	 * @return The y coordinate of the cell.
+	 */
+	int getY(final int index) {
+		return this.chunks[index >>> 2 * CHUNK_BITS].y << CHUNK_BITS | index & CHUNK_MASK;
+	}
+
+	/**
+	 * Returns the index of the neighbor of a cell.
+	 *
+	 * @param index The index of the cell.
+	 * @param facing The direction of the neighbor.
+	 * @return The index of the neighbor or {@link #NO_INDEX} if it is outside of the grid.
+	 */
+	int neighbor(final int index, final Facing facing) {
+		final int i = (index >>> CHUNK_BITS & CHUNK_MASK) + facing.dx;
+		final int j = (index & CHUNK_MASK) + facing.dy;
+		if (((i | j) & ~CHUNK_MASK) == 0)
+			return index & ~(CHUNK_CELLS - 1) | i << CHUNK_BITS | j;
+
+		final Chunk chunk = this.chunks[index >>> 2 * CHUNK_BITS];
+		final int neighbor = this.getChunk(chunk.x + facing.dx, chunk.y + facing.dy);
+		if (neighbor == NO_INDEX)
+			return NO_INDEX;
+
+		return neighbor << 2 * CHUNK_BITS | (i & CHUNK_MASK) << CHUNK_BITS | j & CHUNK_MASK;
+	}
+
+	/**
+	 * Makes sure all cells in the given rectangle are part of the grid. Cells that are
+	 * added to the grid are undefined.
+	 *
+	 * @param minX The minimum x coordinate.
+	 * @param minY The minimum y coordinate.
+	 * @param maxX The maximum x coordinate.
+	 * @param maxY The maximum y coordinate.
+	 */
+	void allocate(final int minX, final int minY, final int maxX, final int maxY) {
+		final int minChunkX = minX >> CHUNK_BITS;
+		final int minChunkY = minY >> CHUNK_BITS;
+		final int maxChunkX = maxX >> CHUNK_BITS;
+		final int maxChunkY = maxY >> CHUNK_BITS;
+		this.growDirectory(minChunkX, minChunkY, maxChunkX, maxChunkY);
+
+		for (int x = minChunkX; x <= maxChunkX; x++) {
+			for (int y = minChunkY; y <= maxChunkY; y++) {
+				final int slot = (x - this.directoryX) * this.directoryRows + y - this.directoryY;
+				if (this.directory[slot] != NO_INDEX)
+					continue;
+
+				if (this.chunkCount == this.chunks.length)
+					this.chunks = Arrays.copyOf(this.chunks, this.chunkCount * 2);
+
+				this.chunks[this.chunkCount] = new Chunk(x, y);
+				this.directory[slot] = this.chunkCount++;
+				this.directoryChanged = true;
+			}
+		}
+	}
+
+	/**
+	 * Updates a cell to mirror the given {@link Tile tile} on the map.
+	 *
+	 * @param index The index of the cell.
+	 * @param tile The tile on the map.
+	 * @return <code>True</code> if the material, the visitor kind or the item kind
+	 * 		of the cell changed, <code>false</code> otherwise.
+	 */
+	boolean update(final int index, final Tile tile) {
+		final boolean changed = this.update(index, tile.getMaterial(),
+				EntityKinds.itemKind(tile.getItem()), EntityKinds.visitorKind(tile.getVisitor()));
+
+		final Chunk chunk = this.chunks[index >>> 2 * CHUNK_BITS];
+		final int cell = index & CHUNK_CELLS - 1;
+		if (tile.hasItem() || chunk.items != null)
+			chunk.items()[cell] = tile.getItem();
+		if (tile.hasVisitor() || chunk.visitors != null)
+			chunk.visitors()[cell] = tile.getVisitor();
+
+		return changed;
+	}
+
+	/**
+	 * Updates a cell with the given material and {@link EntityKinds entity kinds}. The cell
+	 * does not hold any item or visitor objects afterwards.
+	 *
+	 * @param index The index of the cell.
+	 * @param material The material of the cell.
+	 * @param item The kind of the item on the cell.
+	 * @param visitor The kind of the visitor on the cell.
+	 * @return <code>True</code> if the material, the visitor kind or the item kind
+	 * 		of the cell changed, <code>false</code> otherwise.
+	 */
+	boolean update(final int index, final Material material, final int item, final int visitor) {
+		final byte ordinal = (byte) material.ordinal();
+		final byte flags = !VISITABLE[ordinal] || visitor != EntityKinds.NONE ? FLAG_BLOCKED : 0;
+
+		final Chunk chunk = this.chunks[index >>> 2 * CHUNK_BITS];
+		final int cell = index & CHUNK_CELLS - 1;
+		final boolean changed = chunk.materials[cell] != ordinal || chunk.flags[cell] != flags
+				|| chunk.itemKinds[cell] != item || chunk.visitorKinds[cell] != visitor;
+		// the objects on the cell may change without their kinds, so the chunk is always copied
+		this.markDirty(index);
+		if (item == EntityKinds.NONE && chunk.itemKinds[cell] != EntityKinds.NONE
+				|| visitor == EntityKinds.NONE && chunk.visitorKinds[cell] != EntityKinds.NONE)
+			chunk.remember(cell);
+		chunk.materials[cell] = ordinal;
+		chunk.flags[cell] = flags;
+		chunk.itemKinds[cell] = (byte) item;
+		chunk.visitorKinds[cell] = (byte) visitor;
+		if (chunk.items != null)
+			chunk.items[cell] = null;
+		if (chunk.visitors != null)
+			chunk.visitors[cell] = null;
+
+		return changed;
+	}
+
+	/**
+	 * Removes the visitor of a cell.
+	 *
+	 * @param index The index of the cell.
+	 */
+	void clearVisitor(final int index) {
+		final Chunk chunk = this.chunks[index >>> 2 * CHUNK_BITS];
+		final int cell = index & CHUNK_CELLS - 1;
+		if (chunk.visitors != null)
+			chunk.visitors[cell] = null;
+
+		if (chunk.visitorKinds[cell] != EntityKinds.NONE)
+			chunk.remember(cell);
+		chunk.visitorKinds[cell] = EntityKinds.NONE;
+		chunk.flags[cell] = VISITABLE[chunk.materials[cell]] ? 0 : FLAG_BLOCKED;
+		this.markDirty(index);
+	}
+
+	/**
+	 * Returns the material of a cell.
+	 *
+	 * @param index The index of the cell.
+	 * @return The material, {@link Material#UNDEFINED} if the cell was not seen yet.
+	 */
+	Material getMaterial(final int index) {
+		return MATERIALS[this.chunks[index >>> 2 * CHUNK_BITS].materials[index & CHUNK_CELLS - 1]];
+	}
+
+	/**
+	 * Checks whether a cell was not seen yet.
+	 *
+	 * @param index The index of the cell.
+	 * @return <code>True</code> if the material of the cell is undefined, <code>false</code> otherwise.
+	 */
+	boolean isUndefined(final int index) {
+		return this.chunks[index >>> 2 * CHUNK_BITS].materials[index & CHUNK_CELLS - 1] == UNDEFINED;
+	}
+
+	/**
+	 * Checks whether there is an item on a cell.
+	 *
+	 * @param index The index of the cell.
+	 * @return <code>True</code> if the cell holds an item, <code>false</code> otherwise.
+	 */
+	boolean hasItem(final int index) {
+		return this.chunks[index >>> 2 * CHUNK_BITS].itemKinds[index & CHUNK_CELLS - 1] != EntityKinds.NONE;
+	}
+
+	/**
+	 * Checks whether there is a visitor on a cell.
+	 *
+	 * @param index The index of the cell.
+	 * @return <code>True</code> if the cell holds a visitor, <code>false</code> otherwise.
+	 */
+	boolean hasVisitor(final int index) {
+		return this.chunks[index >>> 2 * CHUNK_BITS].visitorKinds[index & CHUNK_CELLS - 1] != EntityKinds.NONE;
+	}
+
+	/**
+	 * Returns the kind of the item on a cell.
+	 *
+	 * @param index The index of the cell.
+	 * @return The {@link EntityKinds kind} of the item, {@link EntityKinds#NONE} if there is none.
+	 */
+	int getItemKind(final int index) {
+		return this.chunks[index >>> 2 * CHUNK_BITS].itemKinds[index & CHUNK_CELLS - 1];
+	}
+
+	/**
+	 * Returns the kind of the visitor on a cell.
+	 *
+	 * @param index The index of the cell.
+	 * @return The {@link EntityKinds kind} of the visitor, {@link EntityKinds#NONE} if there is none.
+	 */
+	int getVisitorKind(final int index) {
+		return this.chunks[index >>> 2 * CHUNK_BITS].visitorKinds[index & CHUNK_CELLS - 1];
+	}
+
+	/**
+	 * Returns the item on a cell.
+	 *
+	 * @param index The index of the cell.
+	 * @return The item or <code>null</code> if there is none.
+	 */
+	Item getItem(final int index) {
+		final Item[] items = this.chunks[index >>> 2 * CHUNK_BITS].items;
+		return items != null ? items[index & CHUNK_CELLS - 1] : null;
+	}
+
+	/**
+	 * Returns the kind of the item on a cell or, if the item was removed, the kind of
+	 * the last item that was seen on the cell. This is the item a replay of the level
+	 * will have on the cell.
+	 *
+	 * @param index The index of the cell.
+	 * @return The kind of the item.
+	 */
+	int getOriginalItemKind(final int index) {
+		final Chunk chunk = this.chunks[index >>> 2 * CHUNK_BITS];
+		final int cell = index & CHUNK_CELLS - 1;
+		if (chunk.itemKinds[cell] != EntityKinds.NONE || chunk.removed == null)
+			return chunk.itemKinds[cell];
+
+		return (chunk.removed[cell] & 0xFF) >>> 4;
+	}
+
+	/**
+	 * Returns the kind of the boulder on a cell or, if the boulder was removed, the kind
+	 * of the last boulder that was seen on the cell. If there never was a boulder on the
+	 * cell, the kind of its current visitor is returned.
+	 *
+	 * @param index The index of the cell.
+	 * @return The kind of the visitor.
+	 * @see #getOriginalItemKind(int)
+	 */
+	int getOriginalVisitorKind(final int index) {
+		final Chunk chunk = this.chunks[index >>> 2 * CHUNK_BITS];
+		final int cell = index & CHUNK_CELLS - 1;
+		final int visitor = chunk.visitorKinds[cell];
+		if (visitor != EntityKinds.NONE && visitor != EntityKinds.OTHER_VISITOR
+				|| chunk.removed == null || (chunk.removed[cell] & 0x0F) == EntityKinds.NONE)
+			return visitor;
+
+		return chunk.removed[cell] & 0x0F;
+	}
+
+	/**
+	 * Returns the visitor on a cell.
+	 *
+	 * @param index The index of the cell.
+	 * @return The visitor or <code>null</code> if there is none.
+	 */
+	LivingEntity getVisitor(final int index) {
+		final LivingEntity[] visitors = this.chunks[index >>> 2 * CHUNK_BITS].visitors;
+		return visitors != null ? visitors[index & CHUNK_CELLS - 1] : null;
+	}
+
+	/**
+	 * Checks whether the path finding may walk across a cell. This is the case if
+	 * it can be visited and its material is neither undefined nor void.
+	 *
+	 * @param index The index of the cell.
+	 * @return <code>True</code> if the cell is passable, <code>false</code> otherwise.
+	 */
+	boolean isPassable(final int index) {
+		final Chunk chunk = this.chunks[index >>> 2 * CHUNK_BITS];
+		final int cell = index & CHUNK_CELLS - 1;
+		final byte material = chunk.materials[cell];
+		return (chunk.flags[cell] & FLAG_BLOCKED) == 0 && material != UNDEFINED && material != VOID;
+	}
+
+	/**
+	 * Checks whether the grid holds the path finding values of its cells, which is
+	 * always the case unless it is a snapshot taken without them.
+	 *
+	 * @return <code>True</code> if the grid holds the values, <code>false</code> otherwise.
+	 */
+	boolean hasValues() {
+		return this.values;
+	}
+
+	/**
+	 * Returns the path finding value of a cell.
+	 *
+	 * @param index The index of the cell.
+	 * @return The value of the cell.
+	 */
+	int getValue(final int index) {
+		return this.chunks[index >>> 2 * CHUNK_BITS].values[index & CHUNK_CELLS - 1];
+	}
+
+	/**
+	 * Sets the path finding value of a cell.
+	 *
+	 * @param index The index of the cell.
+	 * @param value The new value of the cell.
+	 */
+	void setValue(final int index, final int value) {
+		this.chunks[index >>> 2 * CHUNK_BITS].values[index & CHUNK_CELLS - 1] = value;
+	}
+
+	/**
+	 * Sets the value of a cell atomically if it still has the expected value, so that the
+	 * values can be set by multiple threads at once.
+	 *
+	 * @param index The index of the cell.
+	 * @param expected The value the cell is expected to have.
+	 * @param value The new value of the cell.
+	 * @return <code>True</code> if the value was set, <code>false</code> otherwise.
+	 */
+	boolean compareAndSetValue(final int index, final int expected, final int value) {
+		return VALUES.compareAndSet(this.chunks[index >>> 2 * CHUNK_BITS].values, index & CHUNK_CELLS - 1, expected, value);
+	}
+
+	/**
+	 * Resets the values of all cells to zero.
+	 */
+	void clearValues() {
+		for (int i = 0; i < this.chunkCount; i++) {
+			Arrays.fill(this.chunks[i].values, 0);
+		}
+	}
+
+	/**
+	 * Takes an immutable snapshot of the grid, which may be read by any thread once it is
+	 * published safely. Only the chunks that changed since the previous snapshot are copied,
+	 * all others are shared with the previous snapshot. The values are copied for every
+	 * chunk, since the path finding changes them all over the grid.
+	 * <br><br>
+	 * Every snapshot has to be taken with the previous snapshot of this grid.
+	 *
+	 * @param previous The previous snapshot or <code>null</code> for the first snapshot.
+	 * @param values Whether the snapshot holds the path finding values.
+	 * @return The snapshot.
+	 */
+	TileGrid snapshot(final TileGrid previous, final boolean values) {
+		final TileGrid snapshot = new TileGrid();
+		snapshot.values = values;
+		snapshot.chunkCount = this.chunkCount;
+		snapshot.chunks = new Chunk[Math.max(1, this.chunkCount)];
+		if (previous == null || this.directoryChanged) {
+			snapshot.directory = this.directory.clone();
+		} else {
+			snapshot.directory = previous.directory;
+		}
+		snapshot.directoryX = this.directoryX;
+		snapshot.directoryY = this.directoryY;
+		snapshot.directoryColumns = this.directoryColumns;
+		snapshot.directoryRows = this.directoryRows;
+
+		for (int i = 0; i < this.chunkCount; i++) {
+			final Chunk chunk = this.chunks[i];
+			Chunk copy;
+			if (previous == null || i >= previous.chunkCount || this.isDirty(i)) {
+				copy = chunk.copy(values);
+			} else {
+				copy = previous.chunks[i];
+				if (values)
+					copy = copy.withValues(chunk.values.clone());
+			}
+			snapshot.chunks[i] = copy;
+		}
+
+		Arrays.fill(this.dirtyChunks, 0L);
+		this.directoryChanged = false;
+		return snapshot;
+	}
+
+	/**
+	 * Checks whether a chunk changed since the last snapshot.
+	 *
+	 * @param chunk The number of the chunk.
+	 * @return <code>True</code> if the chunk changed, <code>false</code> otherwise.
+	 */
+	private boolean isDirty(final int chunk) {
+		return chunk >>> 6 < this.dirtyChunks.length && (this.dirtyChunks[chunk >>> 6] & 1L << chunk) != 0;
+	}
+
+	/**
+	 * Remembers that the chunk of a cell changed since the last snapshot.
+	 *
+	 * @param index The index of the cell.
+	 */
+	private void markDirty(final int index) {
+		final int chunk = index >>> 2 * CHUNK_BITS;
+		if (chunk >>> 6 >= this.dirtyChunks.length)
+			this.dirtyChunks = Arrays.copyOf(this.dirtyChunks, Math.max(chunk >>> 6, this.dirtyChunks.length * 2) + 1);
+
+		this.dirtyChunks[chunk >>> 6] |= 1L << chunk;
+	}
+
+	/**
+	 * Returns the number of the chunk at the given chunk coordinates.
+	 *
+	 * @param x The chunk column.
+	 * @param y The chunk row.
+	 * @return The number of the chunk or {@link #NO_INDEX} if there is none.
+	 */
+	private int getChunk(final int x, final int y) {
+		final int column = x - this.directoryX;
+		final int row = y - this.directoryY;
+		if (column < 0 || column >= this.directoryColumns || row < 0 || row >= this.directoryRows)
+			return NO_INDEX;
+
+		return this.directory[column * this.directoryRows + row];
+	}
+
+	/**
+	 * Grows the directory so that it covers the given chunk coordinates. The directory
+	 * at least doubles its size in every direction it has to grow in.
+	 *
+	 * @param minX The minimum chunk column.
+	 * @param minY The minimum chunk row.
+	 * @param maxX The maximum chunk column.
+	 * @param maxY The maximum chunk row.
+	 */
+	private void growDirectory(final int minX, final int minY, final int maxX, final int maxY) {
+		if (this.directoryColumns == 0) {
+			this.directoryX = minX;
+			this.directoryY = minY;
+			this.directoryColumns = maxX - minX + 1;
+			this.directoryRows = maxY - minY + 1;
+			this.directory = new int[this.directoryColumns * this.directoryRows];
+			Arrays.fill(this.directory, NO_INDEX);
+			return;
+		}
+
+		int directoryX = this.directoryX;
+		int directoryY = this.directoryY;
+		int columns = this.directoryColumns;
+		int rows = this.directoryRows;
+		if (minX < directoryX) {
+			final int grow = Math.max(directoryX - minX, columns);
+			directoryX -= grow;
+			columns += grow;
+		}
+		if (maxX >= directoryX + columns)
+			columns += Math.max(maxX - directoryX - columns + 1, columns);
+		if (minY < directoryY) {
+			final int grow = Math.max(directoryY - minY, rows);
+			directoryY -= grow;
+			rows += grow;
+		}
+		if (maxY >= directoryY + rows)
+			rows += Math.max(maxY - directoryY - rows + 1, rows);
+
+		if (columns == this.directoryColumns && rows == this.directoryRows)
+			return;
+
+		final int[] directory = new int[columns * rows];
+		Arrays.fill(directory, NO_INDEX);
+		for (int i = 0; i < this.directoryColumns; i++) {
+			System.arraycopy(this.directory, i * this.directoryRows, directory,
+					(i + this.directoryX - directoryX) * rows + this.directoryY - directoryY, this.directoryRows);
+		}
+
+		this.directory = directory;
+		this.directoryX = directoryX;
+		this.directoryY = directoryY;
+		this.directoryColumns = columns;
+		this.directoryRows = rows;
+	}
+
+	/**
+	 * A chunk of {@value TileGrid#CHUNK_SIZE} x {@value TileGrid#CHUNK_SIZE} cells.
+	 */
+	private static final class Chunk {
+
+		/**
+		 * The chunk column.
+		 */
+		public final int x;
+
+		/**
+		 * The chunk row.
+		 */
+		public final int y;
+
+		/**
+		 * The material ordinal of every cell.
+		 */
+		public final byte[] materials;
+
+		/**
+		 * The packed flags of every cell.
+		 */
+		public final byte[] flags;
+
+		/**
+		 * The {@link EntityKinds kind} of the item on every cell.
+		 */
+		public final byte[] itemKinds;
+
+		/**
+		 * The {@link EntityKinds kind} of the visitor on every cell.
+		 */
+		public final byte[] visitorKinds;
+
+		/**
+		 * The path finding value of every cell, <code>null</code> in snapshots taken without values.
+		 */
+		public final int[] values;
+
+		/**
+		 * The item of every cell, <code>null</code> until the first item is stored.
+		 */
+		public Item[] items;
+
+		/**
+		 * The visitor of every cell, <code>null</code> until the first visitor is stored.
+		 */
+		public LivingEntity[] visitors;
+
+		/**
+		 * The item kind in the upper and the visitor kind in the lower four bits of the
+		 * last item and visitor removed from every cell, <code>null</code> until the
+		 * first item or visitor is removed.
+		 */
+		public byte[] removed;
+
+		/**
+		 * Creates a new undefined {@link Chunk}.
+		 *
+		 * @param x The chunk column.
+		 * @param y The chunk row.
+		 */
+		public Chunk(final int x, final int y) {
+			this.x = x;
+			this.y = y;
+			this.materials = new byte[CHUNK_CELLS];
+			this.flags = new byte[CHUNK_CELLS];
+			this.itemKinds = new byte[CHUNK_CELLS];
+			this.visitorKinds = new byte[CHUNK_CELLS];
+			this.values = new int[CHUNK_CELLS];
+			Arrays.fill(this.materials, UNDEFINED);
+		}
+
+		/**
+		 * Creates a new {@link Chunk} from the given arrays, which are not copied.
+		 *
+		 * @param chunk The chunk to take the position and the objects from.
+		 * @param materials The material ordinal of every cell.
+		 * @param flags The packed flags of every cell.
+		 * @param itemKinds The kind of the item on every cell.
+		 * @param visitorKinds The kind of the visitor on every cell.
+		 * @param values The path finding value of every cell, may be <code>null</code>.
+		 * @param items The item of every cell, may be <code>null</code>.
+		 * @param visitors The visitor of every cell, may be <code>null</code>.
+		 * @param removed The kinds of the last removed item and visitor of every cell, may be <code>null</code>.
+		 */
+		private Chunk(final Chunk chunk, final byte[] materials, final byte[] flags, final byte[] itemKinds,
+				final byte[] visitorKinds, final int[] values, final Item[] items, final LivingEntity[] visitors,
+				final byte[] removed) {
+			this.x = chunk.x;
+			this.y = chunk.y;
+			this.materials = materials;
+			this.flags = flags;
+			this.itemKinds = itemKinds;
+			this.visitorKinds = visitorKinds;
+			this.values = values;
+			this.items = items;
+			this.visitors = visitors;
+			this.removed = removed;
+		}
+
+		/**
+		 * Copies the chunk.
+		 *
+		 * @param values Whether the copy holds the path finding values.
+		 * @return The copy.
+		 */
+		public Chunk copy(final boolean values) {
+			return new Chunk(this, this.materials.clone(), this.flags.clone(), this.itemKinds.clone(),
+					this.visitorKinds.clone(), values ? this.values.clone() : null,
+					this.items != null ? this.items.clone() : null, this.visitors != null ? this.visitors.clone() : null,
+					this.removed != null ? this.removed.clone() : null);
+		}
+
+		/**
+		 * Returns a chunk sharing everything with this chunk except for the values.
+		 *
+		 * @param values The path finding value of every cell.
+		 * @return The chunk with the values.
+		 */
+		public Chunk withValues(final int[] values) {
+			return new Chunk(this, this.materials, this.flags, this.itemKinds, this.visitorKinds,
+					values, this.items, this.visitors, this.removed);
+		}
+
+		/**
+		 * Remembers the item and the visitor kinds of a cell before they are removed.
+		 * Kinds which are not present on the cell keep the kind remembered before. Visitors
+		 * which are no boulders move around on their own, so they are not remembered.
+		 *
+		 * @param cell The cell within the chunk.
+		 */
+		public void remember(final int cell) {
+			if (this.removed == null)
+				this.removed = new byte[CHUNK_CELLS];
+
+			final int item = this.itemKinds[cell] != EntityKinds.NONE ? this.itemKinds[cell] : (this.removed[cell] & 0xFF) >>> 4;
+			final int visitor = this.visitorKinds[cell] != EntityKinds.NONE && this.visitorKinds[cell] != EntityKinds.OTHER_VISITOR
+					? this.visitorKinds[cell] : this.removed[cell] & 0x0F;
+			this.removed[cell] = (byte) (item << 4 | visitor);
+		}
+
+		/**
+		 * Returns the items of the chunk, which are allocated with the first item stored.
+		 *
+		 * @return The item of every cell.
+		 */
+		public Item[] items() {
+			if (this.items == null)
+				this.items = new Item[CHUNK_CELLS];
+
+			return this.items;
+		}
+
+		/**
+		 * Returns the visitors of the chunk, which are allocated with the first visitor stored.
+		 *
+		 * @return The visitor of every cell.
+		 */
+		public LivingEntity[] visitors() {
+			if (this.visitors == null)
+				this.visitors = new LivingEntity[CHUNK_CELLS];
+
+			return this.visitors;
+		}
+	}
+}
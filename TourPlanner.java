@@ -0,0 +1,457 @@
+/*
+ * KIT Schnupperstudium Robots AIs
+ * Copyright (C) 2019  Simon Grossmann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.schnupperstudium.robots.client.ai.hidden;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+import com.github.schnupperstudium.robots.entity.Facing;
+
+/**
+ * Orders the visits of a robot to all known stars of a {@link DistanceScalingMap}, so that
+ * the robot does not zig-zag between the stars by always heading for the nearest one.
+ * <br><br>
+ * The distances between the robot and the stars are computed once by a breadth first search
+ * from every stop, counting the tiles stepped on. The order is built by nearest insertion into
+ * an open path starting at the robot and improved by 2-opt and Or-opt moves until no move
+ * shortens the tour anymore or the time budget is used up.
+ * <br><br>
+ * A tour is only built once the part of the map the robot can reach is explored completely,
+ * since the greedy choice of the map between exploring and collecting works better as long
+ * as new stars may appear.
+ * <br><br>
+ * The tour is kept over multiple turns. Stars picked up are simply skipped, the tour is only
+ * rebuilt after new stars appeared.
+ */
+final class TourPlanner {
+
+	/**
+	 * The time budget for improving a tour in microseconds.
+	 */
+	private static final long BUDGET_NANOS = Long.getLong("robots.planner.tour.budget", 1000L) * 1000L;
+
+	/**
+	 * The maximum number of stars in a tour. If more stars are known, only the nearest are visited.
+	 */
+	private static final int MAX_STOPS = 64;
+
+	/**
+	 * The longest segment moved by an Or-opt move.
+	 */
+	private static final int MAX_SEGMENT = 3;
+
+	/**
+	 * The distance of stops that can not reach each other.
+	 */
+	private static final int UNREACHABLE = Integer.MAX_VALUE / 4;
+
+	private static final Facing[] NEIGHBOR_FACINGS = {
+			Facing.NORTH, Facing.EAST, Facing.SOUTH, Facing.WEST
+	};
+
+	/**
+	 * The {@link TileGrid grid} to plan on.
+	 */
+	private final TileGrid grid;
+
+	/**
+	 * Checks whether a tile holds a star.
+	 */
+	private final IntPredicate isStar;
+
+	/**
+	 * Checks whether a passable tile lies at the frontier to the unexplored part of the map.
+	 */
+	private final IntPredicate isFrontier;
+
+	/**
+	 * The tiles of the stops, the first stop is the robot.
+	 */
+	private int[] stops;
+
+	/**
+	 * The distances between the stops, the row of a stop holds the distances from it.
+	 */
+	private int[] distances;
+
+	/**
+	 * The stops in the order of the tour, the first stop is the robot.
+	 */
+	private int[] order;
+
+	/**
+	 * The number of stops including the robot.
+	 */
+	private int count;
+
+	/**
+	 * The position of the next stop of the tour to visit.
+	 */
+	private int position;
+
+	/**
+	 * Whether new stars appeared since the tour was built.
+	 */
+	private boolean invalid;
+
+	/**
+	 * Whether the map changed since the tour was built.
+	 */
+	private boolean changed;
+
+	/**
+	 * The distances of the tiles reached by the current search.
+	 */
+	private int[] steps;
+
+	/**
+	 * The search every tile was reached by the last time.
+	 */
+	private int[] searches;
+
+	/**
+	 * The queue of the current search.
+	 */
+	private int[] queue;
+
+	/**
+	 * The distance of every stop to the nearest stop of the tour during the nearest insertion.
+	 */
+	private final int[] nearest;
+
+	/**
+	 * Whether every stop is part of the tour during the nearest insertion.
+	 */
+	private final boolean[] inserted;
+
+	/**
+	 * The segment moved by an Or-opt move.
+	 */
+	private final int[] segment;
+
+	/**
+	 * The number of the current search.
+	 */
+	private int search;
+
+	/**
+	 * Creates a new {@link TourPlanner}.
+	 *
+	 * @param grid The grid to plan on.
+	 * @param isStar Checks whether a tile holds a star.
+	 * @param isFrontier Checks whether a passable tile lies at the frontier to the unexplored part of the map.
+	 */
+	TourPlanner(final TileGrid grid, final IntPredicate isStar, final IntPredicate isFrontier) {
+		this.grid = grid;
+		this.isStar = isStar;
+		this.isFrontier = isFrontier;
+		this.nearest = new int[MAX_STOPS + 1];
+		this.inserted = new boolean[MAX_STOPS + 1];
+		this.segment = new int[MAX_SEGMENT];
+		this.stops = new int[MAX_STOPS + 1];
+		this.order = new int[MAX_STOPS + 1];
+		this.distances = new int[(MAX_STOPS + 1) * (MAX_STOPS + 1)];
+		this.steps = new int[0];
+		this.searches = new int[0];
+		this.queue = new int[0];
+		this.invalid = true;
+	}
+
+	/**
+	 * Discards the tour, because new stars appeared.
+	 */
+	void invalidate() {
+		this.invalid = true;
+	}
+
+	/**
+	 * Remembers that a tile of the map changed, which may complete the exploration.
+	 */
+	void mapChanged() {
+		this.changed = true;
+	}
+
+	/**
+	 * Returns the next star of the tour that was not picked up yet. The tour is rebuilt
+	 * from the robot's tile if new stars appeared since it was built or if there was no
+	 * tour and the map changed since.
+	 *
+	 * @param start The index of the robot's tile.
+	 * @param stars The set of the tiles that may hold stars.
+	 * @return The index of the next star or {@link TileGrid#NO_INDEX} if there is no tour.
+	 */
+	int next(final int start, final CellSet stars) {
+		if (this.invalid || this.changed && this.count <= 1)
+			this.build(start, stars);
+
+		while (this.position < this.count && !this.isStar.test(this.stops[this.order[this.position]])) {
+			this.position++;
+		}
+
+		return this.position < this.count ? this.stops[this.order[this.position]] : TileGrid.NO_INDEX;
+	}
+
+	/**
+	 * Builds a new tour from the robot's tile over the nearest stars.
+	 *
+	 * @param start The index of the robot's tile.
+	 * @param stars The set of the tiles that may hold stars.
+	 */
+	private void build(final int start, final CellSet stars) {
+		this.invalid = false;
+		this.changed = false;
+		this.position = 1;
+		this.count = 0;
+		if (!this.search(start, true))
+			return;
+
+		// the nearest reachable stars become the stops
+		this.stops[0] = start;
+		this.count = 1;
+		for (int slot = 0; slot < stars.capacity(); slot++) {
+			final int index = stars.get(slot);
+			if (index == TileGrid.NO_INDEX || !this.isStar.test(index) || this.getSteps(index) == UNREACHABLE)
+				continue;
+
+			if (this.count <= MAX_STOPS) {
+				this.stops[this.count++] = index;
+			} else {
+				int farthest = 1;
+				for (int i = 2; i < this.count; i++) {
+					if (this.getSteps(this.stops[i]) > this.getSteps(this.stops[farthest]))
+						farthest = i;
+				}
+				if (this.getSteps(index) < this.getSteps(this.stops[farthest]))
+					this.stops[farthest] = index;
+			}
+		}
+
+		final int count = this.count;
+		for (int i = 0; i < count; i++) {
+			if (i > 0)
+				this.search(this.stops[i], false);
+			for (int j = 0; j < count; j++) {
+				this.distances[i * count + j] = this.getSteps(this.stops[j]);
+			}
+		}
+
+		final long deadline = System.nanoTime() + BUDGET_NANOS;
+		this.insertNearest();
+		boolean improved = true;
+		while (improved && System.nanoTime() < deadline) {
+			improved = this.twoOpt(deadline) | this.orOpt(deadline);
+		}
+	}
+
+	/**
+	 * Orders the stops by nearest insertion: the stop nearest to the tour is inserted where it
+	 * lengthens the tour the least, until every stop is part of the tour.
+	 */
+	private void insertNearest() {
+		final int count = this.count;
+		final int[] order = this.order;
+		final int[] nearest = this.nearest;
+		order[0] = 0;
+		for (int i = 1; i < count; i++) {
+			nearest[i] = this.distance(0, i);
+		}
+
+		int length = 1;
+		final boolean[] inserted = this.inserted;
+		Arrays.fill(inserted, 0, count, false);
+		inserted[0] = true;
+		while (length < count) {
+			int next = -1;
+			for (int i = 1; i < count; i++) {
+				if (!inserted[i] && (next == -1 || nearest[i] < nearest[next]))
+					next = i;
+			}
+
+			// the robot stays the first stop, appending to the end costs a single edge
+			int bestPosition = length;
+			int bestDelta = this.distance(order[length - 1], next);
+			for (int p = 1; p < length; p++) {
+				final int delta = this.distance(order[p - 1], next) + this.distance(next, order[p])
+						- this.distance(order[p - 1], order[p]);
+				if (delta < bestDelta) {
+					bestDelta = delta;
+					bestPosition = p;
+				}
+			}
+
+			System.arraycopy(order, bestPosition, order, bestPosition + 1, length - bestPosition);
+			order[bestPosition] = next;
+			inserted[next] = true;
+			length++;
+			for (int i = 1; i < count; i++) {
+				nearest[i] = Math.min(nearest[i], this.distance(next, i));
+			}
+		}
+	}
+
+	/**
+	 * Reverses segments of the tour as long as this shortens the tour.
+	 *
+	 * @param deadline The time at which the improvement stops.
+	 * @return <code>True</code> if the tour was improved, <code>false</code> otherwise.
+	 */
+	private boolean twoOpt(final long deadline) {
+		final int[] order = this.order;
+		final int count = this.count;
+		boolean improved = false;
+		for (int i = 1; i < count - 1 && System.nanoTime() < deadline; i++) {
+			for (int j = i + 1; j < count; j++) {
+				final int before = this.distance(order[i - 1], order[i])
+						+ (j + 1 < count ? this.distance(order[j], order[j + 1]) : 0);
+				final int after = this.distance(order[i - 1], order[j])
+						+ (j + 1 < count ? this.distance(order[i], order[j + 1]) : 0);
+				if (after < before) {
+					for (int a = i, b = j; a < b; a++, b--) {
+						final int stop = order[a];
+						order[a] = order[b];
+						order[b] = stop;
+					}
+					improved = true;
+				}
+			}
+		}
+
+		return improved;
+	}
+
+	/**
+	 * Moves short segments of the tour to other positions as long as this shortens the tour.
+	 *
+	 * @param deadline The time at which the improvement stops.
+	 * @return <code>True</code> if the tour was improved, <code>false</code> otherwise.
+	 */
+	private boolean orOpt(final long deadline) {
+		final int[] order = this.order;
+		final int count = this.count;
+		final int[] segment = this.segment;
+		boolean improved = false;
+		for (int length = 1; length <= MAX_SEGMENT; length++) {
+			for (int i = 1; i + length <= count && System.nanoTime() < deadline; i++) {
+				final int first = order[i];
+				final int last = order[i + length - 1];
+				final int previous = order[i - 1];
+				final int next = i + length < count ? order[i + length] : -1;
+				final int removed = this.distance(previous, first) + (next != -1 ? this.distance(last, next) : 0)
+						- (next != -1 ? this.distance(previous, next) : 0);
+
+				// the segment is inserted between the stops at p - 1 and p of the tour without the segment
+				int bestPosition = -1;
+				int bestDelta = removed;
+				for (int p = 1; p <= count - length; p++) {
+					if (p == i)
+						continue;
+
+					final int a = this.getWithout(p - 1, i, length);
+					final int b = p < count - length ? this.getWithout(p, i, length) : -1;
+					final int delta = this.distance(a, first) + (b != -1 ? this.distance(last, b) - this.distance(a, b) : 0);
+					if (delta < bestDelta) {
+						bestDelta = delta;
+						bestPosition = p;
+					}
+				}
+
+				if (bestPosition != -1) {
+					System.arraycopy(order, i, segment, 0, length);
+					System.arraycopy(order, i + length, order, i, count - i - length);
+					System.arraycopy(order, bestPosition, order, bestPosition + length, count - length - bestPosition);
+					System.arraycopy(segment, 0, order, bestPosition, length);
+					improved = true;
+				}
+			}
+		}
+
+		return improved;
+	}
+
+	/**
+	 * Returns the stop at a position of the tour without the segment at the given position.
+	 *
+	 * @param position The position in the tour without the segment.
+	 * @param segment The position of the segment.
+	 * @param length The length of the segment.
+	 * @return The stop.
+	 */
+	private int getWithout(final int position, final int segment, final int length) {
+		return this.order[position < segment ? position : position + length];
+	}
+
+	private int distance(final int from, final int to) {
+		return this.distances[from * this.count + to];
+	}
+
+	/**
+	 * Returns the number of steps to a tile found by the last search.
+	 *
+	 * @param index The index of the tile.
+	 * @return The number of steps or {@link #UNREACHABLE}.
+	 */
+	private int getSteps(final int index) {
+		return this.searches[index] == this.search ? this.steps[index] : UNREACHABLE;
+	}
+
+	/**
+	 * Searches the number of steps from a tile to every passable tile. The start tile is
+	 * always left, even if it is blocked by the robot.
+	 *
+	 * @param start The index of the start tile.
+	 * @param explored Whether the search stops at the first tile at the frontier of the map.
+	 * @return <code>False</code> if the search stopped at the frontier, <code>true</code> otherwise.
+	 */
+	private boolean search(final int start, final boolean explored) {
+		final TileGrid grid = this.grid;
+		final int size = grid.size();
+		if (this.searches.length < size) {
+			this.steps = Arrays.copyOf(this.steps, size);
+			this.searches = Arrays.copyOf(this.searches, size);
+			this.queue = Arrays.copyOf(this.queue, size);
+		}
+		if (++this.search == 0) {
+			Arrays.fill(this.searches, 0);
+			this.search = 1;
+		}
+
+		int head = 0;
+		int tail = 0;
+		this.searches[start] = this.search;
+		this.steps[start] = 0;
+		this.queue[tail++] = start;
+		while (head < tail) {
+			final int tile = this.queue[head++];
+			if (explored && this.isFrontier.test(tile))
+				return false;
+
+			final int steps = this.steps[tile] + 1;
+			for (final Facing facing : NEIGHBOR_FACINGS) {
+				final int neighbor = grid.neighbor(tile, facing);
+				if (neighbor != TileGrid.NO_INDEX && this.searches[neighbor] != this.search && grid.isPassable(neighbor)) {
+					this.searches[neighbor] = this.search;
+					this.steps[neighbor] = steps;
+					this.queue[tail++] = neighbor;
+				}
+			}
+		}
+
+		return true;
+	}
+}
@@ -0,0 +1,308 @@
+/*
+ * KIT Schnupperstudium Robots AIs
+ * Copyright (C) 2019  Simon Grossmann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.schnupperstudium.robots.client.ai.hidden;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import com.github.schnupperstudium.robots.entity.item.BlueKey;
+import com.github.schnupperstudium.robots.entity.item.GreenKey;
+import com.github.schnupperstudium.robots.entity.item.LaserCharge;
+import com.github.schnupperstudium.robots.entity.item.RedKey;
+import com.github.schnupperstudium.robots.entity.item.YellowKey;
+import com.github.schnupperstudium.robots.world.Tile;
+
+/**
+ * Records every turn of a robot to a compact, append-only binary log, which can be played
+ * back without a server by a {@link TurnReplay}. A turn holds everything the {@link DistancePilot}
+ * decides on: the position, the facing and the {@link Capabilities} of the robot, whether there
+ * is an item beneath it, the tiles it saw and the {@link Step} it took.
+ * <br><br>
+ * The vision is delta encoded: the recorder mirrors the tiles passed to the map in a
+ * {@link TileGrid} and only writes the tiles that changed since the robot saw them the last
+ * time, relative to the position of the robot. Since the map does not change on tiles that
+ * did not change either, a map updated with the deltas ends up exactly like the map of the
+ * robot. The turns are collected in a direct buffer, which is written to the file whenever it
+ * is full and every {@value #FLUSH_TURNS} turns, so a log lost with its process misses at most
+ * the last turns.
+ * <br><br>
+ * The log starts with a header holding a magic number and the format version. Every turn is
+ * written as:
+ * <ul>
+ * <li>the change of the x and the y coordinate since the last turn as zigzag encoded varints</li>
+ * <li>a byte holding the ordinal of the facing, whether there is an item beneath the robot and
+ * whether the robot saw anything in this turn</li>
+ * <li>the number of laser charges as a varint and the key bits as a byte</li>
+ * <li>if the robot saw anything, the number of changed tiles as a varint followed by every tile:
+ * its coordinates relative to the robot as zigzag encoded varints, the ordinal of its material
+ * and the {@link EntityKinds kinds} of its item and visitor packed into a byte</li>
+ * <li>the ordinal of the step and the item used by the step as an index into {@link #ITEM_NAMES}
+ * plus one or <code>0</code> if no item is used</li>
+ * </ul>
+ */
+final class TurnRecorder implements Closeable {
+
+	/**
+	 * The magic number at the beginning of every log, the ASCII string <code>RTRN</code>.
+	 */
+	static final int MAGIC = 0x5254524E;
+
+	/**
+	 * The version of the file format.
+	 */
+	static final int VERSION = 1;
+
+	static final int HEADER_BYTES = 8;
+
+	/**
+	 * The names of the items a step can use.
+	 */
+	static final String[] ITEM_NAMES = {
+			LaserCharge.ITEM_NAME, BlueKey.ITEM_NAME, GreenKey.ITEM_NAME, RedKey.ITEM_NAME, YellowKey.ITEM_NAME
+	};
+
+	static final int FACING_MASK = 0x03;
+
+	static final int BENEATH_BIT = 0x04;
+
+	static final int OBSERVED_BIT = 0x08;
+
+	/**
+	 * The number of turns between two writes of the buffer to the file.
+	 */
+	private static final int FLUSH_TURNS = 64;
+
+	/**
+	 * The maximum number of bytes of a varint.
+	 */
+	private static final int VARINT_BYTES = 5;
+
+	/**
+	 * The maximum number of bytes of a turn without its tiles.
+	 */
+	private static final int TURN_BYTES = 4 * VARINT_BYTES + 4;
+
+	/**
+	 * The maximum number of bytes of a tile.
+	 */
+	private static final int TILE_BYTES = 2 * VARINT_BYTES + 2;
+
+	private final FileChannel channel;
+
+	private final ByteBuffer buffer;
+
+	/**
+	 * The tiles the robot saw so far, which is the last vision of every tile.
+	 */
+	private final TileGrid seen;
+
+	/**
+	 * The tiles of the current turn which changed since the robot saw them the last time.
+	 */
+	private final VisionBuffer changes;
+
+	/**
+	 * The vision of the current turn, if it was passed as {@link Tile tiles}.
+	 */
+	private final VisionBuffer vision;
+
+	/**
+	 * Whether the robot saw anything in the current turn.
+	 */
+	private boolean observed;
+
+	/**
+	 * The position of the robot in the last turn.
+	 */
+	private int lastX;
+
+	private int lastY;
+
+	/**
+	 * The number of turns recorded since the buffer was written the last time.
+	 */
+	private int pendingTurns;
+
+	/**
+	 * Creates a new {@link TurnRecorder}.
+	 *
+	 * @param channel The channel of the log.
+	 */
+	private TurnRecorder(final FileChannel channel) {
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocateDirect(1 << 16);
+		this.seen = new TileGrid();
+		this.changes = new VisionBuffer();
+		this.vision = new VisionBuffer();
+	}
+
+	/**
+	 * Creates a new log, replacing the file if it exists already.
+	 *
+	 * @param file The file of the log.
+	 * @return The recorder writing the log.
+	 * @throws IOException If the file can not be written.
+	 */
+	static TurnRecorder open(final Path file) throws IOException {
+		final TurnRecorder recorder = new TurnRecorder(FileChannel.open(file, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+		recorder.buffer.putInt(MAGIC);
+		recorder.buffer.putInt(VERSION);
+		return recorder;
+	}
+
+	/**
+	 * Records the vision of the robot in the current turn. This has to be called with exactly
+	 * the tiles the map of the robot is updated with.
+	 *
+	 * @param tiles The tiles the robot sees.
+	 */
+	void observed(final List<Tile> tiles) {
+		final VisionBuffer vision = this.vision;
+		vision.clear();
+		for (final Tile tile : tiles) {
+			vision.add(tile.getX(), tile.getY(), tile.getMaterial(),
+					EntityKinds.itemKind(tile.getItem()), EntityKinds.visitorKind(tile.getVisitor()));
+		}
+
+		this.observed(vision);
+	}
+
+	/**
+	 * Records the vision of the robot in the current turn like {@link #observed(List)}.
+	 *
+	 * @param vision The tiles the robot sees.
+	 */
+	void observed(final VisionBuffer vision) {
+		this.observed = true;
+		if (vision.isEmpty())
+			return;
+
+		final TileGrid seen = this.seen;
+		seen.allocate(vision.getMinX(), vision.getMinY(), vision.getMaxX(), vision.getMaxY());
+		for (int i = 0; i < vision.size(); i++) {
+			final int index = seen.index(vision.getX(i), vision.getY(i));
+			if (seen.update(index, vision.getMaterial(i), vision.getItem(i), vision.getVisitor(i)))
+				this.changes.add(vision.getX(i), vision.getY(i), vision.getMaterial(i), vision.getItem(i), vision.getVisitor(i));
+		}
+	}
+
+	/**
+	 * Records the turn of the robot together with the vision {@link #observed(VisionBuffer) observed} in it.
+	 *
+	 * @param robot The robot at the beginning of the turn.
+	 * @param step The step the robot took.
+	 * @param itemToUse The name of the item used by the step, which is ignored unless the step is {@link Step#USE_ITEM}.
+	 * @throws IOException If the log can not be written.
+	 */
+	void record(final RobotView robot, final Step step, final String itemToUse) throws IOException {
+		final int x = robot.getX();
+		final int y = robot.getY();
+		final Capabilities capabilities = robot.getCapabilities();
+		final VisionBuffer changes = this.changes;
+
+		this.ensure(TURN_BYTES);
+		final ByteBuffer buffer = this.buffer;
+		putVarInt(buffer, zigzag(x - this.lastX));
+		putVarInt(buffer, zigzag(y - this.lastY));
+		buffer.put((byte) (robot.getFacing().ordinal() | (robot.hasItemBeneath() ? BENEATH_BIT : 0)
+				| (this.observed ? OBSERVED_BIT : 0)));
+		putVarInt(buffer, capabilities.getCharges());
+		buffer.put((byte) capabilities.getKeys());
+		if (this.observed) {
+			putVarInt(buffer, changes.size());
+			for (int i = 0; i < changes.size(); i++) {
+				this.ensure(TILE_BYTES);
+				putVarInt(buffer, zigzag(changes.getX(i) - x));
+				putVarInt(buffer, zigzag(changes.getY(i) - y));
+				buffer.put((byte) changes.getMaterial(i).ordinal());
+				buffer.put((byte) (changes.getItem(i) << 4 | changes.getVisitor(i)));
+			}
+		}
+
+		this.ensure(2);
+		buffer.put((byte) step.ordinal());
+		buffer.put((byte) (step == Step.USE_ITEM ? indexOfItem(itemToUse) + 1 : 0));
+
+		this.lastX = x;
+		this.lastY = y;
+		this.observed = false;
+		changes.clear();
+		if (++this.pendingTurns == FLUSH_TURNS)
+			this.flush();
+	}
+
+	/**
+	 * Writes the buffered turns to the file.
+	 *
+	 * @throws IOException If the log can not be written.
+	 */
+	void flush() throws IOException {
+		final ByteBuffer buffer = this.buffer;
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			this.channel.write(buffer);
+		}
+		buffer.clear();
+		this.pendingTurns = 0;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			this.flush();
+		} finally {
+			this.channel.close();
+		}
+	}
+
+	/**
+	 * Makes sure the buffer has room for the given number of bytes by writing it to the file if needed.
+	 */
+	private void ensure(final int bytes) throws IOException {
+		if (this.buffer.remaining() < bytes)
+			this.flush();
+	}
+
+	private static int indexOfItem(final String itemName) {
+		for (int i = 0; i < ITEM_NAMES.length; i++) {
+			if (ITEM_NAMES[i].equals(itemName))
+				return i;
+		}
+
+		throw new IllegalArgumentException("Unknown item " + itemName);
+	}
+
+	private static int zigzag(final int value) {
+		return value << 1 ^ value >> 31;
+	}
+
+	private static void putVarInt(final ByteBuffer buffer, int value) {
+		while ((value & ~0x7F) != 0) {
+			buffer.put((byte) (value & 0x7F | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+}
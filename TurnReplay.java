@@ -0,0 +1,302 @@
+/*
+ * KIT Schnupperstudium Robots AIs
+ * Copyright (C) 2019  Simon Grossmann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.schnupperstudium.robots.client.ai.hidden;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+import com.github.schnupperstudium.robots.entity.Facing;
+import com.github.schnupperstudium.robots.world.Material;
+
+/**
+ * Plays back a log written by a {@link TurnRecorder} turn by turn. Every turn of the log is
+ * the {@link RobotView} of the robot in that turn, so a fresh {@link DistancePilot} can decide
+ * on the same turns again without a server, which makes a game reproducible for debugging
+ * and profiling.
+ * <br><br>
+ * Running the replay checks every log given as an argument: a new pilot makes every turn of
+ * the log and its steps are compared with the recorded ones. Since the pilot is deterministic,
+ * every step matches unless the planning changed since the game was recorded. Games planned
+ * with a deadline, warm started with a {@link MapStore stored map} or sharing a {@link TeamMap}
+ * depend on more than the log and may differ, so they should be replayed without
+ * <code>robots.planner.deadline</code>.
+ * <br><br>
+ * The replay is configured through system properties:
+ * <ul>
+ * <li><code>robots.replay.runs</code>: the number of times every log is played, the fastest run is
+ * reported, default 1</li>
+ * </ul>
+ */
+final class TurnReplay implements RobotView {
+
+	private static final int RUNS = Integer.getInteger("robots.replay.runs", 1);
+
+	private static final Material[] MATERIALS = Material.values();
+
+	private static final Facing[] FACINGS = Facing.values();
+
+	private static final Step[] STEPS = Step.values();
+
+	/**
+	 * The turns of the log, positioned at the next turn.
+	 */
+	private final ByteBuffer log;
+
+	/**
+	 * The tiles the robot saw in the current turn which changed since it saw them the last time.
+	 */
+	private final VisionBuffer vision;
+
+	/**
+	 * The number of turns played so far.
+	 */
+	private int turn;
+
+	private int x;
+
+	private int y;
+
+	private Facing facing;
+
+	private boolean itemBeneath;
+
+	private Capabilities capabilities;
+
+	/**
+	 * The step recorded for the current turn.
+	 */
+	private Step step;
+
+	/**
+	 * The name of the item used by the recorded step or <code>null</code>.
+	 */
+	private String itemToUse;
+
+	private TurnReplay(final ByteBuffer log) {
+		this.log = log;
+		this.vision = new VisionBuffer();
+	}
+
+	/**
+	 * Opens a log for playing it back.
+	 *
+	 * @param file The file of the log.
+	 * @return The replay of the log, positioned before the first turn.
+	 * @throws IOException If the file can not be read or holds no log.
+	 */
+	static TurnReplay open(final Path file) throws IOException {
+		final ByteBuffer log;
+		try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			log = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		if (log.capacity() < TurnRecorder.HEADER_BYTES || log.getInt(0) != TurnRecorder.MAGIC)
+			throw new IOException(file + " is no turn log");
+		if (log.getInt(4) != TurnRecorder.VERSION)
+			throw new IOException(file + " has the unsupported version " + log.getInt(4));
+
+		log.position(TurnRecorder.HEADER_BYTES);
+		return new TurnReplay(log);
+	}
+
+	/**
+	 * Moves on to the next turn of the log. A turn which was cut off, because the recording
+	 * process ended before writing it completely, ends the log.
+	 *
+	 * @return <code>True</code> if there is a next turn, <code>false</code> if the log ended.
+	 */
+	boolean next() {
+		final ByteBuffer log = this.log;
+		final VisionBuffer vision = this.vision;
+		vision.clear();
+		try {
+			this.x += unzigzag(getVarInt(log));
+			this.y += unzigzag(getVarInt(log));
+			final int flags = log.get();
+			this.facing = FACINGS[flags & TurnRecorder.FACING_MASK];
+			this.itemBeneath = (flags & TurnRecorder.BENEATH_BIT) != 0;
+			this.capabilities = Capabilities.of(getVarInt(log), log.get() & 0xFF);
+			if ((flags & TurnRecorder.OBSERVED_BIT) != 0) {
+				for (int i = getVarInt(log); i > 0; i--) {
+					final int tileX = this.x + unzigzag(getVarInt(log));
+					final int tileY = this.y + unzigzag(getVarInt(log));
+					final Material material = MATERIALS[log.get()];
+					final int kinds = log.get() & 0xFF;
+					vision.add(tileX, tileY, material, kinds >>> 4, kinds & 0x0F);
+				}
+			}
+
+			this.step = STEPS[log.get()];
+			final int item = log.get();
+			this.itemToUse = item == 0 ? null : TurnRecorder.ITEM_NAMES[item - 1];
+		} catch (final BufferUnderflowException e) {
+			log.position(log.limit());
+			return false;
+		}
+
+		this.turn++;
+		return true;
+	}
+
+	/**
+	 * Returns the number of turns played so far, which is the number of the current turn.
+	 *
+	 * @return The number of turns.
+	 */
+	int getTurn() {
+		return this.turn;
+	}
+
+	/**
+	 * Returns the step the robot took in the current turn.
+	 *
+	 * @return The recorded step.
+	 */
+	Step getStep() {
+		return this.step;
+	}
+
+	/**
+	 * Returns the name of the item the robot used in the current turn.
+	 *
+	 * @return The name of the item or <code>null</code> if the step uses no item.
+	 */
+	String getItemToUse() {
+		return this.itemToUse;
+	}
+
+	@Override
+	public int getX() {
+		return this.x;
+	}
+
+	@Override
+	public int getY() {
+		return this.y;
+	}
+
+	@Override
+	public Facing getFacing() {
+		return this.facing;
+	}
+
+	@Override
+	public boolean hasItemBeneath() {
+		return this.itemBeneath;
+	}
+
+	@Override
+	public Capabilities getCapabilities() {
+		return this.capabilities;
+	}
+
+	@Override
+	public void observe(final DistanceScalingMap map) {
+		map.updateMap(this.vision);
+	}
+
+	@Override
+	public Consumer<DistanceScalingMap> capture() {
+		final VisionBuffer vision = new VisionBuffer();
+		final VisionBuffer current = this.vision;
+		for (int i = 0; i < current.size(); i++) {
+			vision.add(current.getX(i), current.getY(i), current.getMaterial(i), current.getItem(i), current.getVisitor(i));
+		}
+
+		return map -> map.updateMap(vision);
+	}
+
+	public static void main(final String[] args) throws IOException {
+		if (args.length == 0) {
+			System.err.println("usage: TurnReplay <log>...");
+			return;
+		}
+
+		for (final String arg : args) {
+			replay(Paths.get(arg));
+		}
+	}
+
+	/**
+	 * Plays a log {@link #RUNS} times with a new pilot and reports whether the pilot took the
+	 * recorded steps and how fast it decided.
+	 *
+	 * @param file The file of the log.
+	 * @throws IOException If the log can not be read.
+	 */
+	private static void replay(final Path file) throws IOException {
+		long bestNanos = Long.MAX_VALUE;
+		int turns = 0;
+		int mismatches = 0;
+		String firstMismatch = null;
+		for (int run = 0; run < RUNS; run++) {
+			final TurnReplay replay = open(file);
+			final DistancePilot pilot = new DistancePilot(new DistanceScalingMap());
+			long nanos = 0L;
+			mismatches = 0;
+			firstMismatch = null;
+			while (replay.next()) {
+				final long begin = System.nanoTime();
+				final Step step = pilot.makeTurn(replay);
+				nanos += System.nanoTime() - begin;
+
+				final String itemToUse = step == Step.USE_ITEM ? pilot.getItemToUse() : null;
+				if (step != replay.getStep() || itemToUse != null && !itemToUse.equals(replay.getItemToUse())) {
+					if (mismatches++ == 0) {
+						firstMismatch = String.format("turn %d at %d|%d recorded %s, replayed %s", replay.getTurn(),
+								replay.getX(), replay.getY(), describe(replay.getStep(), replay.getItemToUse()),
+								describe(step, itemToUse));
+					}
+				}
+			}
+
+			turns = replay.getTurn();
+			bestNanos = Math.min(bestNanos, nanos);
+		}
+
+		System.out.printf("%s: %d turns, %d mismatches, %.2f us per turn%n", file, turns, mismatches,
+				turns == 0 ? 0.0 : bestNanos / 1000.0 / turns);
+		if (firstMismatch != null)
+			System.out.printf("  first mismatch: %s%n", firstMismatch);
+	}
+
+	private static String describe(final Step step, final String itemToUse) {
+		return itemToUse == null ? step.toString() : step + " " + itemToUse;
+	}
+
+	private static int unzigzag(final int value) {
+		return value >>> 1 ^ -(value & 1);
+	}
+
+	private static int getVarInt(final ByteBuffer buffer) {
+		int value = 0;
+		for (int shift = 0;; shift += 7) {
+			final int b = buffer.get();
+			value |= (b & 0x7F) << shift;
+			if (b >= 0)
+				return value;
+		}
+	}
+}
@@ -0,0 +1,162 @@
+/*
+ * KIT Schnupperstudium Robots AIs
+ * Copyright (C) 2019  Simon Grossmann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.schnupperstudium.robots.client.ai.hidden;
+
+import java.util.Arrays;
+
+import com.github.schnupperstudium.robots.world.Material;
+import com.github.schnupperstudium.robots.world.Tile;
+
+/**
+ * A reusable buffer describing the tiles a robot sees in one turn without any {@link Tile}
+ * objects. Every tile is stored as its coordinates, its material and the
+ * {@link EntityKinds kinds} of its item and visitor in parallel primitive arrays.
+ * <br><br>
+ * The buffer keeps track of the bounding box of its tiles while they are added, so that
+ * {@link DistanceScalingMap#updateMap(VisionBuffer)} does not need another pass over them.
+ */
+final class VisionBuffer {
+
+	/**
+	 * All materials, indexed by their ordinal.
+	 */
+	private static final Material[] MATERIALS = Material.values();
+
+	private int[] xs;
+
+	private int[] ys;
+
+	private byte[] materials;
+
+	private byte[] items;
+
+	private byte[] visitors;
+
+	/**
+	 * The number of tiles in the buffer.
+	 */
+	private int size;
+
+	private int minX;
+
+	private int minY;
+
+	private int maxX;
+
+	private int maxY;
+
+	/**
+	 * Creates a new, empty {@link VisionBuffer}.
+	 */
+	VisionBuffer() {
+		this.xs = new int[64];
+		this.ys = new int[64];
+		this.materials = new byte[64];
+		this.items = new byte[64];
+		this.visitors = new byte[64];
+		this.clear();
+	}
+
+	/**
+	 * Adds a tile to the buffer.
+	 *
+	 * @param x The x coordinate of the tile.
+	 * @param y The y coordinate of the tile.
+	 * @param material The material of the tile.
+	 * @param item The {@link EntityKinds kind} of the item on the tile.
+	 * @param visitor The {@link EntityKinds kind} of the visitor on the tile.
+	 */
+	void add(final int x, final int y, final Material material, final int item, final int visitor) {
+		if (this.size == this.xs.length) {
+			final int capacity = this.size * 2;
+			this.xs = Arrays.copyOf(this.xs, capacity);
+			this.ys = Arrays.copyOf(this.ys, capacity);
+			this.materials = Arrays.copyOf(this.materials, capacity);
+			this.items = Arrays.copyOf(this.items, capacity);
+			this.visitors = Arrays.copyOf(this.visitors, capacity);
+		}
+
+		this.xs[this.size] = x;
+		this.ys[this.size] = y;
+		this.materials[this.size] = (byte) material.ordinal();
+		this.items[this.size] = (byte) item;
+		this.visitors[this.size] = (byte) visitor;
+		this.size++;
+
+		this.minX = Math.min(this.minX, x);
+		this.minY = Math.min(this.minY, y);
+		this.maxX = Math.max(this.maxX, x);
+		this.maxY = Math.max(this.maxY, y);
+	}
+
+	/**
+	 * Removes all tiles from the buffer.
+	 */
+	void clear() {
+		this.size = 0;
+		this.minX = Integer.MAX_VALUE;
+		this.minY = Integer.MAX_VALUE;
+		this.maxX = Integer.MIN_VALUE;
+		this.maxY = Integer.MIN_VALUE;
+	}
+
+	int size() {
+		return this.size;
+	}
+
+	boolean isEmpty() {
+		return this.size == 0;
+	}
+
+	int getX(final int i) {
+		return this.xs[i];
+	}
+
+	int getY(final int i) {
+		return this.ys[i];
+	}
+
+	Material getMaterial(final int i) {
+		return MATERIALS[this.materials[i]];
+	}
+
+	int getItem(final int i) {
+		return this.items[i];
+	}
+
+	int getVisitor(final int i) {
+		return this.visitors[i];
+	}
+
+	int getMinX() {
+		return this.minX;
+	}
+
+	int getMinY() {
+		return this.minY;
+	}
+
+	int getMaxX() {
+		return this.maxX;
+	}
+
+	int getMaxY() {
+		return this.maxY;
+	}
+}
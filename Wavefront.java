@@ -0,0 +1,274 @@
+/*
+ * KIT Schnupperstudium Robots AIs
+ * Copyright (C) 2019  Simon Grossmann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.schnupperstudium.robots.client.ai.hidden;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.github.schnupperstudium.robots.entity.Facing;
+
+/**
+ * A parallel relaxation of a {@link DistanceField} for grids so large that the sequential
+ * search dominates the time of a turn.
+ * <br><br>
+ * The search is level-synchronous: all tiles with the same value form the frontier of a level,
+ * which is split across the threads of the {@link ForkJoinPool#commonPool() common pool}. Every
+ * tile of the frontier offers its value plus one to its neighbors, which take it atomically if
+ * it is lower than their own value. As all threads offer the same value in a level, exactly one
+ * of them takes a neighbor into the next frontier. The sources enter the frontier of the level
+ * of their value, unless they were reached with a lower value before.
+ * <br><br>
+ * Every tile ends up with its shortest distance to the goals, which is unique, so the values
+ * are exactly the values of the sequential search.
+ * <br><br>
+ * The field only plans the paths of the robot if <code>robots.planner.facing</code> is
+ * <code>false</code>. By default the {@link FacingPlanner} plans them with a search from the
+ * robot that stops at the cheapest goal and stays sequential, so the parallel relaxation only
+ * applies to planning without facings. The {@link HierarchicalPlanner}, if enabled, plans far
+ * away goals on large grids before the field is needed. How it scales with the number of processors was not
+ * measured yet: on a single processor, splitting the frontier across 1, 2 or 4 threads of the
+ * pool was as fast as the sequential search within the noise of the measurement.
+ */
+final class Wavefront {
+
+	/**
+	 * The number of cells of the grid above which the field is relaxed in parallel.
+	 */
+	static final int PARALLEL_AREA = Integer.getInteger("robots.field.parallel.area", 1 << 18);
+
+	/**
+	 * The number of frontier tiles below which a part of the frontier is not split anymore.
+	 */
+	private static final int LEAF_TILES = 1024;
+
+	/**
+	 * The number of tiles a leaf collects before it reserves space in the next frontier.
+	 */
+	private static final int BLOCK_TILES = 256;
+
+	/**
+	 * Neighbor facings.
+	 */
+	private static final Facing[] NEIGHBOR_FACINGS = {
+			Facing.NORTH, Facing.EAST, Facing.SOUTH, Facing.WEST
+	};
+
+	/**
+	 * The {@link TileGrid grid} holding the values.
+	 */
+	private final TileGrid grid;
+
+	/**
+	 * The tiles of the current level.
+	 */
+	private int[] frontier;
+
+	/**
+	 * The tiles of the next level.
+	 */
+	private int[] next;
+
+	/**
+	 * The number of tiles of the next level.
+	 */
+	private final AtomicInteger nextSize;
+
+	/**
+	 * The block used by the leaves run on the calling thread.
+	 */
+	private final int[] block;
+
+	/**
+	 * The value of the tiles of the current level.
+	 */
+	private int level;
+
+	/**
+	 * Creates a new {@link Wavefront}.
+	 *
+	 * @param grid The grid holding the values.
+	 */
+	Wavefront(final TileGrid grid) {
+		this.grid = grid;
+		this.frontier = new int[0];
+		this.next = new int[0];
+		this.nextSize = new AtomicInteger();
+		this.block = new int[BLOCK_TILES];
+	}
+
+	/**
+	 * Relaxes the values from the given sources until no value can be lowered anymore.
+	 * The sources have to be set in the grid already.
+	 *
+	 * @param sources The sources, each packed as value and index, sorted by their value.
+	 * @param count The number of sources.
+	 * @param metrics The metrics to record the relaxation in or <code>null</code> to record nothing.
+	 */
+	void relax(final long[] sources, final int count, final PlannerMetrics metrics) {
+		final long begin = metrics != null ? System.nanoTime() : 0L;
+		final TileGrid grid = this.grid;
+		if (this.frontier.length < grid.size()) {
+			this.frontier = new int[grid.size()];
+			this.next = new int[grid.size()];
+		}
+
+		int pushes = 0;
+		int relaxations = 0;
+		int scanned = 0;
+		int size = 0;
+		int position = 0;
+		int level = 0;
+		while (size > 0 || position < count) {
+			// an empty frontier continues with the next source
+			if (size == 0)
+				level = (int) (sources[position] >>> 32);
+
+			final int[] frontier = this.frontier;
+			while (position < count && (int) (sources[position] >>> 32) == level) {
+				final int index = (int) sources[position++];
+				if (grid.getValue(index) == level)
+					frontier[size++] = index;
+			}
+
+			this.level = level;
+			this.nextSize.set(0);
+			final Expansion expansion = new Expansion(0, size);
+			if (size > LEAF_TILES) {
+				ForkJoinPool.commonPool().invoke(expansion);
+			} else {
+				expansion.expand(this.block);
+			}
+
+			pushes += expansion.pushes;
+			relaxations += expansion.relaxations;
+			scanned += size;
+
+			this.frontier = this.next;
+			this.next = frontier;
+			size = this.nextSize.get();
+			level++;
+		}
+
+		if (metrics != null) {
+			metrics.pushes += pushes;
+			metrics.relaxations += relaxations;
+			metrics.scannedTiles += scanned;
+			metrics.relaxNanos += System.nanoTime() - begin;
+		}
+	}
+
+	/**
+	 * The expansion of a part of the frontier, which is split in halves until it is small
+	 * enough.
+	 */
+	private final class Expansion extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * The position of the first tile of the part in the frontier.
+		 */
+		private final int from;
+
+		/**
+		 * The position after the last tile of the part in the frontier.
+		 */
+		private final int to;
+
+		/**
+		 * The number of tiles taken into the next frontier.
+		 */
+		private int pushes;
+
+		/**
+		 * The number of tiles taken into the next frontier that had a value before.
+		 */
+		private int relaxations;
+
+		Expansion(final int from, final int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (this.to - this.from <= LEAF_TILES) {
+				this.expand(new int[BLOCK_TILES]);
+				return;
+			}
+
+			final int middle = this.from + this.to >>> 1;
+			final Expansion left = new Expansion(this.from, middle);
+			final Expansion right = new Expansion(middle, this.to);
+			invokeAll(left, right);
+			this.pushes = left.pushes + right.pushes;
+			this.relaxations = left.relaxations + right.relaxations;
+		}
+
+		/**
+		 * Offers the value of the next level to the neighbors of the tiles of the part.
+		 *
+		 * @param block The block collecting the tiles of the next frontier.
+		 */
+		void expand(final int[] block) {
+			final TileGrid grid = Wavefront.this.grid;
+			final int[] frontier = Wavefront.this.frontier;
+			final int value = Wavefront.this.level + 1;
+			int size = 0;
+			for (int i = this.from; i < this.to; i++) {
+				final int tile = frontier[i];
+				for (final Facing facing : NEIGHBOR_FACINGS) {
+					final int neighbor = grid.neighbor(tile, facing);
+					if (neighbor == TileGrid.NO_INDEX || !grid.isPassable(neighbor))
+						continue;
+
+					final int neighborValue = grid.getValue(neighbor);
+					if (neighborValue == Integer.MAX_VALUE || neighborValue != 0 && neighborValue <= value)
+						continue;
+
+					// the other threads only offer the same value, so a failed exchange means it was taken
+					if (grid.compareAndSetValue(neighbor, neighborValue, value)) {
+						if (size == block.length) {
+							this.flush(block, size);
+							size = 0;
+						}
+						block[size++] = neighbor;
+						this.pushes++;
+						if (neighborValue != 0)
+							this.relaxations++;
+					}
+				}
+			}
+
+			this.flush(block, size);
+		}
+
+		/**
+		 * Appends the collected tiles to the next frontier.
+		 *
+		 * @param block The collected tiles.
+		 * @param size The number of collected tiles.
+		 */
+		private void flush(final int[] block, final int size) {
+			final int position = Wavefront.this.nextSize.getAndAdd(size);
+			System.arraycopy(block, 0, Wavefront.this.next, position, size);
+		}
+	}
+}